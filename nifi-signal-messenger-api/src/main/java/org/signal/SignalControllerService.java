@@ -1,6 +1,7 @@
 package org.signal;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -11,10 +12,15 @@ import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.controller.ControllerService;
 import org.signal.model.SignalAttachment;
+import org.signal.model.SignalContact;
 import org.signal.model.SignalData;
 import org.signal.model.SignalGroup;
 import org.signal.model.SignalIdentity;
+import org.signal.model.SignalOutboxResult;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
 import org.signal.model.SignalQuote;
+import org.signal.model.SignalSubscription;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -30,6 +36,17 @@ public interface SignalControllerService extends ControllerService {
 							Optional<SignalQuote> quote,
 							Optional<SignalAttachment> attachment) throws IOException, UnsupportedOperationException, ExecutionException;
 
+	/**
+	 * Sends the message with the given priority. If the service queues sends, queued sends of a higher priority go first
+	 */
+	public JsonElement sendMessage(String account, 
+							String message, 
+							Optional<List<String>> recipients,
+							Optional<List<String>> groups,
+							Optional<SignalQuote> quote,
+							Optional<SignalAttachment> attachment,
+							SignalPriority priority) throws IOException, UnsupportedOperationException, ExecutionException;
+
 	public JsonElement sendReaction(String account, 
 							Optional<List<String>> recipients, 
 							Optional<List<String>> group, 
@@ -43,11 +60,84 @@ public interface SignalControllerService extends ControllerService {
 			Optional<List<String>> groups,
 			long timestmap) throws IOException, UnsupportedOperationException, ExecutionException;
 	
+	/**
+	 * Appends the message to the outbox and returns as soon as it is stored on disk. 
+	 * The message is sent in the background and the outcome is reported to the outbox listeners. 
+	 * Messages are sent at least once, a message may be sent again if the service is stopped while it is being sent
+	 * @param message
+	 * @return id of the queued message, also set on the {@link SignalOutboxResult}
+	 * @throws IOException if the message could not be stored
+	 * @throws UnsupportedOperationException if the outbox is not enabled
+	 */
+	public String enqueueMessage(SignalOutgoingMessage message) throws IOException, UnsupportedOperationException;
+
+	/**
+	 * Queues the message in the outbox to be sent at the given time, see {@link #enqueueMessage(SignalOutgoingMessage)}.
+	 * The message is stored in the outbox until it is due, so it is sent even if the service is restarted in between
+	 * @param message
+	 * @param sendAtMillis time to send the message at, in milliseconds since the epoch. Sent right away if not in the future
+	 * @return id of the queued message, also set on the {@link SignalOutboxResult}
+	 * @throws IOException if the message could not be stored
+	 * @throws UnsupportedOperationException if the outbox is not enabled
+	 */
+	public String scheduleMessage(SignalOutgoingMessage message, long sendAtMillis) throws IOException, UnsupportedOperationException;
+
+	/**
+	 * @return true if the outbox is configured, see {@link #enqueueMessage(SignalOutgoingMessage)}
+	 */
+	public boolean isOutboxEnabled();
+
+	/**
+	 * Results produced while no listener was added are kept (up to a limit) and passed to the first listener added
+	 * @param listener
+	 */
+	public void addOutboxListener(Consumer<SignalOutboxResult> listener);
+
+	public void removeOutboxListener(Consumer<SignalOutboxResult> listener);
+
 	public void addMessageListener(Consumer<SignalData> messageListener);
 
+	/**
+	 * Adds a listener that is only passed the data matching the subscription. Listeners are indexed by 
+	 * their subscriptions, so received data is passed to the matching listeners without checking each listener
+	 * @param messageListener
+	 * @param subscription
+	 */
+	public void addMessageListener(Consumer<SignalData> messageListener, SignalSubscription subscription);
+
 	public void removeMessageListener(Consumer<SignalData> messageListener);
 
+	/**
+	 * 
+	 * @param account
+	 * @return {@link Map} with number mapped with {@link SignalIdentity}. Identities without a number are left out, see {@link #getIdentity(String, String)}
+	 * @throws UnsupportedOperationException
+	 * @throws IOException
+	 * @throws ExecutionException
+	 */
 	public Map<String, SignalIdentity> getIdentities(String account) throws UnsupportedOperationException, IOException, ExecutionException;
+
+	/**
+	 * Looks up a cached identity by either number or UUID
+	 * @param account
+	 * @param numberOrUuid
+	 * @return the identity, or empty if it is not known by the account
+	 * @throws UnsupportedOperationException
+	 * @throws IOException
+	 * @throws ExecutionException
+	 */
+	public Optional<SignalIdentity> getIdentity(String account, String numberOrUuid) throws UnsupportedOperationException, IOException, ExecutionException;
+
+	/**
+	 * Looks up a cached contact by either number or UUID
+	 * @param account
+	 * @param numberOrUuid
+	 * @return the contact, or empty if it is not known by the account
+	 * @throws UnsupportedOperationException
+	 * @throws IOException
+	 * @throws ExecutionException
+	 */
+	public Optional<SignalContact> getContact(String account, String numberOrUuid) throws UnsupportedOperationException, IOException, ExecutionException;
 	/**
 	 * 
 	 * @param account
@@ -58,10 +148,46 @@ public interface SignalControllerService extends ControllerService {
 	 */
 	public Map<String, SignalGroup> getGroups(String account) throws UnsupportedOperationException, IOException, ExecutionException;
 
+	/**
+	 * Checks if the recipients are registered on Signal. Known recipients are answered from a cache, 
+	 * the rest are looked up using one request per batch.
+	 * @param account
+	 * @param recipients
+	 * @return recipient mapped to true if registered, false if not. Recipients that could not be resolved are left out
+	 * @throws UnsupportedOperationException
+	 * @throws IOException
+	 */
+	public Map<String, Boolean> getRegistrationStatus(String account, Collection<String> recipients) throws UnsupportedOperationException, IOException;
+
 	/**
 	 * @return null if not connected to the endpoint
 	 */
 	public String getSignalVersion();
+
+	/**
+	 * The service is enabled without waiting for the daemon, processors can check the state to yield instead of failing
+	 * @return the connection state of the service
+	 */
+	public SignalServiceState getState();
+
+	/**
+	 * @return the accounts (numbers) registered or linked in the daemon
+	 * @throws UnsupportedOperationException
+	 * @throws IOException
+	 */
+	public List<String> getAccounts() throws UnsupportedOperationException, IOException;
+
+	/**
+	 * @param account
+	 * @return share of the send rate limit of the account left right now, from 0 (no sends left) to 1 (full burst left).
+	 * 1 if sends are not rate limited
+	 */
+	public double getSendHeadroom(String account);
+
+	/**
+	 * @return a snapshot of the service metrics, mapped by metric name
+	 */
+	public Map<String, Number> getMetrics();
 	
 	public JsonElement sendJsonRpc(String method, JsonObject params) throws UnsupportedOperationException, IOException; 	
 	public JsonElement sendJsonRpc(String method, Map<String, String> params) throws UnsupportedOperationException, IOException;
@@ -0,0 +1,19 @@
+package org.signal;
+
+/**
+ * Classification of errors returned by the signal-cli daemon
+ */
+public enum SignalErrorType {
+	/** Signal servers, or the send rate limit of the service, rejected the request. Transient */
+	RATE_LIMITED,
+	/** The identity of a recipient is not trusted */
+	UNTRUSTED_IDENTITY,
+	/** A recipient is not registered on Signal */
+	UNREGISTERED,
+	/** The daemon could not be reached, or the daemon could not reach the Signal servers. Transient */
+	TRANSPORT,
+	/** Invalid method, parameters or account */
+	INVALID_REQUEST,
+	/** Any other error reported by the daemon */
+	UNKNOWN;
+}
@@ -0,0 +1,12 @@
+package org.signal;
+
+/**
+ * Thrown when the daemon rejects the request, e.g. unknown method, invalid parameters or an account that does not exist
+ */
+public class SignalInvalidRequestException extends SignalRpcException {
+	private static final long serialVersionUID = 1L;
+
+	public SignalInvalidRequestException(String message, long code) {
+		super(message, SignalErrorType.INVALID_REQUEST, code);
+	}
+}
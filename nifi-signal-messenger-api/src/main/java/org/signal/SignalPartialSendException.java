@@ -0,0 +1,18 @@
+package org.signal;
+
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Thrown when a send split into batches of recipients was sent to some of the batches only. The
+ * recipients of the batches that were sent must not be sent to again, only the failed recipients.
+ * The type and code are those of the first failed batch.
+ */
+public class SignalPartialSendException extends SignalRpcException {
+	private static final long serialVersionUID = 1L;
+
+	public SignalPartialSendException(String message, SignalErrorType type, long code, List<String> failedRecipients, JsonElement result, Throwable cause) {
+		super(message, type, code, failedRecipients, result, cause);
+	}
+}
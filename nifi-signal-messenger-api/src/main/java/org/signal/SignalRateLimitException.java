@@ -0,0 +1,38 @@
+package org.signal;
+
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Thrown when a send is rejected by the send rate limit of the service, 
+ * or when the Signal servers rate limit the account
+ */
+public class SignalRateLimitException extends SignalRpcException {
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterMillis;
+
+	public SignalRateLimitException(String message, long retryAfterMillis) {
+		this(message, NO_CODE, retryAfterMillis, null);
+	}
+
+	public SignalRateLimitException(String message, long code, long retryAfterMillis, List<String> failedRecipients) {
+		this(message, code, retryAfterMillis, failedRecipients, null);
+	}
+
+	/**
+	 * @param result of the send when it was sent to the recipients that were not rate limited
+	 */
+	public SignalRateLimitException(String message, long code, long retryAfterMillis, List<String> failedRecipients, JsonElement result) {
+		super(message, SignalErrorType.RATE_LIMITED, code, failedRecipients, result, null);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * @return how long to wait before the send could be accepted, in milliseconds. -1 if unknown
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+}
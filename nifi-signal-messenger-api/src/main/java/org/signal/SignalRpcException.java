@@ -0,0 +1,70 @@
+package org.signal;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Error reported by the signal-cli daemon, or when talking to it. Extends {@link UnsupportedOperationException} 
+ * which is what the service has always thrown for failed requests.
+ */
+public class SignalRpcException extends UnsupportedOperationException {
+	private static final long serialVersionUID = 1L;
+
+	public static final long NO_CODE = 0;
+
+	private final SignalErrorType type;
+	private final long code;
+	private final List<String> failedRecipients;
+	private final transient JsonElement result;
+
+	public SignalRpcException(String message, SignalErrorType type, long code) {
+		this(message, type, code, Collections.emptyList(), null);
+	}
+
+	public SignalRpcException(String message, SignalErrorType type, long code, List<String> failedRecipients, Throwable cause) {
+		this(message, type, code, failedRecipients, null, cause);
+	}
+
+	public SignalRpcException(String message, SignalErrorType type, long code, List<String> failedRecipients, JsonElement result, Throwable cause) {
+		super(message, cause);
+		this.type = type;
+		this.code = code;
+		this.failedRecipients = failedRecipients == null ? Collections.emptyList() : Collections.unmodifiableList(failedRecipients);
+		this.result = result;
+	}
+
+	public SignalErrorType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the JSON-RPC error code, or the HTTP status for transport errors. {@link #NO_CODE} if none
+	 */
+	public long getCode() {
+		return code;
+	}
+
+	/**
+	 * @return the recipients the daemon reported as failed, empty if not reported
+	 */
+	public List<String> getFailedRecipients() {
+		return failedRecipients;
+	}
+
+	/**
+	 * @return the result of the send when the message was sent to the other recipients, with the timestamp 
+	 * and the results per recipient. Null if it was not sent to anyone, or not reported by the daemon
+	 */
+	public JsonElement getResult() {
+		return result;
+	}
+
+	/**
+	 * @return true if the same request may succeed if tried again later
+	 */
+	public boolean isTransient() {
+		return type == SignalErrorType.RATE_LIMITED || type == SignalErrorType.TRANSPORT;
+	}
+}
@@ -0,0 +1,13 @@
+package org.signal;
+
+/**
+ * Connection state of an enabled Signal service
+ */
+public enum SignalServiceState {
+	/** The daemon has not answered since the service was enabled, requests are likely to fail */
+	CONNECTING,
+	/** The daemon answers and messages are received */
+	READY,
+	/** The daemon has answered, but the event stream is down so no messages are received. Requests are still sent */
+	DEGRADED;
+}
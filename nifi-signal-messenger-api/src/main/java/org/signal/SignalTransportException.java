@@ -0,0 +1,24 @@
+package org.signal;
+
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Thrown when the daemon can not be reached or responds with an unexpected HTTP status, 
+ * or when the daemon could not reach the Signal servers
+ */
+public class SignalTransportException extends SignalRpcException {
+	private static final long serialVersionUID = 1L;
+
+	public SignalTransportException(String message, long code, List<String> failedRecipients, Throwable cause) {
+		super(message, SignalErrorType.TRANSPORT, code, failedRecipients, cause);
+	}
+
+	/**
+	 * @param result of the send when it was sent to the recipients the daemon could reach
+	 */
+	public SignalTransportException(String message, long code, List<String> failedRecipients, JsonElement result, Throwable cause) {
+		super(message, SignalErrorType.TRANSPORT, code, failedRecipients, result, cause);
+	}
+}
@@ -0,0 +1,20 @@
+package org.signal;
+
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Thrown when a recipient is not registered on Signal
+ */
+public class SignalUnregisteredException extends SignalRpcException {
+	private static final long serialVersionUID = 1L;
+
+	public SignalUnregisteredException(String message, long code, List<String> failedRecipients) {
+		this(message, code, failedRecipients, null);
+	}
+
+	public SignalUnregisteredException(String message, long code, List<String> failedRecipients, JsonElement result) {
+		super(message, SignalErrorType.UNREGISTERED, code, failedRecipients, result, null);
+	}
+}
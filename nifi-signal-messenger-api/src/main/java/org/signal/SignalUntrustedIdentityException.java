@@ -0,0 +1,14 @@
+package org.signal;
+
+import java.util.List;
+
+/**
+ * Thrown when the identity of a recipient is not trusted, the message was not sent to that recipient
+ */
+public class SignalUntrustedIdentityException extends SignalRpcException {
+	private static final long serialVersionUID = 1L;
+
+	public SignalUntrustedIdentityException(String message, long code, List<String> failedRecipients) {
+		super(message, SignalErrorType.UNTRUSTED_IDENTITY, code, failedRecipients, null);
+	}
+}
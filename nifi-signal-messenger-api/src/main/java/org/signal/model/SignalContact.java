@@ -0,0 +1,71 @@
+package org.signal.model;
+
+import com.google.gson.annotations.SerializedName;
+
+public class SignalContact {
+	@SerializedName("number")
+	private String number;
+
+	@SerializedName("uuid")
+	private String uuid;
+
+	@SerializedName("username")
+	private String username;
+
+	@SerializedName("name")
+	private String name;
+
+	@SerializedName("isBlocked")
+	private boolean blocked;
+
+	@SerializedName("profile")
+	private SignalProfile profile;
+
+	@Override
+	public String toString() {
+		return String.format("%s (%s)", getDisplayName(), getNumber());
+	}
+
+	public String getNumber() {
+		return number;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isBlocked() {
+		return blocked;
+	}
+
+	public SignalProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the contact name if set, otherwise the profile name or the username. null if none is known
+	 */
+	public String getDisplayName() {
+		if(name != null && !name.isBlank())
+			return name;
+
+		if(profile != null) {
+			String profileName = profile.getFullName();
+			if(profileName != null)
+				return profileName;
+		}
+
+		if(username != null && !username.isBlank())
+			return username;
+
+		return null;
+	}
+}
@@ -9,6 +9,7 @@ public class SignalData {
 	private String groupId = null;
 	private String groupName;
 	private String sourceUuid;
+	private String trustLevel;
 	
 	public String getAccount() {
 		return account;
@@ -64,4 +65,15 @@ public class SignalData {
 	public String getSourceUuid() {
 		return sourceUuid;
 	}
+	
+	/**
+	 * @return trust level of the sender identity if the service already resolved it, null otherwise
+	 */
+	public String getTrustLevel() {
+		return trustLevel;
+	}
+	
+	public void setTrustLevel(String trustLevel) {
+		this.trustLevel = trustLevel;
+	}
 }
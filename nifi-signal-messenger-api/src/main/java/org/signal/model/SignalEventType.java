@@ -0,0 +1,20 @@
+package org.signal.model;
+
+/**
+ * Kinds of received {@link SignalData}
+ */
+public enum SignalEventType {
+	MESSAGE,
+	REACTION;
+
+	/**
+	 * @return the type of the data, null if it is of no known type
+	 */
+	public static SignalEventType of(SignalData data) {
+		if(data instanceof SignalMessage)
+			return MESSAGE;
+		if(data instanceof SignalReaction)
+			return REACTION;
+		return null;
+	}
+}
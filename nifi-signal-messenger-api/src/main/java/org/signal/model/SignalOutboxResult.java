@@ -0,0 +1,79 @@
+package org.signal.model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Outcome of a message sent from the outbox of the service
+ */
+public class SignalOutboxResult {
+	private String id;
+	private String account;
+	private boolean success;
+	private long timestamp;
+	private int attempts;
+	private String errorType;
+	private String errorMessage;
+	private Map<String, String> attributes;
+
+	private SignalOutboxResult(String id, String account, boolean success, long timestamp, int attempts, String errorType, String errorMessage, Map<String, String> attributes) {
+		this.id = Objects.requireNonNull(id);
+		this.account = account;
+		this.success = success;
+		this.timestamp = timestamp;
+		this.attempts = attempts;
+		this.errorType = errorType;
+		this.errorMessage = errorMessage;
+		this.attributes = attributes == null ? Collections.emptyMap() : attributes;
+	}
+
+	public static SignalOutboxResult sent(String id, String account, long timestamp, int attempts, Map<String, String> attributes) {
+		return new SignalOutboxResult(id, account, true, timestamp, attempts, null, null, attributes);
+	}
+
+	public static SignalOutboxResult failed(String id, String account, int attempts, String errorType, String errorMessage, Map<String, String> attributes) {
+		return new SignalOutboxResult(id, account, false, 0, attempts, errorType, errorMessage, attributes);
+	}
+
+	/**
+	 * @return id returned when the message was queued
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public String getAccount() {
+		return account;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * @return timestamp of the sent message, 0 if not sent
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public String getErrorType() {
+		return errorType;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return the attributes of the queued message
+	 */
+	public Map<String, String> getAttributes() {
+		return attributes;
+	}
+}
@@ -0,0 +1,88 @@
+package org.signal.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A message queued in the outbox of the service, sent in the background
+ */
+public class SignalOutgoingMessage {
+	private String account;
+	private String message;
+	private List<String> recipients;
+	private List<String> groups;
+	private SignalQuote quote;
+	private SignalAttachment attachment;
+	private Map<String, String> attributes;
+	private SignalPriority priority;
+
+	/**
+	 * @param attributes passed back unchanged with the {@link SignalOutboxResult}, e.g. to correlate the result with the source
+	 */
+	public SignalOutgoingMessage(String account,
+			String message,
+			Optional<List<String>> recipients,
+			Optional<List<String>> groups,
+			Optional<SignalQuote> quote,
+			Optional<SignalAttachment> attachment,
+			Map<String, String> attributes) {
+		this(account, message, recipients, groups, quote, attachment, attributes, SignalPriority.NORMAL);
+	}
+
+	/**
+	 * @param attributes passed back unchanged with the {@link SignalOutboxResult}, e.g. to correlate the result with the source
+	 * @param priority of the send, compared to other sends of the service
+	 */
+	public SignalOutgoingMessage(String account,
+			String message,
+			Optional<List<String>> recipients,
+			Optional<List<String>> groups,
+			Optional<SignalQuote> quote,
+			Optional<SignalAttachment> attachment,
+			Map<String, String> attributes,
+			SignalPriority priority) {
+		this.account = Objects.requireNonNull(account);
+		this.message = message;
+		this.recipients = recipients.orElse(Collections.emptyList());
+		this.groups = groups.orElse(Collections.emptyList());
+		this.quote = quote.orElse(null);
+		this.attachment = attachment.orElse(null);
+		this.attributes = attributes == null ? Collections.emptyMap() : attributes;
+		this.priority = priority == null ? SignalPriority.NORMAL : priority;
+	}
+
+	public String getAccount() {
+		return account;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public Optional<List<String>> getRecipients() {
+		return recipients.isEmpty() ? Optional.empty() : Optional.of(recipients);
+	}
+
+	public Optional<List<String>> getGroups() {
+		return groups.isEmpty() ? Optional.empty() : Optional.of(groups);
+	}
+
+	public Optional<SignalQuote> getQuote() {
+		return Optional.ofNullable(quote);
+	}
+
+	public Optional<SignalAttachment> getAttachment() {
+		return Optional.ofNullable(attachment);
+	}
+
+	public Map<String, String> getAttributes() {
+		return attributes;
+	}
+
+	public SignalPriority getPriority() {
+		return priority;
+	}
+}
@@ -0,0 +1,26 @@
+package org.signal.model;
+
+/**
+ * Priority of a send. Queued sends of a higher priority go before those of a lower priority
+ */
+public enum SignalPriority {
+	HIGH,
+	NORMAL,
+	LOW;
+
+	/**
+	 * @param value name of the priority, in any case
+	 * @return {@link #NORMAL} if the value is null or blank
+	 * @throws IllegalArgumentException if the value is not a priority
+	 */
+	public static SignalPriority parse(String value) {
+		if(value == null || value.isBlank())
+			return NORMAL;
+
+		for (SignalPriority priority : values()) {
+			if(priority.name().equalsIgnoreCase(value.trim()))
+				return priority;
+		}
+		throw new IllegalArgumentException("Unknown priority: " + value.trim() + ", expected one of high, normal or low");
+	}
+}
@@ -0,0 +1,50 @@
+package org.signal.model;
+
+import com.google.gson.annotations.SerializedName;
+
+public class SignalProfile {
+	@SerializedName("givenName")
+	private String givenName;
+
+	@SerializedName("familyName")
+	private String familyName;
+
+	@SerializedName("about")
+	private String about;
+
+	@SerializedName("lastUpdateTimestamp")
+	private long lastUpdateTimestamp;
+
+	public String getGivenName() {
+		return givenName;
+	}
+
+	public String getFamilyName() {
+		return familyName;
+	}
+
+	public String getAbout() {
+		return about;
+	}
+
+	public long getLastUpdateTimestamp() {
+		return lastUpdateTimestamp;
+	}
+
+	/**
+	 * @return given and family name joined with space, null if both are empty
+	 */
+	public String getFullName() {
+		StringBuilder builder = new StringBuilder();
+		if(givenName != null && !givenName.isBlank())
+			builder.append(givenName.trim());
+
+		if(familyName != null && !familyName.isBlank()) {
+			if(builder.length() > 0)
+				builder.append(' ');
+			builder.append(familyName.trim());
+		}
+
+		return builder.length() == 0 ? null : builder.toString();
+	}
+}
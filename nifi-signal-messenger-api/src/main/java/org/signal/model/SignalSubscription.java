@@ -0,0 +1,103 @@
+package org.signal.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Describes which received data a message listener wants. The service only passes matching data
+ * to the listener, so the listener does not have to filter. An empty set of accounts, groups or
+ * event types matches all of them.
+ */
+public final class SignalSubscription {
+	private static final SignalSubscription ALL = new SignalSubscription(Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), false);
+
+	private final Set<String> accounts;
+	private final Set<String> groupIds;
+	private final Set<SignalEventType> eventTypes;
+	private final boolean trustedSendersOnly;
+
+	private SignalSubscription(Set<String> accounts, Set<String> groupIds, Set<SignalEventType> eventTypes, boolean trustedSendersOnly) {
+		this.accounts = accounts;
+		this.groupIds = groupIds;
+		this.eventTypes = eventTypes;
+		this.trustedSendersOnly = trustedSendersOnly;
+	}
+
+	/**
+	 * @return subscription to everything received
+	 */
+	public static SignalSubscription all() {
+		return ALL;
+	}
+
+	/**
+	 * @param accounts only data received by these accounts
+	 */
+	public SignalSubscription forAccounts(Collection<String> accounts) {
+		return new SignalSubscription(copy(accounts), groupIds, eventTypes, trustedSendersOnly);
+	}
+
+	/**
+	 * @param groupIds only data sent to these groups, data sent directly to the account is left out
+	 */
+	public SignalSubscription forGroups(Collection<String> groupIds) {
+		return new SignalSubscription(accounts, copy(groupIds), eventTypes, trustedSendersOnly);
+	}
+
+	public SignalSubscription forEventTypes(Collection<SignalEventType> eventTypes) {
+		Set<SignalEventType> types = eventTypes.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(eventTypes));
+		return new SignalSubscription(accounts, groupIds, types, trustedSendersOnly);
+	}
+
+	/**
+	 * Only data from senders with a trusted identity, see {@link SignalIdentity#getTrustLevel()}
+	 */
+	public SignalSubscription trustedSendersOnly() {
+		return new SignalSubscription(accounts, groupIds, eventTypes, true);
+	}
+
+	private static Set<String> copy(Collection<String> values) {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(Objects.requireNonNull(values)));
+	}
+
+	public Set<String> getAccounts() {
+		return accounts;
+	}
+
+	public Set<String> getGroupIds() {
+		return groupIds;
+	}
+
+	public Set<SignalEventType> getEventTypes() {
+		return eventTypes;
+	}
+
+	public boolean isTrustedSendersOnly() {
+		return trustedSendersOnly;
+	}
+
+	/**
+	 * @param trusted resolves if the sender is trusted, only called if required
+	 * @return true if the data matches the subscription
+	 */
+	public boolean matches(SignalData data, BooleanSupplier trusted) {
+		if(!accounts.isEmpty() && !accounts.contains(data.getAccount()))
+			return false;
+		if(!groupIds.isEmpty() && (data.getGroupId() == null || !groupIds.contains(data.getGroupId())))
+			return false;
+		if(!eventTypes.isEmpty() && !eventTypes.contains(SignalEventType.of(data)))
+			return false;
+		return !trustedSendersOnly || trusted.getAsBoolean();
+	}
+
+	@Override
+	public String toString() {
+		return "SignalSubscription [accounts=" + accounts + ", groupIds=" + groupIds + ", eventTypes=" + eventTypes
+				+ ", trustedSendersOnly=" + trustedSendersOnly + "]";
+	}
+}
@@ -0,0 +1,158 @@
+package org.signal;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests to the daemon at the same time, adjusting the limit to the
+ * latency of the daemon by additive increase, multiplicative decrease (AIMD). While requests
+ * answer within the tolerance of the lowest latency seen, and the limit is in use, the limit grows
+ * by about one each round trip. When a request is slower than that, or fails, the limit shrinks
+ * by the backoff ratio, once per round trip: the requests that were in flight when it shrank do
+ * not shrink it again, since a burst of slow answers tells of one overload, not of many.
+ * Requests above the limit wait until a request in flight is done.
+ * <p>
+ * The lowest latency is measured over a window of requests and taken again for each window,
+ * so the limit follows a daemon that becomes slower for good.
+ */
+final class AdaptiveConcurrencyLimit {
+	static final String METRIC_LIMIT = "concurrency.limit";
+	static final String METRIC_IN_FLIGHT = "concurrency.inflight";
+	static final String METRIC_QUEUED = "concurrency.queued";
+	static final String METRIC_DECREASES = "concurrency.decreases";
+
+	private static final double BACKOFF_RATIO = 0.9;
+	private static final double TOLERANCE = 2.0;
+	private static final int WINDOW = 500;
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private double limit;
+	private int inFlight = 0;
+	private int queued = 0;
+	// Number of requests acquired so far, and when the limit last shrank
+	private long acquired = 0;
+	private long lastDecrease = 0;
+
+	private long baselineNanos = Long.MAX_VALUE;
+	private long windowMinNanos = Long.MAX_VALUE;
+	private int windowSamples = 0;
+
+	private final LongAdder decreases = new LongAdder();
+
+	/**
+	 * @param initialLimit number of requests at the same time to start with
+	 * @param minLimit the limit never shrinks below
+	 * @param maxLimit the limit never grows above
+	 */
+	AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		if(minLimit < 1 || maxLimit < minLimit)
+			throw new IllegalArgumentException("Invalid limits, min " + minLimit + " max " + maxLimit);
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a request may be sent, {@link #release(long, long, boolean)} must be called when it is done
+	 * @return the order of the request, to give back on release
+	 * @throws InterruptedIOException if interrupted while waiting, the caller may not send then
+	 */
+	long acquire() throws InterruptedIOException {
+		lock.lock();
+		try {
+			if(inFlight >= (int) limit) {
+				queued++;
+				try {
+					while(inFlight >= (int) limit)
+						available.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the concurrency limit");
+				} finally {
+					queued--;
+				}
+			}
+			inFlight++;
+			return ++acquired;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param request the order of the request, as given by {@link #acquire()}
+	 * @param latencyNanos how long the request took
+	 * @param dropped true if the request failed in a way that signals overload, like a timeout or a server error
+	 */
+	void release(long request, long latencyNanos, boolean dropped) {
+		lock.lock();
+		try {
+			// Whether the request was sent while the limit was in use, before it is released
+			boolean limited = inFlight * 2 >= limit;
+			inFlight--;
+
+			if(!dropped) {
+				windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+				if(baselineNanos == Long.MAX_VALUE)
+					baselineNanos = latencyNanos;
+				if(++windowSamples >= WINDOW) {
+					baselineNanos = windowMinNanos;
+					windowMinNanos = Long.MAX_VALUE;
+					windowSamples = 0;
+				}
+				baselineNanos = Math.min(baselineNanos, latencyNanos);
+			}
+
+			double previous = limit;
+			if(dropped || latencyNanos > baselineNanos * TOLERANCE) {
+				// Sent before the last decrease, so already accounted for
+				if(request > lastDecrease) {
+					limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+					lastDecrease = acquired;
+					if((int) limit < (int) previous)
+						decreases.increment();
+				}
+			} else if(limited) {
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+
+			// One request is done, and the limit may have grown
+			if((int) limit > (int) previous)
+				available.signalAll();
+			else if(inFlight < (int) limit)
+				available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void snapshot(Map<String, Number> target) {
+		lock.lock();
+		try {
+			target.put(METRIC_LIMIT, (int) limit);
+			target.put(METRIC_IN_FLIGHT, inFlight);
+			target.put(METRIC_QUEUED, queued);
+			target.put("concurrency.baseline.ms", baselineNanos == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(baselineNanos));
+		} finally {
+			lock.unlock();
+		}
+		target.put(METRIC_DECREASES, decreases.sum());
+	}
+}
@@ -0,0 +1,113 @@
+package org.signal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+
+/**
+ * Per account statistics for one of the account caches (groups, identities, contacts). 
+ * Guava only records statistics for the cache as a whole, the caches are keyed by account 
+ * so hits, loads and evictions are counted here for each account as well.
+ */
+final class CacheMetrics<V> {
+	
+	private final String name;
+	private final ToIntFunction<V> entries;
+	private final Map<String, AccountStats> accounts = new ConcurrentHashMap<>();
+
+	private static final class AccountStats {
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder loads = new LongAdder();
+		private final LongAdder loadFailures = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+		private final LatencyRecorder loadLatency = new LatencyRecorder(256);
+	}
+
+	/**
+	 * @param name used in the metric names
+	 * @param entries counts the entries in a cached value
+	 */
+	CacheMetrics(String name, ToIntFunction<V> entries) {
+		this.name = name;
+		this.entries = entries;
+	}
+
+	private AccountStats stats(String account) {
+		return accounts.computeIfAbsent(account, a -> new AccountStats());
+	}
+
+	/**
+	 * Gets the value from the cache and records if it was a hit or a miss
+	 */
+	V get(LoadingCache<String, V> cache, String account) throws ExecutionException {
+		// Peeking through the map view does not affect the statistics kept by the cache itself
+		if(cache.asMap().containsKey(account)) {
+			stats(account).hits.increment();
+		} else {
+			stats(account).misses.increment();
+		}
+
+		return cache.get(account);
+	}
+
+	CacheLoader<String, V> instrument(CacheLoader<String, V> loader) {
+		return new CacheLoader<>() {
+			@Override
+			public V load(String account) throws Exception {
+				AccountStats stats = stats(account);
+				long start = System.nanoTime();
+				try {
+					V value = loader.load(account);
+					stats.loads.increment();
+					return value;
+				} catch (Exception e) {
+					stats.loadFailures.increment();
+					throw e;
+				} finally {
+					stats.loadLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				}
+			}
+		};
+	}
+
+	RemovalListener<String, V> removalListener() {
+		return notification -> {
+			if(notification.wasEvicted() && notification.getKey() != null)
+				stats(notification.getKey()).evictions.increment();
+		};
+	}
+
+	void snapshot(LoadingCache<String, V> cache, Map<String, Number> target) {
+		String prefix = "cache." + name;
+		
+		if(cache != null) {
+			CacheStats stats = cache.stats();
+			target.put(prefix + ".hitRate", stats.hitRate());
+			target.put(prefix + ".evictions", stats.evictionCount());
+			target.put(prefix + ".loadFailures", stats.loadExceptionCount());
+			target.put(prefix + ".accounts", cache.size());
+		}
+
+		accounts.forEach((account, stats) -> {
+			String accountPrefix = prefix + "." + account;
+			target.put(accountPrefix + ".hits", stats.hits.sum());
+			target.put(accountPrefix + ".misses", stats.misses.sum());
+			target.put(accountPrefix + ".loads", stats.loads.sum());
+			target.put(accountPrefix + ".loadFailures", stats.loadFailures.sum());
+			target.put(accountPrefix + ".evictions", stats.evictions.sum());
+			stats.loadLatency.snapshot(accountPrefix + ".load", target);
+
+			V value = cache == null ? null : cache.asMap().get(account);
+			target.put(accountPrefix + ".entries", value == null ? 0 : entries.applyAsInt(value));
+		});
+	}
+}
@@ -0,0 +1,35 @@
+package org.signal;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponentially growing delays with jitter. Half of the delay is fixed and half is random, 
+ * so the delay always grows while concurrent callers are spread out.
+ */
+final class ExponentialBackoff {
+	private final long initialMillis;
+	private final long maxMillis;
+
+	ExponentialBackoff(long initialMillis, long maxMillis) {
+		this.initialMillis = Math.max(1, initialMillis);
+		this.maxMillis = Math.max(this.initialMillis, maxMillis);
+	}
+
+	/**
+	 * @param attempt 0 for the first delay
+	 * @return delay in milliseconds, between half and all of min(max, initial * 2^attempt)
+	 */
+	long getDelayMillis(int attempt) {
+		int shift = Math.max(0, Math.min(attempt, 30));
+		long cap = initialMillis << shift;
+		if(cap <= 0 || cap > maxMillis)
+			cap = maxMillis;
+
+		long half = cap / 2;
+		return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+	}
+
+	long getMaxMillis() {
+		return maxMillis;
+	}
+}
@@ -0,0 +1,71 @@
+package org.signal;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Keeps the most recent latency samples in a ring buffer so that percentiles 
+ * can be calculated when metrics are requested.
+ */
+final class LatencyRecorder {
+	private static final int DEFAULT_SAMPLES = 1_024;
+
+	private final long[] samples;
+	private int next = 0;
+	private int size = 0;
+	private long count = 0;
+	private long total = 0;
+	private long max = 0;
+
+	LatencyRecorder() {
+		this(DEFAULT_SAMPLES);
+	}
+
+	LatencyRecorder(int maxSamples) {
+		this.samples = new long[maxSamples];
+	}
+
+	synchronized void record(long millis) {
+		samples[next] = millis;
+		next = (next + 1) % samples.length;
+		size = Math.min(size + 1, samples.length);
+		count++;
+		total += millis;
+		max = Math.max(max, millis);
+	}
+
+	synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Adds count, average, p50, p95, p99 and max (in milliseconds) to the target map, 
+	 * using the prefix and a dot before each metric name.
+	 */
+	void snapshot(String prefix, Map<String, Number> target) {
+		long[] sorted;
+		long count, total, max;
+		synchronized (this) {
+			sorted = Arrays.copyOf(samples, size);
+			count = this.count;
+			total = this.total;
+			max = this.max;
+		}
+		Arrays.sort(sorted);
+
+		target.put(prefix + ".count", count);
+		target.put(prefix + ".avg.ms", count == 0 ? 0 : total / count);
+		target.put(prefix + ".p50.ms", percentile(sorted, 0.50));
+		target.put(prefix + ".p95.ms", percentile(sorted, 0.95));
+		target.put(prefix + ".p99.ms", percentile(sorted, 0.99));
+		target.put(prefix + ".max.ms", max);
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		if(sorted.length == 0)
+			return 0;
+
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+}
@@ -0,0 +1,258 @@
+package org.signal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Append-only log of the outbox, one JSON record per line. A single writer thread
+ * writes all records waiting at the same time and commits them with one fsync (group commit),
+ * so concurrent appends share the cost of the sync. The log is compacted when most of
+ * its records are for messages that are done.
+ */
+final class OutboxLog implements Closeable {
+	static final String OP_ADD = "add";
+	static final String OP_DONE = "done";
+
+	private static final int MAX_BATCH = 1_024;
+	private static final int COMPACT_THRESHOLD = 10_000;
+
+	private final Path file;
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+	private final Object lock = new Object();
+
+	// Added records of messages that are not done, only used by the writer thread once opened
+	private final Map<String, JsonObject> live = new LinkedHashMap<>();
+
+	private final LatencyRecorder commitLatency = new LatencyRecorder();
+	private final LongAdder commits = new LongAdder();
+	private final LongAdder records = new LongAdder();
+
+	private FileChannel channel;
+	private Thread writer;
+	private boolean closed = false;
+	private int recordsSinceCompaction = 0;
+
+	private static final class Append {
+		private final JsonObject record;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private Append(JsonObject record) {
+			this.record = record;
+		}
+	}
+
+	OutboxLog(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads and compacts the log, then starts the writer
+	 * @return the added records of messages that are not done, in the order they were added
+	 */
+	List<JsonObject> open() throws IOException {
+		if(Files.exists(file)) {
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				JsonObject record;
+				try {
+					record = JsonParser.parseString(line).getAsJsonObject();
+				} catch (RuntimeException e) {
+					// Torn write of the last batch before a crash, it was never acknowledged
+					continue;
+				}
+				apply(record);
+			}
+		}
+
+		compact();
+
+		writer = new Thread(this::writeLoop, "SignalOutboxLog");
+		writer.setDaemon(true);
+		writer.start();
+
+		return new ArrayList<>(live.values());
+	}
+
+	CompletableFuture<Void> add(String id, JsonObject message) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", OP_ADD);
+		record.addProperty("id", id);
+		record.add("message", message);
+		return append(record);
+	}
+
+	CompletableFuture<Void> done(String id) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", OP_DONE);
+		record.addProperty("id", id);
+		return append(record);
+	}
+
+	private CompletableFuture<Void> append(JsonObject record) {
+		Append append = new Append(record);
+		synchronized (lock) {
+			if(closed || writer == null)
+				return CompletableFuture.failedFuture(new IOException("Outbox log is not open"));
+
+			queue.add(append);
+		}
+		return append.future;
+	}
+
+	/**
+	 * Commits the records already appended and stops the writer
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+		}
+
+		if(writer != null) {
+			try {
+				writer.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if(channel != null)
+			channel.close();
+	}
+
+	private void writeLoop() {
+		List<Append> batch = new ArrayList<>(MAX_BATCH);
+		while(true) {
+			Append first;
+			try {
+				first = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				first = queue.poll();
+			}
+
+			if(first == null) {
+				synchronized (lock) {
+					if(closed && queue.isEmpty())
+						return;
+				}
+				continue;
+			}
+
+			batch.add(first);
+			queue.drainTo(batch, MAX_BATCH - 1);
+
+			long start = System.nanoTime();
+			long size = -1;
+			try {
+				size = channel().size();
+				write(channel, batch.stream().map(a -> a.record).collect(Collectors.toList()));
+				channel.force(false);
+
+				for (Append append : batch) {
+					apply(append.record);
+					append.future.complete(null);
+				}
+			} catch (IOException | RuntimeException e) {
+				batch.forEach(append -> append.future.completeExceptionally(e));
+				// Remove a partly written batch, so the next batch does not start in the middle of a line
+				truncate(size);
+			}
+
+			commitLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			commits.increment();
+			records.add(batch.size());
+			recordsSinceCompaction += batch.size();
+			batch.clear();
+
+			if(recordsSinceCompaction > COMPACT_THRESHOLD && live.size() * 2 < recordsSinceCompaction) {
+				try {
+					compact();
+				} catch (IOException e) {
+					// The old log is still in place, try again after the next batch
+				}
+			}
+		}
+	}
+
+	private void apply(JsonObject record) {
+		String id = record.get("id").getAsString();
+		if(OP_ADD.equals(record.get("op").getAsString())) {
+			live.put(id, record);
+		} else {
+			live.remove(id);
+		}
+	}
+
+	/**
+	 * Replaces the log with one holding only the messages that are not done
+	 */
+	private void compact() throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(out, live.values());
+			out.force(true);
+		}
+
+		if(channel != null)
+			channel.close();
+		channel = null;
+
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		recordsSinceCompaction = live.size();
+	}
+
+	private void truncate(long size) {
+		if(size < 0 || channel == null)
+			return;
+
+		try {
+			channel.truncate(size);
+		} catch (IOException e) {
+			// Nothing more to do, the line will be skipped when the log is read
+		}
+	}
+
+	private FileChannel channel() throws IOException {
+		if(channel == null)
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		return channel;
+	}
+
+	private static void write(FileChannel channel, Collection<JsonObject> records) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (JsonObject record : records) {
+			builder.append(record.toString()).append('\n');
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	void snapshot(Map<String, Number> target) {
+		commitLatency.snapshot("outbox.commit", target);
+		long commitCount = commits.sum();
+		target.put("outbox.commit.records", records.sum());
+		target.put("outbox.commit.batch.avg", commitCount == 0 ? 0 : records.sum() / (double) commitCount);
+	}
+}
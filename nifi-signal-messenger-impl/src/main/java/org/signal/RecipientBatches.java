@@ -0,0 +1,204 @@
+package org.signal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.Lists;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Sends a message to a long list of recipients in batches, a number of batches at the same time.
+ * One request to the daemon for thousands of recipients is slow and fails as a whole, while a
+ * failed batch here only fails its own recipients.
+ * <p>
+ * The results of the batches are merged into one, and each result per recipient gets the
+ * timestamp of its batch, since the daemon gives every request its own timestamp. When only some
+ * batches fail a {@link SignalPartialSendException} tells which recipients were not sent to.
+ */
+final class RecipientBatches {
+	static final String METRIC_BATCHES = "batches.total";
+	static final String METRIC_BATCHES_FAILED = "batches.failed";
+	static final String METRIC_PARTIAL = "batches.partial";
+
+	private static final String TYPE_FAILURE = "FAILURE";
+
+	@FunctionalInterface
+	interface BatchSender {
+		JsonElement send(List<String> batch) throws IOException;
+	}
+
+	private final int size;
+	private final int concurrency;
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder batchesFailed = new LongAdder();
+	private final LongAdder partial = new LongAdder();
+
+	/**
+	 * @param size max recipients per batch
+	 * @param concurrency max batches sent at the same time
+	 */
+	RecipientBatches(int size, int concurrency) {
+		if(size < 1 || concurrency < 1)
+			throw new IllegalArgumentException("Invalid batches, size " + size + " concurrency " + concurrency);
+		this.size = size;
+		this.concurrency = concurrency;
+	}
+
+	boolean isBatched(List<String> recipients) {
+		return recipients.size() > size;
+	}
+
+	/**
+	 * @return the merged result of all batches
+	 * @throws SignalPartialSendException if some of the batches failed
+	 * @throws IOException the error of the first batch if all failed, nothing was sent then
+	 */
+	JsonElement send(List<String> recipients, BatchSender sender) throws IOException {
+		List<List<String>> split = Lists.partition(recipients, size);
+		JsonElement[] results = new JsonElement[split.size()];
+		Throwable[] errors = new Throwable[split.size()];
+
+		AtomicInteger next = new AtomicInteger();
+		Runnable worker = () -> {
+			for (int i = next.getAndIncrement(); i < split.size(); i = next.getAndIncrement()) {
+				try {
+					results[i] = sender.send(split.get(i));
+				} catch (Throwable e) {
+					errors[i] = e;
+				}
+			}
+		};
+
+		// The calling thread sends batches too
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 1; i < Math.min(concurrency, split.size()); i++) {
+			Thread thread = SignalRuntime.newThread("SignalRecipientBatch", worker);
+			thread.start();
+			threads.add(thread);
+		}
+		worker.run();
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			threads.forEach(Thread::interrupt);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sending batches of recipients");
+		}
+
+		return merge(split, results, errors);
+	}
+
+	private JsonElement merge(List<List<String>> split, JsonElement[] results, Throwable[] errors) throws IOException {
+		JsonObject merged = new JsonObject();
+		JsonArray mergedResults = new JsonArray();
+		List<String> failedRecipients = new ArrayList<>();
+		Throwable firstError = null;
+		boolean sent = false;
+
+		for (int i = 0; i < split.size(); i++) {
+			batches.increment();
+			if(errors[i] == null) {
+				sent = true;
+				addResults(results[i], merged, mergedResults);
+				continue;
+			}
+
+			batchesFailed.increment();
+			if(firstError == null)
+				firstError = errors[i];
+
+			List<String> failed = getFailedRecipients(split.get(i), errors[i]);
+			// The daemon sent to the rest of the batch
+			if(failed.size() < split.get(i).size())
+				sent = true;
+
+			for (String recipient : failed) {
+				failedRecipients.add(recipient);
+				mergedResults.add(toFailure(recipient, errors[i]));
+			}
+		}
+		merged.add("results", mergedResults);
+
+		if(firstError == null)
+			return merged;
+
+		if(!sent) {
+			if(firstError instanceof IOException)
+				throw (IOException) firstError;
+			if(firstError instanceof RuntimeException)
+				throw (RuntimeException) firstError;
+			throw new IOException(firstError.getMessage(), firstError);
+		}
+
+		partial.increment();
+		SignalErrorType type = firstError instanceof SignalRpcException ? ((SignalRpcException) firstError).getType()
+				: firstError instanceof IOException ? SignalErrorType.TRANSPORT : SignalErrorType.UNKNOWN;
+		long code = firstError instanceof SignalRpcException ? ((SignalRpcException) firstError).getCode() : SignalRpcException.NO_CODE;
+		String message = String.format("Could not send to %d of the recipients: %s", failedRecipients.size(), firstError.getMessage());
+		throw new SignalPartialSendException(message, type, code, failedRecipients, merged, firstError);
+	}
+
+	/**
+	 * Adds the results per recipient of a request, each with the timestamp of the request. The merged
+	 * result gets the timestamp of the first request added
+	 */
+	static void addResults(JsonElement result, JsonObject merged, JsonArray mergedResults) {
+		if(result == null || !result.isJsonObject())
+			return;
+
+		JsonObject object = result.getAsJsonObject();
+		JsonElement timestamp = object.get("timestamp");
+		if(timestamp != null && !merged.has("timestamp"))
+			merged.add("timestamp", timestamp);
+
+		if(!object.has("results") || !object.get("results").isJsonArray())
+			return;
+
+		for (JsonElement element : object.getAsJsonArray("results")) {
+			if(element.isJsonObject() && timestamp != null && !element.getAsJsonObject().has("timestamp")) {
+				element = element.deepCopy();
+				element.getAsJsonObject().add("timestamp", timestamp);
+			}
+			mergedResults.add(element);
+		}
+	}
+
+	/**
+	 * @return the recipients of the batch the error reports as failed, all of them if it does not tell
+	 */
+	private static List<String> getFailedRecipients(List<String> batch, Throwable error) {
+		if(!(error instanceof SignalRpcException))
+			return batch;
+
+		List<String> failed = new ArrayList<>(batch);
+		failed.retainAll(((SignalRpcException) error).getFailedRecipients());
+		return failed.isEmpty() ? batch : failed;
+	}
+
+	private static JsonObject toFailure(String recipient, Throwable error) {
+		JsonObject address = new JsonObject();
+		address.addProperty("number", recipient);
+
+		JsonObject failure = new JsonObject();
+		failure.add("recipientAddress", address);
+		failure.addProperty("type", error instanceof SignalRpcException ? ((SignalRpcException) error).getType().name() : TYPE_FAILURE);
+		failure.addProperty("error", String.valueOf(error.getMessage()));
+		return failure;
+	}
+
+	void snapshot(Map<String, Number> target) {
+		target.put(METRIC_BATCHES, batches.sum());
+		target.put(METRIC_BATCHES_FAILED, batchesFailed.sum());
+		target.put(METRIC_PARTIAL, partial.sum());
+	}
+}
@@ -0,0 +1,36 @@
+package org.signal;
+
+/**
+ * Decides if, and when, a failed request to the daemon should be tried again. 
+ * Limited both by number of attempts and by a deadline counted from the first attempt.
+ */
+final class RetryPolicy {
+	static final RetryPolicy NO_RETRY = new RetryPolicy(1, 1, 1, 0);
+
+	private final int maxAttempts;
+	private final long deadlineMillis;
+	private final ExponentialBackoff backoff;
+
+	RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, long deadlineMillis) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.deadlineMillis = deadlineMillis;
+		this.backoff = new ExponentialBackoff(initialBackoffMillis, maxBackoffMillis);
+	}
+
+	/**
+	 * @param attempt the attempt that failed, starting at 1
+	 * @param elapsedMillis time since the first attempt started
+	 * @param minDelayMillis delay requested by the server (e.g. retry after for rate limits), 0 if none
+	 * @return milliseconds to wait before the next attempt, or -1 if no more attempts should be made
+	 */
+	long getDelayMillis(int attempt, long elapsedMillis, long minDelayMillis) {
+		if(attempt >= maxAttempts)
+			return -1;
+
+		long delay = Math.max(backoff.getDelayMillis(attempt - 1), minDelayMillis);
+		if(elapsedMillis + delay > deadlineMillis)
+			return -1;
+
+		return delay;
+	}
+}
@@ -0,0 +1,78 @@
+package org.signal;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the sends of a conversation in order when several threads send at the same time. Each
+ * conversation, an account and its recipients or groups, is hashed onto one of a fixed number of
+ * lanes, and a lane lets one send through at a time in the order the sends arrived. Sends of
+ * conversations on different lanes go in parallel.
+ */
+final class SendLanes {
+	static final String METRIC_BUSY = "lanes.busy";
+	static final String METRIC_QUEUED = "lanes.queued";
+
+	private final ReentrantLock[] lanes;
+	private final LatencyRecorder waits = new LatencyRecorder();
+
+	SendLanes(int count) {
+		if(count < 1)
+			throw new IllegalArgumentException("At least one lane is required");
+
+		lanes = new ReentrantLock[count];
+		for (int i = 0; i < count; i++) {
+			// Fair, so waiting sends get the lane in the order they arrived
+			lanes[i] = new ReentrantLock(true);
+		}
+	}
+
+	/**
+	 * @param targets recipients or groups of the send, in any order
+	 * @return the key of the conversation
+	 */
+	static String getConversation(String account, Collection<String> targets) {
+		return account + "|" + String.join(",", new TreeSet<>(targets));
+	}
+
+	int getLane(String conversation) {
+		// Spread the bits, string hashes of similar numbers differ in the low bits only
+		int hash = conversation.hashCode();
+		hash ^= (hash >>> 16);
+		return Math.floorMod(hash * 0x9E3779B9, lanes.length);
+	}
+
+	/**
+	 * Waits for the lane of the conversation, which must be unlocked when the send is done
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	ReentrantLock lock(String conversation) throws InterruptedIOException {
+		ReentrantLock lane = lanes[getLane(conversation)];
+		long start = System.nanoTime();
+		try {
+			lane.lockInterruptibly();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the lane of " + conversation);
+		}
+		waits.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return lane;
+	}
+
+	void snapshot(Map<String, Number> target) {
+		int busy = 0;
+		int queued = 0;
+		for (ReentrantLock lane : lanes) {
+			if(lane.isLocked())
+				busy++;
+			queued += lane.getQueueLength();
+		}
+		target.put(METRIC_BUSY, busy);
+		target.put(METRIC_QUEUED, queued);
+		waits.snapshot("lanes.wait", target);
+	}
+}
@@ -0,0 +1,155 @@
+package org.signal;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Shapes outgoing traffic with one token bucket per account and, optionally, one per recipient. 
+ * A send takes one token from the account bucket and from each recipient bucket. If the tokens 
+ * are not available within the max wait the send is rejected without taking any tokens.
+ */
+final class SendRateLimiter {
+
+	private final double accountRate;
+	private final int accountBurst;
+	private final double recipientRate;
+	private final int recipientBurst;
+	private final long maxWaitNanos;
+
+	private final Map<String, TokenBucket> accountBuckets = new ConcurrentHashMap<>();
+	private final Cache<String, TokenBucket> recipientBuckets;
+
+	private final LatencyRecorder waits = new LatencyRecorder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param accountRate sends per second per account, 0 or less disables the account limit
+	 * @param accountBurst
+	 * @param recipientRate sends per second per recipient, 0 or less disables the recipient limit
+	 * @param recipientBurst
+	 * @param maxWaitMillis how long a caller may wait for tokens before being rejected
+	 */
+	SendRateLimiter(double accountRate, int accountBurst, double recipientRate, int recipientBurst, long maxWaitMillis) {
+		this.accountRate = accountRate;
+		this.accountBurst = accountBurst;
+		this.recipientRate = recipientRate;
+		this.recipientBurst = recipientBurst;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		
+		// A bucket that has been idle long enough to be full again is the same as a new bucket
+		long idleSeconds = recipientRate > 0 ? (long) Math.ceil(Math.max(1, recipientBurst) / recipientRate) + 1 : 1;
+		this.recipientBuckets = CacheBuilder.newBuilder()
+				.expireAfterAccess(idleSeconds, TimeUnit.SECONDS)
+				.maximumSize(100_000)
+				.build();
+	}
+
+	boolean isEnabled() {
+		return accountRate > 0 || recipientRate > 0;
+	}
+
+	/**
+	 * Waits until the account and all recipients have a token available
+	 * @param account
+	 * @param recipients phone numbers or group ids the message is sent to
+	 * @throws SignalRateLimitException if the wait would be longer than the max wait
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	void acquire(String account, Collection<String> recipients) throws InterruptedIOException {
+		if(!isEnabled())
+			return;
+
+		long waitNanos = 0;
+		synchronized (this) {
+			long now = System.nanoTime();
+			
+			TokenBucket accountBucket = getAccountBucket(account);
+			if(accountBucket != null)
+				waitNanos = accountBucket.getWaitNanos(now);
+			
+			TokenBucket[] buckets = new TokenBucket[recipientRate > 0 ? recipients.size() : 0];
+			int i = 0;
+			for (String recipient : recipients) {
+				if(i >= buckets.length)
+					break;
+				buckets[i] = getRecipientBucket(account, recipient);
+				waitNanos = Math.max(waitNanos, buckets[i].getWaitNanos(now));
+				i++;
+			}
+			
+			if(waitNanos > maxWaitNanos) {
+				rejected.increment();
+				throw new SignalRateLimitException(String.format("Send rate limit exceeded for account %s, a token would be available in %d ms", 
+																	account, 
+																	TimeUnit.NANOSECONDS.toMillis(waitNanos)), 
+													TimeUnit.NANOSECONDS.toMillis(waitNanos));
+			}
+			
+			if(accountBucket != null)
+				accountBucket.reserve(now);
+
+			for (TokenBucket bucket : buckets) {
+				bucket.reserve(now);
+			}
+		}
+
+		waits.record(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+		if(waitNanos <= 0)
+			return;
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for send rate limit");
+		}
+	}
+
+	/**
+	 * @return 0 (no tokens left) to 1 (full bucket) for the account, 1 if no account limit is configured
+	 */
+	double getHeadroom(String account) {
+		if(accountRate <= 0)
+			return 1;
+
+		synchronized (this) {
+			TokenBucket bucket = getAccountBucket(account);
+			return Math.max(0, bucket.getTokens(System.nanoTime())) / bucket.getCapacity();
+		}
+	}
+
+	private TokenBucket getAccountBucket(String account) {
+		if(accountRate <= 0)
+			return null;
+
+		return accountBuckets.computeIfAbsent(account, a -> new TokenBucket(accountRate, accountBurst));
+	}
+
+	private TokenBucket getRecipientBucket(String account, String recipient) {
+		String key = account + "|" + recipient;
+		TokenBucket bucket = recipientBuckets.getIfPresent(key);
+		if(bucket == null) {
+			bucket = new TokenBucket(recipientRate, recipientBurst);
+			recipientBuckets.put(key, bucket);
+		}
+		return bucket;
+	}
+
+	void snapshot(Map<String, Number> target) {
+		waits.snapshot("ratelimit.wait", target);
+		target.put("ratelimit.rejected", rejected.sum());
+		target.put("ratelimit.recipients", recipientBuckets.size());
+
+		synchronized (this) {
+			long now = System.nanoTime();
+			accountBuckets.forEach((account, bucket) -> target.put("ratelimit." + account + ".tokens", bucket.getTokens(now)));
+		}
+	}
+}
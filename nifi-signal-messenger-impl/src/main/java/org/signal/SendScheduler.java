@@ -0,0 +1,267 @@
+package org.signal;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.signal.model.SignalPriority;
+
+/**
+ * Shares a fixed number of concurrent sends to the daemon between the accounts. When all slots
+ * are taken, sends wait in a queue per account and a freed slot is handed out by deficit
+ * round-robin: in its turn an account may send as many messages as its weight, so a flood of
+ * sends from one account can not starve the others.
+ * <p>
+ * Each priority has its own lane of queues. A freed slot always goes to the highest priority
+ * with waiting sends, and a number of slots are kept for {@link SignalPriority#HIGH} sends only,
+ * so urgent messages do not wait for a backlog of lower priority sends.
+ */
+final class SendScheduler {
+	static final String METRIC_IN_USE = "scheduler.inuse";
+	static final String METRIC_QUEUED = "scheduler.queued";
+
+	private static final class Waiter {
+		private final Condition granted;
+		private final long enqueuedNanos = System.nanoTime();
+		private boolean done = false;
+
+		private Waiter(Condition granted) {
+			this.granted = granted;
+		}
+	}
+
+	private static final class AccountQueue {
+		private final int weight;
+		private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+		private final LatencyRecorder waits;
+		// Sends the account may still do in its current turn
+		private int deficit = 0;
+
+		private AccountQueue(int weight, LatencyRecorder waits) {
+			this.weight = weight;
+			this.waits = waits;
+		}
+	}
+
+	private static final class Lane {
+		private final Map<String, AccountQueue> queues = new HashMap<>();
+		// Accounts with waiting sends, the first one has the turn
+		private final ArrayDeque<AccountQueue> active = new ArrayDeque<>();
+		private final LatencyRecorder waits = new LatencyRecorder();
+		private final LatencyRecorder latency = new LatencyRecorder();
+		private int queued = 0;
+	}
+
+	private final int slots;
+	private final int lowerSlots;
+	private final Map<String, Integer> weights;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<SignalPriority, Lane> lanes = new EnumMap<>(SignalPriority.class);
+	private final Map<String, LatencyRecorder> accountWaits = new HashMap<>();
+	private int inUse = 0;
+	// Slots in use by sends below the top priority
+	private int lowerInUse = 0;
+
+	/**
+	 * @param slots max number of sends at the same time
+	 * @param reserved slots only used by high priority sends, at least one slot is left for the others
+	 * @param weights weight of an account, accounts not in the map have weight 1
+	 */
+	SendScheduler(int slots, int reserved, Map<String, Integer> weights) {
+		if(slots < 1)
+			throw new IllegalArgumentException("At least one concurrent send is required");
+		this.slots = slots;
+		this.lowerSlots = slots - Math.max(0, Math.min(reserved, slots - 1));
+		this.weights = Collections.unmodifiableMap(new HashMap<>(weights));
+
+		for (SignalPriority priority : SignalPriority.values()) {
+			lanes.put(priority, new Lane());
+		}
+	}
+
+	/**
+	 * @param value account and weight pairs separated by comma (,), like +46700000001=5, +46700000002=1
+	 * @return weight mapped by account
+	 * @throws IllegalArgumentException if a pair is not an account and a positive weight
+	 */
+	static Map<String, Integer> parseWeights(String value) {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		if(value == null)
+			return result;
+
+		for (String pair : value.split(",")) {
+			if(pair.isBlank())
+				continue;
+
+			int separator = pair.lastIndexOf('=');
+			if(separator < 1)
+				throw new IllegalArgumentException("Expected account=weight but was: " + pair.trim());
+
+			int weight;
+			try {
+				weight = Integer.parseInt(pair.substring(separator + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Weight is not a number: " + pair.trim());
+			}
+			if(weight < 1)
+				throw new IllegalArgumentException("Weight must be 1 or more: " + pair.trim());
+
+			result.put(pair.substring(0, separator).trim(), weight);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for a slot, which must be given back with {@link #release(SignalPriority, long)} when the send is done
+	 * @throws InterruptedIOException if interrupted while waiting, no slot is held then
+	 */
+	void acquire(String account, SignalPriority priority) throws InterruptedIOException {
+		lock.lock();
+		try {
+			Lane lane = lanes.get(priority);
+			AccountQueue queue = lane.queues.computeIfAbsent(account, a -> new AccountQueue(
+					weights.getOrDefault(a, 1),
+					accountWaits.computeIfAbsent(a, k -> new LatencyRecorder())));
+			if(hasFreeSlot(priority)) {
+				take(priority);
+				queue.waits.record(0);
+				lane.waits.record(0);
+				return;
+			}
+
+			Waiter waiter = new Waiter(lock.newCondition());
+			if(queue.waiters.isEmpty()) {
+				queue.deficit = queue.weight;
+				lane.active.addLast(queue);
+			}
+			queue.waiters.addLast(waiter);
+			lane.queued++;
+
+			try {
+				while(!waiter.done)
+					waiter.granted.await();
+			} catch (InterruptedException e) {
+				if(waiter.done) {
+					// Granted at the same time, pass the slot on
+					handOff(priority);
+				} else {
+					queue.waiters.remove(waiter);
+					lane.queued--;
+					if(queue.waiters.isEmpty())
+						lane.active.remove(queue);
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a send slot");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param priority the priority the slot was acquired with
+	 * @param startNanos when the send started waiting for the slot, recorded as the latency of the lane. Not recorded if negative
+	 */
+	void release(SignalPriority priority, long startNanos) {
+		lock.lock();
+		try {
+			if(startNanos >= 0)
+				lanes.get(priority).latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+			handOff(priority);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean hasFreeSlot(SignalPriority priority) {
+		return inUse < slots && (priority == SignalPriority.HIGH || lowerInUse < lowerSlots);
+	}
+
+	private void take(SignalPriority priority) {
+		inUse++;
+		if(priority != SignalPriority.HIGH)
+			lowerInUse++;
+	}
+
+	/**
+	 * Gives the slot of a finished send to the highest priority waiting send that may use it, or frees it
+	 */
+	private void handOff(SignalPriority released) {
+		inUse--;
+		if(released != SignalPriority.HIGH)
+			lowerInUse--;
+
+		for (SignalPriority priority : SignalPriority.values()) {
+			Lane lane = lanes.get(priority);
+			if(lane.active.isEmpty())
+				continue;
+			// Lower lanes come after this one, and may not use the slot either
+			if(!hasFreeSlot(priority))
+				return;
+
+			take(priority);
+			grant(lane);
+			return;
+		}
+	}
+
+	private static void grant(Lane lane) {
+		while(true) {
+			AccountQueue queue = lane.active.peekFirst();
+			if(queue.deficit < 1) {
+				// Turn over, the account waits for its next turn with a new quantum
+				lane.active.pollFirst();
+				queue.deficit += queue.weight;
+				lane.active.addLast(queue);
+				continue;
+			}
+
+			Waiter waiter = queue.waiters.pollFirst();
+			queue.deficit--;
+			lane.queued--;
+			if(queue.waiters.isEmpty()) {
+				lane.active.pollFirst();
+				queue.deficit = 0;
+			}
+
+			long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waiter.enqueuedNanos);
+			queue.waits.record(waited);
+			lane.waits.record(waited);
+			waiter.done = true;
+			waiter.granted.signal();
+			return;
+		}
+	}
+
+	void snapshot(Map<String, Number> target) {
+		lock.lock();
+		try {
+			target.put(METRIC_IN_USE, inUse);
+			Map<String, Integer> accountQueued = new TreeMap<>();
+			int queued = 0;
+			for (Map.Entry<SignalPriority, Lane> entry : lanes.entrySet()) {
+				Lane lane = entry.getValue();
+				String prefix = "scheduler.lane." + entry.getKey().name().toLowerCase();
+				target.put(prefix + ".queued", lane.queued);
+				lane.waits.snapshot(prefix + ".wait", target);
+				lane.latency.snapshot(prefix + ".latency", target);
+				queued += lane.queued;
+				lane.queues.forEach((account, queue) -> accountQueued.merge(account, queue.waiters.size(), Integer::sum));
+			}
+			target.put(METRIC_QUEUED, queued);
+			accountQueued.forEach((account, count) -> target.put("scheduler." + account + ".queued", count));
+			accountWaits.forEach((account, waits) -> waits.snapshot("scheduler." + account + ".wait", target));
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package org.signal;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The signal-cli daemons of a service. Requests for an account are routed to a daemon hosting
+ * the account, as found by listing the accounts of each daemon, and read-only requests are spread
+ * over all healthy daemons hosting it. Requests without an account, or for an account not found
+ * in any daemon, may go to any healthy daemon. With a single daemon every request goes to it.
+ */
+final class SignalDaemonPool {
+
+	static final class Daemon {
+		private final String url;
+		private final URL rpc;
+		private final URI events;
+
+		// Unknown until the first health check
+		private volatile boolean healthy = false;
+		private volatile String lastError;
+		private volatile Set<String> accounts = Collections.emptySet();
+
+		private Daemon(String url) throws MalformedURLException, URISyntaxException {
+			this.url = url;
+			this.rpc = new URL(url + "/api/v1/rpc");
+			this.events = new URI(url + "/api/v1/events");
+		}
+
+		URL getRpc() {
+			return rpc;
+		}
+
+		URI getEvents() {
+			return events;
+		}
+
+		boolean isHealthy() {
+			return healthy;
+		}
+
+		Set<String> getAccounts() {
+			return accounts;
+		}
+
+		void setLastError(String lastError) {
+			this.lastError = lastError;
+		}
+
+		@Override
+		public String toString() {
+			return url;
+		}
+	}
+
+	private final List<Daemon> daemons;
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	// Rebuilt when the accounts of a daemon change
+	private volatile Map<String, List<Daemon>> byAccount = Collections.emptyMap();
+
+	SignalDaemonPool(List<String> urls) throws MalformedURLException, URISyntaxException {
+		if(urls.isEmpty())
+			throw new IllegalArgumentException("No daemon URL");
+
+		List<Daemon> list = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			list.add(new Daemon(url));
+		}
+		this.daemons = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @param value daemon URLs separated by comma (,)
+	 * @return the URLs without trailing slashes or duplicates, in the order given
+	 */
+	static List<String> splitUrls(String value) {
+		Set<String> result = new LinkedHashSet<>();
+		if(value == null)
+			return new ArrayList<>(result);
+
+		for (String url : value.split(",")) {
+			String trimmed = url.trim();
+			while(trimmed.endsWith("/"))
+				trimmed = trimmed.substring(0, trimmed.length() - 1);
+			if(!trimmed.isEmpty())
+				result.add(trimmed);
+		}
+		return new ArrayList<>(result);
+	}
+
+	List<Daemon> getDaemons() {
+		return daemons;
+	}
+
+	int size() {
+		return daemons.size();
+	}
+
+	int getHealthy() {
+		int healthy = 0;
+		for (Daemon daemon : daemons) {
+			if(daemon.healthy)
+				healthy++;
+		}
+		return healthy;
+	}
+
+	/**
+	 * @return the last failure of an unhealthy daemon, null if all are healthy
+	 */
+	String getLastError() {
+		for (Daemon daemon : daemons) {
+			if(!daemon.healthy && daemon.lastError != null)
+				return daemon.lastError;
+		}
+		return null;
+	}
+
+	/**
+	 * @param account the account of the request, null if it has none
+	 * @param readOnly true if the request can be answered by any daemon hosting the account
+	 * @return the daemon to send the request to. If no candidate is healthy the first candidate
+	 * is returned anyway, so the request fails and is retried like with a single daemon
+	 */
+	Daemon route(String account, boolean readOnly) {
+		if(daemons.size() == 1)
+			return daemons.get(0);
+
+		List<Daemon> candidates = account == null ? null : byAccount.get(account);
+		if(candidates == null)
+			candidates = daemons;
+
+		if(!readOnly) {
+			for (Daemon daemon : candidates) {
+				if(daemon.healthy)
+					return daemon;
+			}
+			return candidates.get(0);
+		}
+
+		// Start at the next daemon in turn and take the first healthy from there
+		int start = Math.floorMod(next.getAndIncrement(), candidates.size());
+		for (int i = 0; i < candidates.size(); i++) {
+			Daemon daemon = candidates.get((start + i) % candidates.size());
+			if(daemon.healthy)
+				return daemon;
+		}
+		return candidates.get(start);
+	}
+
+	/**
+	 * @return true if the health of the daemon changed
+	 */
+	boolean setHealthy(Daemon daemon, boolean healthy) {
+		boolean changed = daemon.healthy != healthy;
+		daemon.healthy = healthy;
+		return changed;
+	}
+
+	void setAccounts(Daemon daemon, Collection<String> accounts) {
+		Set<String> updated = Collections.unmodifiableSet(new LinkedHashSet<>(accounts));
+		if(updated.equals(daemon.accounts))
+			return;
+
+		synchronized (this) {
+			daemon.accounts = updated;
+
+			// Daemons are kept in the configured order, so requests that change anything prefer the first
+			Map<String, List<Daemon>> index = new HashMap<>();
+			for (Daemon d : daemons) {
+				for (String account : d.accounts) {
+					index.computeIfAbsent(account, a -> new ArrayList<>(2)).add(d);
+				}
+			}
+			byAccount = index;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.signal;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Turns JSON-RPC errors and HTTP status codes from the daemon into typed exceptions
+ */
+final class SignalErrors {
+	// Error codes used by signal-cli, besides the standard JSON-RPC codes
+	static final long USER_ERROR = -1;
+	static final long IO_ERROR = -3;
+	static final long UNTRUSTED_KEY_ERROR = -4;
+	static final long RATELIMIT_ERROR = -5;
+
+	static final long PARSE_ERROR = -32700;
+	static final long INVALID_REQUEST = -32600;
+	static final long METHOD_NOT_FOUND = -32601;
+	static final long INVALID_PARAMS = -32602;
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	private static final String TYPE_SUCCESS = "SUCCESS";
+	private static final String TYPE_UNREGISTERED = "UNREGISTERED_FAILURE";
+	private static final String TYPE_IDENTITY = "IDENTITY_FAILURE";
+	private static final String TYPE_RATE_LIMIT = "RATE_LIMIT_FAILURE";
+	private static final String TYPE_NETWORK = "NETWORK_FAILURE";
+
+	private SignalErrors() { }
+
+	static SignalRpcException fromJsonRpcError(JsonObject jsonError) {
+		long code = jsonError.has("code") ? jsonError.get("code").getAsLong() : SignalRpcException.NO_CODE;
+		String errorMessage = jsonError.has("message") && !jsonError.get("message").isJsonNull() ? jsonError.get("message").getAsString() : "Unknown error";
+		String message = String.format("%s (ErrorCode: %s)", errorMessage, code);
+
+		// Sends report the outcome per recipient
+		List<String> failedRecipients = new ArrayList<>();
+		Set<String> failureTypes = new HashSet<>();
+		long retryAfterMillis = -1;
+		boolean sent = false;
+		for (JsonObject result : getResults(jsonError)) {
+			String type = getString(result, "type");
+			if(TYPE_SUCCESS.equals(type))
+				sent = true;
+			if(type == null || TYPE_SUCCESS.equals(type))
+				continue;
+
+			failureTypes.add(type);
+			
+			if(result.has("retryAfterSeconds") && result.get("retryAfterSeconds").isJsonPrimitive())
+				retryAfterMillis = Math.max(retryAfterMillis, result.get("retryAfterSeconds").getAsLong() * 1_000);
+
+			if(result.has("recipientAddress") && result.get("recipientAddress").isJsonObject()) {
+				JsonObject address = result.get("recipientAddress").getAsJsonObject();
+				String recipient = getString(address, "number");
+				if(recipient == null)
+					recipient = getString(address, "uuid");
+				if(recipient != null)
+					failedRecipients.add(recipient);
+			}
+		}
+
+		if(code == RATELIMIT_ERROR || failureTypes.contains(TYPE_RATE_LIMIT))
+			return new SignalRateLimitException(message, code, retryAfterMillis, failedRecipients, sent ? getResponse(jsonError) : null);
+
+		if(code == UNTRUSTED_KEY_ERROR || onlyContains(failureTypes, TYPE_IDENTITY))
+			return new SignalUntrustedIdentityException(message, code, failedRecipients);
+
+		if(onlyContains(failureTypes, TYPE_UNREGISTERED) || errorMessage.contains("Unregistered user"))
+			return new SignalUnregisteredException(message, code, failedRecipients, sent ? getResponse(jsonError) : null);
+
+		if(code == IO_ERROR || failureTypes.contains(TYPE_NETWORK))
+			return new SignalTransportException(message, code, failedRecipients, sent ? getResponse(jsonError) : null, null);
+
+		if(code == USER_ERROR || code == PARSE_ERROR || code == INVALID_REQUEST || code == METHOD_NOT_FOUND || code == INVALID_PARAMS)
+			return new SignalInvalidRequestException(message, code);
+
+		return new SignalRpcException(message, SignalErrorType.UNKNOWN, code, failedRecipients, null);
+	}
+
+	/**
+	 * @param idempotent true if the request sends nothing, so it may be made again whatever the daemon did with it
+	 */
+	static SignalRpcException fromHttpStatus(int status, boolean idempotent) {
+		String message = "Unexpected answer from server. Code: " + status;
+		
+		if(isNotProcessed(status))
+			return new SignalTransportException(message, status, null, null);
+
+		if(status >= 500 || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT) {
+			if(idempotent)
+				return new SignalTransportException(message, status, null, null);
+
+			// The daemon may have sent the message before it failed, so it is not tried again
+			return new SignalRpcException(message + ", the message may have been sent", SignalErrorType.UNKNOWN, status, null, null);
+		}
+
+		return new SignalInvalidRequestException(message, status);
+	}
+
+	/**
+	 * @return true if the HTTP status tells the daemon turned the request away without processing it
+	 */
+	static boolean isNotProcessed(long status) {
+		return status == HTTP_TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+
+	/**
+	 * @return the timestamp and the results of the recipients a failed send was sent to, null if it was not sent to anyone
+	 */
+	static JsonObject getSent(SignalRpcException e) {
+		JsonElement result = e.getResult();
+		if(result == null || !result.isJsonObject())
+			return null;
+
+		JsonObject response = result.getAsJsonObject();
+		JsonArray sent = new JsonArray();
+		if(response.has("results") && response.get("results").isJsonArray()) {
+			for (JsonElement element : response.getAsJsonArray("results")) {
+				if(element.isJsonObject() && TYPE_SUCCESS.equals(getString(element.getAsJsonObject(), "type")))
+					sent.add(element);
+			}
+		}
+		if(sent.isEmpty())
+			return null;
+
+		JsonObject copy = new JsonObject();
+		if(response.has("timestamp"))
+			copy.add("timestamp", response.get("timestamp"));
+		copy.add("results", sent);
+		return copy;
+	}
+
+	/**
+	 * @return the response of a send the error was reported for, with the timestamp and the results per recipient
+	 */
+	private static JsonObject getResponse(JsonObject jsonError) {
+		JsonElement data = jsonError.get("data");
+		if(data == null || !data.isJsonObject())
+			return null;
+
+		JsonElement response = data.getAsJsonObject().get("response");
+		if(response == null || !response.isJsonObject())
+			return null;
+		return response.getAsJsonObject();
+	}
+
+	private static List<JsonObject> getResults(JsonObject jsonError) {
+		List<JsonObject> results = new ArrayList<>();
+		
+		JsonObject response = getResponse(jsonError);
+		if(response == null)
+			return results;
+
+		JsonElement array = response.get("results");
+		if(array == null || !array.isJsonArray())
+			return results;
+
+		for (JsonElement element : array.getAsJsonArray()) {
+			if(element.isJsonObject())
+				results.add(element.getAsJsonObject());
+		}
+		return results;
+	}
+
+	private static boolean onlyContains(Set<String> types, String type) {
+		return types.size() == 1 && types.contains(type);
+	}
+
+	private static String getString(JsonObject object, String field) {
+		JsonElement element = object.get(field);
+		if(element == null || element.isJsonNull())
+			return null;
+		return element.getAsString();
+	}
+}
@@ -0,0 +1,222 @@
+package org.signal;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives one event stream of the daemon, reconnecting with backoff whenever it is lost.
+ * The stream is read on its own virtual thread and events are passed through a bounded queue to a
+ * dispatcher thread. A slow listener therefore only holds up this stream, and reading pauses
+ * when the queue is full instead of buffering without limit.
+ */
+final class SignalEventReceiver {
+	private static final String STOP = new String("stop");
+
+	interface Handler {
+		/**
+		 * @param gapMillis time without a connection before this one, -1 for the first connection
+		 */
+		void onConnected(SignalEventReceiver receiver, long gapMillis);
+
+		/**
+		 * @param stale true if nothing was received within the idle timeout
+		 * @param cause the failure, null if the daemon ended the stream
+		 */
+		void onDisconnected(SignalEventReceiver receiver, boolean stale, IOException cause);
+
+		/**
+		 * Called on the dispatcher thread
+		 * @param data the data of a receive event, JSON
+		 */
+		void onReceive(SignalEventReceiver receiver, String data);
+
+		void onError(SignalEventReceiver receiver, Throwable e);
+	}
+
+	private final String account;
+	private final URI uri;
+	private final long idleTimeoutMillis;
+	private final ExponentialBackoff backoff;
+	private final BlockingQueue<String> queue;
+	private final Handler handler;
+
+	private final Thread reader;
+	private final Thread dispatcher;
+
+	private volatile boolean running = false;
+	private volatile SignalEventStream stream;
+	private volatile boolean connected = false;
+	private volatile long lostAt = 0;
+	private volatile long startedAt = 0;
+
+	/**
+	 * @param account the account of the stream, null for the stream of all accounts
+	 */
+	SignalEventReceiver(String account, URI uri, long idleTimeoutMillis, ExponentialBackoff backoff, int queueCapacity, Handler handler) {
+		this.account = account;
+		this.uri = uri;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.backoff = backoff;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+		this.handler = handler;
+
+		String suffix = account == null ? "" : "-" + account;
+		reader = SignalRuntime.newThread("SignalMsgRec" + suffix, this::read);
+		dispatcher = SignalRuntime.newThread("SignalMsgDispatch" + suffix, this::dispatch);
+	}
+
+	String getAccount() {
+		return account;
+	}
+
+	URI getUri() {
+		return uri;
+	}
+
+	boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return time since anything was received, -1 if not connected
+	 */
+	long getIdleMillis() {
+		SignalEventStream current = stream;
+		return connected && current != null ? current.getIdleMillis() : -1;
+	}
+
+	/**
+	 * @return time since the stream was lost, or since the receiver started if it never connected. 0 while connected
+	 */
+	long getDisconnectedMillis() {
+		if(connected)
+			return 0;
+
+		long lost = lostAt;
+		long since = lost == 0 ? startedAt : lost;
+		return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+	}
+
+	int getQueued() {
+		return queue.size();
+	}
+
+	void start() {
+		startedAt = System.nanoTime();
+		running = true;
+		dispatcher.start();
+		reader.start();
+	}
+
+	/**
+	 * Closes the stream and waits for the events already received to be dispatched
+	 * @return false if the threads did not stop within the time
+	 */
+	boolean stop(long timeoutMillis) throws InterruptedException {
+		running = false;
+		reader.interrupt();
+
+		// A thread blocked reading a socket does not notice interrupts
+		SignalEventStream current = stream;
+		if(current != null)
+			current.close();
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		reader.join(Math.max(1, timeoutMillis));
+
+		// The reader has stopped adding, so the queue has room unless the dispatcher is stuck
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if(!queue.offer(STOP, Math.max(0, remaining), TimeUnit.MILLISECONDS))
+			dispatcher.interrupt();
+
+		dispatcher.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		return !reader.isAlive() && !dispatcher.isAlive();
+	}
+
+	private void read() {
+		try {
+			int failedConnects = 0;
+			while(running) {
+				SignalEventStream current = new SignalEventStream(uri, idleTimeoutMillis);
+				stream = current;
+				// Stopped while creating the stream, stop may not have seen it
+				if(!running)
+					return;
+
+				boolean wasConnected = false;
+				boolean stale = false;
+				IOException cause = null;
+				try {
+					current.run(new SignalEventStream.Listener() {
+						@Override
+						public void onConnected() {
+							connected = true;
+							long lost = lostAt;
+							lostAt = 0;
+							handler.onConnected(SignalEventReceiver.this, lost == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lost));
+						}
+
+						@Override
+						public void onReceive(String data) {
+							try {
+								queue.put(data);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								current.close();
+							}
+						}
+					});
+				} catch (SocketTimeoutException e) {
+					stale = true;
+					cause = e;
+				} catch (IOException e) {
+					cause = e;
+				} finally {
+					wasConnected = connected;
+					connected = false;
+					stream = null;
+				}
+
+				// The stream is closed when the receiver is stopped
+				if(!running)
+					return;
+
+				if(lostAt == 0)
+					lostAt = System.nanoTime();
+				handler.onDisconnected(this, stale, cause);
+
+				// Backoff grows only while we fail to connect, a connection that was up starts over
+				if(wasConnected)
+					failedConnects = 0;
+
+				Thread.sleep(backoff.getDelayMillis(failedConnects++));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			handler.onError(this, e);
+		}
+	}
+
+	private void dispatch() {
+		try {
+			while(true) {
+				String data = queue.take();
+				if(data == STOP)
+					return;
+
+				try {
+					handler.onReceive(this, data);
+				} catch (Throwable e) {
+					handler.onError(this, e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package org.signal;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One connection to the server-sent event stream of the daemon. Events are read on the calling
+ * thread until the stream ends, fails or is closed. Unlike a socket read, the stream can be
+ * closed from another thread, and a watchdog closes it if nothing, not even a keep-alive,
+ * arrives within the idle timeout. Time spent in the listener, like waiting for room in a full
+ * queue, is not idle: the daemon is waiting for the stream to be read then.
+ */
+final class SignalEventStream implements Closeable {
+	private static final String EVENT_RECEIVE = "receive";
+
+	interface Listener {
+		void onConnected();
+
+		/**
+		 * @param data the data of a receive event, JSON
+		 */
+		void onReceive(String data);
+	}
+
+	private final URI uri;
+	private final long idleTimeoutMillis;
+
+	private volatile InputStream body;
+	private volatile boolean closed = false;
+	private volatile boolean stale = false;
+	private volatile long lastActivity = System.nanoTime();
+	// In the listener, not reading the stream
+	private volatile boolean delivering = false;
+
+	SignalEventStream(URI uri, long idleTimeoutMillis) {
+		this.uri = uri;
+		this.idleTimeoutMillis = Math.max(1, idleTimeoutMillis);
+	}
+
+	/**
+	 * Connects and reads events until the stream ends or is closed
+	 * @throws SocketTimeoutException if the stream was idle for too long
+	 * @throws IOException if the connection failed
+	 * @throws InterruptedException if interrupted while connecting
+	 */
+	void run(Listener listener) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(uri)
+				.timeout(Duration.ofMillis(idleTimeoutMillis))
+				.header("Accept", "text/event-stream")
+				.GET()
+				.build();
+
+		HttpResponse<InputStream> response = SignalRuntime.getHttpClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+		body = response.body();
+		if(response.statusCode() != 200) {
+			body.close();
+			throw new IOException("Unexpected answer from server. Code: " + response.statusCode());
+		}
+
+		// Closed while connecting
+		if(closed) {
+			body.close();
+			return;
+		}
+
+		lastActivity = System.nanoTime();
+		long period = Math.max(10, idleTimeoutMillis / 4);
+		ScheduledFuture<?> watchdog = SignalRuntime.getScheduler().scheduleWithFixedDelay(this::closeIfIdle, period, period, TimeUnit.MILLISECONDS);
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			listener.onConnected();
+
+			String line = null;
+			String event = null;
+			while((line = reader.readLine()) != null) {
+				lastActivity = System.nanoTime();
+
+				// Empty line ends an event, lines starting with colon are keep-alives
+				if(line.isEmpty() || line.startsWith(":")) {
+					if(line.isEmpty())
+						event = null;
+					continue;
+				}
+
+				if(line.startsWith("event:")) {
+					event = line.substring(6).trim();
+					continue;
+				}
+
+				if(line.startsWith("data:") && EVENT_RECEIVE.equalsIgnoreCase(event)) {
+					delivering = true;
+					try {
+						listener.onReceive(line.substring(5));
+					} finally {
+						lastActivity = System.nanoTime();
+						delivering = false;
+					}
+				}
+			}
+		} catch (IOException e) {
+			if(stale)
+				throw new SocketTimeoutException("Nothing received on the event stream for " + idleTimeoutMillis + " ms");
+			if(closed)
+				return;
+			throw e;
+		} finally {
+			watchdog.cancel(false);
+		}
+
+		if(stale)
+			throw new SocketTimeoutException("Nothing received on the event stream for " + idleTimeoutMillis + " ms");
+	}
+
+	long getIdleMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+	}
+
+	private void closeIfIdle() {
+		if(delivering || getIdleMillis() < idleTimeoutMillis)
+			return;
+
+		stale = true;
+		closeBody();
+	}
+
+	/**
+	 * Ends the stream, a thread blocked in {@link #run(Listener)} returns
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		closeBody();
+	}
+
+	private void closeBody() {
+		InputStream stream = body;
+		if(stream == null)
+			return;
+
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// Closing anyway
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.signal;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when to switch between the primary and the standby daemons. The service fails over
+ * when requests or health checks of the primary have failed a number of times in a row, or when
+ * its event streams have been down too long. It fails back once the primary has passed every
+ * health check for the failback delay, so a flapping primary does not switch the service back
+ * and forth.
+ */
+final class SignalFailover {
+	static final String METRIC_FAILOVERS = "failover.count";
+	static final String METRIC_FAILBACKS = "failover.failbacks";
+	static final String METRIC_ON_STANDBY = "failover.standby";
+	static final String METRIC_FAILURES = "failover.failures";
+
+	private final int threshold;
+	private final long outageMillis;
+	private final long failbackNanos;
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+	private final LongAdder failovers = new LongAdder();
+	private final LongAdder failbacks = new LongAdder();
+
+	private volatile boolean onStandby = false;
+	// Since when every health check of the primary has passed, -1 if the last one failed
+	private volatile long primaryHealthySince = -1;
+
+	/**
+	 * @param threshold failed requests or health checks in a row that fail over
+	 * @param outageMillis time the event streams may be down before failing over
+	 * @param failbackMillis time the primary must stay healthy before failing back
+	 */
+	SignalFailover(int threshold, long outageMillis, long failbackMillis) {
+		this.threshold = Math.max(1, threshold);
+		this.outageMillis = outageMillis;
+		this.failbackNanos = TimeUnit.MILLISECONDS.toNanos(failbackMillis);
+	}
+
+	boolean isOnStandby() {
+		return onStandby;
+	}
+
+	/**
+	 * Records a failed request or health check of the primary, ignored while on standby
+	 * @return true if the failures in a row have reached the threshold
+	 */
+	boolean recordFailure() {
+		return !onStandby && consecutiveFailures.incrementAndGet() >= threshold;
+	}
+
+	void recordSuccess() {
+		if(!onStandby && consecutiveFailures.get() != 0)
+			consecutiveFailures.set(0);
+	}
+
+	int getConsecutiveFailures() {
+		return consecutiveFailures.get();
+	}
+
+	boolean isFailoverDue(long streamDisconnectedMillis) {
+		if(onStandby)
+			return false;
+		return consecutiveFailures.get() >= threshold || streamDisconnectedMillis >= outageMillis;
+	}
+
+	/**
+	 * Records a health check of the primary
+	 */
+	void recordPrimaryHealth(boolean healthy) {
+		if(!healthy) {
+			primaryHealthySince = -1;
+		} else if(primaryHealthySince < 0) {
+			primaryHealthySince = System.nanoTime();
+		}
+	}
+
+	boolean isFailbackDue() {
+		long since = primaryHealthySince;
+		return onStandby && since >= 0 && System.nanoTime() - since >= failbackNanos;
+	}
+
+	void failedOver() {
+		onStandby = true;
+		primaryHealthySince = -1;
+		failovers.increment();
+	}
+
+	void failedBack() {
+		onStandby = false;
+		consecutiveFailures.set(0);
+		failbacks.increment();
+	}
+
+	void snapshot(Map<String, Number> result) {
+		result.put(METRIC_FAILOVERS, failovers.sum());
+		result.put(METRIC_FAILBACKS, failbacks.sum());
+		result.put(METRIC_ON_STANDBY, onStandby ? 1 : 0);
+		result.put(METRIC_FAILURES, consecutiveFailures.get());
+	}
+}
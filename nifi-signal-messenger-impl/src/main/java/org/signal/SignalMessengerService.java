@@ -4,16 +4,25 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.net.URL;
-import java.net.URLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -21,9 +30,20 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -32,93 +52,527 @@ import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnDisabled;
 import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.ConfigVerificationResult;
+import org.apache.nifi.components.ConfigVerificationResult.Outcome;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.controller.AbstractControllerService;
 import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.controller.VerifiableControllerService;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.reporting.InitializationException;
 import org.signal.model.SignalAttachment;
+import org.signal.model.SignalContact;
 import org.signal.model.SignalData;
 import org.signal.model.SignalGroup;
 import org.signal.model.SignalGroupMember;
 import org.signal.model.SignalIdentity;
 import org.signal.model.SignalMessage;
+import org.signal.model.SignalOutboxResult;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
 import org.signal.model.SignalQuote;
 import org.signal.model.SignalReaction;
+import org.signal.model.SignalSubscription;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.EvictingQueue;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
 @Tags({ "Signal", "Messenger"})
 @CapabilityDescription("Signal Messenger service")
-public class SignalMessengerService extends AbstractControllerService implements SignalControllerService {
+public class SignalMessengerService extends AbstractControllerService implements SignalControllerService, VerifiableControllerService {
+
+	private static final String ALL_ACCOUNTS = "*";
+
+	private static final String UNTRUSTED = "UNTRUSTED";
 
 	public static final PropertyDescriptor PROP_DAEMON_URL = new PropertyDescriptor
 			.Builder().name("DaemonUrl")
 			.displayName("Daemon URL")
-			.description("URL to the signal-cli daemon")
+			.description("URL to the signal-cli daemon. Multiple daemons can be provided using comma (,), "
+					+ "requests for an account are then sent to a daemon hosting the account and read-only requests are spread over "
+					+ "the daemons hosting it. One event stream is received from each daemon.")
+			.required(true)
+			.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_DAEMON_HEALTH_CHECK_INTERVAL = new PropertyDescriptor
+			.Builder().name("DaemonHealthCheckInterval")
+			.displayName("Daemon health check interval")
+			.description("How often the daemons are asked for their version and accounts. A daemon that fails a request "
+					+ "is not used until it answers a health check, as long as another daemon is healthy.")
+			.required(true)
+			.defaultValue("30 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_STANDBY_DAEMON_URL = new PropertyDescriptor
+			.Builder().name("StandbyDaemonUrl")
+			.displayName("Standby daemon URL")
+			.description("URL to a signal-cli daemon hosting the same accounts, used while the daemons in " + PROP_DAEMON_URL.getDisplayName() + " are failing. "
+					+ "Multiple daemons can be provided using comma (,). The service fails back once the primary daemons have been healthy for the failback delay.")
+			.required(false)
+			.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_FAILOVER_THRESHOLD = new PropertyDescriptor
+			.Builder().name("FailoverThreshold")
+			.displayName("Failover threshold")
+			.description("Number of requests or health checks in a row that must fail before switching to the standby daemon")
+			.required(true)
+			.defaultValue("3")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_FAILOVER_STREAM_OUTAGE = new PropertyDescriptor
+			.Builder().name("FailoverStreamOutage")
+			.displayName("Failover event stream outage")
+			.description("How long an event stream of the primary daemon may be down before switching to the standby daemon")
+			.required(true)
+			.defaultValue("2 min")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_FAILBACK_DELAY = new PropertyDescriptor
+			.Builder().name("FailbackDelay")
+			.displayName("Failback delay")
+			.description("How long the primary daemon must pass every health check before switching back from the standby daemon")
+			.required(true)
+			.defaultValue("5 min")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_ACCOUNTS = new PropertyDescriptor
+			.Builder().name("Accounts")
+			.displayName("Accounts")
+			.description("Accounts whose groups and identities are loaded into the caches when the service is enabled, "
+					+ "so that the first messages do not have to wait for the daemon. Multiple accounts can be provided using comma (,). "
+					+ "Use " + ALL_ACCOUNTS + " to load all accounts in the daemon. If empty, the caches are loaded on first use.")
+			.required(false)
+			.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_PREWARM_TIMEOUT = new PropertyDescriptor
+			.Builder().name("PrewarmTimeout")
+			.displayName("Pre-warm timeout")
+			.description("Maximum time to wait for the caches of the configured accounts to load once the service has connected to the daemon. "
+					+ "Accounts not loaded within this time are loaded on first use instead.")
+			.required(true)
+			.defaultValue("30 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_REGISTERED_TTL = new PropertyDescriptor
+			.Builder().name("RegisteredCacheDuration")
+			.displayName("Registered recipient cache duration")
+			.description("How long a recipient found to be registered on Signal is remembered before it is looked up again")
+			.required(true)
+			.defaultValue("24 hours")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_UNREGISTERED_TTL = new PropertyDescriptor
+			.Builder().name("UnregisteredCacheDuration")
+			.displayName("Unregistered recipient cache duration")
+			.description("How long a recipient found not to be registered on Signal is remembered before it is looked up again")
+			.required(true)
+			.defaultValue("1 hour")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_ACCOUNT_SEND_RATE = new PropertyDescriptor
+			.Builder().name("AccountSendRate")
+			.displayName("Account send rate")
+			.description("Max number of messages per second each account may send, decimals are allowed (e.g. 0.5). "
+					+ "Sends above the rate wait for the limit, see Send rate max wait. If empty, sends are not limited")
+			.required(false)
+			.addValidator(StandardValidators.NUMBER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_ACCOUNT_SEND_BURST = new PropertyDescriptor
+			.Builder().name("AccountSendBurst")
+			.displayName("Account send burst")
+			.description("Number of messages an account may send at once before the account send rate applies")
+			.required(true)
+			.defaultValue("10")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECIPIENT_SEND_RATE = new PropertyDescriptor
+			.Builder().name("RecipientSendRate")
+			.displayName("Recipient send rate")
+			.description("Max number of messages per second an account may send to the same recipient or group, decimals are allowed. "
+					+ "If empty, sends are not limited per recipient")
+			.required(false)
+			.addValidator(StandardValidators.NUMBER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECIPIENT_SEND_BURST = new PropertyDescriptor
+			.Builder().name("RecipientSendBurst")
+			.displayName("Recipient send burst")
+			.description("Number of messages that may be sent to the same recipient at once before the recipient send rate applies")
+			.required(true)
+			.defaultValue("5")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_SEND_RATE_MAX_WAIT = new PropertyDescriptor
+			.Builder().name("SendRateMaxWait")
+			.displayName("Send rate max wait")
+			.description("How long a send may wait for the send rate limits. If the wait would be longer, the send fails immediately. "
+					+ "Use 0 sec to never wait")
+			.required(true)
+			.defaultValue("30 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_MAX_CONCURRENT_SENDS = new PropertyDescriptor
+			.Builder().name("MaxConcurrentSends")
+			.displayName("Max concurrent sends")
+			.description("Max number of sends to the daemon at the same time. When all are taken, sends wait in a queue per account "
+					+ "and the accounts take turns by their weight, so a flood of sends from one account does not hold back the others. "
+					+ "Use 0 to not queue sends")
+			.required(true)
+			.defaultValue("0")
+			.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_ORDERED_LANES = new PropertyDescriptor
+			.Builder().name("OrderedLanes")
+			.displayName("Ordered lanes")
+			.description("Number of lanes keeping sends in order. Each conversation, an account and its recipients or groups, is hashed onto "
+					+ "a lane, and a lane sends one message at a time in the order they arrived. Sends to the same conversation are then never "
+					+ "sent at the same time, and keep their order when several threads send, while other conversations go in parallel. "
+					+ "Use 0 to send without lanes")
+			.required(true)
+			.defaultValue("0")
+			.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECIPIENT_BATCH_SIZE = new PropertyDescriptor
+			.Builder().name("RecipientBatchSize")
+			.displayName("Recipient batch size")
+			.description("Max number of recipients in one send to the daemon. Messages to more recipients are sent in batches, and a "
+					+ "failed batch only fails its own recipients, which are then tried again without sending to the others twice. "
+					+ "Use 0 to send to all recipients at once")
+			.required(true)
+			.defaultValue("0")
+			.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECIPIENT_BATCH_CONCURRENCY = new PropertyDescriptor
+			.Builder().name("RecipientBatchConcurrency")
+			.displayName("Recipient batch concurrency")
+			.description("Max number of batches of one message sent at the same time. Only used when Recipient batch size is set")
+			.required(true)
+			.defaultValue("4")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RESERVED_HIGH_PRIORITY_SENDS = new PropertyDescriptor
+			.Builder().name("ReservedHighPrioritySends")
+			.displayName("Reserved high priority sends")
+			.description("Number of the concurrent sends only used by high priority messages, so they do not wait for lower priority sends. "
+					+ "Queued sends of a higher priority always go before those of a lower priority. At least one send is left for "
+					+ "the other priorities. Only used when Max concurrent sends is set")
+			.required(true)
+			.defaultValue("1")
+			.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_ACCOUNT_WEIGHTS = new PropertyDescriptor
+			.Builder().name("AccountWeights")
+			.displayName("Account weights")
+			.description("Share of the concurrent sends each account gets when sends are queued, as account=weight separated by comma (,), "
+					+ "like +46700000001=5, +46700000002=1. Accounts not listed have weight 1")
+			.required(false)
+			.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_ADAPTIVE_CONCURRENCY = new PropertyDescriptor
+			.Builder().name("AdaptiveConcurrency")
+			.displayName("Adaptive concurrency")
+			.description("If set to 'true' then the number of requests to the daemon at the same time is limited, and the limit is adjusted "
+					+ "to the latency of the daemon: it grows while requests are answered quickly and shrinks when they slow down or fail. "
+					+ "Requests above the limit wait. The current limit is published as the " + AdaptiveConcurrencyLimit.METRIC_LIMIT + " metric")
+			.required(true)
+			.allowableValues(Boolean.toString(Boolean.TRUE), Boolean.toString(Boolean.FALSE))
+			.defaultValue(Boolean.toString(Boolean.FALSE))
+			.build();
+
+	public static final PropertyDescriptor PROP_ADAPTIVE_CONCURRENCY_MAX = new PropertyDescriptor
+			.Builder().name("AdaptiveConcurrencyMax")
+			.displayName("Adaptive concurrency max")
+			.description("The highest number of requests to the daemon at the same time the adaptive concurrency limit may grow to")
+			.required(true)
+			.defaultValue("64")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RETRY_MAX_ATTEMPTS = new PropertyDescriptor
+			.Builder().name("RetryMaxAttempts")
+			.displayName("Retry max attempts")
+			.description("Max number of attempts for requests to the daemon that fail with a transient error, "
+					+ "like rate limiting or network problems. A send is only tried again if the daemon turned it away without processing it, "
+					+ "or for the recipients it reported as failed, so no one gets the message twice. Use 1 to never retry")
+			.required(true)
+			.defaultValue("3")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RETRY_INITIAL_BACKOFF = new PropertyDescriptor
+			.Builder().name("RetryInitialBackoff")
+			.displayName("Retry initial backoff")
+			.description("Delay before the first retry. The delay doubles for each retry, with some random jitter")
+			.required(true)
+			.defaultValue("250 millis")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RETRY_MAX_BACKOFF = new PropertyDescriptor
+			.Builder().name("RetryMaxBackoff")
+			.displayName("Retry max backoff")
+			.description("Max delay between two retries")
+			.required(true)
+			.defaultValue("10 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_RETRY_DEADLINE = new PropertyDescriptor
+			.Builder().name("RetryDeadline")
+			.displayName("Retry deadline")
+			.description("No retry is started later than this after the first attempt")
+			.required(true)
+			.defaultValue("30 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_OUTBOX_DIRECTORY = new PropertyDescriptor
+			.Builder().name("OutboxDirectory")
+			.displayName("Outbox directory")
+			.description("Directory of the outbox. Messages queued in the outbox are stored here until they are sent, "
+					+ "so that the sending processor does not have to wait for the daemon. If empty, the outbox is disabled")
+			.required(false)
+			.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_OUTBOX_THREADS = new PropertyDescriptor
+			.Builder().name("OutboxThreads")
+			.displayName("Outbox threads")
+			.description("Number of threads sending messages from the outbox")
+			.required(true)
+			.defaultValue("2")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_OUTBOX_MAX_ATTEMPTS = new PropertyDescriptor
+			.Builder().name("OutboxMaxAttempts")
+			.displayName("Outbox max attempts")
+			.description("Max number of attempts to send a message from the outbox before it is reported as failed. "
+					+ "Only transient errors, like rate limiting or an unavailable daemon, are retried")
+			.required(true)
+			.defaultValue("10")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_EVENT_STREAM_IDLE_TIMEOUT = new PropertyDescriptor
+			.Builder().name("EventStreamIdleTimeout")
+			.displayName("Event stream idle timeout")
+			.description("If nothing, not even a keep-alive, is received on the event stream within this time "
+					+ "the connection is considered dead and a new connection is made")
+			.required(true)
+			.defaultValue("60 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_EVENT_STREAM_INITIAL_BACKOFF = new PropertyDescriptor
+			.Builder().name("EventStreamInitialBackoff")
+			.displayName("Event stream initial backoff")
+			.description("Delay before reconnecting the event stream after it was lost, or before retrying to connect to the daemon when the service is enabled. "
+					+ "The delay doubles, with some random jitter, for each failed reconnect")
+			.required(true)
+			.defaultValue("100 millis")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_EVENT_STREAM_MAX_BACKOFF = new PropertyDescriptor
+			.Builder().name("EventStreamMaxBackoff")
+			.displayName("Event stream max backoff")
+			.description("Max delay between two reconnects of the event stream, or between two attempts to connect to the daemon")
 			.required(true)
-			.addValidator(StandardValidators.URI_VALIDATOR)
+			.defaultValue("30 sec")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
 			.build();
 
+	public static final PropertyDescriptor PROP_EVENT_STREAM_PER_ACCOUNT = new PropertyDescriptor
+			.Builder().name("EventStreamPerAccount")
+			.displayName("Event stream per account")
+			.description("If set to 'true' a separate event stream is opened for each account in " + PROP_ACCOUNTS.getDisplayName() + ", "
+					+ "each read and passed to the listeners on its own threads, so a burst or a reconnect of one account does not delay the others. "
+					+ "If " + ALL_ACCOUNTS + " is used, the accounts are listed when the service connects. "
+					+ "Otherwise one event stream carries the messages of all accounts.")
+			.required(true)
+			.allowableValues(Boolean.toString(Boolean.TRUE), Boolean.toString(Boolean.FALSE))
+			.defaultValue(Boolean.toString(Boolean.FALSE))
+			.build();
+
+	public static final PropertyDescriptor PROP_EVENT_QUEUE_SIZE = new PropertyDescriptor
+			.Builder().name("EventQueueSize")
+			.displayName("Event queue size")
+			.description("Max number of received messages, per event stream, waiting to be passed to the listeners. "
+					+ "When the queue is full, reading of the event stream pauses until the listeners catch up.")
+			.required(true)
+			.defaultValue("1000")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final String METRIC_WARMUP_DURATION = "warmup.duration.ms";
+	public static final String METRIC_WARMUP_ACCOUNTS = "warmup.accounts";
+	public static final String METRIC_WARMUP_FAILED = "warmup.failed";
+	public static final String METRIC_REGISTRATION_HITS = "registration.hits";
+	public static final String METRIC_REGISTRATION_LOOKUPS = "registration.lookups";
+	public static final String METRIC_REGISTRATION_UNREGISTERED = "registration.unregistered";
+
+	public static final String METRIC_RPC_RETRIES = "rpc.retries";
+	public static final String METRIC_OUTBOX_RESULTS_DROPPED = "outbox.results.dropped";
+	public static final String METRIC_STREAM_CONNECTS = "stream.connects";
+	public static final String METRIC_STREAM_RECONNECTS = "stream.reconnects";
+	public static final String METRIC_STREAM_STALE = "stream.stale";
+	public static final String METRIC_STREAM_CONNECTED = "stream.connected";
+	public static final String METRIC_STREAM_IDLE = "stream.idle.ms";
+	public static final String METRIC_STREAM_GAP = "stream.gap";
+	public static final String METRIC_STREAM_QUEUED = "stream.queued";
+	public static final String METRIC_STREAM_DUPLICATES = "stream.duplicates";
+	public static final String METRIC_DAEMONS = "daemon.count";
+	public static final String METRIC_DAEMONS_HEALTHY = "daemon.healthy";
+
+	private static final long OUTBOX_INITIAL_BACKOFF_MILLIS = 1_000;
+	private static final long OUTBOX_MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	private static final int MAX_UNDELIVERED_OUTBOX_RESULTS = 1_000;
+	private static final int INITIAL_CONCURRENCY_LIMIT = 4;
+
+	private static final int MAX_USER_STATUS_BATCH = 100;
+
+	// Methods that only read from the daemon, these can be retried even if the request may have reached the daemon
+	private static final Set<String> IDEMPOTENT_METHODS = Set.of("version", "listAccounts", "listGroups", "listIdentities", "listContacts", "getUserStatus");
+
+	private static final int MAX_WARMUP_THREADS = 8;
+
+	private static final long RECEIVE_THREAD_JOIN_MILLIS = 5_000;
+
 	private static final List<PropertyDescriptor> properties;
 	
 	private TypeToken<ArrayList<SignalIdentity>> gsonTypeListIdentities =  new TypeToken<ArrayList<SignalIdentity>>() {};
 	private TypeToken<ArrayList<SignalGroup>> gsonTypeListGroups =  new TypeToken<ArrayList<SignalGroup>>() {};
+	private TypeToken<ArrayList<SignalContact>> gsonTypeListContacts =  new TypeToken<ArrayList<SignalContact>>() {};
 	
 	private final static Gson GSON = new GsonBuilder().create();
 	
 	private final static Object LOCK_LISTENERS = new Object();
 
-	private Collection<Consumer<SignalData>> messageListeners = new LinkedHashSet<>(10);
+	private Map<Consumer<SignalData>, SignalSubscription> messageListeners = new LinkedHashMap<>(10);
+	// Rebuilt when listeners are added or removed, read without the lock when dispatching
+	private volatile SubscriptionIndex<Consumer<SignalData>> messageListenerIndex = SubscriptionIndex.empty();
 	private Map<String, Long> messageListenersLastMessage = new HashMap<>(10);
 
 	static {
 		final List<PropertyDescriptor> props = new ArrayList<>();
 		props.add(PROP_DAEMON_URL);
+		props.add(PROP_DAEMON_HEALTH_CHECK_INTERVAL);
+		props.add(PROP_STANDBY_DAEMON_URL);
+		props.add(PROP_FAILOVER_THRESHOLD);
+		props.add(PROP_FAILOVER_STREAM_OUTAGE);
+		props.add(PROP_FAILBACK_DELAY);
+		props.add(PROP_ACCOUNTS);
+		props.add(PROP_PREWARM_TIMEOUT);
+		props.add(PROP_REGISTERED_TTL);
+		props.add(PROP_UNREGISTERED_TTL);
+		props.add(PROP_ACCOUNT_SEND_RATE);
+		props.add(PROP_ACCOUNT_SEND_BURST);
+		props.add(PROP_RECIPIENT_SEND_RATE);
+		props.add(PROP_RECIPIENT_SEND_BURST);
+		props.add(PROP_SEND_RATE_MAX_WAIT);
+		props.add(PROP_MAX_CONCURRENT_SENDS);
+		props.add(PROP_RESERVED_HIGH_PRIORITY_SENDS);
+		props.add(PROP_ORDERED_LANES);
+		props.add(PROP_RECIPIENT_BATCH_SIZE);
+		props.add(PROP_RECIPIENT_BATCH_CONCURRENCY);
+		props.add(PROP_ACCOUNT_WEIGHTS);
+		props.add(PROP_ADAPTIVE_CONCURRENCY);
+		props.add(PROP_ADAPTIVE_CONCURRENCY_MAX);
+		props.add(PROP_RETRY_MAX_ATTEMPTS);
+		props.add(PROP_RETRY_INITIAL_BACKOFF);
+		props.add(PROP_RETRY_MAX_BACKOFF);
+		props.add(PROP_RETRY_DEADLINE);
+		props.add(PROP_OUTBOX_DIRECTORY);
+		props.add(PROP_OUTBOX_THREADS);
+		props.add(PROP_OUTBOX_MAX_ATTEMPTS);
+		props.add(PROP_EVENT_STREAM_IDLE_TIMEOUT);
+		props.add(PROP_EVENT_STREAM_INITIAL_BACKOFF);
+		props.add(PROP_EVENT_STREAM_MAX_BACKOFF);
+		props.add(PROP_EVENT_STREAM_PER_ACCOUNT);
+		props.add(PROP_EVENT_QUEUE_SIZE);
 		properties = Collections.unmodifiableList(props);
 	}
 
-	private Thread receiveMessagesThread;
+	// Connects to the daemon and then starts the receivers
+	private volatile Thread connectThread;
+
+	private final Object lockReceivers = new Object();
+	private final List<SignalEventReceiver> receivers = new CopyOnWriteArrayList<>();
 
 	private volatile boolean started = false;
 
-	private EvictingQueue<SignalData> messageQueue;
+	private volatile SignalServiceState state = SignalServiceState.CONNECTING;
 
-	private URL urlRpc;
+	private EvictingQueue<SignalData> messageQueue;
 
-	private URL urlEvents;
+	// The pool requests are sent to, either the primary or the standby
+	private volatile SignalDaemonPool daemonPool;
+	private volatile SignalDaemonPool primaryPool;
+	// Null if no standby is configured
+	private volatile SignalDaemonPool standbyPool;
+	private volatile SignalFailover failover;
+	// Released to run the health checks right away
+	private final Semaphore healthCheckNow = new Semaphore(0);
 
-    private CacheLoader<String, Map<String, SignalIdentity>> loaderIdentities = new CacheLoader<>() {
+    private CacheLoader<String, SignalRecipientIndex<SignalIdentity>> loaderIdentities = new CacheLoader<>() {
         @Override
-        public Map<String, SignalIdentity> load(String account) throws UnsupportedOperationException, IOException {
+        public SignalRecipientIndex<SignalIdentity> load(String account) throws UnsupportedOperationException, IOException {
         	JsonElement responce = sendJsonRpc("listIdentities", getAccountParam(account));
     		List<SignalIdentity> result = GSON.fromJson(responce, gsonTypeListIdentities);
 
     		if(result == null)
-    			return Collections.emptyMap();
+    			return SignalRecipientIndex.empty();
     		
-    		Map<String, SignalIdentity> identities = 
-    				result.stream()
-    					.filter(e -> e.getNumber() != null)
-    					.collect(Collectors.toMap(
-	    				SignalIdentity::getNumber, 
-	    				Function.identity(), 
-	    				(a,b) -> a) // This will ignore any duplicates. Will listIdentities ever return the same number twice?!
-	    				);
+    		// Will listIdentities ever return the same number twice?! If so, the first one is kept
+    		return new SignalRecipientIndex<>(result, SignalIdentity::getNumber, SignalIdentity::getUuid);
+        }
+    };
+
+    private CacheLoader<String, SignalRecipientIndex<SignalContact>> loaderContacts = new CacheLoader<>() {
+        @Override
+        public SignalRecipientIndex<SignalContact> load(String account) throws UnsupportedOperationException, IOException {
+        	JsonElement responce = sendJsonRpc("listContacts", getAccountParam(account));
+    		List<SignalContact> result = GSON.fromJson(responce, gsonTypeListContacts);
+
+    		if(result == null)
+    			return SignalRecipientIndex.empty();
     		
-    		return identities;
+    		return new SignalRecipientIndex<>(result, SignalContact::getNumber, SignalContact::getUuid);
         }
     };
 
@@ -142,19 +596,192 @@ public class SignalMessengerService extends AbstractControllerService implements
         }
     };
 
+    private final CacheMetrics<SignalRecipientIndex<SignalIdentity>> cacheIdentitiesMetrics = new CacheMetrics<>("identities", SignalRecipientIndex::size);
+    private final CacheMetrics<SignalRecipientIndex<SignalContact>> cacheContactsMetrics = new CacheMetrics<>("contacts", SignalRecipientIndex::size);
+    private final CacheMetrics<Map<String, SignalGroup>> cacheGroupsMetrics = new CacheMetrics<>("groups", Map::size);
+
     private final static Object LOCK_CACHE_IDENTITIES = new Object();
-    private volatile LoadingCache<String, Map<String, SignalIdentity>> cacheIdentities; 
+    private volatile LoadingCache<String, SignalRecipientIndex<SignalIdentity>> cacheIdentities; 
+
+    private final static Object LOCK_CACHE_CONTACTS = new Object();
+    private volatile LoadingCache<String, SignalRecipientIndex<SignalContact>> cacheContacts; 
 
     private final static Object LOCK_CACHE_GROUPS = new Object();
     private volatile LoadingCache<String, Map<String, SignalGroup>> cacheGroups;
 
-	private final AtomicBoolean listeningEvents = new AtomicBoolean(false); 
+    // Registration status is cached in two caches to allow different durations for registered and unregistered recipients
+    private volatile Cache<String, Boolean> cacheRegistered;
+    private volatile Cache<String, Boolean> cacheUnregistered;
+
+    private final LongAdder registrationHits = new LongAdder();
+    private final LongAdder registrationLookups = new LongAdder();
+    private final LongAdder registrationUnregistered = new LongAdder();
+
+    private volatile SendRateLimiter rateLimiter;
+    // Null if sends are not queued
+    private volatile SendScheduler sendScheduler;
+    // Null if sends are not kept in order
+    private volatile SendLanes sendLanes;
+    private volatile RecipientBatches recipientBatches;
+    // Null if requests to the daemon are not limited
+    private volatile AdaptiveConcurrencyLimit concurrencyLimit;
+
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NO_RETRY;
+    private final LongAdder rpcRetries = new LongAdder();
+    private final Map<SignalErrorType, LongAdder> rpcErrors = new ConcurrentHashMap<>();
+
+    private volatile int streamIdleTimeoutMillis;
+    private final LongAdder streamConnects = new LongAdder();
+    private final LongAdder streamReconnects = new LongAdder();
+    private final LongAdder streamStale = new LongAdder();
+    private final LatencyRecorder streamGaps = new LatencyRecorder();
+    private final LongAdder streamDuplicates = new LongAdder();
+    // Events already dispatched, only used with several daemons since their streams may carry the same events
+    private volatile Cache<String, Boolean> receivedEvents;
+
+    private volatile SignalOutbox outbox;
+    private final Object lockOutboxListeners = new Object();
+    private final Collection<Consumer<SignalOutboxResult>> outboxListeners = new CopyOnWriteArrayList<>();
+    private final Deque<SignalOutboxResult> undeliveredOutboxResults = new ArrayDeque<>();
+    private final LongAdder outboxResultsDropped = new LongAdder();
+
+
+	private final Map<String, Number> metrics = new ConcurrentHashMap<>();
 	
 	@Override
 	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
 		return properties;
 	}
 
+	@Override
+	protected Collection<ValidationResult> customValidate(ValidationContext context) {
+		List<ValidationResult> results = new ArrayList<>();
+
+		validateUrls(context, PROP_DAEMON_URL, results);
+		validateUrls(context, PROP_STANDBY_DAEMON_URL, results);
+
+		String accounts = context.getProperty(PROP_ACCOUNTS).getValue();
+		if(Boolean.parseBoolean(context.getProperty(PROP_EVENT_STREAM_PER_ACCOUNT).getValue()) && (accounts == null || accounts.isBlank())) {
+			results.add(new ValidationResult.Builder()
+					.subject(PROP_EVENT_STREAM_PER_ACCOUNT.getDisplayName())
+					.valid(false)
+					.explanation(PROP_ACCOUNTS.getDisplayName() + " must be set to open an event stream per account")
+					.build());
+		}
+
+		try {
+			SendScheduler.parseWeights(context.getProperty(PROP_ACCOUNT_WEIGHTS).getValue());
+		} catch (IllegalArgumentException e) {
+			results.add(new ValidationResult.Builder()
+					.subject(PROP_ACCOUNT_WEIGHTS.getDisplayName())
+					.valid(false)
+					.explanation(e.getMessage())
+					.build());
+		}
+
+		validateBackoff(context, PROP_RETRY_INITIAL_BACKOFF, PROP_RETRY_MAX_BACKOFF, results);
+		validateBackoff(context, PROP_EVENT_STREAM_INITIAL_BACKOFF, PROP_EVENT_STREAM_MAX_BACKOFF, results);
+		return results;
+	}
+
+	private static void validateUrls(ValidationContext context, PropertyDescriptor property, List<ValidationResult> results) {
+		for (String url : SignalDaemonPool.splitUrls(context.getProperty(property).getValue())) {
+			if(!url.startsWith("http://") && !url.startsWith("https://")) {
+				results.add(new ValidationResult.Builder()
+						.subject(property.getDisplayName())
+						.input(url)
+						.valid(false)
+						.explanation("the daemon is reached using HTTP, the URL must start with http:// or https://")
+						.build());
+			}
+		}
+	}
+
+	private static void validateBackoff(ValidationContext context, PropertyDescriptor initial, PropertyDescriptor max, List<ValidationResult> results) {
+		Long initialMillis = context.getProperty(initial).asTimePeriod(TimeUnit.MILLISECONDS);
+		Long maxMillis = context.getProperty(max).asTimePeriod(TimeUnit.MILLISECONDS);
+		if(initialMillis == null || maxMillis == null || initialMillis <= maxMillis)
+			return;
+
+		results.add(new ValidationResult.Builder()
+				.subject(max.getDisplayName())
+				.input(context.getProperty(max).getValue())
+				.valid(false)
+				.explanation("can not be less than " + initial.getDisplayName())
+				.build());
+	}
+
+	/**
+	 * Checks that the daemon answers and knows the configured accounts, which is no longer done when the service is enabled
+	 */
+	@Override
+	public List<ConfigVerificationResult> verify(ConfigurationContext context, ComponentLog verificationLogger, Map<String, String> variables) {
+		List<ConfigVerificationResult> results = new ArrayList<>();
+
+		List<String> urls = new ArrayList<>(SignalDaemonPool.splitUrls(context.getProperty(PROP_DAEMON_URL).getValue()));
+		urls.addAll(SignalDaemonPool.splitUrls(context.getProperty(PROP_STANDBY_DAEMON_URL).getValue()));
+
+		List<URL> connected = new ArrayList<>();
+		for (String url : urls) {
+			try {
+				URL rpc = new URL(url + "/api/v1/rpc");
+				String version = requestVersion(rpc);
+				connected.add(rpc);
+				results.add(new ConfigVerificationResult.Builder()
+						.verificationStepName("Connect to daemon")
+						.outcome(Outcome.SUCCESSFUL)
+						.explanation("Connected to signal-cli version " + version + " at " + url)
+						.build());
+			} catch (IOException | RuntimeException e) {
+				verificationLogger.error("Could not connect to signal-cli daemon at " + url, e);
+				results.add(new ConfigVerificationResult.Builder()
+						.verificationStepName("Connect to daemon")
+						.outcome(Outcome.FAILED)
+						.explanation("Could not connect to signal-cli daemon at " + url + ": " + e.getMessage())
+						.build());
+			}
+		}
+
+		if(connected.isEmpty())
+			return results;
+
+		String accountsValue = context.getProperty(PROP_ACCOUNTS).getValue();
+		if(accountsValue == null || accountsValue.isBlank() || ALL_ACCOUNTS.equals(accountsValue.trim())) {
+			results.add(new ConfigVerificationResult.Builder()
+					.verificationStepName("Check accounts")
+					.outcome(Outcome.SKIPPED)
+					.explanation("No specific accounts configured")
+					.build());
+			return results;
+		}
+
+		try {
+			JsonObject request = new JsonObject();
+			request.addProperty("id", "listAccounts");
+			request.addProperty("jsonrpc", "2.0");
+			request.addProperty("method", "listAccounts");
+			request.add("params", new JsonObject());
+
+			List<String> missing = new ArrayList<>(splitAccounts(accountsValue));
+			for (URL rpc : connected) {
+				missing.removeAll(parseAccounts(internalSend(rpc, request, "listAccounts")));
+			}
+			results.add(new ConfigVerificationResult.Builder()
+					.verificationStepName("Check accounts")
+					.outcome(missing.isEmpty() ? Outcome.SUCCESSFUL : Outcome.FAILED)
+					.explanation(missing.isEmpty() ? "All configured accounts are registered in the daemons" : "Accounts not registered in any daemon: " + missing)
+					.build());
+		} catch (IOException | RuntimeException e) {
+			verificationLogger.error("Could not list accounts", e);
+			results.add(new ConfigVerificationResult.Builder()
+					.verificationStepName("Check accounts")
+					.outcome(Outcome.FAILED)
+					.explanation("Could not list accounts: " + e.getMessage())
+					.build());
+		}
+		return results;
+	}
+
 	/**
 	 * @param context
 	 *            the configuration context
@@ -165,73 +792,582 @@ public class SignalMessengerService extends AbstractControllerService implements
 	public void onEnabled(final ConfigurationContext context) throws InitializationException {
 		logDebugMessage("Enabling SignalMessengerService");
 
-		String url = context.getProperty(PROP_DAEMON_URL).getValue();
 		try {
-			urlRpc = new URL(url + "/api/v1/rpc");
-			urlEvents = new URL(url + "/api/v1/events");
-		} catch (MalformedURLException e1) {
+			primaryPool = new SignalDaemonPool(SignalDaemonPool.splitUrls(context.getProperty(PROP_DAEMON_URL).getValue()));
+			List<String> standbyUrls = SignalDaemonPool.splitUrls(context.getProperty(PROP_STANDBY_DAEMON_URL).getValue());
+			standbyPool = standbyUrls.isEmpty() ? null : new SignalDaemonPool(standbyUrls);
+		} catch (MalformedURLException | URISyntaxException | IllegalArgumentException e1) {
 			throw new InitializationException(e1);
 		}
+		daemonPool = primaryPool;
+		failover = new SignalFailover(
+				context.getProperty(PROP_FAILOVER_THRESHOLD).asInteger(), 
+				context.getProperty(PROP_FAILOVER_STREAM_OUTAGE).asTimePeriod(TimeUnit.MILLISECONDS), 
+				context.getProperty(PROP_FAILBACK_DELAY).asTimePeriod(TimeUnit.MILLISECONDS));
+		healthCheckNow.drainPermits();
+
+		receivedEvents = primaryPool.size() == 1 && (standbyPool == null || standbyPool.size() == 1) ? null : CacheBuilder.newBuilder()
+				.expireAfterWrite(10, TimeUnit.MINUTES)
+				.maximumSize(10_000)
+				.build();
 
 		synchronized (LOCK_CACHE_IDENTITIES) {
 			cacheIdentities = CacheBuilder.newBuilder()
 					.expireAfterAccess(6, TimeUnit.HOURS)
-					.build(loaderIdentities);
+					.recordStats()
+					.removalListener(cacheIdentitiesMetrics.removalListener())
+					.build(cacheIdentitiesMetrics.instrument(loaderIdentities));
+		}
+		
+		synchronized (LOCK_CACHE_CONTACTS) {
+			cacheContacts = CacheBuilder.newBuilder()
+					.expireAfterAccess(6, TimeUnit.HOURS)
+					.recordStats()
+					.removalListener(cacheContactsMetrics.removalListener())
+					.build(cacheContactsMetrics.instrument(loaderContacts));
 		}
 		
 		synchronized (LOCK_CACHE_GROUPS) {
 			cacheGroups = CacheBuilder.newBuilder()
 					.expireAfterAccess(6, TimeUnit.HOURS)
-					.build(loaderGroups);
+					.recordStats()
+					.removalListener(cacheGroupsMetrics.removalListener())
+					.build(cacheGroupsMetrics.instrument(loaderGroups));
 		}
 
-    	String version = getSignalVersion();
-    	if(version == null || version.isBlank())
-    		throw new InitializationException("Could not obtain version from signal-cli daemon. Please check the configured URL");
-    	
+		cacheRegistered = CacheBuilder.newBuilder()
+				.expireAfterWrite(context.getProperty(PROP_REGISTERED_TTL).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+				.maximumSize(100_000)
+				.build();
+
+		cacheUnregistered = CacheBuilder.newBuilder()
+				.expireAfterWrite(context.getProperty(PROP_UNREGISTERED_TTL).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+				.maximumSize(100_000)
+				.build();
+
+		rateLimiter = new SendRateLimiter(
+				getRate(context, PROP_ACCOUNT_SEND_RATE), 
+				context.getProperty(PROP_ACCOUNT_SEND_BURST).asInteger(), 
+				getRate(context, PROP_RECIPIENT_SEND_RATE), 
+				context.getProperty(PROP_RECIPIENT_SEND_BURST).asInteger(), 
+				context.getProperty(PROP_SEND_RATE_MAX_WAIT).asTimePeriod(TimeUnit.MILLISECONDS));
+
+		int maxConcurrentSends = context.getProperty(PROP_MAX_CONCURRENT_SENDS).asInteger();
+		sendScheduler = maxConcurrentSends <= 0 ? null : new SendScheduler(maxConcurrentSends, 
+				context.getProperty(PROP_RESERVED_HIGH_PRIORITY_SENDS).asInteger(), 
+				SendScheduler.parseWeights(context.getProperty(PROP_ACCOUNT_WEIGHTS).getValue()));
+
+		int orderedLanes = context.getProperty(PROP_ORDERED_LANES).asInteger();
+		sendLanes = orderedLanes <= 0 ? null : new SendLanes(orderedLanes);
+
+		int batchSize = context.getProperty(PROP_RECIPIENT_BATCH_SIZE).asInteger();
+		recipientBatches = batchSize <= 0 ? null : new RecipientBatches(batchSize, context.getProperty(PROP_RECIPIENT_BATCH_CONCURRENCY).asInteger());
+
+		int maxConcurrency = context.getProperty(PROP_ADAPTIVE_CONCURRENCY_MAX).asInteger();
+		concurrencyLimit = !context.getProperty(PROP_ADAPTIVE_CONCURRENCY).asBoolean() ? null : 
+				new AdaptiveConcurrencyLimit(Math.min(INITIAL_CONCURRENCY_LIMIT, maxConcurrency), 1, maxConcurrency);
+
+		retryPolicy = new RetryPolicy(
+				context.getProperty(PROP_RETRY_MAX_ATTEMPTS).asInteger(), 
+				context.getProperty(PROP_RETRY_INITIAL_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS), 
+				context.getProperty(PROP_RETRY_MAX_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS), 
+				context.getProperty(PROP_RETRY_DEADLINE).asTimePeriod(TimeUnit.MILLISECONDS));
+
+		openOutbox(context);
+
+		String accountsValue = context.getProperty(PROP_ACCOUNTS).getValue();
+		long prewarmTimeout = context.getProperty(PROP_PREWARM_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+		boolean streamPerAccount = context.getProperty(PROP_EVENT_STREAM_PER_ACCOUNT).asBoolean();
+		int eventQueueSize = context.getProperty(PROP_EVENT_QUEUE_SIZE).asInteger();
+		long healthCheckMillis = context.getProperty(PROP_DAEMON_HEALTH_CHECK_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+
+		this.state = SignalServiceState.CONNECTING;
 		this.started = true;
 		
-		if(getLogger().isDebugEnabled()) getLogger().debug("Starting receive message thread");
+		streamIdleTimeoutMillis = context.getProperty(PROP_EVENT_STREAM_IDLE_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS).intValue();
+		ExponentialBackoff reconnectBackoff = new ExponentialBackoff(
+				context.getProperty(PROP_EVENT_STREAM_INITIAL_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS), 
+				context.getProperty(PROP_EVENT_STREAM_MAX_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS));
+
+		if(getLogger().isDebugEnabled()) getLogger().debug("Starting connect thread");
 		messageQueue = EvictingQueue.create(1_000);
-		receiveMessagesThread = new Thread(() -> {
+		// The daemon is connected in the background so that a slow or stopped daemon does not hold up enabling the service.
+		// Once the receivers are started the same thread checks the health of the daemons
+		Thread thread = SignalRuntime.newThread("SignalConnect", () -> {
 			try {
-				while(!Thread.currentThread().isInterrupted()) {
-					//If the service is not enabled, return
-					if(!isStarted())
-						return;
-
-					if(getLogger().isDebugEnabled()) getLogger().debug("Listening for messages: " + url);
-					
-					try {
-						connectAndRecieveMessaged(url);
-					} catch (IOException e) {
-						logError(e);
-						Thread.sleep(5_000);
-						continue;
-					}
-				}
-			} catch (AssertionError e) {
-				if(e.getCause() instanceof InterruptedException) {
-					Thread.currentThread().interrupt();
+				if(!connectToDaemon(reconnectBackoff))
 					return;
+
+				prewarmCaches(accountsValue, prewarmTimeout);
+
+				List<String> streamAccounts = null;
+				if(streamPerAccount)
+					streamAccounts = ALL_ACCOUNTS.equals(accountsValue.trim()) ? getAccounts() : splitAccounts(accountsValue);
+
+				startReceivers(streamAccounts, reconnectBackoff, eventQueueSize);
+
+				while(isStarted()) {
+					healthCheckNow.tryAcquire(Math.max(1, healthCheckMillis), TimeUnit.MILLISECONDS);
+					healthCheckNow.drainPermits();
+					checkDaemons(primaryPool);
+					if(standbyPool != null) {
+						checkDaemons(standbyPool);
+						checkFailover(streamAccounts, reconnectBackoff, eventQueueSize);
+					}
 				}
-				onError(e);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
-				return;
 			} catch (Throwable e) {
 				onError(e);
-			} finally {
-				if(getLogger().isDebugEnabled()) getLogger().debug("Stopped listening for messages: " + url);
 			}
-		}, "SignalMsgRec");
+		});
 
-		receiveMessagesThread.setDaemon(true);
-		receiveMessagesThread.start();
-		
-		getLogger().info("Connected to signal-cli version: " + version);
+		connectThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * @param accounts one stream is received per account, null to receive the stream of all accounts
+	 */
+	private void startReceivers(List<String> accounts, ExponentialBackoff backoff, int queueSize) {
+		synchronized (lockReceivers) {
+			// Disabled while connecting
+			if(!isStarted())
+				return;
+
+			SignalDaemonPool pool = daemonPool;
+			if(accounts == null) {
+				for (SignalDaemonPool.Daemon daemon : pool.getDaemons()) {
+					receivers.add(new SignalEventReceiver(null, daemon.getEvents(), streamIdleTimeoutMillis, backoff, queueSize, eventHandler));
+				}
+			} else {
+				if(accounts.isEmpty())
+					logWarn("No accounts to receive messages for");
+
+				for (String account : accounts) {
+					URI uri = URI.create(pool.route(account, false).getEvents() + "?account=" + URLEncoder.encode(account, StandardCharsets.UTF_8));
+					receivers.add(new SignalEventReceiver(account, uri, streamIdleTimeoutMillis, backoff, queueSize, eventHandler));
+				}
+			}
+
+			if(getLogger().isDebugEnabled()) getLogger().debug("Listening for messages on " + receivers.size() + " event streams");
+			receivers.forEach(SignalEventReceiver::start);
+		}
+	}
+
+	private final SignalEventReceiver.Handler eventHandler = new SignalEventReceiver.Handler() {
+		@Override
+		public void onConnected(SignalEventReceiver receiver, long gapMillis) {
+			streamConnects.increment();
+			if(gapMillis >= 0) {
+				streamGaps.record(gapMillis);
+				if(getLogger().isInfoEnabled())
+					getLogger().info(describeStream(receiver) + " reconnected after " + gapMillis + " ms");
+			}
+			updateState();
+		}
+
+		@Override
+		public void onDisconnected(SignalEventReceiver receiver, boolean stale, IOException cause) {
+			streamReconnects.increment();
+			if(stale) {
+				streamStale.increment();
+				logWarn("Nothing received on the " + describeStream(receiver).toLowerCase() + " for " + streamIdleTimeoutMillis + " ms, reconnecting");
+			} else if(cause != null) {
+				logError(cause);
+			}
+			updateState();
+		}
+
+		@Override
+		public void onReceive(SignalEventReceiver receiver, String data) {
+			dispatchEvent(data);
+		}
+
+		@Override
+		public void onError(SignalEventReceiver receiver, Throwable e) {
+			SignalMessengerService.this.onError(e);
+		}
+	};
+
+	private String describeStream(SignalEventReceiver receiver) {
+		String description = receiver.getAccount() == null ? "Event stream" : "Event stream of " + receiver.getAccount();
+		SignalDaemonPool pool = daemonPool;
+		if(pool != null && pool.size() > 1)
+			description += " from " + receiver.getUri().getHost() + ":" + receiver.getUri().getPort();
+		return description;
+	}
+
+	private void updateState() {
+		boolean allConnected = receivers.stream().allMatch(SignalEventReceiver::isConnected);
+		state = allConnected ? SignalServiceState.READY : SignalServiceState.DEGRADED;
+	}
+
+	/**
+	 * Retries until a daemon answers
+	 * @return false if the service was disabled before a daemon answered
+	 */
+	private boolean connectToDaemon(ExponentialBackoff backoff) throws InterruptedException {
+		SignalDaemonPool pool = primaryPool;
+		SignalDaemonPool standby = standbyPool;
+		for (int attempt = 0; isStarted(); attempt++) {
+			if(checkDaemons(pool) > 0) {
+				state = SignalServiceState.DEGRADED;
+				return true;
+			}
+
+			if(standby != null && checkDaemons(standby) > 0) {
+				daemonPool = standby;
+				failover.failedOver();
+				logWarn(String.format("Could not connect to signal-cli daemon at %s, using standby daemon at %s: %s", 
+						pool.getDaemons(), standby.getDaemons(), pool.getLastError()));
+				state = SignalServiceState.DEGRADED;
+				return true;
+			}
+
+			if(!isStarted())
+				return false;
+
+			long delay = backoff.getDelayMillis(attempt);
+			logWarn(String.format("Could not connect to signal-cli daemon at %s, retrying in %d ms: %s", 
+					pool.getDaemons().size() == 1 ? pool.getDaemons().get(0) : pool.getDaemons(), delay, pool.getLastError()));
+			Thread.sleep(delay);
+		}
+		return false;
+	}
+
+	/**
+	 * Asks each daemon for its version and accounts, a daemon that answers is used again 
+	 * @return number of healthy daemons
+	 */
+	private int checkDaemons(SignalDaemonPool pool) {
+		for (SignalDaemonPool.Daemon daemon : pool.getDaemons()) {
+			if(!isStarted())
+				break;
+
+			try {
+				String version = requestVersion(daemon.getRpc());
+				// The accounts are only needed to route requests between several daemons
+				if(pool.size() > 1)
+					pool.setAccounts(daemon, listAccounts(daemon.getRpc()));
+
+				if(pool.setHealthy(daemon, true))
+					getLogger().info("Connected to signal-cli version: " + version + (pool.size() > 1 ? " at " + daemon : ""));
+			} catch (IOException | RuntimeException e) {
+				daemon.setLastError(e.getMessage());
+				// While connecting the failures are logged by the caller
+				if(pool.setHealthy(daemon, false) && state != SignalServiceState.CONNECTING)
+					logWarn(String.format("Could not connect to signal-cli daemon at %s: %s", daemon, e.getMessage()));
+			}
+		}
+		return pool.getHealthy();
+	}
+
+	/**
+	 * Switches to the standby daemons when the primary has failed too often or its event streams have been down too long, 
+	 * and back once the primary has been healthy for the failback delay. The event streams are opened on the daemons switched to
+	 */
+	private void checkFailover(List<String> streamAccounts, ExponentialBackoff backoff, int queueSize) {
+		SignalFailover current = failover;
+		boolean primaryHealthy = primaryPool.getHealthy() > 0;
+		current.recordPrimaryHealth(primaryHealthy);
+
+		if(!current.isOnStandby()) {
+			// A passed health check does not clear failed requests, the daemon may answer version but fail to send
+			if(!primaryHealthy)
+				current.recordFailure();
+
+			long disconnected = 0;
+			for (SignalEventReceiver receiver : receivers) {
+				disconnected = Math.max(disconnected, receiver.getDisconnectedMillis());
+			}
+
+			if(!current.isFailoverDue(disconnected))
+				return;
+
+			if(standbyPool.getHealthy() == 0) {
+				if(getLogger().isDebugEnabled()) getLogger().debug("Primary daemon is failing but no standby daemon is healthy");
+				return;
+			}
+
+			logWarn(String.format("Failing over from signal-cli daemon at %s to standby at %s after %d failures in a row, event stream down for %d ms: %s", 
+					primaryPool.getDaemons(), standbyPool.getDaemons(), current.getConsecutiveFailures(), disconnected, primaryPool.getLastError()));
+			switchDaemons(standbyPool, streamAccounts, backoff, queueSize);
+			current.failedOver();
+		} else if(current.isFailbackDue()) {
+			logWarn(String.format("Failing back from standby signal-cli daemon at %s to %s", standbyPool.getDaemons(), primaryPool.getDaemons()));
+			switchDaemons(primaryPool, streamAccounts, backoff, queueSize);
+			current.failedBack();
+		}
+	}
+
+	private void switchDaemons(SignalDaemonPool pool, List<String> streamAccounts, ExponentialBackoff backoff, int queueSize) {
+		daemonPool = pool;
+		stopStreams();
+		startReceivers(streamAccounts, backoff, queueSize);
+	}
+
+	private List<String> listAccounts(URL url) throws IOException {
+		JsonObject rpc = new JsonObject();
+		rpc.addProperty("id", "listAccounts");
+		rpc.addProperty("jsonrpc", "2.0");
+		rpc.addProperty("method", "listAccounts");
+		rpc.add("params", new JsonObject());
+
+		return parseAccounts(internalSend(url, rpc, "listAccounts"));
+	}
+
+	private String requestVersion(URL url) throws IOException {
+		JsonObject rpc = new JsonObject();
+		rpc.addProperty("id", "version");
+		rpc.addProperty("jsonrpc", "2.0");
+		rpc.addProperty("method", "version");
+		rpc.add("params", new JsonObject());
+
+		JsonElement result = internalSend(url, rpc, "version");
+		return result.getAsJsonObject().get("version").getAsString();
 	}
 	
+	private void openOutbox(final ConfigurationContext context) throws InitializationException {
+		String directory = context.getProperty(PROP_OUTBOX_DIRECTORY).getValue();
+		if(directory == null || directory.isBlank())
+			return;
+
+		SignalOutbox newOutbox = new SignalOutbox(
+				Paths.get(directory.trim()), 
+				context.getProperty(PROP_OUTBOX_THREADS).asInteger(), 
+				context.getProperty(PROP_OUTBOX_MAX_ATTEMPTS).asInteger(), 
+				new ExponentialBackoff(OUTBOX_INITIAL_BACKOFF_MILLIS, OUTBOX_MAX_BACKOFF_MILLIS), 
+				message -> sendMessage(
+						message.getAccount(), 
+						message.getMessage(), 
+						message.getRecipients(), 
+						message.getGroups(), 
+						message.getQuote(), 
+						message.getAttachment(), 
+						message.getPriority()), 
+				this::notifyOutboxListeners);
+
+		try {
+			int recovered = newOutbox.open();
+			if(recovered > 0)
+				getLogger().info("Resuming " + recovered + " messages in outbox " + directory);
+		} catch (IOException e) {
+			try {
+				newOutbox.close();
+			} catch (IOException e1) { }
+			throw new InitializationException("Could not open outbox in " + directory, e);
+		}
+
+		outbox = newOutbox;
+	}
+
+	private static final double getRate(final ConfigurationContext context, PropertyDescriptor property) {
+		String value = context.getProperty(property).getValue();
+		if(value == null || value.isBlank())
+			return 0;
+
+		return Double.parseDouble(value.trim());
+	}
+
+	/**
+	 * Loads groups, identities and contacts of the configured accounts concurrently, 
+	 * waiting at most the configured pre-warm timeout. Failures are logged 
+	 * and the remaining caches will be loaded on first use.
+	 */
+	private void prewarmCaches(String accountsValue, long timeout) {
+		if(accountsValue == null || accountsValue.isBlank())
+			return;
+
+		long start = System.nanoTime();
+
+		List<String> accounts;
+		try {
+			accounts = ALL_ACCOUNTS.equals(accountsValue.trim()) ? getAccounts() : splitAccounts(accountsValue);
+		} catch (Exception e) {
+			logError(new IllegalStateException("Could not list accounts to pre-warm", e));
+			return;
+		}
+		
+		if(accounts.isEmpty())
+			return;
+
+		logDebugMessage("Pre-warming caches for accounts: " + accounts);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(accounts.size() * 2, MAX_WARMUP_THREADS), runnable -> {
+			Thread thread = new Thread(runnable, "SignalCacheWarmup");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		AtomicInteger failed = new AtomicInteger(0);
+		List<CompletableFuture<?>> futures = new ArrayList<>(accounts.size() * 3);
+		for (String account : accounts) {
+			futures.add(CompletableFuture.runAsync(() -> prewarm(account, "groups", this::getGroups, failed), executor));
+			futures.add(CompletableFuture.runAsync(() -> prewarm(account, "identities", this::getIdentities, failed), executor));
+			futures.add(CompletableFuture.runAsync(() -> prewarm(account, "contacts", this::getContacts, failed), executor));
+		}
+		
+		try {
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			logWarn("Pre-warming of caches did not finish within " + timeout + " ms, remaining accounts are loaded on first use");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logError(e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		metrics.put(METRIC_WARMUP_DURATION, duration);
+		metrics.put(METRIC_WARMUP_ACCOUNTS, accounts.size());
+		metrics.put(METRIC_WARMUP_FAILED, failed.get());
+
+		getLogger().info("Pre-warmed caches for " + accounts.size() + " accounts in " + duration + " ms");
+	}
+
+	private void prewarm(String account, String cacheName, CacheFunction loader, AtomicInteger failed) {
+		try {
+			loader.load(account);
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			logError(new IllegalStateException("Failed to pre-warm " + cacheName + " for account: " + account, e));
+		}
+	}
+
+	@FunctionalInterface
+	private interface CacheFunction {
+		Object load(String account) throws Exception;
+	}
+
+	private static final List<String> splitAccounts(String accounts) {
+		List<String> result = new ArrayList<>();
+		for (String account : accounts.split(",")) {
+			String trimmed = account.trim();
+			if(!trimmed.isEmpty() && !result.contains(trimmed))
+				result.add(trimmed);
+		}
+		return result;
+	}
+
+	@Override
+	public double getSendHeadroom(String account) {
+		SendRateLimiter limiter = rateLimiter;
+		if(limiter == null || account == null)
+			return 1;
+		return limiter.getHeadroom(account);
+	}
+
+	@Override
+	public List<String> getAccounts() throws UnsupportedOperationException, IOException {
+		SignalDaemonPool pool = daemonPool;
+		if(pool == null || pool.size() == 1)
+			return parseAccounts(sendJsonRpc("listAccounts", Collections.emptyMap()));
+
+		// Each daemon only knows its own accounts
+		Set<String> accounts = new LinkedHashSet<>();
+		IOException failure = null;
+		for (SignalDaemonPool.Daemon daemon : pool.getDaemons()) {
+			try {
+				List<String> daemonAccounts = listAccounts(daemon.getRpc());
+				pool.setAccounts(daemon, daemonAccounts);
+				accounts.addAll(daemonAccounts);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		if(accounts.isEmpty() && failure != null)
+			throw failure;
+		return new ArrayList<>(accounts);
+	}
+
+	private static List<String> parseAccounts(JsonElement response) {
+		if(response == null || !response.isJsonArray())
+			return Collections.emptyList();
+
+		List<String> accounts = new ArrayList<>();
+		for (JsonElement element : response.getAsJsonArray()) {
+			if(element.isJsonObject()) {
+				getFieldString(element.getAsJsonObject(), "number").ifPresent(accounts::add);
+			} else if(element.isJsonPrimitive()) {
+				accounts.add(element.getAsString());
+			}
+		}
+		return accounts;
+	}
+
+	@Override
+	public Map<String, Number> getMetrics() {
+		Map<String, Number> result = new TreeMap<>(metrics);
+		result.put(METRIC_REGISTRATION_HITS, registrationHits.sum());
+		result.put(METRIC_REGISTRATION_LOOKUPS, registrationLookups.sum());
+		result.put(METRIC_REGISTRATION_UNREGISTERED, registrationUnregistered.sum());
+
+		SendRateLimiter limiter = rateLimiter;
+		if(limiter != null)
+			limiter.snapshot(result);
+
+		SendScheduler scheduler = sendScheduler;
+		if(scheduler != null)
+			scheduler.snapshot(result);
+
+		SendLanes lanes = sendLanes;
+		if(lanes != null)
+			lanes.snapshot(result);
+
+		RecipientBatches batches = recipientBatches;
+		if(batches != null)
+			batches.snapshot(result);
+
+		AdaptiveConcurrencyLimit limit = concurrencyLimit;
+		if(limit != null)
+			limit.snapshot(result);
+
+		result.put(METRIC_RPC_RETRIES, rpcRetries.sum());
+		rpcErrors.forEach((type, count) -> result.put("rpc.errors." + type.name().toLowerCase(), count.sum()));
+		cacheIdentitiesMetrics.snapshot(cacheIdentities, result);
+		cacheContactsMetrics.snapshot(cacheContacts, result);
+		cacheGroupsMetrics.snapshot(cacheGroups, result);
+
+		SignalOutbox currentOutbox = outbox;
+		if(currentOutbox != null)
+			currentOutbox.snapshot(result);
+		result.put(METRIC_OUTBOX_RESULTS_DROPPED, outboxResultsDropped.sum());
+
+		int connected = 0;
+		int queued = 0;
+		long idle = -1;
+		for (SignalEventReceiver receiver : receivers) {
+			if(receiver.isConnected())
+				connected++;
+			queued += receiver.getQueued();
+			idle = Math.max(idle, receiver.getIdleMillis());
+		}
+		result.put(METRIC_STREAM_CONNECTED, connected);
+		result.put(METRIC_STREAM_QUEUED, queued);
+		result.put(METRIC_STREAM_DUPLICATES, streamDuplicates.sum());
+
+		SignalDaemonPool pool = daemonPool;
+		if(pool != null) {
+			result.put(METRIC_DAEMONS, pool.size());
+			result.put(METRIC_DAEMONS_HEALTHY, pool.getHealthy());
+		}
+
+		SignalFailover currentFailover = failover;
+		if(currentFailover != null && standbyPool != null)
+			currentFailover.snapshot(result);
+		result.put(METRIC_STREAM_CONNECTS, streamConnects.sum());
+		result.put(METRIC_STREAM_RECONNECTS, streamReconnects.sum());
+		result.put(METRIC_STREAM_STALE, streamStale.sum());
+		if(idle >= 0)
+			result.put(METRIC_STREAM_IDLE, idle);
+		streamGaps.snapshot(METRIC_STREAM_GAP, result);
+		return Collections.unmodifiableMap(result);
+	}
+
 	public String getSignalVersion() {
 		try {
 			JsonElement result = sendJsonRpc("version", Collections.emptyMap());
@@ -244,71 +1380,46 @@ public class SignalMessengerService extends AbstractControllerService implements
 		}
 	}
 
-	private void connectAndRecieveMessaged(String url2) throws InterruptedException, JsonSyntaxException, IOException {
-		URLConnection connection = urlEvents.openConnection();
-		if(connection instanceof HttpURLConnection) {
-			HttpURLConnection httpConnection = (HttpURLConnection) connection;
-			httpConnection.setRequestMethod("GET");
-			httpConnection.setRequestProperty("Content-Type", "application/json");
+	private void dispatchEvent(String jsonData) {
+		if(!isStarted())
+			return;
 
-			try(
-					InputStream inputStream = httpConnection.getInputStream();
-					InputStreamReader reader = new InputStreamReader(inputStream);
-					BufferedReader bufferedReader = new BufferedReader(reader);
-					){
+		ComponentLog log = getLogger();
+		if(log.isDebugEnabled()) log.debug("Processing data message");
+		SignalData signalData = null;
+		try {
+			JsonElement element = JsonParser.parseString(jsonData);
+			signalData = processEventData(element);
+		} catch (Exception e) {
+			onError(new UnsupportedOperationException("Failed to process: " + jsonData, e));
+		}
 
-				ComponentLog log = getLogger();
-				
-				listeningEvents.set(true);
-				String line = null;
-				boolean nextLineIsData = false;
-				while((line = bufferedReader.readLine()) != null) {
-
-					if(Thread.currentThread().isInterrupted() || !isStarted()) {
-						Thread.currentThread().interrupt();
-						throw new InterruptedException();
-					}
-					
-					//Connection keep alive
-					if(line.equalsIgnoreCase(":")) {
-						if(log.isDebugEnabled()) log.debug("Connection keep-alive received");
-						continue;
-					}
+		if(signalData == null)
+			return;
 
-					if(line.equalsIgnoreCase("event:receive")) {
-						if(log.isDebugEnabled()) log.debug("Got an receive event");
-						nextLineIsData = true;
-						continue;
-					}
+		Cache<String, Boolean> received = receivedEvents;
+		if(received != null && received.asMap().putIfAbsent(getEventKey(signalData), Boolean.TRUE) != null) {
+			streamDuplicates.increment();
+			return;
+		}
 
-					if(nextLineIsData && line.startsWith("data:")) {
-						if(log.isDebugEnabled()) log.debug("Processing data message");
-						String jsonData = line.substring(5);
-
-						SignalData signalData = null;
-						try {
-							JsonElement element = JsonParser.parseString(jsonData);
-							signalData = processEventData(element);
-						} catch (Exception e) {
-							onError(new UnsupportedOperationException("Failed to process: " + jsonData, e));
-						}
-						
-						if(signalData != null) {
-							if(log.isDebugEnabled()) log.debug("Notifying listeners");
-							synchronized (LOCK_LISTENERS) {
-								messageQueue.add(signalData);
-								notifyListeners(signalData);
-							}
-						}
-						continue;
-					}
-				}
-			} finally {
-				listeningEvents.set(false);
-			}
-		} else {
-			throw new UnsupportedOperationException();
+		// Listeners are called outside the lock so that streams of different accounts are dispatched in parallel.
+		// A listener added after the index was read gets the message from the queue instead
+		SubscriptionIndex<Consumer<SignalData>> index;
+		synchronized (LOCK_LISTENERS) {
+			messageQueue.add(signalData);
+			index = messageListenerIndex;
 		}
+
+		final SignalData data = signalData;
+		List<Consumer<SignalData>> listeners = index.lookup(data, () -> isTrustedSender(data));
+		if(log.isDebugEnabled()) log.debug("Notifying " + listeners.size() + " listeners");
+		notifyListeners(listeners, signalData);
+	}
+
+	private static String getEventKey(SignalData data) {
+		String sender = data.getSourceUuid() == null ? data.getSourceNumber() : data.getSourceUuid();
+		return data.getAccount() + "|" + sender + "|" + data.getTimestamp();
 	}
 
 	private SignalData processEventData(JsonElement element) {
@@ -335,9 +1446,24 @@ public class SignalMessengerService extends AbstractControllerService implements
 		}
 
 		long timestamp = jsonEnvelope.get("timestamp").getAsLong();
-		String sourceName = getFieldString(jsonEnvelope, "sourceName").orElse("Unknown");
-		String sourceUuid = getFieldString(jsonEnvelope, "sourceUuid").orElse("Unknown");
-		String sourceNumber = getFieldString(jsonEnvelope, "sourceNumber").orElse("Unknown");
+		Optional<String> optSourceName = getFieldString(jsonEnvelope, "sourceName").filter(name -> !name.isBlank());
+		Optional<String> optSourceUuid = getFieldString(jsonEnvelope, "sourceUuid");
+		Optional<String> optSourceNumber = getFieldString(jsonEnvelope, "sourceNumber");
+
+		// Fill in what the envelope lacks from the cached contacts
+		if(optSourceName.isEmpty() || optSourceNumber.isEmpty() || optSourceUuid.isEmpty()) {
+			Optional<SignalContact> contact = findContact(account, optSourceUuid, optSourceNumber);
+			if(contact.isPresent()) {
+				SignalContact signalContact = contact.get();
+				optSourceName = optSourceName.or(() -> Optional.ofNullable(signalContact.getDisplayName()));
+				optSourceNumber = optSourceNumber.or(() -> Optional.ofNullable(signalContact.getNumber()));
+				optSourceUuid = optSourceUuid.or(() -> Optional.ofNullable(signalContact.getUuid()));
+			}
+		}
+
+		String sourceName = optSourceName.orElse("Unknown");
+		String sourceUuid = optSourceUuid.orElse("Unknown");
+		String sourceNumber = optSourceNumber.orElse("Unknown");
 
 		if(jsonEnvelope.has("dataMessage")) {
 			logDebugMessage("Processing received data message");
@@ -399,6 +1525,19 @@ public class SignalMessengerService extends AbstractControllerService implements
 		return null;
 	}
 
+	private Optional<SignalContact> findContact(String account, Optional<String> uuid, Optional<String> number) {
+		try {
+			SignalRecipientIndex<SignalContact> contacts = getContactIndex(account);
+			Optional<SignalContact> contact = uuid.flatMap(contacts::get);
+			if(contact.isEmpty())
+				contact = number.flatMap(contacts::get);
+			return contact;
+		} catch (Exception e) {
+			logError(e);
+			return Optional.empty();
+		}
+	}
+
 	private boolean isRemoteDelete(JsonObject dataMessage) {
 		return dataMessage.has("remoteDelete");
 	}
@@ -432,16 +1571,21 @@ public class SignalMessengerService extends AbstractControllerService implements
 	public void onDisable() {
 		logDebugMessage("Disabling SignalMessengerService");
 		started = false;
-		if(receiveMessagesThread != null) {
+
+		SignalOutbox currentOutbox = outbox;
+		outbox = null;
+		if(currentOutbox != null) {
 			try {
-				receiveMessagesThread.interrupt();
-			} catch (Exception e) {
-				getLogger().error(e.getMessage(), e);
+				currentOutbox.close();
+			} catch (IOException e) {
+				logError(e);
 			}
 		}
+		stopReceivers();
 
 		synchronized (LOCK_LISTENERS) {
 			messageListeners.clear();
+			messageListenerIndex = SubscriptionIndex.empty();
 			messageListenersLastMessage.clear();
 		}
 
@@ -454,6 +1598,15 @@ public class SignalMessengerService extends AbstractControllerService implements
 			}
 		}
 
+		synchronized (LOCK_CACHE_CONTACTS) {
+			if(cacheContacts != null) {
+				try {
+					cacheContacts.invalidateAll();
+				} catch (Throwable e) { }
+				cacheContacts = null;
+			}
+		}
+
 		synchronized (LOCK_CACHE_GROUPS) {
 			if(cacheGroups != null) {
 				try {
@@ -462,14 +1615,68 @@ public class SignalMessengerService extends AbstractControllerService implements
 				cacheGroups = null;
 			}
 		}
+
+		cacheRegistered = null;
+		cacheUnregistered = null;
+		receivedEvents = null;
+	}
+	
+	/**
+	 * Stops the connect thread and the receivers, see {@link #stopStreams()}
+	 */
+	private void stopReceivers() {
+		Thread thread = connectThread;
+		connectThread = null;
+		if(thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(RECEIVE_THREAD_JOIN_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if(thread.isAlive())
+				logWarn("Connect thread did not stop within " + RECEIVE_THREAD_JOIN_MILLIS + " ms");
+		}
+
+		stopStreams();
+	}
+
+	/**
+	 * Stops the receivers. The event streams are closed since a thread blocked reading a socket 
+	 * does not notice interrupts. Waits for the messages already received to be passed to the listeners.
+	 */
+	private void stopStreams() {
+		List<SignalEventReceiver> stopping;
+		synchronized (lockReceivers) {
+			stopping = new ArrayList<>(receivers);
+			receivers.clear();
+		}
+
+		for (SignalEventReceiver receiver : stopping) {
+			try {
+				if(!receiver.stop(RECEIVE_THREAD_JOIN_MILLIS))
+					logWarn(describeStream(receiver) + " did not stop within " + RECEIVE_THREAD_JOIN_MILLIS + " ms");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
-	
+
 	public boolean isStarted() {
 		return started;
 	}
+
+	@Override
+	public SignalServiceState getState() {
+		return state;
+	}
 	
+	/**
+	 * @return true if any event stream is connected
+	 */
 	public boolean isListeningEvents() {
-		return listeningEvents.get();
+		return receivers.stream().anyMatch(SignalEventReceiver::isConnected);
 	}
 
 	@Override
@@ -480,8 +1687,26 @@ public class SignalMessengerService extends AbstractControllerService implements
 							long timestmap,
 							String emoji,
 							Optional<Boolean> remove) throws IOException, UnsupportedOperationException, ExecutionException {
+		ReentrantLock lane = lockLane(account, recipients, groups);
+		try {
+			return sendReactionInLane(account, recipients, groups, author, timestmap, emoji, remove);
+		} finally {
+			if(lane != null)
+				lane.unlock();
+		}
+	}
+
+	private JsonElement sendReactionInLane(String account, 
+							Optional<List<String>> recipients,
+							Optional<List<String>> groups,
+							String author,
+							long timestmap,
+							String emoji,
+							Optional<Boolean> remove) throws IOException, UnsupportedOperationException, ExecutionException {
 		
 		logDebugMessage("Sending signal reaction");
+
+		acquireSendPermit(account, recipients, groups);
 		
 		Boolean removeReaction = remove.orElse(false);
 
@@ -508,7 +1733,7 @@ public class SignalMessengerService extends AbstractControllerService implements
 //				jsonParams.add("recipient", toGroupMembersJsonArray(account, members));
 				jsonParams.addProperty("group-id", groupUuid);
 				
-				lastResult = sendJsonRpc("sendReaction", jsonParams);
+				lastResult = sendScheduled(account, "sendReaction", jsonParams);
 			}
 			
 			return lastResult;
@@ -518,10 +1743,35 @@ public class SignalMessengerService extends AbstractControllerService implements
 			JsonArray array = new JsonArray(recipients.get().size());
 			recipients.get().stream().distinct().forEach(array::add);
 			jsonParams.add("recipient", array);
-			return sendJsonRpc("sendReaction", jsonParams);
+			return sendScheduled(account, "sendReaction", jsonParams);
 		}
 	}
 	
+	/**
+	 * Waits for the lane of the conversation, so sends to the same recipients (or groups) are sent one at a time in order
+	 * @return the lane to unlock when sent, null if sends are not kept in order
+	 */
+	private ReentrantLock lockLane(String account, Optional<List<String>> recipients, Optional<List<String>> groups) throws InterruptedIOException {
+		SendLanes lanes = sendLanes;
+		if(lanes == null)
+			return null;
+
+		List<String> targets = groups.filter(g -> !g.isEmpty()).or(() -> recipients).orElse(Collections.emptyList());
+		return lanes.lock(SendLanes.getConversation(account, targets));
+	}
+
+	/**
+	 * Waits for the send rate limits of the account and the recipients (or groups)
+	 */
+	private void acquireSendPermit(String account, Optional<List<String>> recipients, Optional<List<String>> groups) throws InterruptedIOException {
+		SendRateLimiter limiter = rateLimiter;
+		if(limiter == null || !limiter.isEnabled())
+			return;
+
+		List<String> targets = groups.filter(g -> !g.isEmpty()).or(() -> recipients).orElse(Collections.emptyList());
+		limiter.acquire(account, targets);
+	}
+
 	protected Map<String, List<SignalGroupMember>> getRecipientsFronGroups(String account, Collection<String> groupsTitleOrId) throws UnsupportedOperationException, IOException, ExecutionException{
 		Map<String, List<SignalGroupMember>> result = new LinkedHashMap<>(groupsTitleOrId.size());
 
@@ -565,9 +1815,38 @@ public class SignalMessengerService extends AbstractControllerService implements
 							Optional<List<String>> groups,
 							Optional<SignalQuote> quote,
 							Optional<SignalAttachment> attachment) throws IOException, UnsupportedOperationException, ExecutionException {
+		return sendMessage(account, message, recipients, groups, quote, attachment, SignalPriority.NORMAL);
+	}
+
+	@Override
+	public JsonElement sendMessage(String account, 
+							String message, 
+							Optional<List<String>> recipients,
+							Optional<List<String>> groups,
+							Optional<SignalQuote> quote,
+							Optional<SignalAttachment> attachment,
+							SignalPriority priority) throws IOException, UnsupportedOperationException, ExecutionException {
+		ReentrantLock lane = lockLane(account, recipients, groups);
+		try {
+			return sendMessageInLane(account, message, recipients, groups, quote, attachment, priority);
+		} finally {
+			if(lane != null)
+				lane.unlock();
+		}
+	}
+
+	private JsonElement sendMessageInLane(String account, 
+							String message, 
+							Optional<List<String>> recipients,
+							Optional<List<String>> groups,
+							Optional<SignalQuote> quote,
+							Optional<SignalAttachment> attachment,
+							SignalPriority priority) throws IOException, UnsupportedOperationException, ExecutionException {
 
 		logDebugMessage("Sending signal message");
 
+		acquireSendPermit(account, recipients, groups);
+
 		//If groups is present, send to their members
 		if(groups.isPresent() && groups.get().size() > 0) {
 			Map<String, List<SignalGroupMember>> recipientsFromGroups = getRecipientsFronGroups(account, groups.get());
@@ -587,30 +1866,45 @@ public class SignalMessengerService extends AbstractControllerService implements
 					jsonParams.addProperty("quote-message", q.getMessage());
 				}
 
-				sendMessage(account, message, jsonParams, attachment);
+				sendMessage(account, message, jsonParams, attachment, priority);
 			}
 		}
 		// Send to multi recipients
 		else {
-			JsonArray array = new JsonArray(recipients.get().size());
-			recipients.get().stream().distinct().forEach(array::add);
-			
-			JsonObject jsonParams = new JsonObject();
-			jsonParams.add("recipient", array);
-			
-			if(quote.isPresent()) {
-				SignalQuote q = quote.get();
-				jsonParams.addProperty("quote-timestamp", q.getTimestamp());
-				jsonParams.addProperty("quote-author", q.getAuthor());
-				jsonParams.addProperty("quote-message", q.getMessage());
-			}
-			
-			return sendMessage(account, message, jsonParams, attachment);
+			List<String> distinct = recipients.get().stream().distinct().collect(Collectors.toList());
+
+			RecipientBatches batches = recipientBatches;
+			if(batches != null && batches.isBatched(distinct))
+				return batches.send(distinct, batch -> sendMessageToRecipients(account, message, batch, quote, attachment, priority));
+
+			return sendMessageToRecipients(account, message, distinct, quote, attachment, priority);
 		}
 		
 		return new JsonObject();
 	}
 	
+	private JsonElement sendMessageToRecipients(String account, 
+							String message, 
+							List<String> recipients,
+							Optional<SignalQuote> quote,
+							Optional<SignalAttachment> attachment,
+							SignalPriority priority) throws IOException, UnsupportedOperationException {
+		JsonArray array = new JsonArray(recipients.size());
+		recipients.forEach(array::add);
+		
+		JsonObject jsonParams = new JsonObject();
+		jsonParams.add("recipient", array);
+		
+		if(quote.isPresent()) {
+			SignalQuote q = quote.get();
+			jsonParams.addProperty("quote-timestamp", q.getTimestamp());
+			jsonParams.addProperty("quote-author", q.getAuthor());
+			jsonParams.addProperty("quote-message", q.getMessage());
+		}
+		
+		return sendMessage(account, message, jsonParams, attachment, priority);
+	}
+
 	@SuppressWarnings("unused")
 	private JsonArray toGroupMembersJsonArray(String account, List<SignalGroupMember> members) {
 		JsonArray array = new JsonArray(members.size());
@@ -629,8 +1923,24 @@ public class SignalMessengerService extends AbstractControllerService implements
 			Optional<List<String>> recipients, 
 			Optional<List<String>> groups,
 			long timestmap) throws IOException, UnsupportedOperationException, ExecutionException {
+		ReentrantLock lane = lockLane(account, recipients, groups);
+		try {
+			return deleteMessageInLane(account, recipients, groups, timestmap);
+		} finally {
+			if(lane != null)
+				lane.unlock();
+		}
+	}
+
+	private JsonElement deleteMessageInLane(
+			String account, 
+			Optional<List<String>> recipients, 
+			Optional<List<String>> groups,
+			long timestmap) throws IOException, UnsupportedOperationException, ExecutionException {
 		
 		logDebugMessage("Remotely delete signal message");
+
+		acquireSendPermit(account, recipients, groups);
 		
 		JsonObject jsonParams = new JsonObject();
 		jsonParams.addProperty("account", account);
@@ -651,7 +1961,7 @@ public class SignalMessengerService extends AbstractControllerService implements
 //				jsonParams.add("recipient", toGroupMembersJsonArray(account, members));
 				jsonParams.addProperty("group-id", groupUuid);
 				
-				lastResult = sendJsonRpc("remoteDelete", jsonParams);
+				lastResult = sendScheduled(account, "remoteDelete", jsonParams);
 			}
 			
 			return lastResult;
@@ -661,7 +1971,7 @@ public class SignalMessengerService extends AbstractControllerService implements
 			JsonArray array = new JsonArray(recipients.get().size());
 			recipients.get().stream().distinct().forEach(array::add);
 			jsonParams.add("recipient", array);
-			return sendJsonRpc("remoteDelete", jsonParams);
+			return sendScheduled(account, "remoteDelete", jsonParams);
 		}
 	}
 
@@ -694,6 +2004,10 @@ public class SignalMessengerService extends AbstractControllerService implements
 	}
 	
 	public JsonElement sendMessage(String account, String message, JsonObject jsonParams, Optional<SignalAttachment> attachment) throws UnsupportedOperationException, IOException {
+		return sendMessage(account, message, jsonParams, attachment, SignalPriority.NORMAL);
+	}
+
+	private JsonElement sendMessage(String account, String message, JsonObject jsonParams, Optional<SignalAttachment> attachment, SignalPriority priority) throws UnsupportedOperationException, IOException {
 		jsonParams.addProperty("message", message);
 		jsonParams.addProperty("account", account);
 
@@ -701,19 +2015,120 @@ public class SignalMessengerService extends AbstractControllerService implements
 			jsonParams.addProperty("attachment", attachment.get().toAttachmentParam());
 		}
 		
-		return sendJsonRpc("send", jsonParams);
+		return sendScheduled(account, "send", jsonParams, priority);
+	}
+
+	private JsonElement sendScheduled(String account, String method, JsonObject params) throws UnsupportedOperationException, IOException {
+		return sendScheduled(account, method, params, SignalPriority.NORMAL);
+	}
+
+	/**
+	 * Sends the request, each attempt once the send scheduler gives the account a slot. The slot is
+	 * given back while waiting to retry, so an account that is rate limited does not hold up the others.
+	 */
+	private JsonElement sendScheduled(String account, String method, JsonObject params, SignalPriority priority) throws UnsupportedOperationException, IOException {
+		SendScheduler scheduler = sendScheduler;
+		if(scheduler == null)
+			return sendJsonRpc(method, params);
+
+		return sendJsonRpc(method, params, null, (rpc, msgId) -> {
+			long start = System.nanoTime();
+			scheduler.acquire(account, priority);
+			try {
+				return internalSend(rpc, msgId);
+			} finally {
+				scheduler.release(priority, start);
+			}
+		});
+	}
+
+	@Override
+	public String enqueueMessage(SignalOutgoingMessage message) throws IOException, UnsupportedOperationException {
+		SignalOutbox currentOutbox = outbox;
+		if(currentOutbox == null)
+			throw new UnsupportedOperationException("The outbox is not enabled, set " + PROP_OUTBOX_DIRECTORY.getDisplayName() + " on the service");
+
+		return currentOutbox.enqueue(Objects.requireNonNull(message));
+	}
+
+	@Override
+	public String scheduleMessage(SignalOutgoingMessage message, long sendAtMillis) throws IOException, UnsupportedOperationException {
+		SignalOutbox currentOutbox = outbox;
+		if(currentOutbox == null)
+			throw new UnsupportedOperationException("The outbox is not enabled, set " + PROP_OUTBOX_DIRECTORY.getDisplayName() + " on the service");
+
+		return currentOutbox.enqueue(Objects.requireNonNull(message), sendAtMillis);
+	}
+
+	@Override
+	public boolean isOutboxEnabled() {
+		return outbox != null;
+	}
+
+	@Override
+	public void addOutboxListener(Consumer<SignalOutboxResult> listener) {
+		List<SignalOutboxResult> undelivered;
+		synchronized (lockOutboxListeners) {
+			outboxListeners.add(Objects.requireNonNull(listener));
+			undelivered = new ArrayList<>(undeliveredOutboxResults);
+			undeliveredOutboxResults.clear();
+		}
+
+		for (SignalOutboxResult result : undelivered) {
+			try {
+				listener.accept(result);
+			} catch (Throwable e) {
+				logError(e);
+			}
+		}
+		logDebugMessage("Added outbox listener");
+	}
+
+	@Override
+	public void removeOutboxListener(Consumer<SignalOutboxResult> listener) {
+		outboxListeners.remove(Objects.requireNonNull(listener));
+		logDebugMessage("Removed outbox listener");
+	}
+
+	private void notifyOutboxListeners(SignalOutboxResult result) {
+		synchronized (lockOutboxListeners) {
+			// Keep the result until a listener is added
+			if(outboxListeners.isEmpty()) {
+				if(undeliveredOutboxResults.size() >= MAX_UNDELIVERED_OUTBOX_RESULTS) {
+					undeliveredOutboxResults.poll();
+					outboxResultsDropped.increment();
+				}
+				undeliveredOutboxResults.add(result);
+				return;
+			}
+		}
+
+		for (Consumer<SignalOutboxResult> listener : outboxListeners) {
+			try {
+				listener.accept(result);
+			} catch (Throwable e) {
+				logError(new IllegalStateException("Listener " + listener.toString() + " failed to process outbox result", e));
+			}
+		}
 	}
 
 	@Override
 	public void addMessageListener(Consumer<SignalData> listener) {
+		addMessageListener(listener, SignalSubscription.all());
+	}
+
+	@Override
+	public void addMessageListener(Consumer<SignalData> listener, SignalSubscription subscription) {
 		synchronized (LOCK_LISTENERS) {
-			messageListeners.add(Objects.requireNonNull(listener));
+			messageListeners.put(Objects.requireNonNull(listener), Objects.requireNonNull(subscription));
+			messageListenerIndex = SubscriptionIndex.of(messageListeners);
 
 			String listenerId = listener.getClass().getCanonicalName();
 			
 			// For new listener, send all cached messages
 			Long lastMessageTimestamp = messageListenersLastMessage.get(listenerId);
-			var stream = messageQueue.stream();
+			var stream = messageQueue.stream()
+					.filter(msg -> subscription.matches(msg, () -> isTrustedSender(msg)));
 
 			if(lastMessageTimestamp != null)
 				stream = stream.filter(msg -> msg.getTimestamp() > lastMessageTimestamp);
@@ -735,12 +2150,41 @@ public class SignalMessengerService extends AbstractControllerService implements
 	public void removeMessageListener(Consumer<SignalData> messageListener) {
 		synchronized (LOCK_LISTENERS) {
 			messageListeners.remove(Objects.requireNonNull(messageListener));
+			messageListenerIndex = SubscriptionIndex.of(messageListeners);
 		}
 		logDebugMessage("Removed message listener");
 	}
 	
-	private void notifyListeners(SignalData data) {
-		for (Consumer<SignalData> consumer : messageListeners) {
+	/**
+	 * Resolves the trust level of the sender once, the result is kept on the data for the listeners.
+	 * A message from an untrusted sender is logged when resolved, not again for the listeners added later
+	 */
+	private boolean isTrustedSender(SignalData data) {
+		String trustLevel = data.getTrustLevel();
+		if(trustLevel == null) {
+			trustLevel = UNTRUSTED;
+			try {
+				// Senders are sometimes only known by UUID, so try that first
+				Optional<SignalIdentity> identity = getIdentity(data.getAccount(), data.getSourceUuid());
+				if(identity.isEmpty())
+					identity = getIdentity(data.getAccount(), data.getSourceNumber());
+				if(identity.isPresent() && identity.get().getTrustLevel() != null)
+					trustLevel = identity.get().getTrustLevel();
+			} catch (Exception e) {
+				logError(e);
+			}
+			data.setTrustLevel(trustLevel);
+
+			if(UNTRUSTED.equalsIgnoreCase(trustLevel))
+				logWarn("Message received from untrusted sender " + (data.getSourceNumber() != null ? data.getSourceNumber() : data.getSourceUuid())
+						+ ", not passed to listeners of trusted senders only");
+		}
+
+		return !UNTRUSTED.equalsIgnoreCase(trustLevel);
+	}
+
+	private void notifyListeners(Collection<Consumer<SignalData>> listeners, SignalData data) {
+		for (Consumer<SignalData> consumer : listeners) {
 			try {
 				consumer.accept(data);
 			} catch (Throwable e) {
@@ -751,32 +2195,127 @@ public class SignalMessengerService extends AbstractControllerService implements
 
 	@Override
 	public Map<String, SignalIdentity> getIdentities(String account) throws UnsupportedOperationException, IOException, ExecutionException {
-		synchronized (LOCK_CACHE_IDENTITIES) {
-			if(cacheIdentities == null)
-				return Collections.emptyMap();
+		return getIdentityIndex(account).getByNumber();
+	}
 
-			Map<String, SignalIdentity> result = cacheIdentities.get(account);
-			if(result == null)
-				return Collections.emptyMap();
+	@Override
+	public Optional<SignalIdentity> getIdentity(String account, String numberOrUuid) throws UnsupportedOperationException, IOException, ExecutionException {
+		return getIdentityIndex(account).get(numberOrUuid);
+	}
 
-			return result;
-		}
+	private SignalRecipientIndex<SignalIdentity> getIdentityIndex(String account) throws ExecutionException {
+		// The cache handles concurrent loads, so different accounts can be loaded in parallel
+		LoadingCache<String, SignalRecipientIndex<SignalIdentity>> cache = cacheIdentities;
+		if(cache == null)
+			return SignalRecipientIndex.empty();
+
+		SignalRecipientIndex<SignalIdentity> result = cacheIdentitiesMetrics.get(cache, account);
+		if(result == null)
+			return SignalRecipientIndex.empty();
+
+		return result;
+	}
+
+	@Override
+	public Optional<SignalContact> getContact(String account, String numberOrUuid) throws UnsupportedOperationException, IOException, ExecutionException {
+		return getContactIndex(account).get(numberOrUuid);
+	}
+
+	private Map<String, SignalContact> getContacts(String account) throws ExecutionException {
+		return getContactIndex(account).getByUuid();
+	}
+
+	private SignalRecipientIndex<SignalContact> getContactIndex(String account) throws ExecutionException {
+		LoadingCache<String, SignalRecipientIndex<SignalContact>> cache = cacheContacts;
+		if(cache == null)
+			return SignalRecipientIndex.empty();
+
+		SignalRecipientIndex<SignalContact> result = cacheContactsMetrics.get(cache, account);
+		if(result == null)
+			return SignalRecipientIndex.empty();
+
+		return result;
 	}
 
 	@Override
 	public Map<String, SignalGroup> getGroups(String account) throws UnsupportedOperationException, IOException, ExecutionException {
-		synchronized (LOCK_CACHE_GROUPS) {
-			if(cacheGroups == null)
-				return Collections.emptyMap();
+		LoadingCache<String, Map<String, SignalGroup>> cache = cacheGroups;
+		if(cache == null)
+			return Collections.emptyMap();
+		
+		Map<String, SignalGroup> result = cacheGroupsMetrics.get(cache, account);
+		if(result == null)
+			return Collections.emptyMap();
+		
+		return result;
+	}
+	
+	@Override
+	public Map<String, Boolean> getRegistrationStatus(String account, Collection<String> recipients) throws UnsupportedOperationException, IOException {
+		Cache<String, Boolean> registered = cacheRegistered;
+		Cache<String, Boolean> unregistered = cacheUnregistered;
+		if(registered == null || unregistered == null)
+			return Collections.emptyMap();
+
+		Map<String, Boolean> result = new LinkedHashMap<>(recipients.size());
+		// In the order of the recipients, so the batches are too
+		Set<String> missing = new LinkedHashSet<>();
+		for (String recipient : recipients) {
+			if(result.containsKey(recipient) || missing.contains(recipient))
+				continue;
+
+			String key = getRegistrationKey(account, recipient);
+			if(registered.getIfPresent(key) != null) {
+				result.put(recipient, Boolean.TRUE);
+			} else if(unregistered.getIfPresent(key) != null) {
+				result.put(recipient, Boolean.FALSE);
+			} else {
+				missing.add(recipient);
+			}
+		}
+		registrationHits.add(result.size());
+
+		// Look up the rest in batches, one RPC per batch
+		for (List<String> batch : Lists.partition(new ArrayList<>(missing), MAX_USER_STATUS_BATCH)) {
 			
-			Map<String, SignalGroup> result = cacheGroups.get(account);
-			if(result == null)
-				return Collections.emptyMap();
+			JsonObject jsonParams = getAccountParam(account);
+			JsonArray array = new JsonArray(batch.size());
+			batch.forEach(array::add);
+			jsonParams.add("recipient", array);
+
+			registrationLookups.increment();
+			JsonElement response = sendJsonRpc("getUserStatus", jsonParams);
+			if(response == null || !response.isJsonArray())
+				continue;
 			
-			return result;
+			for (JsonElement element : response.getAsJsonArray()) {
+				if(!element.isJsonObject())
+					continue;
+
+				JsonObject status = element.getAsJsonObject();
+				Optional<String> recipient = getFieldString(status, "recipient");
+				if(recipient.isEmpty() || !status.has("isRegistered"))
+					continue;
+
+				boolean isRegistered = status.get("isRegistered").getAsBoolean();
+				String key = getRegistrationKey(account, recipient.get());
+				if(isRegistered) {
+					registered.put(key, Boolean.TRUE);
+				} else {
+					unregistered.put(key, Boolean.FALSE);
+					registrationUnregistered.increment();
+				}
+				result.put(recipient.get(), isRegistered);
+			}
 		}
+
+		return result;
 	}
-	
+
+	private static final String getRegistrationKey(String account, String recipient) {
+		return account + "|" + recipient;
+	}
+
 	private static final JsonObject getAccountParam(String account) {
 		JsonObject result = new JsonObject();
 		result.addProperty("account", account);
@@ -798,6 +2337,20 @@ public class SignalMessengerService extends AbstractControllerService implements
 	}
 	
 	public JsonElement sendJsonRpc(String method, JsonObject params, String msgId) throws UnsupportedOperationException, IOException {
+		return sendJsonRpc(method, params, msgId, this::internalSend);
+	}
+
+	/**
+	 * One attempt of a request to the daemon
+	 */
+	private interface Attempt {
+		JsonElement send(JsonObject rpc, String msgId) throws IOException, UnsupportedOperationException;
+	}
+
+	/**
+	 * Makes the request, and makes it again after a backoff when it failed with a transient error
+	 */
+	private JsonElement sendJsonRpc(String method, JsonObject params, String msgId, Attempt attempts) throws UnsupportedOperationException, IOException {
 		JsonObject rpc = new JsonObject();
 		
 		if(msgId == null || msgId.isBlank())
@@ -809,14 +2362,198 @@ public class SignalMessengerService extends AbstractControllerService implements
 		rpc.addProperty("method", method);
 		rpc.add("params", Objects.requireNonNull(params));
 		
-		return internalSend(rpc, msgId);
+		RetryPolicy policy = retryPolicy;
+		long start = System.nanoTime();
+		// Results of the recipients earlier attempts were sent to, before the request was narrowed to the failed ones
+		JsonObject delivered = null;
+		for (int attempt = 1; ; attempt++) {
+			long delay;
+			try {
+				JsonElement result = attempts.send(rpc, msgId);
+				return delivered == null ? result : addDelivered(delivered, result);
+			} catch (SignalRpcException e) {
+				rpcErrors.computeIfAbsent(e.getType(), t -> new LongAdder()).increment();
+				if(!e.isTransient())
+					throw toPartialSend(e, params, delivered);
+				
+				long retryAfter = e instanceof SignalRateLimitException ? ((SignalRateLimitException) e).getRetryAfterMillis() : 0;
+				delay = policy.getDelayMillis(attempt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), retryAfter);
+				if(delay < 0)
+					throw toPartialSend(e, params, delivered);
+				
+				JsonObject narrowed = retainFailedRecipients(params, e.getFailedRecipients());
+				if(narrowed == null) {
+					if(!isRetryable(method, e))
+						throw toPartialSend(e, params, delivered);
+				} else if(getRecipients(narrowed).size() < getRecipients(params).size()) {
+					// The others got the message, their results are kept to be merged with those of the retry
+					JsonObject sent = SignalErrors.getSent(e);
+					if(sent == null)
+						throw toPartialSend(e, params, delivered);
+					delivered = addDelivered(delivered == null ? new JsonObject() : delivered, sent);
+				}
+				if(narrowed != null) {
+					params = narrowed;
+					rpc.add("params", narrowed);
+				}
+				logWarn(String.format("Retrying %s in %d ms after attempt %d failed: %s", method, delay, attempt, e.getMessage()));
+			} catch (IOException e) {
+				rpcErrors.computeIfAbsent(SignalErrorType.TRANSPORT, t -> new LongAdder()).increment();
+				// Unless the daemon never got the request, only retry requests that does not send anything
+				if(!(e instanceof ConnectException) && !IDEMPOTENT_METHODS.contains(method)) {
+					if(delivered != null)
+						throw toPartialSend(e, params, delivered);
+					throw e;
+				}
+				
+				delay = policy.getDelayMillis(attempt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 0);
+				if(delay < 0) {
+					if(delivered != null)
+						throw toPartialSend(e, params, delivered);
+					throw e;
+				}
+
+				logWarn(String.format("Retrying %s in %d ms after attempt %d failed: %s", method, delay, attempt, e.getMessage()));
+			}
+
+			rpcRetries.increment();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry " + method);
+			}
+		}
+	}
+
+	/**
+	 * A request that sends something is only made again if the daemon turned it away without processing it, 
+	 * so no one gets the message twice
+	 */
+	private static boolean isRetryable(String method, SignalRpcException e) {
+		if(IDEMPOTENT_METHODS.contains(method))
+			return true;
+
+		return e.getFailedRecipients().isEmpty() && (e instanceof SignalRateLimitException || SignalErrors.isNotProcessed(e.getCode()));
+	}
+
+	/**
+	 * If the daemon reported which recipients failed, only those are retried so the others do not get the message twice
+	 * @return a copy of the request params with the recipients narrowed to the failed ones, null if they could not be
+	 */
+	private static JsonObject retainFailedRecipients(JsonObject params, List<String> failedRecipients) {
+		if(failedRecipients.isEmpty() || !params.has("recipient") || !params.get("recipient").isJsonArray())
+			return null;
+
+		Set<String> failed = new HashSet<>(failedRecipients);
+		JsonArray retained = new JsonArray();
+		for (JsonElement recipient : params.getAsJsonArray("recipient")) {
+			if(failed.contains(recipient.getAsString()))
+				retained.add(recipient);
+		}
+
+		// Could not match the reported recipients with the requested
+		if(retained.isEmpty())
+			return null;
+
+		JsonObject narrowed = params.deepCopy();
+		narrowed.add("recipient", retained);
+		return narrowed;
+	}
+
+	private static List<String> getRecipients(JsonObject params) {
+		List<String> recipients = new ArrayList<>();
+		if(params.has("recipient") && params.get("recipient").isJsonArray())
+			params.getAsJsonArray("recipient").forEach(recipient -> recipients.add(recipient.getAsString()));
+		return recipients;
+	}
+
+	/**
+	 * @return the results delivered so far, with those of the attempt added
+	 */
+	private static JsonObject addDelivered(JsonObject delivered, JsonElement result) {
+		JsonArray results = delivered.has("results") ? delivered.getAsJsonArray("results") : new JsonArray();
+		RecipientBatches.addResults(result, delivered, results);
+		delivered.add("results", results);
+		return delivered;
+	}
+
+	/**
+	 * When earlier attempts were sent to some of the recipients, the send failed for the rest only. The
+	 * results of the recipients it was sent to are returned with the error so they are not sent to again
+	 */
+	private static RuntimeException toPartialSend(Exception e, JsonObject params, JsonObject delivered) {
+		if(delivered == null)
+			return (RuntimeException) e;
+
+		List<String> recipients = getRecipients(params);
+		List<String> failed = new ArrayList<>(recipients);
+		if(e instanceof SignalRpcException)
+			failed.retainAll(((SignalRpcException) e).getFailedRecipients());
+		if(failed.isEmpty())
+			failed = recipients;
+
+		// The error of the last attempt may have been sent to more of the recipients
+		if(e instanceof SignalRpcException) {
+			JsonObject sent = SignalErrors.getSent((SignalRpcException) e);
+			if(sent != null)
+				addDelivered(delivered, sent);
+		}
+
+		SignalErrorType type = e instanceof SignalRpcException ? ((SignalRpcException) e).getType() : SignalErrorType.TRANSPORT;
+		long code = e instanceof SignalRpcException ? ((SignalRpcException) e).getCode() : SignalRpcException.NO_CODE;
+		String message = String.format("Could not send to %d of the recipients: %s", failed.size(), e.getMessage());
+		return new SignalPartialSendException(message, type, code, failed, delivered, e);
 	}
 
 	private JsonElement internalSend(JsonObject rpc, String msgId) throws IOException, UnsupportedOperationException {
+		SignalDaemonPool pool = daemonPool;
+		if(pool == null)
+			throw new UnsupportedOperationException("Service is not enabled");
+
+		JsonObject params = rpc.getAsJsonObject("params");
+		String account = params == null ? null : getFieldString(params, "account").orElse(null);
+		SignalDaemonPool.Daemon daemon = pool.route(account, IDEMPOTENT_METHODS.contains(rpc.get("method").getAsString()));
+
+		AdaptiveConcurrencyLimit limit = concurrencyLimit;
+		long request = limit == null ? 0 : limit.acquire();
+		long start = System.nanoTime();
+		// Failures that tell the daemon is overloaded
+		boolean dropped = false;
+		try {
+			JsonElement result = internalSend(daemon.getRpc(), rpc, msgId);
+			if(pool == primaryPool)
+				failover.recordSuccess();
+			return result;
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			dropped = true;
+			// Not used again until it answers a health check, so a retry goes to another daemon if there is one
+			if(pool.size() > 1 && pool.setHealthy(daemon, false))
+				logWarn(String.format("Signal-cli daemon at %s failed, using the other daemons until it answers: %s", daemon, e.getMessage()));
+			recordPrimaryFailure(pool);
+			throw e;
+		} catch (SignalRpcException e) {
+			// The daemon answered with a server error, JSON-RPC error codes are negative
+			dropped = e.getCode() >= 500;
+			if(e.getCode() >= 500)
+				recordPrimaryFailure(pool);
+			throw e;
+		} finally {
+			if(limit != null)
+				limit.release(request, System.nanoTime() - start, dropped);
+		}
+	}
+
+	private void recordPrimaryFailure(SignalDaemonPool pool) {
+		if(pool == primaryPool && standbyPool != null && failover.recordFailure())
+			healthCheckNow.release();
+	}
+
+	private JsonElement internalSend(URL url, JsonObject rpc, String msgId) throws IOException, UnsupportedOperationException {
 		String payload = GSON.toJson(rpc);
 
-		URLConnection connection = urlRpc.openConnection();
-		
 		ComponentLog log = getLogger();
 		
 		if(log.isDebugEnabled()) log.debug("Sending RPC message: " + rpc.get("method") + " to account " + rpc.get("params").getAsJsonObject().get("account"));
@@ -824,30 +2561,33 @@ public class SignalMessengerService extends AbstractControllerService implements
 		// ************************
 		// Send request
 		// ************************
-		if(connection instanceof HttpURLConnection) {
-			HttpURLConnection httpConnection = (HttpURLConnection) connection;
-			httpConnection.setRequestMethod("POST");
-			httpConnection.setRequestProperty("Content-Type", "application/json");
-			httpConnection.setDoOutput(true);
+		if(!"http".equalsIgnoreCase(url.getProtocol()) && !"https".equalsIgnoreCase(url.getProtocol()))
+			throw new UnsupportedOperationException("Unsupported protocol: " + url.getProtocol());
 
-			try(OutputStream outputStream = httpConnection.getOutputStream()){
-				outputStream.write(payload.getBytes(StandardCharsets.UTF_8));
-				outputStream.flush();
-			}
-			
-			int response = httpConnection.getResponseCode();
-			if(response != HttpURLConnection.HTTP_OK) {
-				throw new UnsupportedOperationException("Unexpected answer from server. Code: " + response);
-			}
-		} else {
-			throw new UnsupportedOperationException("!?");
+		HttpRequest request = HttpRequest.newBuilder(URI.create(url.toString()))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8))
+				.build();
+
+		// Requests of all services share the connection pool of one client
+		HttpResponse<InputStream> response;
+		try {
+			response = SignalRuntime.getHttpClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + rpc.get("method"));
+		}
+
+		if(response.statusCode() != HttpURLConnection.HTTP_OK) {
+			response.body().close();
+			throw SignalErrors.fromHttpStatus(response.statusCode(), IDEMPOTENT_METHODS.contains(rpc.get("method").getAsString()));
 		}
 
 		// ************************
 		// Process response
 		// ************************
-		try(	InputStream inputStream = connection.getInputStream();
-				InputStreamReader reader = new InputStreamReader(inputStream);
+		try(	InputStream inputStream = response.body();
+				InputStreamReader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
 				BufferedReader bufferedReader = new BufferedReader(reader);
 				){
 
@@ -864,7 +2604,7 @@ public class SignalMessengerService extends AbstractControllerService implements
 		//Check for error
 		if(element.has("error")) {
 			JsonObject jsonError = element.get("error").getAsJsonObject();
-			throw new UnsupportedOperationException(String.format("%s (ErrorCode: %s)", jsonError.get("message").getAsString(), jsonError.get("code").getAsLong()));
+			throw SignalErrors.fromJsonRpcError(jsonError);
 		}
 	}
 
@@ -0,0 +1,373 @@
+package org.signal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.signal.model.SignalAttachment;
+import org.signal.model.SignalOutboxResult;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
+import org.signal.model.SignalQuote;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Persistent outbox. Messages are committed to an {@link OutboxLog} before the caller is released
+ * and then sent by a pool of sender threads, retrying transient failures with backoff.
+ * Attachments are written to separate files so that the log only holds a reference to them.
+ * Messages not done when the outbox is closed are sent again when it is opened.
+ * <p>
+ * Messages to send later are kept in the log as well, and wait in a {@link TimerWheel} until they
+ * are due, so that many pending messages do not hold a task each in the executor.
+ */
+final class SignalOutbox implements Closeable {
+	static final String LOG_FILE = "outbox.log";
+	static final String ATTACHMENTS_DIRECTORY = "attachments";
+	static final String METRIC_SCHEDULED = "outbox.scheduled";
+
+	private static final long TICK_MILLIS = 100;
+
+	private static final Gson GSON = new GsonBuilder().create();
+	private static final TypeToken<List<String>> TYPE_LIST = new TypeToken<List<String>>() {};
+	private static final TypeToken<Map<String, String>> TYPE_MAP = new TypeToken<Map<String, String>>() {};
+
+	interface Sender {
+		JsonElement send(SignalOutgoingMessage message) throws Exception;
+	}
+
+	private final Path attachments;
+	private final OutboxLog log;
+	private final int maxAttempts;
+	private final ExponentialBackoff backoff;
+	private final Sender sender;
+	private final Consumer<SignalOutboxResult> resultHandler;
+	private final ScheduledExecutorService executor;
+
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+	private final TimerWheel<Runnable> scheduled = new TimerWheel<>(TICK_MILLIS, System.currentTimeMillis());
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LatencyRecorder deliveryLatency = new LatencyRecorder();
+
+	private volatile boolean closed = false;
+
+	SignalOutbox(Path directory, int threads, int maxAttempts, ExponentialBackoff backoff, Sender sender, Consumer<SignalOutboxResult> resultHandler) {
+		this.attachments = directory.resolve(ATTACHMENTS_DIRECTORY);
+		this.log = new OutboxLog(directory.resolve(LOG_FILE));
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.backoff = backoff;
+		this.sender = sender;
+		this.resultHandler = resultHandler;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+			Thread thread = new Thread(r, "SignalOutbox-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Recovers the messages not done from the log and starts sending them
+	 * @return number of recovered messages
+	 */
+	int open() throws IOException {
+		Files.createDirectories(attachments);
+
+		List<JsonObject> recovered = log.open();
+		for (JsonObject record : recovered) {
+			pending.add(record.get("id").getAsString());
+		}
+
+		// Attachments written for messages that never made it to the log
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(attachments)) {
+			for (Path file : files) {
+				if(!pending.contains(file.getFileName().toString()))
+					Files.deleteIfExists(file);
+			}
+		}
+
+		executor.scheduleAtFixedRate(this::sendDue, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+		for (JsonObject record : recovered) {
+			start(record.get("id").getAsString(), record.get("message").getAsJsonObject());
+		}
+
+		return recovered.size();
+	}
+
+	/**
+	 * @return id of the message, once it is committed to the log
+	 */
+	String enqueue(SignalOutgoingMessage message) throws IOException {
+		return enqueue(message, 0);
+	}
+
+	/**
+	 * @param sendAtMillis time to send the message at, sent right away if not in the future
+	 * @return id of the message, once it is committed to the log
+	 */
+	String enqueue(SignalOutgoingMessage message, long sendAtMillis) throws IOException {
+		if(closed)
+			throw new IOException("Outbox is closed");
+
+		String id = UUID.randomUUID().toString();
+		JsonObject json = toJson(id, message);
+		if(sendAtMillis > 0)
+			json.addProperty("sendAt", sendAtMillis);
+
+		pending.add(id);
+		try {
+			Uninterruptibles.getUninterruptibly(log.add(id, json));
+		} catch (ExecutionException e) {
+			pending.remove(id);
+			deleteAttachment(id);
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Could not add message to outbox", e.getCause());
+		}
+
+		start(id, json);
+		return id;
+	}
+
+	int getScheduledCount() {
+		synchronized (scheduled) {
+			return scheduled.size();
+		}
+	}
+
+	/**
+	 * Sends the message, or waits until it is due if sent later
+	 */
+	private void start(String id, JsonObject json) {
+		long sendAt = json.has("sendAt") ? json.get("sendAt").getAsLong() : 0;
+		if(sendAt <= System.currentTimeMillis()) {
+			schedule(id, json, 1, 0);
+			return;
+		}
+
+		synchronized (scheduled) {
+			scheduled.add(sendAt, () -> schedule(id, json, 1, 0));
+		}
+	}
+
+	private void sendDue() {
+		List<Runnable> due = new ArrayList<>();
+		synchronized (scheduled) {
+			scheduled.advance(System.currentTimeMillis(), due::add);
+		}
+		due.forEach(Runnable::run);
+	}
+
+	int getPendingCount() {
+		return pending.size();
+	}
+
+	private void schedule(String id, JsonObject json, int attempt, long delayMillis) {
+		try {
+			executor.schedule(() -> attempt(id, json, attempt), delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Closing, the message is sent when the outbox is opened again
+		}
+	}
+
+	private void attempt(String id, JsonObject json, int attempt) {
+		String account = json.has("account") ? json.get("account").getAsString() : null;
+		Map<String, String> attributes = json.has("attributes") ? GSON.fromJson(json.get("attributes"), TYPE_MAP) : Map.of();
+
+		SignalOutgoingMessage message;
+		try {
+			message = fromJson(id, json);
+		} catch (IOException | RuntimeException e) {
+			failed.increment();
+			complete(id, json, SignalOutboxResult.failed(id, account, attempt, SignalErrorType.INVALID_REQUEST.name(), "Could not read queued message: " + e.getMessage(), attributes));
+			return;
+		}
+
+		try {
+			JsonElement result = sender.send(message);
+
+			long timestamp = 0;
+			if(result != null && result.isJsonObject() && result.getAsJsonObject().has("timestamp"))
+				timestamp = result.getAsJsonObject().get("timestamp").getAsLong();
+
+			sent.increment();
+			complete(id, json, SignalOutboxResult.sent(id, account, timestamp, attempt, attributes));
+		} catch (Throwable e) {
+			if(closed)
+				return;
+
+			long delay = getRetryDelay(e, attempt);
+			if(delay >= 0) {
+				retries.increment();
+				retainFailedRecipients(id, json, e);
+				schedule(id, json, attempt + 1, delay);
+				return;
+			}
+
+			failed.increment();
+			complete(id, json, SignalOutboxResult.failed(id, account, attempt, getErrorType(e).name(), e.getMessage(), attributes));
+		}
+	}
+
+	private void complete(String id, JsonObject json, SignalOutboxResult result) {
+		// From the time the message was due, for messages sent later
+		long due = json.has("sendAt") ? json.get("sendAt").getAsLong() : json.has("queued") ? json.get("queued").getAsLong() : 0;
+		if(due > 0)
+			deliveryLatency.record(Math.max(0, System.currentTimeMillis() - due));
+
+		// If the done record is lost the message is sent again, so keep the attachment until it is committed
+		log.done(id).thenRun(() -> deleteAttachment(id));
+		pending.remove(id);
+		resultHandler.accept(result);
+	}
+
+	/**
+	 * When some batches of recipients were sent, only the failed recipients are sent to again. The
+	 * message is added to the log again, so they are the only ones sent to after a restart as well.
+	 */
+	private void retainFailedRecipients(String id, JsonObject json, Throwable e) {
+		if(e instanceof ExecutionException && e.getCause() != null)
+			e = e.getCause();
+
+		if(!(e instanceof SignalPartialSendException) || ((SignalPartialSendException) e).getFailedRecipients().isEmpty())
+			return;
+
+		json.add("recipients", GSON.toJsonTree(((SignalPartialSendException) e).getFailedRecipients()));
+		log.add(id, json);
+	}
+
+	private long getRetryDelay(Throwable e, int attempt) {
+		if(attempt >= maxAttempts || getErrorType(e) != SignalErrorType.TRANSPORT && getErrorType(e) != SignalErrorType.RATE_LIMITED)
+			return -1;
+
+		long retryAfter = e instanceof SignalRateLimitException ? ((SignalRateLimitException) e).getRetryAfterMillis() : 0;
+		return Math.max(backoff.getDelayMillis(attempt - 1), retryAfter);
+	}
+
+	private static SignalErrorType getErrorType(Throwable e) {
+		if(e instanceof ExecutionException && e.getCause() != null)
+			e = e.getCause();
+
+		if(e instanceof SignalRpcException)
+			return ((SignalRpcException) e).getType();
+
+		if(e instanceof IOException)
+			return SignalErrorType.TRANSPORT;
+
+		return SignalErrorType.UNKNOWN;
+	}
+
+	private JsonObject toJson(String id, SignalOutgoingMessage message) throws IOException {
+		JsonObject json = new JsonObject();
+		json.addProperty("queued", System.currentTimeMillis());
+		json.addProperty("account", message.getAccount());
+		json.addProperty("message", message.getMessage());
+		message.getRecipients().ifPresent(recipients -> json.add("recipients", GSON.toJsonTree(recipients)));
+		message.getGroups().ifPresent(groups -> json.add("groups", GSON.toJsonTree(groups)));
+		message.getQuote().ifPresent(quote -> json.add("quote", GSON.toJsonTree(quote)));
+		json.add("attributes", GSON.toJsonTree(message.getAttributes()));
+		json.addProperty("priority", message.getPriority().name());
+
+		Optional<SignalAttachment> attachment = message.getAttachment();
+		if(attachment.isPresent()) {
+			writeAttachment(id, attachment.get().getBase64Content());
+
+			JsonObject reference = new JsonObject();
+			reference.addProperty("mimeType", attachment.get().getMineType());
+			reference.addProperty("filename", attachment.get().getFilename());
+			json.add("attachment", reference);
+		}
+
+		return json;
+	}
+
+	private SignalOutgoingMessage fromJson(String id, JsonObject json) throws IOException {
+		Optional<SignalAttachment> attachment = Optional.empty();
+		if(json.has("attachment")) {
+			JsonObject reference = json.get("attachment").getAsJsonObject();
+			String content = Files.readString(attachments.resolve(id), StandardCharsets.US_ASCII);
+			attachment = Optional.of(new SignalAttachment(reference.get("mimeType").getAsString(), reference.get("filename").getAsString(), content));
+		}
+
+		return new SignalOutgoingMessage(
+				json.get("account").getAsString(),
+				json.has("message") && !json.get("message").isJsonNull() ? json.get("message").getAsString() : null,
+				json.has("recipients") ? Optional.of(GSON.fromJson(json.get("recipients"), TYPE_LIST)) : Optional.empty(),
+				json.has("groups") ? Optional.of(GSON.fromJson(json.get("groups"), TYPE_LIST)) : Optional.empty(),
+				json.has("quote") ? Optional.of(GSON.fromJson(json.get("quote"), SignalQuote.class)) : Optional.empty(),
+				attachment,
+				json.has("attributes") ? GSON.fromJson(json.get("attributes"), TYPE_MAP) : Map.of(),
+				json.has("priority") ? SignalPriority.parse(json.get("priority").getAsString()) : SignalPriority.NORMAL);
+	}
+
+	private void writeAttachment(String id, String base64Content) throws IOException {
+		try (FileChannel channel = FileChannel.open(attachments.resolve(id), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.wrap(base64Content.getBytes(StandardCharsets.US_ASCII));
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		}
+	}
+
+	private void deleteAttachment(String id) {
+		try {
+			Files.deleteIfExists(attachments.resolve(id));
+		} catch (IOException e) {
+			// Removed the next time the outbox is opened
+		}
+	}
+
+	/**
+	 * Stops the senders and closes the log. Messages being sent are sent again when the outbox is opened
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+	}
+
+	void snapshot(Map<String, Number> target) {
+		target.put("outbox.pending", pending.size());
+		target.put("outbox.sent", sent.sum());
+		target.put("outbox.failed", failed.sum());
+		target.put("outbox.retries", retries.sum());
+		target.put(METRIC_SCHEDULED, getScheduledCount());
+		deliveryLatency.snapshot("outbox.delivery", target);
+		log.snapshot(target);
+	}
+}
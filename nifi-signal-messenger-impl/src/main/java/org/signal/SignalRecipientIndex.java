@@ -0,0 +1,74 @@
+package org.signal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Immutable lookup of recipients (contacts, identities) by both number and UUID.
+ * Senders are often known only by UUID, so both keys are indexed.
+ */
+final class SignalRecipientIndex<T> {
+	
+	private final Map<String, T> byNumber;
+	private final Map<String, T> byUuid;
+	private final int size;
+
+	SignalRecipientIndex(Collection<T> values, Function<T, String> number, Function<T, String> uuid) {
+		Map<String, T> numbers = new HashMap<>(values.size() * 2);
+		Map<String, T> uuids = new HashMap<>(values.size() * 2);
+		int indexed = 0;
+		
+		for (T value : values) {
+			boolean added = false;
+			String key = number.apply(value);
+			if(key != null && !key.isBlank())
+				added |= numbers.putIfAbsent(key, value) == null; // Ignore duplicates, keep first
+
+			key = uuid.apply(value);
+			if(key != null && !key.isBlank())
+				added |= uuids.putIfAbsent(key, value) == null;
+			
+			if(added)
+				indexed++;
+		}
+		
+		this.size = indexed;
+		this.byNumber = Collections.unmodifiableMap(numbers);
+		this.byUuid = Collections.unmodifiableMap(uuids);
+	}
+
+	static <T> SignalRecipientIndex<T> empty() {
+		return new SignalRecipientIndex<>(Collections.emptyList(), v -> null, v -> null);
+	}
+
+	Map<String, T> getByNumber() {
+		return byNumber;
+	}
+
+	Map<String, T> getByUuid() {
+		return byUuid;
+	}
+	
+	/**
+	 * @param numberOrUuid
+	 * @return the value indexed by the number or UUID
+	 */
+	Optional<T> get(String numberOrUuid) {
+		if(numberOrUuid == null)
+			return Optional.empty();
+		
+		T value = byNumber.get(numberOrUuid);
+		if(value == null)
+			value = byUuid.get(numberOrUuid);
+		
+		return Optional.ofNullable(value);
+	}
+
+	int size() {
+		return size;
+	}
+}
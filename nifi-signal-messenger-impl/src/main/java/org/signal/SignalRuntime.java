@@ -0,0 +1,72 @@
+package org.signal;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads and HTTP client shared by all services in the JVM. Event streams, dispatchers and
+ * connect tasks run on virtual threads, which release their carrier thread while waiting on the
+ * daemon, so an enabled service costs no platform threads of its own. RPC requests and event
+ * streams of all services go through one HTTP client and its connection pool.
+ * <p>
+ * The client completes responses on its own platform threads. Cache loads block inside a monitor,
+ * which pins the virtual thread to its carrier, and if the client also needed a carrier to
+ * complete the response, a few such loads could stall every virtual thread in the JVM.
+ */
+final class SignalRuntime {
+	private static final AtomicInteger ACTIVE_THREADS = new AtomicInteger(0);
+
+	// The client only runs short completion tasks on the executor, a small pool serves all services
+	private static final HttpClient CLIENT = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.executor(Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+				Thread thread = new Thread(r, "SignalHttpClient");
+				thread.setDaemon(true);
+				return thread;
+			}))
+			.build();
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "SignalScheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private SignalRuntime() {
+	}
+
+	static HttpClient getHttpClient() {
+		return CLIENT;
+	}
+
+	/**
+	 * For short timer tasks only, such as closing idle streams
+	 */
+	static ScheduledExecutorService getScheduler() {
+		return SCHEDULER;
+	}
+
+	/**
+	 * @return an unstarted virtual thread, counted by {@link #getActiveThreads()} while it runs
+	 */
+	static Thread newThread(String name, Runnable task) {
+		return Thread.ofVirtual().name(name).unstarted(() -> {
+			ACTIVE_THREADS.incrementAndGet();
+			try {
+				task.run();
+			} finally {
+				ACTIVE_THREADS.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Virtual threads are not listed by {@link Thread#getAllStackTraces()}, so they are counted here
+	 * @return number of running threads created by {@link #newThread(String, Runnable)}
+	 */
+	static int getActiveThreads() {
+		return ACTIVE_THREADS.get();
+	}
+}
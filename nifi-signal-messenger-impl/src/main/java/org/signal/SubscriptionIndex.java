@@ -0,0 +1,145 @@
+package org.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.signal.model.SignalData;
+import org.signal.model.SignalEventType;
+import org.signal.model.SignalSubscription;
+
+/**
+ * Immutable index of subscribers by account, event type and group. Finding the subscribers of
+ * received data is eight map lookups however many subscribers there are. A subscription is stored
+ * under every combination of its accounts, event types and groups, with an empty set stored as a
+ * wildcard, so a subscriber is found under at most one of the keys looked up.
+ */
+final class SubscriptionIndex<T> {
+	private static final SubscriptionIndex<?> EMPTY = new SubscriptionIndex<>(Collections.emptyMap(), Collections.emptyMap());
+
+	private static final String ANY = "*";
+	private static final String DIRECT = "";
+
+	private final Map<Key, List<T>> any;
+	private final Map<Key, List<T>> trusted;
+
+	private SubscriptionIndex(Map<Key, List<T>> any, Map<Key, List<T>> trusted) {
+		this.any = any;
+		this.trusted = trusted;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> SubscriptionIndex<T> empty() {
+		return (SubscriptionIndex<T>) EMPTY;
+	}
+
+	/**
+	 * @param subscriptions subscribers mapped to their subscriptions
+	 */
+	static <T> SubscriptionIndex<T> of(Map<T, SignalSubscription> subscriptions) {
+		Map<Key, List<T>> any = new HashMap<>();
+		Map<Key, List<T>> trusted = new HashMap<>();
+
+		subscriptions.forEach((subscriber, subscription) -> {
+			Map<Key, List<T>> target = subscription.isTrustedSendersOnly() ? trusted : any;
+			for (String account : orAny(subscription.getAccounts())) {
+				for (String type : orAny(typeNames(subscription.getEventTypes()))) {
+					for (String group : orAny(subscription.getGroupIds())) {
+						target.computeIfAbsent(new Key(account, type, group), k -> new ArrayList<>(2)).add(subscriber);
+					}
+				}
+			}
+		});
+
+		return new SubscriptionIndex<>(any, trusted);
+	}
+
+	private static Set<String> orAny(Set<String> values) {
+		return values.isEmpty() ? Collections.singleton(ANY) : values;
+	}
+
+	private static Set<String> typeNames(Set<SignalEventType> types) {
+		Set<String> names = new LinkedHashSet<>(types.size());
+		types.forEach(type -> names.add(type.name()));
+		return names;
+	}
+
+	boolean isEmpty() {
+		return any.isEmpty() && trusted.isEmpty();
+	}
+
+	/**
+	 * @param isTrusted resolves if the sender is trusted, only called if a subscriber requires it
+	 * @return the subscribers of the data
+	 */
+	List<T> lookup(SignalData data, BooleanSupplier isTrusted) {
+		SignalEventType eventType = SignalEventType.of(data);
+		String account = data.getAccount();
+		String type = eventType == null ? null : eventType.name();
+		// Data sent directly to the account only matches subscriptions without groups
+		String group = data.getGroupId() == null ? DIRECT : data.getGroupId();
+
+		List<T> result = new ArrayList<>();
+		collect(any, account, type, group, result);
+
+		if(!trusted.isEmpty()) {
+			int before = result.size();
+			collect(trusted, account, type, group, result);
+			if(result.size() > before && !isTrusted.getAsBoolean())
+				result.subList(before, result.size()).clear();
+		}
+		return result;
+	}
+
+	private static <T> void collect(Map<Key, List<T>> index, String account, String type, String group, List<T> result) {
+		if(index.isEmpty())
+			return;
+
+		for (String a : new String[] {account, ANY}) {
+			for (String t : new String[] {type, ANY}) {
+				if(t == null)
+					continue;
+				for (String g : new String[] {group, ANY}) {
+					List<T> subscribers = index.get(new Key(a, t, g));
+					if(subscribers != null)
+						result.addAll(subscribers);
+				}
+			}
+		}
+	}
+
+	private static final class Key {
+		private final String account;
+		private final String type;
+		private final String group;
+		private final int hash;
+
+		Key(String account, String type, String group) {
+			this.account = account;
+			this.type = type;
+			this.group = group;
+			this.hash = Objects.hash(account, type, group);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return Objects.equals(account, other.account) && Objects.equals(type, other.type) && Objects.equals(group, other.group);
+		}
+	}
+}
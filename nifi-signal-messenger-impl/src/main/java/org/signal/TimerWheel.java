@@ -0,0 +1,118 @@
+package org.signal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel holding items until they are due. Each level has a slot per tick of the
+ * level, the first level a slot per tick, the next a slot per turn of the first level, and so on.
+ * An item is put in the lowest level whose turn covers its due time, and moved down a level when
+ * the slot it is in comes up, until it is due in the first level. Adding an item and moving it
+ * costs the same however many items are held, unlike a priority queue.
+ * <p>
+ * Items due after the turn of the highest level wait in an overflow list, put in the wheel again
+ * each turn of the highest level. The wheel is not thread safe, the caller synchronizes.
+ */
+final class TimerWheel<T> {
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int LEVELS = 4;
+	private static final long TURN_MASK = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+	private static final class Timer<T> {
+		private final long tick;
+		private final T item;
+
+		private Timer(long tick, T item) {
+			this.tick = tick;
+			this.item = item;
+		}
+	}
+
+	private final long tickMillis;
+	private final List<List<Timer<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+	private final List<Timer<T>> overflow = new ArrayList<>();
+	// The next tick to expire
+	private long currentTick;
+	private int size = 0;
+
+	/**
+	 * @param tickMillis resolution of the wheel, items are due at most this late
+	 * @param startMillis time to start from
+	 */
+	TimerWheel(long tickMillis, long startMillis) {
+		if(tickMillis < 1)
+			throw new IllegalArgumentException("Invalid tick " + tickMillis);
+		this.tickMillis = tickMillis;
+		this.currentTick = startMillis / tickMillis;
+		for (int i = 0; i < LEVELS * SLOTS; i++) {
+			slots.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * @param dueMillis time the item is due, items already due are expired by the next {@link #advance(long, Consumer)}
+	 */
+	void add(long dueMillis, T item) {
+		// Rounded up, so items are never expired early
+		long tick = Math.max(currentTick, Math.floorDiv(dueMillis + tickMillis - 1, tickMillis));
+		place(new Timer<>(tick, item));
+		size++;
+	}
+
+	private void place(Timer<T> timer) {
+		long delta = timer.tick - currentTick;
+		for (int level = 0; level < LEVELS; level++) {
+			if(delta < 1L << (SLOT_BITS * (level + 1))) {
+				int slot = (int) ((timer.tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+				slots.get(level * SLOTS + slot).add(timer);
+				return;
+			}
+		}
+		overflow.add(timer);
+	}
+
+	/**
+	 * Expires the items due up to the given time
+	 * @param expired called for each expired item, in the order they were due
+	 */
+	void advance(long nowMillis, Consumer<T> expired) {
+		long target = Math.floorDiv(nowMillis, tickMillis);
+		while(currentTick <= target) {
+			if((currentTick & TURN_MASK) == 0 && !overflow.isEmpty()) {
+				List<Timer<T>> timers = new ArrayList<>(overflow);
+				overflow.clear();
+				timers.forEach(this::place);
+			}
+
+			// Move the slots that came up down a level, highest first, as a level turns when the one below has turned
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+					continue;
+
+				List<Timer<T>> slot = slots.get(level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+				if(slot.isEmpty())
+					continue;
+
+				List<Timer<T>> timers = new ArrayList<>(slot);
+				slot.clear();
+				timers.forEach(this::place);
+			}
+
+			List<Timer<T>> due = slots.get((int) (currentTick & (SLOTS - 1)));
+			if(!due.isEmpty()) {
+				List<Timer<T>> timers = new ArrayList<>(due);
+				due.clear();
+				size -= timers.size();
+				timers.forEach(timer -> expired.accept(timer.item));
+			}
+
+			currentTick++;
+		}
+	}
+
+	int size() {
+		return size;
+	}
+}
@@ -0,0 +1,65 @@
+package org.signal;
+
+/**
+ * Token bucket that refills continuously. Tokens are reserved up front, the bucket can 
+ * go below zero and the caller is then told how long to wait before using the reserved token. 
+ * Not thread safe, {@link SendRateLimiter} guards all buckets with one lock.
+ */
+final class TokenBucket {
+	private final double capacity;
+	private final double tokensPerNano;
+	
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param ratePerSecond tokens added per second
+	 * @param capacity max tokens the bucket can hold, i.e. the size of a burst
+	 */
+	TokenBucket(double ratePerSecond, double capacity) {
+		if(ratePerSecond <= 0)
+			throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+
+		this.capacity = Math.max(1, capacity);
+		this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+		this.tokens = this.capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	private void refill(long now) {
+		// The caller may have read the clock before the bucket was created
+		if(now <= lastRefill)
+			return;
+
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+	}
+
+	/**
+	 * @return nanos to wait until a token would be available, without reserving it
+	 */
+	long getWaitNanos(long now) {
+		refill(now);
+		if(tokens >= 1)
+			return 0;
+
+		return (long) Math.ceil((1 - tokens) / tokensPerNano);
+	}
+
+	/**
+	 * Takes one token, possibly leaving the bucket in debt
+	 */
+	void reserve(long now) {
+		refill(now);
+		tokens -= 1;
+	}
+
+	double getTokens(long now) {
+		refill(now);
+		return tokens;
+	}
+
+	double getCapacity() {
+		return capacity;
+	}
+}
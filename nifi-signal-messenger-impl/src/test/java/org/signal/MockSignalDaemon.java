@@ -0,0 +1,316 @@
+package org.signal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the signal-cli HTTP daemon, serving the JSON-RPC endpoint and the event stream.
+ * Methods without a registered handler answer with an empty list, except version and send.
+ */
+public class MockSignalDaemon implements Closeable {
+	private static final String CLOSE = "close";
+
+	/**
+	 * Thrown by a handler to answer with the JSON-RPC error
+	 */
+	public static final class RpcError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final JsonObject error;
+
+		public RpcError(JsonObject error) {
+			super(error.toString());
+			this.error = error;
+		}
+	}
+
+	/**
+	 * @return a rate limit error of a send, where the recipients failed with the retry after and the others were sent
+	 */
+	public static RpcError rateLimited(long retryAfterSeconds, List<String> failed, List<String> sent) {
+		JsonArray results = new JsonArray();
+		for (String recipient : failed) {
+			JsonObject result = result(recipient, "RATE_LIMIT_FAILURE");
+			result.addProperty("retryAfterSeconds", retryAfterSeconds);
+			results.add(result);
+		}
+		for (String recipient : sent) {
+			results.add(result(recipient, "SUCCESS"));
+		}
+
+		JsonObject response = new JsonObject();
+		response.addProperty("timestamp", System.currentTimeMillis());
+		response.add("results", results);
+		JsonObject data = new JsonObject();
+		data.add("response", response);
+		JsonObject error = new JsonObject();
+		error.addProperty("code", SignalErrors.RATELIMIT_ERROR);
+		error.addProperty("message", "Rate limited");
+		error.add("data", data);
+		return new RpcError(error);
+	}
+
+	private static JsonObject result(String recipient, String type) {
+		JsonObject address = new JsonObject();
+		address.addProperty("number", recipient);
+		JsonObject result = new JsonObject();
+		result.add("recipientAddress", address);
+		result.addProperty("type", type);
+		return result;
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "MockSignalDaemon");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Map<String, Function<JsonObject, JsonElement>> handlers = new ConcurrentHashMap<>();
+	private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> methodRequests = new ConcurrentHashMap<>();
+	// Open event streams mapped to the account they were opened for, empty for all accounts
+	private final Map<BlockingQueue<String>, String> streams = new ConcurrentHashMap<>();
+	private final AtomicInteger eventConnections = new AtomicInteger();
+	private final AtomicInteger rpcRequests = new AtomicInteger();
+
+	private volatile long keepAliveMillis = 100;
+	private volatile boolean rpcUnavailable = false;
+	private volatile boolean eventsUnavailable = false;
+
+	public MockSignalDaemon() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/api/v1/rpc", this::handleRpc);
+		server.createContext("/api/v1/events", this::handleEvents);
+		server.start();
+
+		handle("version", params -> {
+			JsonObject version = new JsonObject();
+			version.addProperty("version", "0.13.0-mock");
+			return version;
+		});
+		handle("send", params -> {
+			JsonObject result = new JsonObject();
+			result.addProperty("timestamp", System.currentTimeMillis());
+			return result;
+		});
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public void handle(String method, Function<JsonObject, JsonElement> handler) {
+		handlers.put(method, handler);
+	}
+
+	/**
+	 * @param status HTTP status to answer requests of the method with, like a daemon that failed while processing them
+	 */
+	public void setStatus(String method, int status) {
+		statuses.put(method, status);
+	}
+
+	/**
+	 * @param keepAliveMillis interval of keep-alives on the event stream, 0 to send nothing (like a half-open connection)
+	 */
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	/**
+	 * @param unavailable true to answer all requests with 503 and end the event streams, like a daemon that is shutting down
+	 */
+	public void setUnavailable(boolean unavailable) {
+		this.rpcUnavailable = unavailable;
+		setEventStreamUnavailable(unavailable);
+	}
+
+	/**
+	 * @param unavailable true to answer event stream requests with 503 and end the open streams, RPC requests are still answered
+	 */
+	public void setEventStreamUnavailable(boolean unavailable) {
+		this.eventsUnavailable = unavailable;
+		if(unavailable)
+			closeEventStreams();
+	}
+
+	public int getEventConnections() {
+		return eventConnections.get();
+	}
+
+	public int getOpenEventStreams() {
+		return streams.size();
+	}
+
+	/**
+	 * @return number of open event streams opened for the account
+	 */
+	public int getOpenEventStreams(String account) {
+		return (int) streams.values().stream().filter(account::equals).count();
+	}
+
+	public int getRpcRequests() {
+		return rpcRequests.get();
+	}
+
+	/**
+	 * @return number of requests of the method, answered or not
+	 */
+	public int getRpcRequests(String method) {
+		AtomicInteger requests = methodRequests.get(method);
+		return requests == null ? 0 : requests.get();
+	}
+
+	/**
+	 * Sends a receive event to all open event streams
+	 */
+	public void sendEvent(JsonObject event) {
+		streams.keySet().forEach(stream -> stream.add("event:receive\ndata:" + event.toString() + "\n\n"));
+	}
+
+	/**
+	 * Sends a receive event to the event streams of the account, and to streams of all accounts
+	 */
+	public void sendEvent(String account, JsonObject event) {
+		streams.forEach((stream, streamAccount) -> {
+			if(streamAccount.isEmpty() || streamAccount.equals(account))
+				stream.add("event:receive\ndata:" + event.toString() + "\n\n");
+		});
+	}
+
+	/**
+	 * Ends all open event streams, like a restarted daemon
+	 */
+	public void closeEventStreams() {
+		streams.keySet().forEach(stream -> stream.add(CLOSE));
+	}
+
+	private void handleRpc(HttpExchange exchange) throws IOException {
+		rpcRequests.incrementAndGet();
+		if(rpcUnavailable) {
+			sendUnavailable(exchange);
+			return;
+		}
+
+		JsonObject request;
+		try (InputStream in = exchange.getRequestBody()) {
+			request = JsonParser.parseString(new String(in.readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+		}
+
+		JsonObject response = new JsonObject();
+		response.addProperty("jsonrpc", "2.0");
+		response.add("id", request.get("id"));
+
+		String method = request.get("method").getAsString();
+		methodRequests.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+		Integer status = statuses.get(method);
+		if(status != null) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+
+		JsonObject params = request.has("params") && request.get("params").isJsonObject() ? request.get("params").getAsJsonObject() : new JsonObject();
+		Function<JsonObject, JsonElement> handler = handlers.get(method);
+		try {
+			response.add("result", handler == null ? new JsonArray() : handler.apply(params));
+		} catch (RpcError e) {
+			response.add("error", e.error);
+		} catch (RuntimeException e) {
+			JsonObject error = new JsonObject();
+			error.addProperty("code", -1);
+			error.addProperty("message", String.valueOf(e.getMessage()));
+			response.add("error", error);
+		}
+
+		byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void handleEvents(HttpExchange exchange) throws IOException {
+		eventConnections.incrementAndGet();
+		if(eventsUnavailable) {
+			sendUnavailable(exchange);
+			return;
+		}
+
+		BlockingQueue<String> stream = new LinkedBlockingQueue<>();
+		streams.put(stream, getAccount(exchange));
+
+		exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			while(true) {
+				long keepAlive = keepAliveMillis;
+				String next = stream.poll(keepAlive > 0 ? keepAlive : 100, TimeUnit.MILLISECONDS);
+				if(CLOSE.equals(next))
+					return;
+
+				if(next == null && keepAlive <= 0)
+					continue;
+
+				out.write((next == null ? ":\n" : next).getBytes(StandardCharsets.UTF_8));
+				out.flush();
+			}
+		} catch (IOException | InterruptedException e) {
+			// Client went away
+		} finally {
+			streams.remove(stream);
+			exchange.close();
+		}
+	}
+
+	private static void sendUnavailable(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			in.readAllBytes();
+		}
+		exchange.sendResponseHeaders(503, -1);
+		exchange.close();
+	}
+
+	private static String getAccount(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if(query == null)
+			return "";
+
+		for (String parameter : query.split("&")) {
+			if(parameter.startsWith("account="))
+				return URLDecoder.decode(parameter.substring(8), StandardCharsets.UTF_8);
+		}
+		return "";
+	}
+
+	@Override
+	public void close() {
+		closeEventStreams();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
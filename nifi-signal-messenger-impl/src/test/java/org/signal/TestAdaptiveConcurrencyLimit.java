@@ -0,0 +1,179 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestAdaptiveConcurrencyLimit {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private static long metric(AdaptiveConcurrencyLimit limit, String name) {
+		Map<String, Number> metrics = new TreeMap<>();
+		limit.snapshot(metrics);
+		return metrics.get(name).longValue();
+	}
+
+	/**
+	 * Sends a round of requests at the limit, all answered with the given latency
+	 */
+	private static void round(AdaptiveConcurrencyLimit limit, long latencyNanos, boolean dropped) throws IOException {
+		long[] requests = new long[limit.getLimit()];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = limit.acquire();
+		}
+		for (long request : requests) {
+			limit.release(request, latencyNanos, dropped);
+		}
+	}
+
+    @Test
+    public void testGrowsWhileFastAndShrinksWhenSlow() throws IOException {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 20);
+    	for (int i = 0; i < 10; i++) {
+    		round(limit, FAST, false);
+    	}
+    	int grown = limit.getLimit();
+    	assertTrue(grown > 6, "Limit: " + grown);
+
+    	round(limit, SLOW, false);
+    	assertTrue(limit.getLimit() < grown);
+
+    	for (int i = 0; i < 100; i++) {
+    		round(limit, FAST, false);
+    	}
+    	assertEquals(20, limit.getLimit());
+
+    	for (int i = 0; i < 100; i++) {
+    		round(limit, FAST, true);
+    	}
+    	assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void testDoesNotGrowWhenNotUsed() throws IOException {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 20);
+    	for (int i = 0; i < 100; i++) {
+    		limit.release(limit.acquire(), FAST, false);
+    	}
+    	assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testQueuesRequestsAboveLimit() throws Exception {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1);
+    	long request = limit.acquire();
+
+    	AtomicInteger sent = new AtomicInteger();
+    	Thread waiting = new Thread(() -> {
+    		try {
+    			limit.acquire();
+    			sent.incrementAndGet();
+    		} catch (IOException e) { }
+    	});
+    	waiting.start();
+
+    	long deadline = System.currentTimeMillis() + 10_000;
+    	while(metric(limit, AdaptiveConcurrencyLimit.METRIC_QUEUED) == 0 && System.currentTimeMillis() < deadline)
+    		Thread.sleep(5);
+    	assertEquals(1, metric(limit, AdaptiveConcurrencyLimit.METRIC_QUEUED));
+    	assertEquals(0, sent.get());
+
+    	limit.release(request, FAST, false);
+    	waiting.join(10_000);
+    	assertEquals(1, sent.get());
+    	assertEquals(1, metric(limit, AdaptiveConcurrencyLimit.METRIC_IN_FLIGHT));
+    }
+
+    @Test
+    public void testAdditiveIncrease() throws IOException {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 3);
+    	limit.release(limit.acquire(), FAST, false);
+    	// Grows by one over the limit
+    	assertEquals(2, limit.getLimit());
+
+    	for (int i = 0; i < 100; i++) {
+    		round(limit, FAST, false);
+    	}
+    	assertEquals(3, limit.getLimit());
+    	assertEquals(0, metric(limit, AdaptiveConcurrencyLimit.METRIC_DECREASES));
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() throws IOException {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 20);
+    	limit.release(limit.acquire(), FAST, false);
+    	// Not in use, so it does not grow
+    	assertEquals(10, limit.getLimit());
+
+    	// Within the tolerance of the lowest latency
+    	limit.release(limit.acquire(), FAST * 2, false);
+    	assertEquals(10, limit.getLimit());
+
+    	limit.release(limit.acquire(), FAST * 2 + 1, false);
+    	assertEquals(9, limit.getLimit());
+
+    	limit.release(limit.acquire(), FAST, true);
+    	assertEquals(8, limit.getLimit());
+    	assertEquals(2, metric(limit, AdaptiveConcurrencyLimit.METRIC_DECREASES));
+
+    	for (int i = 0; i < 100; i++) {
+    		limit.release(limit.acquire(), FAST, true);
+    	}
+    	assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void testDecreasesOncePerBurstOfSlowRequests() throws IOException {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 20);
+    	limit.release(limit.acquire(), FAST, false);
+
+    	// The requests in flight when the limit shrank do not shrink it again
+    	round(limit, SLOW, false);
+    	assertEquals(9, limit.getLimit());
+    	round(limit, FAST, true);
+    	assertEquals(8, limit.getLimit());
+    	assertEquals(2, metric(limit, AdaptiveConcurrencyLimit.METRIC_DECREASES));
+
+    	// A request sent after the last decrease does
+    	long[] requests = new long[4];
+    	for (int i = 0; i < requests.length; i++) {
+    		requests[i] = limit.acquire();
+    	}
+    	limit.release(requests[0], SLOW, false);
+    	long late = limit.acquire();
+    	for (int i = 1; i < requests.length; i++) {
+    		limit.release(requests[i], SLOW, false);
+    	}
+    	assertEquals(7, limit.getLimit());
+    	limit.release(late, SLOW, false);
+    	assertEquals(6, limit.getLimit());
+    }
+
+    @Test
+    public void testBaselineFollowsSlowerDaemon() throws IOException {
+    	AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 10);
+    	limit.release(limit.acquire(), FAST, false);
+    	assertEquals(2, limit.getLimit());
+
+    	// The fast request is the lowest latency of the first window, so the slow ones shrink the limit
+    	for (int i = 1; i < 999; i++) {
+    		limit.release(limit.acquire(), SLOW, false);
+    	}
+    	assertEquals(1, limit.getLimit());
+    	assertEquals(TimeUnit.NANOSECONDS.toMillis(FAST), metric(limit, "concurrency.baseline.ms"));
+
+    	// Until the second window, of slow requests only, ends
+    	limit.release(limit.acquire(), SLOW, false);
+    	assertEquals(TimeUnit.NANOSECONDS.toMillis(SLOW), metric(limit, "concurrency.baseline.ms"));
+    	assertEquals(2, limit.getLimit());
+    }
+}
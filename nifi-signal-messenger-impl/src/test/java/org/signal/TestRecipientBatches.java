@@ -0,0 +1,130 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+public class TestRecipientBatches {
+
+	private static final String ACCOUNT = "+46700000001";
+	private static final List<String> RECIPIENTS = IntStream.range(0, 10)
+			.mapToObj(i -> "+467111111" + String.format("%02d", i))
+			.collect(Collectors.toList());
+
+	private static JsonObject success(List<String> batch) {
+		JsonArray results = new JsonArray();
+		for (String recipient : batch) {
+			JsonObject address = new JsonObject();
+			address.addProperty("number", recipient);
+			JsonObject result = new JsonObject();
+			result.add("recipientAddress", address);
+			result.addProperty("type", "SUCCESS");
+			results.add(result);
+		}
+		JsonObject response = new JsonObject();
+		response.addProperty("timestamp", System.currentTimeMillis());
+		response.add("results", results);
+		return response;
+	}
+
+	private static List<String> getRecipients(JsonObject params) {
+		return params.getAsJsonArray("recipient").asList().stream()
+				.map(JsonElement::getAsString)
+				.collect(Collectors.toList());
+	}
+
+    @Test
+    public void testFailedBatchDoesNotFailOthers() throws Exception {
+    	Map<String, AtomicInteger> sends = new ConcurrentHashMap<>();
+    	AtomicInteger requests = new AtomicInteger();
+
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+    	daemon.handle("send", params -> {
+    		requests.incrementAndGet();
+    		List<String> batch = getRecipients(params);
+    		batch.forEach(recipient -> sends.computeIfAbsent(recipient, r -> new AtomicInteger()).incrementAndGet());
+    		if(batch.contains(RECIPIENTS.get(4)))
+    			throw new IllegalStateException("Failed to send");
+    		return success(batch);
+    	});
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_RECIPIENT_BATCH_SIZE, "3");
+    		runner.setProperty(service, SignalMessengerService.PROP_RECIPIENT_BATCH_CONCURRENCY, "2");
+    		runner.enableControllerService(service);
+
+    		SignalPartialSendException e = assertThrows(SignalPartialSendException.class, () ->
+    				service.sendMessage(ACCOUNT, "Hello", Optional.of(RECIPIENTS), Optional.empty(), Optional.empty(), Optional.empty()));
+    		assertEquals(RECIPIENTS.subList(3, 6), e.getFailedRecipients());
+
+    		// Results of the sent batches and the failed recipients, each sent to once
+    		JsonObject result = e.getResult().getAsJsonObject();
+    		assertTrue(result.has("timestamp"));
+    		JsonArray results = result.getAsJsonArray("results");
+    		assertEquals(10, results.size());
+    		assertEquals(7, results.asList().stream().filter(r -> "SUCCESS".equals(r.getAsJsonObject().get("type").getAsString())).count());
+    		assertTrue(results.asList().stream().allMatch(r -> r.getAsJsonObject().has("timestamp") || r.getAsJsonObject().has("error")));
+    		assertEquals(4, requests.get());
+    		assertTrue(sends.values().stream().allMatch(count -> count.get() == 1));
+
+    		// The failed recipients are one batch
+    		requests.set(0);
+    		JsonElement retry = service.sendMessage(ACCOUNT, "Hello", Optional.of(List.of(RECIPIENTS.get(0), RECIPIENTS.get(1))), Optional.empty(), Optional.empty(), Optional.empty());
+    		assertEquals(2, retry.getAsJsonObject().getAsJsonArray("results").size());
+    		assertEquals(1, requests.get());
+    		assertEquals(1L, service.getMetrics().get(RecipientBatches.METRIC_PARTIAL).longValue());
+    	} finally {
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+    }
+
+    @Test
+    public void testOnlyReportedRecipientsFail() throws IOException {
+    	RecipientBatches batches = new RecipientBatches(4, 4);
+    	assertTrue(batches.isBatched(RECIPIENTS));
+
+    	SignalPartialSendException e = assertThrows(SignalPartialSendException.class, () -> batches.send(RECIPIENTS, batch -> {
+    		if(batch.contains(RECIPIENTS.get(5)))
+    			throw new SignalUnregisteredException("Unregistered user", -1, List.of(RECIPIENTS.get(5)));
+    		return success(batch);
+    	}));
+    	assertEquals(List.of(RECIPIENTS.get(5)), e.getFailedRecipients());
+    	assertEquals(SignalErrorType.UNREGISTERED, e.getType());
+    	assertEquals(7, e.getResult().getAsJsonObject().getAsJsonArray("results").size());
+
+    	JsonElement result = batches.send(RECIPIENTS, TestRecipientBatches::success);
+    	assertEquals(10, result.getAsJsonObject().getAsJsonArray("results").size());
+    }
+
+    @Test
+    public void testNothingSentThrowsError() {
+    	RecipientBatches batches = new RecipientBatches(4, 2);
+    	IOException error = new IOException("Daemon is down");
+    	assertSame(error, assertThrows(IOException.class, () -> batches.send(RECIPIENTS, batch -> {
+    		throw error;
+    	})));
+    }
+}
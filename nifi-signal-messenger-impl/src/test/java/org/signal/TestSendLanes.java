@@ -0,0 +1,139 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class TestSendLanes {
+
+	private static final String ACCOUNT = "+46700000001";
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+    @Test
+    public void testSameConversationSameLane() {
+    	SendLanes lanes = new SendLanes(16);
+    	String conversation = SendLanes.getConversation(ACCOUNT, List.of("+46711111111", "+46722222222"));
+    	assertEquals(conversation, SendLanes.getConversation(ACCOUNT, List.of("+46722222222", "+46711111111")));
+    	assertNotEquals(conversation, SendLanes.getConversation("+46700000002", List.of("+46711111111", "+46722222222")));
+
+    	// Similar numbers are spread over the lanes
+    	long used = IntStream.range(0, 100)
+    			.map(i -> lanes.getLane(SendLanes.getConversation(ACCOUNT, List.of("+467111111" + String.format("%02d", i)))))
+    			.distinct()
+    			.count();
+    	assertTrue(used > 8, "Lanes used: " + used);
+    }
+
+    @Test
+    public void testSendsInArrivalOrder() throws Exception {
+    	SendLanes lanes = new SendLanes(1);
+    	ReentrantLock held = lanes.lock("first");
+
+    	List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    	List<Thread> threads = new ArrayList<>();
+    	for (int i = 0; i < 5; i++) {
+    		int message = i;
+    		Thread thread = new Thread(() -> {
+    			try {
+    				ReentrantLock lane = lanes.lock("conversation");
+    				order.add(message);
+    				lane.unlock();
+    			} catch (IOException e) { }
+    		});
+    		thread.start();
+    		threads.add(thread);
+    		await(() -> held.getQueueLength() == message + 1);
+    	}
+
+    	held.unlock();
+    	for (Thread thread : threads) {
+    		thread.join(10_000);
+    	}
+    	assertEquals(List.of(0, 1, 2, 3, 4), order);
+    }
+
+    @Test
+    public void testConversationsSentOneAtATimeButInParallel() throws Exception {
+    	Map<String, AtomicInteger> sending = new ConcurrentHashMap<>();
+    	AtomicInteger maxPerConversation = new AtomicInteger();
+    	AtomicInteger inFlight = new AtomicInteger();
+    	AtomicInteger maxInFlight = new AtomicInteger();
+
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+    	daemon.handle("send", params -> {
+    		String recipient = params.getAsJsonArray("recipient").get(0).getAsString();
+    		AtomicInteger conversation = sending.computeIfAbsent(recipient, r -> new AtomicInteger());
+    		maxPerConversation.accumulateAndGet(conversation.incrementAndGet(), Math::max);
+    		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    		try {
+    			Thread.sleep(10);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    		inFlight.decrementAndGet();
+    		conversation.decrementAndGet();
+
+    		JsonObject result = new JsonObject();
+    		result.addProperty("timestamp", System.currentTimeMillis());
+    		return result;
+    	});
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_ORDERED_LANES, "64");
+    		runner.enableControllerService(service);
+
+    		// Four threads per conversation
+    		List<Thread> threads = new ArrayList<>();
+    		for (int i = 0; i < 16; i++) {
+    			String recipient = "+4671111111" + (i % 4);
+    			Thread thread = new Thread(() -> {
+    				for (int m = 0; m < 5; m++) {
+    					try {
+    						service.sendMessage(ACCOUNT, "Hello " + m, Optional.of(List.of(recipient)), Optional.empty(), Optional.empty(), Optional.empty());
+    					} catch (Exception e) { }
+    				}
+    			});
+    			threads.add(thread);
+    			thread.start();
+    		}
+    		for (Thread thread : threads) {
+    			thread.join(30_000);
+    		}
+    	} finally {
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+
+    	assertEquals(1, maxPerConversation.get());
+    	assertTrue(maxInFlight.get() > 1, "Sends at the same time: " + maxInFlight.get());
+    }
+}
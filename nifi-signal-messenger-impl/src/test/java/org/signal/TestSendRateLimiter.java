@@ -0,0 +1,64 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestSendRateLimiter {
+
+    @Test
+    public void testDisabled() throws InterruptedIOException {
+    	SendRateLimiter limiter = new SendRateLimiter(0, 1, 0, 1, 0);
+    	assertFalse(limiter.isEnabled());
+    	
+    	for (int i = 0; i < 100; i++) {
+    		limiter.acquire("+4611111", List.of("+4622222"));
+		}
+    	assertEquals(1d, limiter.getHeadroom("+4611111"));
+    }
+
+    @Test
+    public void testBurstThenFailFast() throws InterruptedIOException {
+    	SendRateLimiter limiter = new SendRateLimiter(1, 3, 0, 1, 0);
+
+    	limiter.acquire("+4611111", List.of("+4622222"));
+    	limiter.acquire("+4611111", List.of("+4622222"));
+    	limiter.acquire("+4611111", List.of("+4622222"));
+    	
+    	SignalRateLimitException exc = assertThrows(SignalRateLimitException.class, () -> limiter.acquire("+4611111", List.of("+4622222")));
+    	assertTrue(exc.getRetryAfterMillis() > 0);
+    	
+    	// Other accounts have their own bucket
+    	limiter.acquire("+4633333", List.of("+4622222"));
+    }
+
+    @Test
+    public void testRecipientLimit() throws InterruptedIOException {
+    	SendRateLimiter limiter = new SendRateLimiter(0, 1, 1, 1, 0);
+
+    	limiter.acquire("+4611111", List.of("+4622222"));
+    	assertThrows(SignalRateLimitException.class, () -> limiter.acquire("+4611111", List.of("+4622222", "+4644444")));
+    	
+    	// The rejected send must not have taken a token from the other recipient
+    	limiter.acquire("+4611111", List.of("+4644444"));
+    }
+
+    @Test
+    public void testWaitForToken() throws InterruptedIOException {
+    	SendRateLimiter limiter = new SendRateLimiter(10, 1, 0, 1, 1_000);
+
+    	limiter.acquire("+4611111", List.of());
+    	long start = System.nanoTime();
+    	limiter.acquire("+4611111", List.of());
+    	long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+
+    	assertTrue(waitedMillis >= 50, "Waited " + waitedMillis + " ms");
+    	assertTrue(limiter.getHeadroom("+4611111") < 0.5);
+    }
+}
@@ -0,0 +1,293 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+import org.signal.model.SignalPriority;
+
+import com.google.gson.JsonObject;
+
+public class TestSendScheduler {
+
+	private static final String BULK = "+46700000001";
+	private static final String ALERTS = "+46700000002";
+	private static final String RECIPIENT = "+46711111111";
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private static long metric(SendScheduler scheduler, String name) {
+		Map<String, Number> metrics = new TreeMap<>();
+		scheduler.snapshot(metrics);
+		Number value = metrics.get(name);
+		return value == null ? 0 : value.longValue();
+	}
+
+	private static Thread queue(SendScheduler scheduler, String account, List<String> order) throws InterruptedException {
+		return queue(scheduler, account, SignalPriority.NORMAL, order);
+	}
+
+	/**
+	 * Queues a send that records its account when it gets a slot, and holds it until released
+	 */
+	private static Thread queue(SendScheduler scheduler, String account, SignalPriority priority, List<String> order) throws InterruptedException {
+		long before = metric(scheduler, SendScheduler.METRIC_QUEUED);
+		Thread thread = new Thread(() -> {
+			try {
+				scheduler.acquire(account, priority);
+				order.add(account);
+			} catch (InterruptedIOException e) { }
+		});
+		thread.start();
+		await(() -> metric(scheduler, SendScheduler.METRIC_QUEUED) == before + 1);
+		return thread;
+	}
+
+	/**
+	 * Frees one slot at a time and waits for it to be taken
+	 */
+	private static void drain(SendScheduler scheduler, List<String> order, int sends) throws InterruptedException {
+		for (int i = 0; i < sends; i++) {
+			int granted = order.size();
+			scheduler.release(SignalPriority.NORMAL, -1);
+			await(() -> order.size() == granted + 1);
+		}
+	}
+
+    @Test
+    public void testFloodDoesNotStarveOtherAccount() throws Exception {
+    	SendScheduler scheduler = new SendScheduler(1, 0, Map.of());
+    	List<String> order = Collections.synchronizedList(new ArrayList<>());
+    	scheduler.acquire(BULK, SignalPriority.NORMAL);
+
+    	for (int i = 0; i < 5; i++) {
+    		queue(scheduler, BULK, order);
+		}
+    	queue(scheduler, ALERTS, order);
+    	assertEquals(1, metric(scheduler, "scheduler." + ALERTS + ".queued"));
+    	assertEquals(5, metric(scheduler, "scheduler." + BULK + ".queued"));
+
+    	drain(scheduler, order, 6);
+    	// Queued behind five bulk sends, but sent second
+    	assertEquals(ALERTS, order.get(1));
+    	assertEquals(0, metric(scheduler, SendScheduler.METRIC_QUEUED));
+    	assertEquals(1, metric(scheduler, "scheduler." + ALERTS + ".wait.count"));
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+    	SendScheduler scheduler = new SendScheduler(1, 0, SendScheduler.parseWeights(BULK + "=1, " + ALERTS + "=3"));
+    	List<String> order = Collections.synchronizedList(new ArrayList<>());
+    	scheduler.acquire(BULK, SignalPriority.NORMAL);
+
+    	for (int i = 0; i < 4; i++) {
+    		queue(scheduler, BULK, order);
+    		queue(scheduler, ALERTS, order);
+		}
+    	drain(scheduler, order, 8);
+    	assertEquals(List.of(BULK, ALERTS, ALERTS, ALERTS, BULK, ALERTS, BULK, BULK), order);
+    }
+
+    @Test
+    public void testSlotsAreSharedAndFreed() throws Exception {
+    	SendScheduler scheduler = new SendScheduler(2, 0, Map.of());
+    	scheduler.acquire(BULK, SignalPriority.NORMAL);
+    	scheduler.acquire(ALERTS, SignalPriority.NORMAL);
+    	assertEquals(2, metric(scheduler, SendScheduler.METRIC_IN_USE));
+
+    	// An interrupted wait leaves the queue
+    	Thread waiting = queue(scheduler, BULK, new ArrayList<>());
+    	waiting.interrupt();
+    	waiting.join(10_000);
+    	assertEquals(0, metric(scheduler, SendScheduler.METRIC_QUEUED));
+
+    	scheduler.release(SignalPriority.NORMAL, -1);
+    	scheduler.release(SignalPriority.NORMAL, -1);
+    	assertEquals(0, metric(scheduler, SendScheduler.METRIC_IN_USE));
+    }
+
+    @Test
+    public void testHigherPriorityGoesFirst() throws Exception {
+    	SendScheduler scheduler = new SendScheduler(1, 0, Map.of());
+    	List<String> order = Collections.synchronizedList(new ArrayList<>());
+    	scheduler.acquire(BULK, SignalPriority.LOW);
+
+    	queue(scheduler, BULK, SignalPriority.LOW, order);
+    	queue(scheduler, BULK, SignalPriority.NORMAL, order);
+    	queue(scheduler, ALERTS, SignalPriority.HIGH, order);
+    	assertEquals(1, metric(scheduler, "scheduler.lane.high.queued"));
+
+    	drain(scheduler, order, 3);
+    	assertEquals(List.of(ALERTS, BULK, BULK), order);
+    	assertEquals(1, metric(scheduler, "scheduler.lane.high.wait.count"));
+    	assertEquals(2, metric(scheduler, "scheduler.lane.low.wait.count"));
+    }
+
+    @Test
+    public void testReservedSlotsForHighPriority() throws Exception {
+    	SendScheduler scheduler = new SendScheduler(3, 1, Map.of());
+    	scheduler.acquire(BULK, SignalPriority.NORMAL);
+    	scheduler.acquire(BULK, SignalPriority.LOW);
+
+    	// The last slot is kept for high priority sends
+    	List<String> order = Collections.synchronizedList(new ArrayList<>());
+    	queue(scheduler, BULK, SignalPriority.NORMAL, order);
+    	long start = System.nanoTime();
+    	scheduler.acquire(ALERTS, SignalPriority.HIGH);
+    	assertEquals(3, metric(scheduler, SendScheduler.METRIC_IN_USE));
+
+    	// Freeing the high priority slot does not let the queued send use it
+    	scheduler.release(SignalPriority.HIGH, start);
+    	assertEquals(2, metric(scheduler, SendScheduler.METRIC_IN_USE));
+    	assertEquals(1, metric(scheduler, "scheduler.lane.high.latency.count"));
+    	assertTrue(order.isEmpty());
+
+    	int granted = order.size();
+    	scheduler.release(SignalPriority.LOW, -1);
+    	await(() -> order.size() == granted + 1);
+    	assertEquals(0, metric(scheduler, SendScheduler.METRIC_QUEUED));
+    }
+
+    @Test
+    public void testParseWeights() {
+    	assertEquals(Map.of(BULK, 5, ALERTS, 1), SendScheduler.parseWeights(" " + BULK + " = 5 ,," + ALERTS + "=1"));
+    	assertTrue(SendScheduler.parseWeights(null).isEmpty());
+    	assertThrows(IllegalArgumentException.class, () -> SendScheduler.parseWeights(BULK));
+    	assertThrows(IllegalArgumentException.class, () -> SendScheduler.parseWeights(BULK + "=0"));
+    	assertThrows(IllegalArgumentException.class, () -> SendScheduler.parseWeights(BULK + "=many"));
+    }
+
+	private static JsonObject sent() {
+		JsonObject result = new JsonObject();
+		result.addProperty("timestamp", System.currentTimeMillis());
+		return result;
+	}
+
+	/**
+	 * Sends a message on a new thread, the error it failed with is set on error
+	 */
+	private static Thread send(SignalMessengerService service, String account, String message, SignalPriority priority, AtomicReference<Exception> error) {
+		Thread thread = new Thread(() -> {
+			try {
+				service.sendMessage(account, message, Optional.of(List.of(RECIPIENT)), Optional.empty(), Optional.empty(), Optional.empty(), priority);
+			} catch (Exception e) {
+				error.set(e);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+    @Test
+    public void testRateLimitedAccountDoesNotHoldSlot() throws Exception {
+    	AtomicInteger bulkSends = new AtomicInteger();
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+    	daemon.handle("send", params -> {
+    		if(BULK.equals(params.get("account").getAsString()) && bulkSends.getAndIncrement() == 0)
+    			throw MockSignalDaemon.rateLimited(2, List.of(RECIPIENT), List.of());
+    		return sent();
+    	});
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_MAX_CONCURRENT_SENDS, "1");
+    		runner.setProperty(service, SignalMessengerService.PROP_RESERVED_HIGH_PRIORITY_SENDS, "0");
+    		runner.enableControllerService(service);
+
+    		AtomicReference<Exception> error = new AtomicReference<>();
+    		Thread bulk = send(service, BULK, "Bulk", SignalPriority.NORMAL, error);
+    		await(() -> bulkSends.get() == 1);
+
+    		// The only slot is free while the bulk account waits out its rate limit
+    		service.sendMessage(ALERTS, "Alert", Optional.of(List.of(RECIPIENT)), Optional.empty(), Optional.empty(), Optional.empty());
+    		assertTrue(bulk.isAlive());
+
+    		bulk.join(10_000);
+    		assertFalse(bulk.isAlive());
+    		assertNull(error.get());
+    		assertEquals(2, bulkSends.get());
+    	} finally {
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+    }
+
+    @Test
+    public void testRateLimitedHighPriorityDoesNotHoldReservedSlot() throws Exception {
+    	CountDownLatch bulkDone = new CountDownLatch(1);
+    	AtomicInteger alertSends = new AtomicInteger();
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+    	daemon.handle("send", params -> {
+    		if(BULK.equals(params.get("account").getAsString())) {
+    			try {
+    				bulkDone.await(10, TimeUnit.SECONDS);
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    		} else if(alertSends.getAndIncrement() == 0) {
+    			throw MockSignalDaemon.rateLimited(2, List.of(RECIPIENT), List.of());
+    		}
+    		return sent();
+    	});
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_MAX_CONCURRENT_SENDS, "2");
+    		runner.setProperty(service, SignalMessengerService.PROP_RESERVED_HIGH_PRIORITY_SENDS, "1");
+    		runner.enableControllerService(service);
+
+    		// The lower priority slot is taken by a slow send
+    		AtomicReference<Exception> error = new AtomicReference<>();
+    		Thread bulk = send(service, BULK, "Bulk", SignalPriority.NORMAL, error);
+    		await(() -> daemon.getRpcRequests("send") == 1);
+
+    		Thread firstAlert = send(service, ALERTS, "Alert 1", SignalPriority.HIGH, error);
+    		await(() -> alertSends.get() == 1);
+
+    		// The reserved slot is free while the first alert waits out its rate limit
+    		service.sendMessage(ALERTS, "Alert 2", Optional.of(List.of(RECIPIENT)), Optional.empty(), Optional.empty(), Optional.empty(), SignalPriority.HIGH);
+    		assertTrue(firstAlert.isAlive());
+    		assertTrue(bulk.isAlive());
+
+    		bulkDone.countDown();
+    		firstAlert.join(10_000);
+    		bulk.join(10_000);
+    		assertNull(error.get());
+    		assertEquals(3, alertSends.get());
+    	} finally {
+    		bulkDone.countDown();
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+    }
+}
@@ -0,0 +1,198 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.model.SignalData;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class TestSignalDaemonPool {
+
+	private static final String ACCOUNT_A = "+46700000001";
+	private static final String ACCOUNT_B = "+46700000002";
+	private static final String ACCOUNT_SHARED = "+46700000003";
+
+	private MockSignalDaemon daemonA;
+	private MockSignalDaemon daemonB;
+	private final AtomicInteger sentA = new AtomicInteger();
+	private final AtomicInteger sentB = new AtomicInteger();
+	private final AtomicInteger groupsA = new AtomicInteger();
+	private final AtomicInteger groupsB = new AtomicInteger();
+
+	private TestRunner runner;
+	private SignalMessengerService service;
+
+	@Before
+	public void init() throws InitializationException, IOException {
+		daemonA = createDaemon(sentA, groupsA, ACCOUNT_A, ACCOUNT_SHARED);
+		daemonB = createDaemon(sentB, groupsB, ACCOUNT_B, ACCOUNT_SHARED);
+
+		runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+		service = new SignalMessengerService();
+		runner.addControllerService("signalservice", service);
+		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemonA.getUrl() + ", " + daemonB.getUrl() + "/");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_INITIAL_BACKOFF, "10 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_MAX_BACKOFF, "100 millis");
+	}
+
+	private static MockSignalDaemon createDaemon(AtomicInteger sent, AtomicInteger groups, String... accounts) throws IOException {
+		MockSignalDaemon daemon = new MockSignalDaemon();
+		daemon.handle("listAccounts", params -> {
+			JsonArray result = new JsonArray();
+			for (String account : accounts) {
+				JsonObject entry = new JsonObject();
+				entry.addProperty("number", account);
+				result.add(entry);
+			}
+			return result;
+		});
+		daemon.handle("send", params -> {
+			sent.incrementAndGet();
+			JsonObject result = new JsonObject();
+			result.addProperty("timestamp", System.currentTimeMillis());
+			return result;
+		});
+		daemon.handle("listGroups", params -> {
+			groups.incrementAndGet();
+			return new JsonArray();
+		});
+		return daemon;
+	}
+
+	@After
+	public void cleanup() {
+		if(runner.isControllerServiceEnabled(service))
+			runner.disableControllerService(service);
+		daemonA.close();
+		daemonB.close();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private long metric(String name) {
+		Number value = service.getMetrics().get(name);
+		return value == null ? 0 : value.longValue();
+	}
+
+	private void send(String account) throws Exception {
+		service.sendMessage(account, "Hello", Optional.of(List.of("+46711111111")), Optional.empty(), Optional.empty(), Optional.empty());
+	}
+
+    @Test
+    public void testRequestsAreRoutedByAccount() throws Exception {
+    	runner.enableControllerService(service);
+    	await(() -> metric(SignalMessengerService.METRIC_DAEMONS_HEALTHY) == 2);
+    	assertEquals(List.of(ACCOUNT_A, ACCOUNT_SHARED, ACCOUNT_B), service.getAccounts());
+
+    	send(ACCOUNT_A);
+    	send(ACCOUNT_B);
+    	send(ACCOUNT_B);
+    	assertEquals(1, sentA.get());
+    	assertEquals(2, sentB.get());
+
+    	// Sent from the first daemon hosting the account
+    	send(ACCOUNT_SHARED);
+    	assertEquals(2, sentA.get());
+    }
+
+    @Test
+    public void testReadOnlyRequestsAreSpread() throws Exception {
+    	runner.enableControllerService(service);
+    	await(() -> metric(SignalMessengerService.METRIC_DAEMONS_HEALTHY) == 2);
+
+    	for (int i = 0; i < 10; i++) {
+    		service.sendJsonRpc("listGroups", accountParam(ACCOUNT_SHARED));
+    	}
+    	assertEquals(5, groupsA.get());
+    	assertEquals(5, groupsB.get());
+
+    	service.sendJsonRpc("listGroups", accountParam(ACCOUNT_B));
+    	assertEquals(6, groupsB.get());
+    }
+
+    @Test
+    public void testFailedDaemonIsAvoided() throws Exception {
+    	runner.enableControllerService(service);
+    	await(() -> metric(SignalMessengerService.METRIC_DAEMONS_HEALTHY) == 2);
+
+    	daemonA.close();
+    	try {
+    		// Only retried if the request never reached the daemon
+    		send(ACCOUNT_SHARED);
+    	} catch (IOException e) { }
+    	assertEquals(1, metric(SignalMessengerService.METRIC_DAEMONS_HEALTHY));
+
+    	int before = sentB.get();
+    	send(ACCOUNT_SHARED);
+    	assertEquals(before + 1, sentB.get());
+    	assertEquals(0, sentA.get());
+    }
+
+    @Test
+    public void testOneStreamPerDaemon() throws InterruptedException {
+    	runner.enableControllerService(service);
+    	await(() -> daemonA.getOpenEventStreams() == 1 && daemonB.getOpenEventStreams() == 1);
+    	assertEquals(2, metric(SignalMessengerService.METRIC_DAEMONS));
+
+    	BlockingQueue<SignalData> received = new LinkedBlockingQueue<>();
+    	service.addMessageListener(received::add);
+
+    	daemonA.sendEvent(event(ACCOUNT_A, 1));
+    	daemonB.sendEvent(event(ACCOUNT_B, 2));
+    	// The same message received by both daemons is passed on once
+    	daemonA.sendEvent(event(ACCOUNT_SHARED, 3));
+    	daemonB.sendEvent(event(ACCOUNT_SHARED, 3));
+
+    	assertTrue(received.poll(10, TimeUnit.SECONDS) != null);
+    	assertTrue(received.poll(10, TimeUnit.SECONDS) != null);
+    	assertTrue(received.poll(10, TimeUnit.SECONDS) != null);
+    	await(() -> metric(SignalMessengerService.METRIC_STREAM_DUPLICATES) == 1);
+    	assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static JsonObject accountParam(String account) {
+    	JsonObject params = new JsonObject();
+    	params.addProperty("account", account);
+    	return params;
+    }
+
+    private static JsonObject event(String account, long timestamp) {
+    	JsonObject dataMessage = new JsonObject();
+    	dataMessage.addProperty("message", "Hello " + timestamp);
+
+    	JsonObject envelope = new JsonObject();
+    	envelope.addProperty("timestamp", timestamp);
+    	envelope.addProperty("sourceNumber", "+46711111111");
+    	envelope.addProperty("sourceUuid", "00000000-0000-0000-0000-000000000001");
+    	envelope.add("dataMessage", dataMessage);
+
+    	JsonObject event = new JsonObject();
+    	event.addProperty("account", account);
+    	event.add("envelope", envelope);
+    	return event;
+    }
+}
@@ -0,0 +1,234 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class TestSignalErrors {
+
+	private static final String ACCOUNT = "+46700000001";
+
+	private static JsonObject error(long code, String message, String... results) {
+		String json = "{\"code\":" + code + ",\"message\":\"" + message + "\","
+				+ "\"data\":{\"response\":{\"results\":[" + String.join(",", results) + "]}}}";
+		return JsonParser.parseString(json).getAsJsonObject();
+	}
+
+	private static String result(String number, String type) {
+		return "{\"recipientAddress\":{\"number\":\"" + number + "\"},\"type\":\"" + type + "\"}";
+	}
+
+    @Test
+    public void testRateLimit() {
+    	SignalRpcException e = SignalErrors.fromJsonRpcError(error(-5, "Rate limited"));
+    	assertInstanceOf(SignalRateLimitException.class, e);
+    	assertEquals(SignalErrorType.RATE_LIMITED, e.getType());
+    	assertTrue(e.isTransient());
+    	assertEquals("Rate limited (ErrorCode: -5)", e.getMessage());
+    }
+
+    @Test
+    public void testPartialFailureKeepsFailedRecipients() {
+    	SignalRpcException e = SignalErrors.fromJsonRpcError(error(-1, "Failed to send",
+    			result("+461", "SUCCESS"),
+    			result("+462", "NETWORK_FAILURE")));
+    	assertEquals(SignalErrorType.TRANSPORT, e.getType());
+    	assertEquals(List.of("+462"), e.getFailedRecipients());
+    }
+
+    @Test
+    public void testUnregistered() {
+    	SignalRpcException e = SignalErrors.fromJsonRpcError(error(-1, "Failed to send", result("+462", "UNREGISTERED_FAILURE")));
+    	assertInstanceOf(SignalUnregisteredException.class, e);
+    	assertFalse(e.isTransient());
+    	assertNull(((SignalUnregisteredException) e).getResult());
+    }
+
+    @Test
+    public void testUnregisteredKeepsResultWhenSentToOthers() {
+    	JsonObject error = error(-1, "Failed to send", result("+461", "SUCCESS"), result("+462", "UNREGISTERED_FAILURE"));
+    	error.getAsJsonObject("data").getAsJsonObject("response").addProperty("timestamp", 1_700_000_000_000L);
+
+    	SignalUnregisteredException e = assertInstanceOf(SignalUnregisteredException.class, SignalErrors.fromJsonRpcError(error));
+    	assertEquals(List.of("+462"), e.getFailedRecipients());
+    	assertEquals(1_700_000_000_000L, e.getResult().getAsJsonObject().get("timestamp").getAsLong());
+    }
+
+    @Test
+    public void testUntrustedIdentity() {
+    	SignalRpcException e = SignalErrors.fromJsonRpcError(error(-4, "Untrusted identity"));
+    	assertEquals(SignalErrorType.UNTRUSTED_IDENTITY, e.getType());
+    	assertFalse(e.isTransient());
+    }
+
+    @Test
+    public void testInvalidRequest() {
+    	assertEquals(SignalErrorType.INVALID_REQUEST, SignalErrors.fromJsonRpcError(error(-32601, "Method not found")).getType());
+    	assertEquals(SignalErrorType.INVALID_REQUEST, SignalErrors.fromHttpStatus(400, false).getType());
+    	assertEquals(SignalErrorType.TRANSPORT, SignalErrors.fromHttpStatus(503, false).getType());
+    }
+
+    @Test
+    public void testServerErrorOnlyTransientIfNothingWasSent() {
+    	assertTrue(SignalErrors.fromHttpStatus(500, true).isTransient());
+    	assertTrue(SignalErrors.fromHttpStatus(429, false).isTransient());
+    	assertFalse(SignalErrors.fromHttpStatus(500, false).isTransient());
+    	assertFalse(SignalErrors.fromHttpStatus(408, false).isTransient());
+    }
+
+    @Test
+    public void testSendIsNotMadeAgainAfterServerError() throws Exception {
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_RETRY_MAX_ATTEMPTS, "3");
+    		runner.setProperty(service, SignalMessengerService.PROP_RETRY_INITIAL_BACKOFF, "10 millis");
+    		runner.enableControllerService(service);
+
+    		// The message may have been sent before the daemon failed
+    		daemon.setStatus("send", 500);
+    		SignalRpcException e = assertThrows(SignalRpcException.class, () -> service.sendMessage(ACCOUNT, "Hello",
+    				Optional.of(List.of("+46711111111")), Optional.empty(), Optional.empty(), Optional.empty()));
+    		assertFalse(e.isTransient());
+    		assertEquals(500, e.getCode());
+    		assertEquals(1, daemon.getRpcRequests("send"));
+
+    		// Turned away without being processed
+    		daemon.setStatus("send", 503);
+    		assertThrows(SignalTransportException.class, () -> service.sendMessage(ACCOUNT, "Hello",
+    				Optional.of(List.of("+46711111111")), Optional.empty(), Optional.empty(), Optional.empty()));
+    		assertEquals(4, daemon.getRpcRequests("send"));
+
+    		// Requests that send nothing are made again
+    		daemon.setStatus("listGroups", 500);
+    		assertThrows(SignalTransportException.class, () -> service.sendJsonRpc("listGroups", Map.of("account", ACCOUNT)));
+    		assertEquals(3, daemon.getRpcRequests("listGroups"));
+    	} finally {
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+    }
+
+    @Test
+    public void testRetryToFailedRecipientsKeepsResultsOfOthers() throws Exception {
+    	List<List<String>> requested = new ArrayList<>();
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+    	daemon.handle("send", params -> {
+    		requested.add(getRecipients(params));
+    		if(requested.size() == 1)
+    			throw MockSignalDaemon.rateLimited(0, List.of("+462"), List.of("+461"));
+    		return JsonParser.parseString("{\"timestamp\":1,\"results\":[" + result("+462", "SUCCESS") + "]}");
+    	});
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_RETRY_MAX_ATTEMPTS, "3");
+    		runner.setProperty(service, SignalMessengerService.PROP_RETRY_INITIAL_BACKOFF, "10 millis");
+    		runner.enableControllerService(service);
+
+    		JsonObject params = sendParams("+461", "+462");
+    		JsonObject result = service.sendJsonRpc("send", params).getAsJsonObject();
+
+    		assertEquals(List.of(List.of("+461", "+462"), List.of("+462")), requested);
+    		// The request of the caller is not narrowed
+    		assertEquals(List.of("+461", "+462"), getRecipients(params));
+
+    		// The timestamp of the first attempt, the one the first recipient got the message with
+    		long timestamp = result.get("timestamp").getAsLong();
+    		assertTrue(timestamp > 1);
+    		JsonArray results = result.getAsJsonArray("results");
+    		assertEquals(2, results.size());
+    		assertEquals("+461", results.get(0).getAsJsonObject().getAsJsonObject("recipientAddress").get("number").getAsString());
+    		assertEquals(timestamp, results.get(0).getAsJsonObject().get("timestamp").getAsLong());
+    		assertEquals("+462", results.get(1).getAsJsonObject().getAsJsonObject("recipientAddress").get("number").getAsString());
+    		assertEquals(1, results.get(1).getAsJsonObject().get("timestamp").getAsLong());
+    	} finally {
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+    }
+
+    @Test
+    public void testFailedRetryToFailedRecipientsIsPartialSend() throws Exception {
+    	MockSignalDaemon daemon = new MockSignalDaemon();
+    	daemon.handle("send", params -> {
+    		throw MockSignalDaemon.rateLimited(0, List.of("+462"), getRecipients(params).size() > 1 ? List.of("+461") : List.of());
+    	});
+
+    	TestRunner runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+    	SignalMessengerService service = new SignalMessengerService();
+    	try {
+    		runner.addControllerService("signalservice", service);
+    		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+    		runner.setProperty(service, SignalMessengerService.PROP_RETRY_MAX_ATTEMPTS, "2");
+    		runner.setProperty(service, SignalMessengerService.PROP_RETRY_INITIAL_BACKOFF, "10 millis");
+    		runner.enableControllerService(service);
+
+    		SignalPartialSendException e = assertThrows(SignalPartialSendException.class, () -> service.sendJsonRpc("send", sendParams("+461", "+462")));
+    		assertEquals(SignalErrorType.RATE_LIMITED, e.getType());
+    		assertEquals(List.of("+462"), e.getFailedRecipients());
+    		assertEquals(2, daemon.getRpcRequests("send"));
+
+    		JsonArray results = e.getResult().getAsJsonObject().getAsJsonArray("results");
+    		assertEquals(1, results.size());
+    		assertEquals("+461", results.get(0).getAsJsonObject().getAsJsonObject("recipientAddress").get("number").getAsString());
+    	} finally {
+    		runner.disableControllerService(service);
+    		daemon.close();
+    	}
+    }
+
+    private static JsonObject sendParams(String... recipients) {
+    	JsonObject params = new JsonObject();
+    	params.addProperty("account", ACCOUNT);
+    	params.addProperty("message", "Hello");
+    	JsonArray array = new JsonArray();
+    	for (String recipient : recipients) {
+    		array.add(recipient);
+    	}
+    	params.add("recipient", array);
+    	return params;
+    }
+
+    private static List<String> getRecipients(JsonObject params) {
+    	List<String> recipients = new ArrayList<>();
+    	for (JsonElement recipient : params.getAsJsonArray("recipient")) {
+    		recipients.add(recipient.getAsString());
+    	}
+    	return recipients;
+    }
+
+    @Test
+    public void testRetryPolicyStopsAtMaxAttemptsAndDeadline() {
+    	RetryPolicy policy = new RetryPolicy(3, 100, 1_000, 5_000);
+    	assertTrue(policy.getDelayMillis(1, 0, 0) >= 0);
+    	assertEquals(-1, policy.getDelayMillis(3, 0, 0));
+    	assertEquals(-1, policy.getDelayMillis(1, 4_990, 100));
+    	assertTrue(policy.getDelayMillis(1, 0, 2_000) >= 2_000);
+    	assertEquals(-1, RetryPolicy.NO_RETRY.getDelayMillis(1, 0, 0));
+    }
+}
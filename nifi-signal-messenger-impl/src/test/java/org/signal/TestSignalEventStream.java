@@ -0,0 +1,193 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.model.SignalData;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gson.JsonObject;
+
+public class TestSignalEventStream {
+
+	private MockSignalDaemon daemon;
+	private TestRunner runner;
+	private SignalMessengerService service;
+
+	@Before
+	public void init() throws InitializationException, IOException {
+		daemon = new MockSignalDaemon();
+		runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+		service = new SignalMessengerService();
+		runner.addControllerService("signalservice", service);
+		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_IDLE_TIMEOUT, "500 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_INITIAL_BACKOFF, "10 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_MAX_BACKOFF, "100 millis");
+	}
+
+	@After
+	public void cleanup() {
+		if(runner.isControllerServiceEnabled(service))
+			runner.disableControllerService(service);
+		daemon.close();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private long metric(String name) {
+		Number value = service.getMetrics().get(name);
+		return value == null ? 0 : value.longValue();
+	}
+
+    @Test
+    public void testEnableDisableDoesNotLeakThreads() throws InterruptedException {
+    	// A silent stream keeps the receive thread blocked in a read until the connection is closed
+    	daemon.setKeepAliveMillis(0);
+    	runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_IDLE_TIMEOUT, "60 sec");
+
+    	long disableNanos = 0;
+    	for (int i = 0; i < 1_000; i++) {
+    		runner.enableControllerService(service);
+    		if(i % 100 == 0)
+    			await(service::isListeningEvents);
+    		long start = System.nanoTime();
+    		runner.disableControllerService(service);
+    		disableNanos += System.nanoTime() - start;
+    	}
+
+    	await(() -> SignalRuntime.getActiveThreads() == 0);
+    	// The daemon only notices a closed connection when writing to it
+    	daemon.setKeepAliveMillis(50);
+    	await(() -> daemon.getOpenEventStreams() == 0);
+    	// Far below the idle timeout, the blocked read did not have to time out
+    	assertTrue(TimeUnit.NANOSECONDS.toMillis(disableNanos) < 30_000);
+    }
+
+    @Test
+    public void testKeepAliveKeepsStream() throws InterruptedException {
+    	daemon.setKeepAliveMillis(50);
+    	runner.enableControllerService(service);
+
+    	await(() -> metric(SignalMessengerService.METRIC_STREAM_CONNECTS) == 1);
+    	Thread.sleep(1_500);
+
+    	assertEquals(0, metric(SignalMessengerService.METRIC_STREAM_STALE));
+    	assertEquals(1, daemon.getEventConnections());
+    	assertEquals(1, metric(SignalMessengerService.METRIC_STREAM_CONNECTED));
+    }
+
+    @Test
+    public void testSilentStreamReconnects() throws InterruptedException {
+    	daemon.setKeepAliveMillis(0);
+    	runner.enableControllerService(service);
+
+    	await(() -> metric(SignalMessengerService.METRIC_STREAM_STALE) >= 1 && metric(SignalMessengerService.METRIC_STREAM_GAP + ".count") >= 1);
+    	assertTrue(metric(SignalMessengerService.METRIC_STREAM_RECONNECTS) >= 1);
+    	assertTrue(daemon.getEventConnections() >= 2);
+    }
+
+    @Test
+    public void testClosedStreamReconnectsFast() throws InterruptedException {
+    	runner.enableControllerService(service);
+    	await(() -> daemon.getOpenEventStreams() == 1);
+
+    	daemon.closeEventStreams();
+
+    	await(() -> daemon.getEventConnections() == 2 && metric(SignalMessengerService.METRIC_STREAM_GAP + ".count") == 1);
+    	assertEquals(0, metric(SignalMessengerService.METRIC_STREAM_STALE));
+    	assertTrue(metric(SignalMessengerService.METRIC_STREAM_GAP + ".max.ms") < 1_000);
+    }
+
+    @Test
+    public void testSlowAccountDoesNotDelayOthers() throws InterruptedException {
+    	runner.setProperty(service, SignalMessengerService.PROP_ACCOUNTS, "+46700000001,+46700000002");
+    	runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_PER_ACCOUNT, "true");
+    	runner.enableControllerService(service);
+    	await(() -> daemon.getOpenEventStreams("+46700000001") == 1 && daemon.getOpenEventStreams("+46700000002") == 1);
+    	await(() -> service.getState() == SignalServiceState.READY);
+
+    	CountDownLatch release = new CountDownLatch(1);
+    	BlockingQueue<SignalData> received = new LinkedBlockingQueue<>();
+    	service.addMessageListener(data -> {
+    		if("+46700000001".equals(data.getAccount()))
+    			Uninterruptibles.awaitUninterruptibly(release);
+    		received.add(data);
+    	});
+
+    	daemon.sendEvent("+46700000001", event("+46700000001", 1));
+    	daemon.sendEvent("+46700000002", event("+46700000002", 2));
+
+    	SignalData first = received.poll(10, TimeUnit.SECONDS);
+    	assertEquals("+46700000002", first.getAccount());
+
+    	release.countDown();
+    	SignalData second = received.poll(10, TimeUnit.SECONDS);
+    	assertEquals("+46700000001", second.getAccount());
+    }
+
+    @Test
+    public void testSlowListenerDoesNotMakeStreamStale() throws InterruptedException {
+    	daemon.setKeepAliveMillis(50);
+    	runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_IDLE_TIMEOUT, "200 millis");
+    	runner.setProperty(service, SignalMessengerService.PROP_EVENT_QUEUE_SIZE, "1");
+    	runner.enableControllerService(service);
+    	await(() -> service.getState() == SignalServiceState.READY);
+
+    	CountDownLatch release = new CountDownLatch(1);
+    	BlockingQueue<SignalData> received = new LinkedBlockingQueue<>();
+    	service.addMessageListener(data -> {
+    		Uninterruptibles.awaitUninterruptibly(release);
+    		received.add(data);
+    	});
+
+    	// One in the listener, one in the queue, and the reader waits for room for the third
+    	for (int i = 1; i <= 3; i++) {
+    		daemon.sendEvent(event("+46700000001", i));
+    	}
+    	Thread.sleep(1_000);
+    	release.countDown();
+
+    	for (int i = 1; i <= 3; i++) {
+    		assertEquals(i, received.poll(10, TimeUnit.SECONDS).getTimestamp());
+    	}
+    	assertEquals(0, metric(SignalMessengerService.METRIC_STREAM_STALE));
+    	assertEquals(1, daemon.getEventConnections());
+    }
+
+    private static JsonObject event(String account, long timestamp) {
+    	JsonObject dataMessage = new JsonObject();
+    	dataMessage.addProperty("message", "Hello " + timestamp);
+
+    	JsonObject envelope = new JsonObject();
+    	envelope.addProperty("timestamp", timestamp);
+    	envelope.addProperty("sourceNumber", "+46711111111");
+    	envelope.addProperty("sourceName", "Sender");
+    	envelope.addProperty("sourceUuid", "00000000-0000-0000-0000-000000000001");
+    	envelope.add("dataMessage", dataMessage);
+
+    	JsonObject event = new JsonObject();
+    	event.addProperty("account", account);
+    	event.add("envelope", envelope);
+    	return event;
+    }
+}
@@ -0,0 +1,159 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class TestSignalFailover {
+
+	private static final String ACCOUNT = "+46700000001";
+
+	private MockSignalDaemon primary;
+	private MockSignalDaemon standby;
+	private final AtomicInteger sentPrimary = new AtomicInteger();
+	private final AtomicInteger sentStandby = new AtomicInteger();
+
+	private TestRunner runner;
+	private SignalMessengerService service;
+
+	@Before
+	public void init() throws InitializationException, IOException {
+		primary = createDaemon(sentPrimary);
+		standby = createDaemon(sentStandby);
+
+		runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+		service = new SignalMessengerService();
+		runner.addControllerService("signalservice", service);
+		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, primary.getUrl());
+		runner.setProperty(service, SignalMessengerService.PROP_STANDBY_DAEMON_URL, standby.getUrl());
+		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_HEALTH_CHECK_INTERVAL, "100 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_FAILOVER_THRESHOLD, "2");
+		runner.setProperty(service, SignalMessengerService.PROP_FAILOVER_STREAM_OUTAGE, "300 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_FAILBACK_DELAY, "1 sec");
+		runner.setProperty(service, SignalMessengerService.PROP_RETRY_MAX_ATTEMPTS, "1");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_INITIAL_BACKOFF, "10 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_MAX_BACKOFF, "100 millis");
+	}
+
+	private static MockSignalDaemon createDaemon(AtomicInteger sent) throws IOException {
+		MockSignalDaemon daemon = new MockSignalDaemon();
+		daemon.handle("send", params -> {
+			sent.incrementAndGet();
+			JsonObject result = new JsonObject();
+			result.addProperty("timestamp", System.currentTimeMillis());
+			return result;
+		});
+		return daemon;
+	}
+
+	@After
+	public void cleanup() {
+		if(runner.isControllerServiceEnabled(service))
+			runner.disableControllerService(service);
+		primary.close();
+		standby.close();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private long metric(String name) {
+		Number value = service.getMetrics().get(name);
+		return value == null ? 0 : value.longValue();
+	}
+
+	private boolean isOnStandby() {
+		return metric(SignalFailover.METRIC_ON_STANDBY) == 1 && standby.getOpenEventStreams() == 1 && primary.getOpenEventStreams() == 0;
+	}
+
+	private boolean isOnPrimary() {
+		return metric(SignalFailover.METRIC_ON_STANDBY) == 0 && primary.getOpenEventStreams() == 1 && standby.getOpenEventStreams() == 0;
+	}
+
+	private void send() throws Exception {
+		service.sendMessage(ACCOUNT, "Hello", Optional.of(List.of("+46711111111")), Optional.empty(), Optional.empty(), Optional.empty());
+	}
+
+    @Test
+    public void testFailoverAndFailback() throws Exception {
+    	runner.enableControllerService(service);
+    	await(this::isOnPrimary);
+    	send();
+    	assertEquals(1, sentPrimary.get());
+
+    	primary.setUnavailable(true);
+    	await(this::isOnStandby);
+    	send();
+    	assertEquals(1, sentStandby.get());
+
+    	primary.setUnavailable(false);
+    	long start = System.currentTimeMillis();
+    	await(this::isOnPrimary);
+    	// Not before the primary has been healthy for the failback delay
+    	assertTrue(System.currentTimeMillis() - start >= 900);
+
+    	send();
+    	assertEquals(2, sentPrimary.get());
+    	assertEquals(1, metric(SignalFailover.METRIC_FAILOVERS));
+    	assertEquals(1, metric(SignalFailover.METRIC_FAILBACKS));
+    }
+
+    @Test
+    public void testFlappingPrimaryDoesNotFailBack() throws Exception {
+    	runner.enableControllerService(service);
+    	await(this::isOnPrimary);
+
+    	primary.setUnavailable(true);
+    	await(this::isOnStandby);
+
+    	for (int i = 0; i < 8; i++) {
+    		primary.setUnavailable(i % 2 == 1);
+    		Thread.sleep(300);
+    	}
+    	assertTrue(isOnStandby());
+    	assertEquals(0, metric(SignalFailover.METRIC_FAILBACKS));
+
+    	primary.setUnavailable(false);
+    	await(this::isOnPrimary);
+    	assertEquals(1, metric(SignalFailover.METRIC_FAILOVERS));
+    }
+
+    @Test
+    public void testEventStreamOutageFailsOver() throws Exception {
+    	runner.enableControllerService(service);
+    	await(this::isOnPrimary);
+
+    	// Requests are still answered
+    	primary.setEventStreamUnavailable(true);
+    	await(this::isOnStandby);
+    	send();
+    	assertEquals(1, sentStandby.get());
+    }
+
+    @Test
+    public void testStandbyUsedIfPrimaryIsDownWhenEnabled() throws Exception {
+    	primary.setUnavailable(true);
+    	runner.enableControllerService(service);
+    	await(this::isOnStandby);
+    	assertEquals(SignalServiceState.READY, service.getState());
+    }
+}
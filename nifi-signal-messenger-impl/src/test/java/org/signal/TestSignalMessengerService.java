@@ -1,6 +1,8 @@
 package org.signal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -120,6 +122,29 @@ public class TestSignalMessengerService {
         assertFalse(runner.isControllerServiceEnabled(service));
     }
 
+    @Test
+    public void testPrewarmAccounts() throws InterruptedException {
+    	if(isSettingsEmpty() || numberA == null || numberA.isBlank()) {
+    		IllegalStateException exc = new IllegalStateException("No configuration set, skipping test");
+    		LOGGER.warn(exc.getMessage(), exc);
+			return;
+		}
+
+    	resetRunner();
+        runner.setProperty(service, SignalMessengerService.PROP_ACCOUNTS, numberA);
+
+        runner.enableControllerService(service);
+        runner.assertValid(service);
+        
+        Map<String, Number> metrics = service.getMetrics();
+        assertTrue(metrics.containsKey(SignalMessengerService.METRIC_WARMUP_DURATION));
+        assertEquals(1, metrics.get(SignalMessengerService.METRIC_WARMUP_ACCOUNTS).intValue());
+        
+        runner.disableControllerService(service);
+        
+        assertFalse(runner.isControllerServiceEnabled(service));
+    }
+
     private void resetRunner() {
 		runner.clearProperties();
     	runner.clearTransferState();
@@ -0,0 +1,180 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.model.SignalAttachment;
+import org.signal.model.SignalOutboxResult;
+import org.signal.model.SignalOutgoingMessage;
+
+import com.google.gson.JsonObject;
+
+public class TestSignalOutbox {
+
+	private Path directory;
+	private final BlockingQueue<SignalOutboxResult> results = new LinkedBlockingQueue<>();
+
+	@Before
+	public void init() throws IOException {
+		directory = Files.createTempDirectory("signal-outbox");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		try (var files = Files.walk(directory)) {
+			files.sorted(Collections.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private SignalOutbox createOutbox(int maxAttempts, SignalOutbox.Sender sender) throws IOException {
+		SignalOutbox outbox = new SignalOutbox(directory, 2, maxAttempts, new ExponentialBackoff(1, 10), sender, results::add);
+		outbox.open();
+		return outbox;
+	}
+
+	private static SignalOutgoingMessage message(String text, Optional<SignalAttachment> attachment) {
+		return new SignalOutgoingMessage("+46700000000", text, Optional.of(List.of("+46711111111")), Optional.empty(), Optional.empty(), attachment, Map.of("uuid", text));
+	}
+
+	private static JsonObject timestamp(long timestamp) {
+		JsonObject result = new JsonObject();
+		result.addProperty("timestamp", timestamp);
+		return result;
+	}
+
+    @Test
+    public void testConcurrentEnqueueIsSent() throws Exception {
+    	Map<String, Boolean> sent = new ConcurrentHashMap<>();
+    	try (SignalOutbox outbox = createOutbox(1, message -> {
+    		sent.put(message.getMessage(), Boolean.TRUE);
+    		return timestamp(1);
+    	})) {
+    		ExecutorService executor = Executors.newFixedThreadPool(8);
+    		List<Future<String>> ids = new ArrayList<>();
+    		for (int i = 0; i < 200; i++) {
+    			String text = "message " + i;
+    			ids.add(executor.submit(() -> outbox.enqueue(message(text, Optional.empty()))));
+    		}
+    		for (Future<String> id : ids) {
+    			id.get(10, TimeUnit.SECONDS);
+    		}
+    		executor.shutdown();
+
+    		for (int i = 0; i < 200; i++) {
+    			SignalOutboxResult result = results.poll(10, TimeUnit.SECONDS);
+    			assertTrue(result.isSuccess());
+    			assertEquals(1, result.getTimestamp());
+    			assertTrue(sent.containsKey(result.getAttributes().get("uuid")));
+    		}
+    		assertEquals(200, sent.size());
+    	}
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() throws Exception {
+    	AtomicInteger attempts = new AtomicInteger();
+    	try (SignalOutbox outbox = createOutbox(5, message -> {
+    		if(attempts.incrementAndGet() < 3)
+    			throw new SignalTransportException("Daemon unavailable", SignalRpcException.NO_CODE, null, null);
+    		return timestamp(2);
+    	})) {
+    		outbox.enqueue(message("retry", Optional.empty()));
+
+    		SignalOutboxResult result = results.poll(10, TimeUnit.SECONDS);
+    		assertTrue(result.isSuccess());
+    		assertEquals(3, result.getAttempts());
+    	}
+    }
+
+    @Test
+    public void testPermanentFailureIsReported() throws Exception {
+    	try (SignalOutbox outbox = createOutbox(5, message -> {
+    		throw new SignalInvalidRequestException("Invalid", SignalErrors.INVALID_PARAMS);
+    	})) {
+    		String id = outbox.enqueue(message("invalid", Optional.empty()));
+
+    		SignalOutboxResult result = results.poll(10, TimeUnit.SECONDS);
+    		assertFalse(result.isSuccess());
+    		assertEquals(id, result.getId());
+    		assertEquals(1, result.getAttempts());
+    		assertEquals(SignalErrorType.INVALID_REQUEST.name(), result.getErrorType());
+    		assertEquals("invalid", result.getAttributes().get("uuid"));
+    	}
+    }
+
+    @Test
+    public void testPendingMessagesAreRecovered() throws Exception {
+    	SignalOutbox outbox = createOutbox(Integer.MAX_VALUE, message -> {
+    		throw new SignalTransportException("Daemon unavailable", SignalRpcException.NO_CODE, null, null);
+    	});
+    	String id = outbox.enqueue(message("recovered", Optional.of(new SignalAttachment("text/plain", "a.txt", "aGVsbG8="))));
+    	outbox.close();
+    	assertTrue(results.isEmpty());
+
+    	List<SignalOutgoingMessage> sent = Collections.synchronizedList(new ArrayList<>());
+    	try (SignalOutbox recovered = createOutbox(1, message -> {
+    		sent.add(message);
+    		return timestamp(3);
+    	})) {
+    		SignalOutboxResult result = results.poll(10, TimeUnit.SECONDS);
+    		assertTrue(result.isSuccess());
+    		assertEquals(id, result.getId());
+    		assertEquals("aGVsbG8=", sent.get(0).getAttachment().get().getBase64Content());
+    		assertEquals("a.txt", sent.get(0).getAttachment().get().getFilename());
+    	}
+
+    	// Done messages are not sent again
+    	try (SignalOutbox reopened = new SignalOutbox(directory, 1, 1, new ExponentialBackoff(1, 10), message -> timestamp(4), results::add)) {
+    		assertEquals(0, reopened.open());
+    	}
+    }
+
+    @Test
+    public void testScheduledMessageIsSentWhenDue() throws Exception {
+    	List<Long> sentAt = Collections.synchronizedList(new ArrayList<>());
+    	SignalOutbox outbox = createOutbox(1, message -> {
+    		sentAt.add(System.currentTimeMillis());
+    		return timestamp(5);
+    	});
+    	long sendAt = System.currentTimeMillis() + 1_000;
+    	String id = outbox.enqueue(message("later", Optional.empty()), sendAt);
+    	assertEquals(1, outbox.getScheduledCount());
+
+    	// Kept in the log while waiting
+    	outbox.close();
+    	assertTrue(sentAt.isEmpty());
+
+    	try (SignalOutbox recovered = createOutbox(1, message -> {
+    		sentAt.add(System.currentTimeMillis());
+    		return timestamp(5);
+    	})) {
+    		assertEquals(1, recovered.getScheduledCount());
+    		SignalOutboxResult result = results.poll(10, TimeUnit.SECONDS);
+    		assertTrue(result.isSuccess());
+    		assertEquals(id, result.getId());
+    		assertTrue(sentAt.get(0) >= sendAt, "Sent " + (sendAt - sentAt.get(0)) + " ms early");
+    		assertEquals(0, recovered.getScheduledCount());
+    	}
+    }
+}
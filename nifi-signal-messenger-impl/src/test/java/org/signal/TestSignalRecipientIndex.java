@@ -0,0 +1,48 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestSignalRecipientIndex {
+
+	private static final String[] WITH_BOTH = {"+46701234567", "uuid-a"};
+	private static final String[] UUID_ONLY = {null, "uuid-b"};
+	private static final String[] DUPLICATE = {"+46701234567", "uuid-c"};
+
+	private final SignalRecipientIndex<String[]> index = new SignalRecipientIndex<>(
+			List.of(WITH_BOTH, UUID_ONLY, DUPLICATE), 
+			v -> v[0], 
+			v -> v[1]);
+
+    @Test
+    public void testLookupByNumberAndUuid() {
+    	assertEquals(WITH_BOTH, index.get("+46701234567").get());
+    	assertEquals(WITH_BOTH, index.get("uuid-a").get());
+    	assertEquals(UUID_ONLY, index.get("uuid-b").get());
+    }
+
+    @Test
+    public void testFirstNumberIsKept() {
+    	assertEquals(WITH_BOTH, index.getByNumber().get("+46701234567"));
+    	assertEquals(DUPLICATE, index.get("uuid-c").get());
+    	assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testUuidOnlyIsNotIndexedByNumber() {
+    	assertEquals(1, index.getByNumber().size());
+    	assertEquals(3, index.getByUuid().size());
+    }
+
+    @Test
+    public void testMissing() {
+    	assertFalse(index.get("Unknown").isPresent());
+    	assertFalse(index.get(null).isPresent());
+    	assertTrue(SignalRecipientIndex.empty().get("uuid-a").isEmpty());
+    }
+}
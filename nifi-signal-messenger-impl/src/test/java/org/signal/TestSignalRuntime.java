@@ -0,0 +1,108 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class TestSignalRuntime {
+
+	private static final int SERVICES = 50;
+
+	private MockSignalDaemon daemon;
+	private TestRunner runner;
+	private final List<SignalMessengerService> services = new ArrayList<>();
+
+	@Before
+	public void init() throws InitializationException, IOException {
+		daemon = new MockSignalDaemon();
+		runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+		for (int i = 0; i < SERVICES; i++) {
+			SignalMessengerService service = new SignalMessengerService();
+			runner.addControllerService("signalservice" + i, service);
+			runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+			services.add(service);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		for (SignalMessengerService service : services) {
+			if(runner.isControllerServiceEnabled(service))
+				runner.disableControllerService(service);
+		}
+		daemon.close();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private static JsonObject event(String account) {
+		JsonObject dataMessage = new JsonObject();
+		dataMessage.addProperty("message", "Hello");
+
+		JsonObject envelope = new JsonObject();
+		envelope.addProperty("timestamp", System.currentTimeMillis());
+		envelope.addProperty("sourceNumber", "+46711111111");
+		envelope.add("dataMessage", dataMessage);
+
+		JsonObject event = new JsonObject();
+		event.addProperty("account", account);
+		event.add("envelope", envelope);
+		return event;
+	}
+
+    @Test
+    public void testNewThreadIsVirtual() {
+    	Thread thread = SignalRuntime.newThread("SignalTest", () -> { });
+    	assertTrue(thread.isVirtual());
+    	assertEquals("SignalTest", thread.getName());
+    }
+
+    @Test
+    public void testManyServicesShareThreads() throws InterruptedException {
+    	for (SignalMessengerService service : services) {
+    		runner.enableControllerService(service);
+    	}
+    	await(() -> services.stream().allMatch(SignalMessengerService::isListeningEvents));
+    	await(() -> daemon.getOpenEventStreams() == SERVICES);
+
+    	// Reader and dispatcher of the stream, and the thread checking the health of the daemon
+    	assertEquals(SERVICES * 3, SignalRuntime.getActiveThreads());
+    	// None of them is a platform thread, which are the only ones listed
+    	assertTrue(Thread.getAllStackTraces().keySet().stream().noneMatch(thread -> thread.getName().startsWith("SignalMsg")));
+
+    	// Messages are dispatched on the virtual thread of the stream
+    	BlockingQueue<Thread> dispatchers = new LinkedBlockingQueue<>();
+    	services.get(0).addMessageListener(data -> dispatchers.add(Thread.currentThread()));
+    	daemon.sendEvent(event("+46700000001"));
+    	Thread dispatcher = dispatchers.poll(10, TimeUnit.SECONDS);
+    	assertTrue(dispatcher.isVirtual());
+    	assertTrue(dispatcher.getName().startsWith("SignalMsgDispatch"), dispatcher.getName());
+
+    	for (SignalMessengerService service : services) {
+    		runner.disableControllerService(service);
+    	}
+    	await(() -> SignalRuntime.getActiveThreads() == 0);
+    }
+}
@@ -0,0 +1,89 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class TestSignalServiceState {
+
+	private MockSignalDaemon daemon;
+	private TestRunner runner;
+	private SignalMessengerService service;
+
+	@Before
+	public void init() throws InitializationException, IOException {
+		daemon = new MockSignalDaemon();
+		runner = TestRunners.newTestRunner(TestSignalMessengerServiceProcessor.class);
+		service = new SignalMessengerService();
+		runner.addControllerService("signalservice", service);
+		runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, daemon.getUrl());
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_INITIAL_BACKOFF, "10 millis");
+		runner.setProperty(service, SignalMessengerService.PROP_EVENT_STREAM_MAX_BACKOFF, "100 millis");
+	}
+
+	@After
+	public void cleanup() {
+		if(runner.isControllerServiceEnabled(service))
+			runner.disableControllerService(service);
+		daemon.close();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+    @Test
+    public void testEnabledWithoutDaemon() throws IOException {
+    	int port;
+    	try (ServerSocket socket = new ServerSocket(0)) {
+    		port = socket.getLocalPort();
+    	}
+    	runner.setProperty(service, SignalMessengerService.PROP_DAEMON_URL, "http://127.0.0.1:" + port);
+
+    	long start = System.currentTimeMillis();
+    	runner.enableControllerService(service);
+
+    	assertTrue(runner.isControllerServiceEnabled(service));
+    	assertEquals(SignalServiceState.CONNECTING, service.getState());
+    	assertTrue(System.currentTimeMillis() - start < 5_000);
+    }
+
+    @Test
+    public void testReadyOnceDaemonAnswers() throws InterruptedException {
+    	AtomicBoolean up = new AtomicBoolean(false);
+    	daemon.handle("version", params -> {
+    		if(!up.get())
+    			throw new IllegalStateException("Daemon is starting");
+
+    		JsonObject version = new JsonObject();
+    		version.addProperty("version", "0.13.0-mock");
+    		return version;
+    	});
+
+    	runner.enableControllerService(service);
+    	Thread.sleep(200);
+    	assertEquals(SignalServiceState.CONNECTING, service.getState());
+    	assertEquals(0, daemon.getEventConnections());
+
+    	up.set(true);
+    	await(() -> service.getState() == SignalServiceState.READY);
+    	assertEquals(1, daemon.getEventConnections());
+    }
+}
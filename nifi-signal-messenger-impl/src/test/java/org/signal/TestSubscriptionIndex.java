@@ -0,0 +1,82 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.signal.model.SignalData;
+import org.signal.model.SignalEventType;
+import org.signal.model.SignalMessage;
+import org.signal.model.SignalReaction;
+import org.signal.model.SignalSubscription;
+
+public class TestSubscriptionIndex {
+
+	private static final String ACCOUNT_A = "+46701111111";
+	private static final String ACCOUNT_B = "+46702222222";
+	private static final String GROUP = "Z3JvdXA=";
+
+	private final Map<String, SignalSubscription> subscriptions = new LinkedHashMap<>();
+	{
+		subscriptions.put("all", SignalSubscription.all());
+		subscriptions.put("accountA", SignalSubscription.all().forAccounts(List.of(ACCOUNT_A)));
+		subscriptions.put("group", SignalSubscription.all().forGroups(List.of(GROUP)));
+		subscriptions.put("reactionsB", SignalSubscription.all().forAccounts(List.of(ACCOUNT_B)).forEventTypes(List.of(SignalEventType.REACTION)));
+		subscriptions.put("trustedMessages", SignalSubscription.all().forEventTypes(List.of(SignalEventType.MESSAGE)).trustedSendersOnly());
+	}
+
+	private final SubscriptionIndex<String> index = SubscriptionIndex.of(subscriptions);
+
+    @Test
+    public void testLookupMatchesSubscriptions() {
+    	assertEquals(Set.of("all", "accountA", "trustedMessages"), Set.copyOf(index.lookup(data(new SignalMessage(), ACCOUNT_A, null), () -> true)));
+    	assertEquals(Set.of("all", "group"), Set.copyOf(index.lookup(data(new SignalMessage(), ACCOUNT_B, GROUP), () -> false)));
+    	assertEquals(Set.of("all", "reactionsB"), Set.copyOf(index.lookup(data(new SignalReaction(), ACCOUNT_B, null), () -> true)));
+    	assertEquals(Set.of("all"), Set.copyOf(index.lookup(data(new SignalData(), ACCOUNT_B, null), () -> true)));
+    }
+
+    @Test
+    public void testLookupAgreesWithMatches() {
+    	for (SignalData data : List.of(
+    			data(new SignalMessage(), ACCOUNT_A, null),
+    			data(new SignalMessage(), ACCOUNT_B, GROUP),
+    			data(new SignalReaction(), ACCOUNT_A, GROUP),
+    			data(new SignalReaction(), ACCOUNT_B, null))) {
+    		for (boolean trusted : new boolean[] {true, false}) {
+    			List<String> found = index.lookup(data, () -> trusted);
+    			subscriptions.forEach((name, subscription) ->
+    				assertEquals(subscription.matches(data, () -> trusted), found.contains(name), name + " " + data.getAccount()));
+    		}
+    	}
+    }
+
+    @Test
+    public void testTrustOnlyResolvedWhenRequired() {
+    	AtomicInteger calls = new AtomicInteger();
+    	index.lookup(data(new SignalReaction(), ACCOUNT_A, null), () -> calls.incrementAndGet() > 0);
+    	assertEquals(0, calls.get());
+
+    	index.lookup(data(new SignalMessage(), ACCOUNT_A, null), () -> calls.incrementAndGet() > 0);
+    	assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testEmpty() {
+    	assertTrue(SubscriptionIndex.empty().isEmpty());
+    	assertTrue(SubscriptionIndex.empty().lookup(data(new SignalMessage(), ACCOUNT_A, null), () -> true).isEmpty());
+    	assertFalse(index.isEmpty());
+    }
+
+    private static SignalData data(SignalData data, String account, String groupId) {
+    	data.setAccount(account);
+    	data.setGroupId(groupId);
+    	return data;
+    }
+}
@@ -0,0 +1,83 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestTimerWheel {
+
+	private static final long START = 1_700_000_000_000L;
+
+	/**
+	 * Advances a tick at a time, checking that each item expires in the tick it is due
+	 */
+	private static void expireAll(TimerWheel<Long> wheel, long until) {
+		for (long now = START; now <= until; now += 100) {
+			long time = now;
+			wheel.advance(now, due -> {
+				assertTrue(due <= time, "Expired early, due " + due + " at " + time);
+				assertTrue(time - due < 100, "Expired late, due " + due + " at " + time);
+			});
+		}
+	}
+
+    @Test
+    public void testExpiresInOrder() {
+    	TimerWheel<String> wheel = new TimerWheel<>(100, START);
+    	wheel.add(START + 1_000, "second");
+    	wheel.add(START + 500, "first");
+    	wheel.add(START + 3_600_000, "hour");
+    	wheel.add(START - 1_000, "overdue");
+    	assertEquals(4, wheel.size());
+
+    	List<String> expired = new ArrayList<>();
+    	wheel.advance(START + 999, expired::add);
+    	assertEquals(List.of("overdue", "first"), expired);
+
+    	wheel.advance(START + 1_000, expired::add);
+    	assertEquals(List.of("overdue", "first", "second"), expired);
+
+    	wheel.advance(START + 3_599_999, expired::add);
+    	assertEquals(3, expired.size());
+    	wheel.advance(START + 3_600_000, expired::add);
+    	assertEquals("hour", expired.get(3));
+    	assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testItemsOnAllLevelsExpireOnTime() {
+    	TimerWheel<Long> wheel = new TimerWheel<>(100, START);
+    	Random random = new Random(42);
+    	long end = START + 64L * 64 * 64 * 100 * 2;
+    	for (int i = 0; i < 10_000; i++) {
+    		long due = START + (long) (random.nextDouble() * (end - START));
+    		wheel.add(due, due);
+    	}
+    	// Added while advancing
+    	wheel.advance(START + 5_000, due -> { });
+    	wheel.add(START + 7_000_000, START + 7_000_000L);
+
+    	expireAll(wheel, end);
+    	assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testOverflowBeyondHighestLevel() {
+    	long tick = 1;
+    	TimerWheel<Long> wheel = new TimerWheel<>(tick, 0);
+    	long turn = 1L << 24;
+    	List<Long> expired = new ArrayList<>();
+    	wheel.add(turn * 3 + 5, turn * 3 + 5);
+    	wheel.add(turn + 10, turn + 10);
+
+    	wheel.advance(turn * 3 + 4, expired::add);
+    	assertEquals(List.of(turn + 10), expired);
+    	wheel.advance(turn * 3 + 5, expired::add);
+    	assertEquals(List.of(turn + 10, turn * 3 + 5), expired);
+    }
+}
@@ -116,6 +116,20 @@ public abstract class AbstractSignalSenderProcessor extends AbstractProcessor {
 		return context.getProperty(PROP_SIGNAL_SERVICE).asControllerService(SignalControllerService.class);
 	}
 
+	/**
+	 * Flowfiles are left in the queue, instead of failing, until the service has connected to the daemon
+	 * @return true if the processor yielded
+	 */
+	protected boolean yieldIfConnecting(final ProcessContext context) {
+		if(getSignalService(context).getState() != SignalServiceState.CONNECTING)
+			return false;
+
+		ComponentLog log = getLogger();
+		if(log.isDebugEnabled()) log.debug("Signal service has not connected to the daemon yet, yielding");
+		context.yield();
+		return true;
+	}
+
 	protected final static Optional<List<String>> getList(ProcessContext context, FlowFile flowFile, PropertyDescriptor prop){
 		String tmp = context.getProperty(prop).evaluateAttributeExpressions(flowFile).getValue();
 		return Constants.getCommaSeparatedList(tmp);
@@ -25,6 +25,9 @@ public class Constants {
 	public static final String ATTRIBUTE_TIMESTAMP_STRING = 					"signal.timestamp.string";
 	public static final String ATTRIBUTE_ACCOUNT_NUMBER = 						"signal.account.number";
 	public static final String ATTRIBUTE_RECEIVING_NUMBER = 					"signal.receiving.number";
+	public static final String ATTRIBUTE_SENDING_NUMBER = 						"signal.sending.number";
+	public static final String ATTRIBUTE_PRIORITY = 							"signal.priority";
+	public static final String ATTRIBUTE_SEND_AT = 								"send.at";
 	public static final String ATTRIBUTE_SENDER_NUMBER = 						"signal.sender.number";
 	public static final String ATTRIBUTE_SENDER_UUID = 							"signal.sender.uuid";
 	public static final String ATTRIBUTE_SENDER_NAME = 							"signal.sender.name";
@@ -46,6 +49,24 @@ public class Constants {
 	public static final String ATTRIBUTE_ERROR_MESSAGE = 						"signal.error.message";
 	
 	public static final String ATTRIBUTE_ERROR_MESSAGE_SEND =  					"signal.send.error.message";
+	public static final String ATTRIBUTE_ERROR_TYPE =  							"signal.error.type";
+	public static final String ATTRIBUTE_ERROR_CODE =  							"signal.error.code";
+
+	public static final String ATTRIBUTE_UNREGISTERED_RECIPIENTS = 				"signal.recipients.unregistered";
+	public static final String ATTRIBUTE_FAILED_RECIPIENTS = 					"signal.recipients.failed";
+
+	public static final String ATTRIBUTE_COALESCED_COUNT = 						"signal.coalesced.count";
+	public static final String ATTRIBUTE_COALESCE_SINCE = 						"signal.coalesce.since";
+
+	public static final String ATTRIBUTE_DEDUPLICATION_KEY = 					"signal.deduplication.key";
+
+	public static final String ATTRIBUTE_RECORD_COUNT = 						"record.count";
+	public static final String ATTRIBUTE_RECORDS_SENT = 						"signal.records.sent";
+
+	public static final String ATTRIBUTE_OUTBOX_ID = 							"signal.outbox.id";
+	public static final String ATTRIBUTE_OUTBOX_ATTEMPTS = 						"signal.outbox.attempts";
+
+	public static final String ATTRIBUTE_METRICS_COUNT = 						"signal.metrics.count";
 
 	public static final String getAndWait(AtomicReference<String> refContent) throws InterruptedException {
 		Instant maxWait = Instant.now().plus(5, ChronoUnit.SECONDS);
@@ -34,11 +34,14 @@ import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.signal.model.SignalData;
 import org.signal.model.SignalGroup;
 import org.signal.model.SignalIdentity;
 import org.signal.model.SignalMessage;
 import org.signal.model.SignalReaction;
+import org.signal.model.SignalSubscription;
+import org.signal.model.SignalEventType;
 
 @InputRequirement(Requirement.INPUT_FORBIDDEN)
 @CapabilityDescription("Consumes signal messages. "
@@ -105,6 +108,23 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
             .defaultValue(Boolean.toString(Boolean.FALSE))
             .build();
 
+	public static final PropertyDescriptor PROP_ACCOUNTS = new PropertyDescriptor
+            .Builder().name("Accounts")
+            .displayName("Accounts")
+            .description("Only messages received by these accounts are consumed. Multiple accounts can be provided using comma (,). If empty, messages of all accounts are consumed.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+	public static final PropertyDescriptor PROP_GROUPS = new PropertyDescriptor
+            .Builder().name("Groups")
+            .displayName("Groups")
+            .description("Only messages sent to these groups, by the base64 encoded group id (see: " + Constants.ATTRIBUTE_MESSAGE_GROUP_ID + "), are consumed. "
+            		+ "Multiple groups can be provided using comma (,). If empty, both group and direct messages are consumed.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("success")
             .description("Successful received signal message will be sent to this relationship")
@@ -127,9 +147,7 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
 
 	private volatile Consumer<SignalData> messageListener = null;
 
-	private Boolean ignoreUntrustedMessages;
-
-	private Boolean ignoreReactions;
+	private SignalSubscription subscription = SignalSubscription.all();
 	
     @Override
     protected void init(final ProcessorInitializationContext context) {
@@ -137,6 +155,8 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
         descriptors.add(PROP_SIGNAL_SERVICE);
         descriptors.add(PROP_IGNORE_UNTRUSTED_SENDER);
         descriptors.add(PROP_IGNORE_REACTION);
+        descriptors.add(PROP_ACCOUNTS);
+        descriptors.add(PROP_GROUPS);
         this.descriptors = Collections.unmodifiableList(descriptors);
 
         final Set<Relationship> relationships = new HashSet<Relationship>();
@@ -158,8 +178,17 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
     @OnScheduled
     public void onScheduled(ProcessContext context) throws ProcessException {
     	service = context.getProperty(PROP_SIGNAL_SERVICE).asControllerService(SignalControllerService.class);
-    	ignoreUntrustedMessages = context.getProperty(PROP_IGNORE_UNTRUSTED_SENDER).asBoolean();
-    	ignoreReactions = context.getProperty(PROP_IGNORE_REACTION).asBoolean();
+
+    	// The service only passes on the messages we want, so they are not filtered here.
+    	// Messages of untrusted senders are logged by the service when they are dropped.
+    	SignalSubscription subscription = SignalSubscription.all()
+    			.forAccounts(Constants.getCommaSeparatedList(context.getProperty(PROP_ACCOUNTS).getValue()).orElse(Collections.emptyList()))
+    			.forGroups(Constants.getCommaSeparatedList(context.getProperty(PROP_GROUPS).getValue()).orElse(Collections.emptyList()));
+    	if(context.getProperty(PROP_IGNORE_REACTION).asBoolean())
+    		subscription = subscription.forEventTypes(List.of(SignalEventType.MESSAGE));
+    	if(context.getProperty(PROP_IGNORE_UNTRUSTED_SENDER).asBoolean())
+    		subscription = subscription.trustedSendersOnly();
+    	this.subscription = subscription;
     }
     
     private void onError(Throwable e) {
@@ -184,10 +213,10 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
 
     	if(messageListener == null) {
 	    	messageListener = this::handleMessage;
-	    	service.addMessageListener(messageListener);
+	    	service.addMessageListener(messageListener, subscription);
 	    	
 	    	ComponentLog log = getLogger();
-    		if(log.isDebugEnabled()) log.debug("Added message listener to SignalControllerService");
+    		if(log.isDebugEnabled()) log.debug("Added message listener to SignalControllerService for " + subscription);
     	}
         
         context.yield();
@@ -198,11 +227,6 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
 		
 		if(logger.isDebugEnabled()) logger.debug("Received signal message from " + message.getSourceNumber());
 		
-		if(ignoreReactions && message instanceof SignalReaction) {
-			if(logger.isDebugEnabled()) logger.debug("Ignoring reaction: " + message.getSourceNumber());
-			return;
-		}
-
 		ProcessSessionFactory sessionFactory = sessionFactoryReference.get();
 		if(sessionFactory == null) {
 			getLogger().warn("Message received, but no ProcessSessionFactory is set so we cant handle the signal message");
@@ -238,15 +262,18 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
 			// ********************************
 			attributes.put(Constants.ATTRIBUTE_SENDER_VERIFIED, 		"UNTRUSTED");
 			
-			SignalIdentity identity = service.getIdentities(account).get(sourceNumber);
-			if(identity != null) {
-				attributes.put(Constants.ATTRIBUTE_SENDER_VERIFIED, 	identity.getTrustLevel());
-			}
-			
-			if(ignoreUntrustedMessages && isUntrusted(attributes)) {
-				if(logger.isWarnEnabled()) 
-					logger.warn("Message recieved from untrusted number: " + sourceNumber);
-				return;
+			if(message.getTrustLevel() != null) {
+				// Already resolved by the service
+				attributes.put(Constants.ATTRIBUTE_SENDER_VERIFIED, 	message.getTrustLevel());
+			} else {
+				// Senders are sometimes only known by UUID, so try that first
+				Optional<SignalIdentity> identity = service.getIdentity(account, sourceUuid);
+				if(identity.isEmpty())
+					identity = service.getIdentity(account, sourceNumber);
+				
+				if(identity.isPresent()) {
+					attributes.put(Constants.ATTRIBUTE_SENDER_VERIFIED, 	identity.get().getTrustLevel());
+				}
 			}
 			
 			if(logger.isDebugEnabled()) logger.debug("Sender trust level: " + attributes.get(Constants.ATTRIBUTE_SENDER_VERIFIED));
@@ -347,10 +374,6 @@ public class ConsumeSignalMessage extends AbstractSessionFactoryProcessor {
 		}
 	}
 
-	private boolean isUntrusted(Map<String, String> attributes) {
-		return "UNTRUSTED".equalsIgnoreCase(attributes.get(Constants.ATTRIBUTE_SENDER_VERIFIED));
-	}
-
 //	private void handleEnvelope(SignalServiceEnvelope envelope, SignalServiceContent decryptedMessage) {
 //		if(envelope == null)
 //			return;
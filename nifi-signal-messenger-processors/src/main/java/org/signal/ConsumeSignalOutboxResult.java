@@ -0,0 +1,158 @@
+package org.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.AbstractSessionFactoryProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.signal.model.SignalOutboxResult;
+
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@CapabilityDescription("Emits the outcome of messages sent from the outbox of a Signal service. "
+		+ "A flowfile, without content, is created for each message with the attributes of the flowfile that queued the message.")
+@Tags({ "Signal", "Outbox", "Message", "Send", "Result" })
+@SeeAlso({PutSignalMessage.class})
+@WritesAttributes({
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_OUTBOX_ID, description="Id of the message in the outbox"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_OUTBOX_ATTEMPTS, description="Number of attempts made to send the message"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_ACCOUNT_NUMBER, description="The account that sent the message"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_TIMESTAMP, description="Timestamp of the sent message"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_ERROR_TYPE, description="Type of error if the message could not be sent"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_ERROR_MESSAGE, description="The error message if the message could not be sent"),
+	})
+public class ConsumeSignalOutboxResult extends AbstractSessionFactoryProcessor {
+
+	public static final PropertyDescriptor PROP_SIGNAL_SERVICE = new PropertyDescriptor
+            .Builder().name("SignalService")
+            .displayName("Signal Service")
+            .description("The signal service with the outbox")
+            .required(true)
+            .identifiesControllerService(SignalControllerService.class)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("Messages that were sent")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("Messages that could not be sent")
+            .build();
+
+    private List<PropertyDescriptor> descriptors;
+
+    private Set<Relationship> relationships;
+
+    private SignalControllerService service = null;
+
+    private AtomicReference<ProcessSessionFactory> sessionFactoryReference = new AtomicReference<>();
+
+	private volatile Consumer<SignalOutboxResult> resultListener = null;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<PropertyDescriptor>();
+        descriptors.add(PROP_SIGNAL_SERVICE);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        relationships.add(FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return this.relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @OnScheduled
+    public void onScheduled(ProcessContext context) throws ProcessException {
+    	service = context.getProperty(PROP_SIGNAL_SERVICE).asControllerService(SignalControllerService.class);
+
+    	if(!service.isOutboxEnabled())
+    		getLogger().warn("The outbox is not enabled on the Signal service, no results will be emitted");
+    }
+
+    @OnStopped
+    public void onStopped() {
+    	if(resultListener != null && service != null) {
+    		service.removeOutboxListener(resultListener);
+    	}
+
+    	resultListener = null;
+    	sessionFactoryReference.set(null);
+    }
+
+	@Override
+	public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+    	sessionFactoryReference.compareAndSet(null, sessionFactory);
+
+    	if(resultListener == null) {
+    		resultListener = this::handleResult;
+	    	service.addOutboxListener(resultListener);
+
+	    	ComponentLog log = getLogger();
+    		if(log.isDebugEnabled()) log.debug("Added outbox listener to SignalControllerService");
+    	}
+
+        context.yield();
+	}
+
+	private void handleResult(SignalOutboxResult result) {
+		ProcessSessionFactory sessionFactory = sessionFactoryReference.get();
+		if(sessionFactory == null) {
+			getLogger().warn("Outbox result received, but no ProcessSessionFactory is set so we cant handle the result of " + result.getId());
+			return;
+		}
+
+		Map<String, String> attributes = new LinkedHashMap<>(result.getAttributes());
+		attributes.put(Constants.ATTRIBUTE_OUTBOX_ID, 			result.getId());
+		attributes.put(Constants.ATTRIBUTE_OUTBOX_ATTEMPTS, 	Integer.toString(result.getAttempts()));
+		if(result.getAccount() != null)
+			attributes.put(Constants.ATTRIBUTE_ACCOUNT_NUMBER, 	result.getAccount());
+
+		if(result.isSuccess()) {
+			attributes.put(Constants.ATTRIBUTE_TIMESTAMP, 		Long.toString(result.getTimestamp()));
+		} else {
+			attributes.put(Constants.ATTRIBUTE_ERROR_TYPE, 		String.valueOf(result.getErrorType()));
+			attributes.put(Constants.ATTRIBUTE_ERROR_MESSAGE, 	String.valueOf(result.getErrorMessage()));
+		}
+
+		ProcessSession session = sessionFactory.createSession();
+		FlowFile flowFile = session.create();
+		flowFile = session.putAllAttributes(flowFile, attributes);
+		session.transfer(flowFile, result.isSuccess() ? SUCCESS : FAILURE);
+		session.commitAsync();
+	}
+}
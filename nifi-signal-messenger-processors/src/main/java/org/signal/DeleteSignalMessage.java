@@ -47,6 +47,9 @@ public class DeleteSignalMessage extends AbstractSignalSenderProcessor {
 
 	@Override
 	public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+		if(yieldIfConnecting(context))
+			return;
+
 		FlowFile flowFile = session.get();
 		if ( flowFile == null ) {
 			return;
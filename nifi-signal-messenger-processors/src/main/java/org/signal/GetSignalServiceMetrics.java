@@ -0,0 +1,96 @@
+package org.signal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@Tags({ "Signal", "Metrics", "Monitoring", "Cache" })
+@CapabilityDescription("Reports the metrics of a Signal service, like cache hit rates, load latencies and cache sizes per account. "
+		+ "The metrics are written as a JSON object to the content of a new flowfile each time the processor is scheduled.")
+@SeeAlso({ConsumeSignalMessage.class, PutSignalMessage.class})
+@WritesAttributes({
+	@WritesAttribute(attribute="mime.type", description="Always application/json"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_METRICS_COUNT, description="Number of metrics in the content"),
+})
+public class GetSignalServiceMetrics extends AbstractProcessor {
+
+	public static final PropertyDescriptor PROP_SIGNAL_SERVICE = new PropertyDescriptor
+            .Builder().name("SignalService")
+            .displayName("Signal Service")
+            .description("The signal service to report metrics for")
+            .required(true)
+            .identifiesControllerService(SignalControllerService.class)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("Flowfiles with the current metrics")
+            .build();
+
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private List<PropertyDescriptor> descriptors;
+
+    private Set<Relationship> relationships;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<PropertyDescriptor>();
+        descriptors.add(PROP_SIGNAL_SERVICE);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<Relationship>();
+        relationships.add(SUCCESS);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return this.relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+	@Override
+	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+		SignalControllerService service = context.getProperty(PROP_SIGNAL_SERVICE).asControllerService(SignalControllerService.class);
+		Map<String, Number> metrics = service.getMetrics();
+
+		byte[] content = GSON.toJson(metrics).getBytes(StandardCharsets.UTF_8);
+
+		FlowFile flowFile = session.create();
+		flowFile = session.write(flowFile, outputStream -> outputStream.write(content));
+		flowFile = session.putAllAttributes(flowFile, Map.of(
+				CoreAttributes.MIME_TYPE.key(), "application/json",
+				Constants.ATTRIBUTE_METRICS_COUNT, Integer.toString(metrics.size())));
+		session.transfer(flowFile, SUCCESS);
+	}
+}
@@ -4,11 +4,24 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.ConnectException;
 import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
@@ -17,7 +30,9 @@ import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.distributed.cache.client.AtomicDistributedMapCacheClient;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
@@ -25,9 +40,20 @@ import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
 import org.signal.model.SignalAttachment;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
 import org.signal.model.SignalQuote;
 
 import com.google.gson.JsonElement;
@@ -35,12 +61,29 @@ import com.google.gson.JsonObject;
 
 @Tags({ "Signal", "Put", "Message", "Send" })
 @CapabilityDescription("Sends a message on Signal, with or without attachment")
-@SeeAlso({})
+@SeeAlso({ConsumeSignalOutboxResult.class})
 @ReadsAttributes({
 	@ReadsAttribute(attribute="mime.type", description="If attachment is set to 'true', then this attribute is read and set as the mime type for the attachment"),
-	@ReadsAttribute(attribute="filename", description="If attachment is set to 'true', then this attribute is read and set as the file name for the attachment")
+	@ReadsAttribute(attribute="filename", description="If attachment is set to 'true', then this attribute is read and set as the file name for the attachment"),
+	@ReadsAttribute(attribute=Constants.ATTRIBUTE_PRIORITY, description="Priority of the message (high, normal or low), read by the default value of the priority property"),
+	@ReadsAttribute(attribute=Constants.ATTRIBUTE_SEND_AT, description="Time to send the message at, read by the default value of the send at property")
+})
+@WritesAttributes({
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_TIMESTAMP, description="Timestamp of the sent message"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_SENDING_NUMBER, description="Account the message was sent from, when picked from the sender pool"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_COALESCED_COUNT, description="Number of messages sent as one combined message, when coalescing"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_COALESCE_SINCE, description="When the flowfile started to wait to be coalesced, removed when it is sent"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_DEDUPLICATION_KEY, description="Hash of the message used for deduplication, when the deduplication window is set"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_RECORD_COUNT, description="Number of records in the flowfile, when sending records"),
+	@WritesAttribute(attribute="mime.type", description="Mime type of the record writer, when sending records"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_RECORDS_SENT, description="Number of records sent before an error, on flowfiles of records routed to incomplete"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_OUTBOX_ID, description="Id of the message in the outbox, when sent using the outbox"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, description="Recipients not registered on Signal, set on flowfiles routed to unregistered"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_FAILED_RECIPIENTS, description="Recipients not sent to when the message was sent to some batches of recipients only. "
+			+ "The flowfile is also routed to success for the recipients that were sent to, so use this attribute as recipients when trying again"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_ERROR_TYPE, description="Type of error when the send failed, like RATE_LIMITED, UNTRUSTED_IDENTITY or TRANSPORT"),
+	@WritesAttribute(attribute=Constants.ATTRIBUTE_ERROR_CODE, description="Error code from the Signal daemon when the send failed")
 })
-@WritesAttributes({@WritesAttribute(attribute=Constants.ATTRIBUTE_TIMESTAMP, description="Timestamp of the sent message")})
 public class PutSignalMessage extends AbstractSignalSenderProcessor {
 
 	public static final PropertyDescriptor PROP_MESSAGE_CONTENT = new PropertyDescriptor
@@ -92,7 +135,197 @@ public class PutSignalMessage extends AbstractSignalSenderProcessor {
 			.expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
 			.build();
 
+	public static final PropertyDescriptor PROP_CHECK_REGISTRATION = new PropertyDescriptor
+			.Builder().name("CheckRegistration")
+			.displayName("Check recipient registration")
+			.description("If set to 'true' then recipients are checked to be registered on Signal before sending. "
+					+ "Unregistered recipients are routed to the unregistered relationship without being sent to. "
+					+ "The registration status is cached by the Signal service. Not used when sending to groups.")
+			.required(true)
+			.allowableValues(Boolean.toString(Boolean.TRUE), Boolean.toString(Boolean.FALSE))
+			.defaultValue(Boolean.toString(Boolean.FALSE))
+			.build();
+
+	public static final PropertyDescriptor PROP_USE_OUTBOX = new PropertyDescriptor
+			.Builder().name("UseOutbox")
+			.displayName("Send using outbox")
+			.description("If set to 'true' then the message is queued in the outbox of the Signal service and the flowfile is routed to success "
+					+ "as soon as the message is stored, without waiting for it to be sent. The outcome of the send is emitted by "
+					+ ConsumeSignalOutboxResult.class.getSimpleName() + ". Requires the outbox to be configured on the service, otherwise the flowfile is routed to failure.")
+			.required(true)
+			.allowableValues(Boolean.toString(Boolean.TRUE), Boolean.toString(Boolean.FALSE))
+			.defaultValue(Boolean.toString(Boolean.FALSE))
+			.build();
+
+	public static final PropertyDescriptor PROP_PRIORITY = new PropertyDescriptor
+			.Builder().name("Priority")
+			.displayName("Priority")
+			.description("Priority of the message: high, normal or low. When the Signal service queues sends, queued messages of a higher "
+					+ "priority are sent before those of a lower priority, and high priority messages may use the sends reserved for them. "
+					+ "If empty, the priority is normal")
+			.required(false)
+			.defaultValue("${" + Constants.ATTRIBUTE_PRIORITY + "}")
+			.addValidator(StandardValidators.ATTRIBUTE_EXPRESSION_LANGUAGE_VALIDATOR)
+			.expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+			.build();
+
+	public static final PropertyDescriptor PROP_SENDER_POOL = new PropertyDescriptor
+			.Builder().name("SenderPool")
+			.displayName("Sender pool")
+			.description("Accounts to spread the messages over, separated by comma (,). When this property is set, the account property is ignored "
+					+ "and the account of each message is picked from the pool using the sender pool policy. The account used is written to "
+					+ Constants.ATTRIBUTE_SENDING_NUMBER)
+			.required(false)
+			.addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_SENDER_POOL_POLICY = new PropertyDescriptor
+			.Builder().name("SenderPoolPolicy")
+			.displayName("Sender pool policy")
+			.description("How the account of a message is picked from the sender pool. " 
+					+ SignalSenderPool.POLICY_LEAST_LOADED + " picks the account with the most send rate limit headroom left, taking turns when equal. "
+					+ SignalSenderPool.POLICY_ROUND_ROBIN + " takes turns. "
+					+ SignalSenderPool.POLICY_STICKY + " keeps sending to the same recipients or groups from the same account. "
+					+ "Accounts out of headroom are passed over as long as another account has some left")
+			.required(true)
+			.allowableValues(SignalSenderPool.POLICY_LEAST_LOADED, SignalSenderPool.POLICY_ROUND_ROBIN, SignalSenderPool.POLICY_STICKY)
+			.defaultValue(SignalSenderPool.POLICY_LEAST_LOADED)
+			.build();
+
+	public static final PropertyDescriptor PROP_COALESCE_WINDOW = new PropertyDescriptor
+			.Builder().name("CoalesceWindow")
+			.displayName("Coalesce window")
+			.description("When set, messages from the same account to the same recipients (or groups) are sent as one message. The flowfiles "
+					+ "wait in the queue until the oldest has waited this long, or the coalesce max count is reached, and are then routed "
+					+ "together by the outcome of the combined message. Messages with attachments or quotes are sent on their own")
+			.required(false)
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
 
+	public static final PropertyDescriptor PROP_COALESCE_MAX_COUNT = new PropertyDescriptor
+			.Builder().name("CoalesceMaxCount")
+			.displayName("Coalesce max count")
+			.description("Max number of messages in one combined message. The combined message is sent as soon as this many are queued")
+			.required(true)
+			.defaultValue("20")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_COALESCE_MAX_LENGTH = new PropertyDescriptor
+			.Builder().name("CoalesceMaxLength")
+			.displayName("Coalesce max length")
+			.description("Max number of characters of a combined message. Messages that do not fit are sent in the next combined message")
+			.required(true)
+			.defaultValue("2000")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_COALESCE_SEPARATOR = new PropertyDescriptor
+			.Builder().name("CoalesceSeparator")
+			.displayName("Coalesce separator")
+			.description("Text between the messages of a combined message. \\n is a new line and \\t a tab")
+			.required(true)
+			.defaultValue("\\n\\n")
+			.addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_DEDUPLICATION_WINDOW = new PropertyDescriptor
+			.Builder().name("DeduplicationWindow")
+			.displayName("Deduplication window")
+			.description("When set, a message from the same account to the same recipients (or groups) with the same text and attachment "
+					+ "as a message sent within this time is routed to duplicate without being sent. Messages that failed to send are "
+					+ "forgotten, so they can be tried again. The hash the message is known by is written to " + Constants.ATTRIBUTE_DEDUPLICATION_KEY)
+			.required(false)
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_DEDUPLICATION_MAX_ENTRIES = new PropertyDescriptor
+			.Builder().name("DeduplicationMaxEntries")
+			.displayName("Deduplication max entries")
+			.description("Max number of sent messages remembered in memory for deduplication. Above this the oldest are forgotten")
+			.required(true)
+			.defaultValue("10000")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.build();
+
+	public static final PropertyDescriptor PROP_DEDUPLICATION_CACHE = new PropertyDescriptor
+			.Builder().name("DeduplicationCache")
+			.displayName("Deduplication cache")
+			.description("Distributed map cache to share the sent messages between the nodes of a cluster, so a message sent by one node "
+					+ "is a duplicate on the others. The cache must support atomic replace, so two nodes can not both send the same message. "
+					+ "If not set, messages are only remembered in memory by this processor")
+			.required(false)
+			.identifiesControllerService(AtomicDistributedMapCacheClient.class)
+			.build();
+
+	public static final PropertyDescriptor PROP_SEND_AT = new PropertyDescriptor
+			.Builder().name("SendAt")
+			.displayName("Send at")
+			.description("Time to send the message at, as milliseconds since the epoch or an ISO-8601 date and time with offset, like "
+					+ "2026-05-01T08:00:00+02:00. A message to send later is stored in the outbox of the Signal service until it is due and "
+					+ "the flowfile is routed to success, the outcome is emitted by " + ConsumeSignalOutboxResult.class.getSimpleName() 
+					+ ". Requires the outbox to be configured on the service, otherwise the flowfile is routed to failure. To send after a delay use an expression like "
+					+ "${now():toNumber():plus(600000)}. If empty or not in the future, the message is sent right away")
+			.required(false)
+			.defaultValue("${" + Constants.ATTRIBUTE_SEND_AT + "}")
+			.addValidator(StandardValidators.ATTRIBUTE_EXPRESSION_LANGUAGE_VALIDATOR)
+			.expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECORD_READER = new PropertyDescriptor
+			.Builder().name("RecordReader")
+			.displayName("Record reader")
+			.description("When set, the flowfile holds records and a message is sent per record. A record has the fields "
+					+ SignalRecordSender.FIELD_RECIPIENT + " and/or " + SignalRecordSender.FIELD_GROUP + " (an array or comma separated), "
+					+ SignalRecordSender.FIELD_MESSAGE + " and optionally " + SignalRecordSender.FIELD_ACCOUNT + ", " + SignalRecordSender.FIELD_PRIORITY + ", "
+					+ SignalRecordSender.FIELD_QUOTE_TIMESTAMP + ", " + SignalRecordSender.FIELD_QUOTE_AUTHOR + ", " + SignalRecordSender.FIELD_QUOTE_MESSAGE + ", "
+					+ SignalRecordSender.FIELD_ATTACHMENT + " (base64 content, with " + SignalRecordSender.FIELD_ATTACHMENT_MIME_TYPE + " and "
+					+ SignalRecordSender.FIELD_ATTACHMENT_FILENAME + "). The account, recipients, groups and priority properties are used when the "
+					+ "record has none. The records are written by the record writer to a flowfile routed to success and one routed to failure, "
+					+ "with the fields " + SignalRecordSender.FIELD_TIMESTAMP + ", " + SignalRecordSender.FIELD_ERROR + ", "
+					+ SignalRecordSender.FIELD_ERROR_TYPE + " and " + SignalRecordSender.FIELD_FAILED_RECIPIENTS + " added, and the flowfile "
+					+ "itself is dropped. If the records can not all be read or written, the flowfile is routed to failure when none of them "
+					+ "were sent yet, else to incomplete. Records are sent right away, without the outbox, coalescing, deduplication or the "
+					+ "registration check: a record to unregistered recipients is written to failure with the error type UNREGISTERED")
+			.required(false)
+			.identifiesControllerService(RecordReaderFactory.class)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECORD_WRITER = new PropertyDescriptor
+			.Builder().name("RecordWriter")
+			.displayName("Record writer")
+			.description("Writes the records with the result of their message")
+			.required(true)
+			.identifiesControllerService(RecordSetWriterFactory.class)
+			.dependsOn(PROP_RECORD_READER)
+			.build();
+
+	public static final PropertyDescriptor PROP_RECORD_CONCURRENCY = new PropertyDescriptor
+			.Builder().name("RecordConcurrency")
+			.displayName("Record concurrency")
+			.description("Max number of records of a flowfile sent at a time")
+			.required(true)
+			.defaultValue("8")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.dependsOn(PROP_RECORD_READER)
+			.build();
+
+	public static final Relationship DUPLICATE = new Relationship.Builder()
+					.name("duplicate")
+					.description("Messages already sent within the deduplication window, not sent again")
+					.build();
+
+	public static final Relationship INCOMPLETE = new Relationship.Builder()
+					.name("incomplete")
+					.description("Flowfiles of records that could not all be read or written after some of them were sent. The records sent are "
+							+ "in the flowfile still, so it must not be sent again as is")
+					.build();
+
+	public static final Relationship UNREGISTERED = new Relationship.Builder()
+					.name("unregistered")
+					.description("Recipients that are not registered on Signal. If only some of the recipients are unregistered, "
+							+ "a clone of the flowfile is routed here and the message is sent to the others")
+					.build();
 
 	@Override
 	protected void init(final ProcessorInitializationContext context) {
@@ -102,37 +335,409 @@ public class PutSignalMessage extends AbstractSignalSenderProcessor {
 		descriptors.add(PROP_MESSAGE_QUOTE);
 		descriptors.add(PROP_MESSAGE_QUOTE_TIMESTAMP_ATTRIBUTE);
 		descriptors.add(PROP_MESSAGE_QUOTE_AUTHOR_ATTRIBUTE);
+		descriptors.add(PROP_CHECK_REGISTRATION);
+		descriptors.add(PROP_USE_OUTBOX);
+		descriptors.add(PROP_PRIORITY);
+		descriptors.add(PROP_SEND_AT);
+		descriptors.add(PROP_SENDER_POOL);
+		descriptors.add(PROP_SENDER_POOL_POLICY);
+		descriptors.add(PROP_COALESCE_WINDOW);
+		descriptors.add(PROP_COALESCE_MAX_COUNT);
+		descriptors.add(PROP_COALESCE_MAX_LENGTH);
+		descriptors.add(PROP_COALESCE_SEPARATOR);
+		descriptors.add(PROP_DEDUPLICATION_WINDOW);
+		descriptors.add(PROP_DEDUPLICATION_MAX_ENTRIES);
+		descriptors.add(PROP_DEDUPLICATION_CACHE);
+		descriptors.add(PROP_RECORD_READER);
+		descriptors.add(PROP_RECORD_WRITER);
+		descriptors.add(PROP_RECORD_CONCURRENCY);
+		
+		relationships.add(UNREGISTERED);
+		relationships.add(DUPLICATE);
+		relationships.add(INCOMPLETE);
+	}
+
+	// Flowfiles taken from the queue at a time when coalescing
+	private static final int MAX_COALESCE_FLOWFILES = 1000;
+
+	private static final String MSG_OUTBOX_NOT_ENABLED = "The outbox is not enabled on the Signal service, it is required to send later or using the outbox";
+
+	private volatile SignalSenderPool senderPool;
+	private volatile SignalDeduplicator deduplicator;
+
+	// Time the coalesce window is counted in, set by tests to move it on
+	LongSupplier clock = System::currentTimeMillis;
+
+	@OnScheduled
+	public void onScheduled(final ProcessContext context) {
+		if(context.getProperty(PROP_USE_OUTBOX).asBoolean() && !getSignalService(context).isOutboxEnabled())
+			getLogger().warn(MSG_OUTBOX_NOT_ENABLED + ", messages will be routed to failure");
+
+		String pool = context.getProperty(PROP_SENDER_POOL).getValue();
+		senderPool = pool == null ? null : new SignalSenderPool(
+				Constants.getCommaSeparatedList(pool).orElse(Collections.emptyList()),
+				context.getProperty(PROP_SENDER_POOL_POLICY).getValue());
+
+		deduplicator = !context.getProperty(PROP_DEDUPLICATION_WINDOW).isSet() ? null : new SignalDeduplicator(
+				context.getProperty(PROP_DEDUPLICATION_WINDOW).asTimePeriod(TimeUnit.MILLISECONDS),
+				context.getProperty(PROP_DEDUPLICATION_MAX_ENTRIES).asInteger(),
+				context.getProperty(PROP_DEDUPLICATION_CACHE).asControllerService(AtomicDistributedMapCacheClient.class),
+				getLogger());
 	}
 	
 	@Override
 	public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-		FlowFile flowFile = session.get();
-		if ( flowFile == null ) {
+		// The outbox takes messages while the service is connecting
+		if(!context.getProperty(PROP_USE_OUTBOX).asBoolean() && yieldIfConnecting(context))
+			return;
+
+		if(context.getProperty(PROP_RECORD_READER).isSet()) {
+			FlowFile flowFile = session.get();
+			if(flowFile != null)
+				sendRecords(context, session, flowFile);
 			return;
 		}
 
+		// Messages claimed for deduplication and not yet sent
+		List<String> claims = new ArrayList<>();
+		try {
+			if(context.getProperty(PROP_COALESCE_WINDOW).isSet()) {
+				coalesce(context, session, claims);
+				return;
+			}
+
+			FlowFile flowFile = session.get();
+			if ( flowFile == null ) {
+				return;
+			}
+
+			send(context, session, flowFile, null, claims);
+		} catch (RuntimeException | Error e) {
+			// The session is rolled back, so the flowfiles are taken again and must not be duplicates of themselves
+			SignalDeduplicator dedup = deduplicator;
+			if(dedup != null)
+				claims.forEach(dedup::release);
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends a message per record of the flowfile. The records are written with their result to
+	 * a flowfile routed to success and one routed to failure, and the flowfile is dropped.
+	 * The flowfile is only routed to failure if none of its records were sent, so they are not
+	 * sent twice when it is tried again.
+	 */
+	private void sendRecords(final ProcessContext context, final ProcessSession session, FlowFile flowFile) {
+		SignalControllerService signalService = getSignalService(context);
+		RecordReaderFactory readerFactory = context.getProperty(PROP_RECORD_READER).asControllerService(RecordReaderFactory.class);
+		RecordSetWriterFactory writerFactory = context.getProperty(PROP_RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+		SignalRecordSender recordSender = new SignalRecordSender(context.getProperty(PROP_RECORD_CONCURRENCY).asInteger());
+
+		SignalPriority priority = SignalPriority.parse(context.getProperty(PROP_PRIORITY).evaluateAttributeExpressions(flowFile).getValue());
+		Optional<List<String>> groups = getList(context, flowFile, PROP_GROUPS);
+		Optional<List<String>> recipients = getList(context, flowFile, PROP_RECIPIENTS);
+		String defaultAccount = context.getProperty(PROP_ACCOUNT).evaluateAttributeExpressions(flowFile).getValue();
+		SignalSenderPool pool = senderPool;
+		Function<String, String> accounts = recipientKey -> {
+			if(pool != null)
+				return pool.select(recipientKey, signalService::getSendHeadroom);
+			if(defaultAccount == null || defaultAccount.isBlank())
+				throw new IllegalArgumentException("Record has no account and the account property is empty");
+			return defaultAccount.trim();
+		};
+		AtomicInteger attempted = new AtomicInteger();
+
+		FlowFile sentFlowFile = session.create(flowFile);
+		FlowFile failedFlowFile = session.create(flowFile);
+		SignalRecordSender.Result result;
+		WriteResult sentResult;
+		WriteResult failedResult;
+		String mimeType;
+		try (InputStream in = session.read(flowFile);
+				RecordReader reader = readerFactory.createRecordReader(flowFile, in, getLogger())) {
+			RecordSchema schema = SignalRecordSender.getResultSchema(writerFactory.getSchema(flowFile.getAttributes(), reader.getSchema()));
+			try (OutputStream sentOut = session.write(sentFlowFile);
+					OutputStream failedOut = session.write(failedFlowFile);
+					RecordSetWriter sent = writerFactory.createWriter(getLogger(), schema, sentOut, sentFlowFile);
+					RecordSetWriter failed = writerFactory.createWriter(getLogger(), schema, failedOut, failedFlowFile)) {
+				sent.beginRecordSet();
+				failed.beginRecordSet();
+				result = recordSender.send(reader::nextRecord, schema,
+						record -> getRecordMessage(record, recipients, groups, accounts, priority),
+						message -> {
+							attempted.incrementAndGet();
+							return signalService.sendMessage(message.getAccount(),
+															message.getMessage(),
+															message.getRecipients(),
+															message.getGroups(),
+															message.getQuote(),
+															message.getAttachment(),
+															message.getPriority());
+						},
+						sent::write, failed::write);
+				sentResult = sent.finishRecordSet();
+				failedResult = failed.finishRecordSet();
+				mimeType = sent.getMimeType();
+			}
+		} catch (Exception e) {
+			getLogger().error("Could not send the records: " + e.getMessage(), e);
+			// The results written so far are incomplete
+			session.remove(sentFlowFile);
+			session.remove(failedFlowFile);
+			transferRecordsError(session, flowFile, e.getMessage(), attempted.get());
+			return;
+		}
+
+		if(getLogger().isDebugEnabled())
+			getLogger().debug("Records sent: " + result.getSent() + ", failed: " + result.getFailed());
+
+		transferRecords(session, sentFlowFile, sentResult, mimeType, SUCCESS);
+		transferRecords(session, failedFlowFile, failedResult, mimeType, FAILURE);
+
+		// The records read before the error are sent and written, the flowfile is kept to not lose the others
+		if(result.getError() != null) {
+			String message = "Could not read the records after record " + (result.getSent() + result.getFailed()) + ": " + result.getError().getMessage();
+			getLogger().error(message, result.getError());
+			transferRecordsError(session, flowFile, message, attempted.get());
+			return;
+		}
+
+		session.remove(flowFile);
+	}
+
+	/**
+	 * Reads the message of a record, the recipients and groups of the flowfile used when the record has none
+	 */
+	private static SignalOutgoingMessage getRecordMessage(Record record, Optional<List<String>> recipients, Optional<List<String>> groups, Function<String, String> accounts, SignalPriority priority) {
+		if(record.getValue(SignalRecordSender.FIELD_RECIPIENT) == null && record.getValue(SignalRecordSender.FIELD_GROUP) == null
+				&& (recipients.isPresent() || groups.isPresent())) {
+			Map<String, Object> values = new LinkedHashMap<>(record.toMap());
+			recipients.ifPresent(list -> values.put(SignalRecordSender.FIELD_RECIPIENT, String.join(",", list)));
+			groups.ifPresent(list -> values.put(SignalRecordSender.FIELD_GROUP, String.join(",", list)));
+			record = new MapRecord(record.getSchema(), values);
+		}
+		return SignalRecordSender.getMessage(record, accounts, priority);
+	}
+
+	/**
+	 * Routes the flowfile of records that failed to failure if none of its records were sent, else to incomplete
+	 * @param sent number of records handed to the service before the error
+	 */
+	private void transferRecordsError(ProcessSession session, FlowFile flowFile, String message, int sent) {
+		if(sent == 0) {
+			transferToFailureWithMessage(session, flowFile, message, null);
+			return;
+		}
+
+		getLogger().warn(sent + " records were sent before the error, routing to incomplete");
+		flowFile = session.putAllAttributes(flowFile, Map.of(
+				Constants.ATTRIBUTE_ERROR_MESSAGE, String.valueOf(message),
+				Constants.ATTRIBUTE_RECORDS_SENT, Integer.toString(sent)));
+		session.transfer(flowFile, INCOMPLETE);
+	}
+
+	private static void transferRecords(ProcessSession session, FlowFile flowFile, WriteResult writeResult, String mimeType, Relationship relationship) {
+		if(writeResult.getRecordCount() == 0) {
+			session.remove(flowFile);
+			return;
+		}
+
+		Map<String, String> attributes = new HashMap<>(writeResult.getAttributes());
+		attributes.put(Constants.ATTRIBUTE_RECORD_COUNT, Integer.toString(writeResult.getRecordCount()));
+		attributes.put(CoreAttributes.MIME_TYPE.key(), mimeType);
+		session.transfer(session.putAllAttributes(flowFile, attributes), relationship);
+	}
+
+	/**
+	 * Sends the messages of flowfiles to the same account and recipients (or groups) as one message,
+	 * once the oldest has waited for the window or the max count is reached. Until then the flowfiles
+	 * are left in the queue.
+	 */
+	private void coalesce(final ProcessContext context, final ProcessSession session, List<String> claims) {
+		List<FlowFile> flowFiles = session.get(MAX_COALESCE_FLOWFILES);
+		if(flowFiles.isEmpty())
+			return;
+
+		long window = context.getProperty(PROP_COALESCE_WINDOW).asTimePeriod(TimeUnit.MILLISECONDS);
+		int maxCount = context.getProperty(PROP_COALESCE_MAX_COUNT).asInteger();
+		int maxLength = context.getProperty(PROP_COALESCE_MAX_LENGTH).asInteger();
+		String separator = unescape(context.getProperty(PROP_COALESCE_SEPARATOR).getValue());
+
+		long now = clock.getAsLong();
+		Map<String, List<FlowFile>> keys = new LinkedHashMap<>();
+		for (FlowFile flowFile : flowFiles) {
+			String key = getCoalesceKey(context, flowFile);
+			// Attachments, quotes and flowfiles without recipients are sent on their own
+			if(key == null) {
+				send(context, session, flowFile, null, claims);
+				continue;
+			}
+
+			// The queue date is reset each time the flowfile is put back, so the wait is counted from when it was first taken
+			if(getCoalesceSince(flowFile) < 0)
+				flowFile = session.putAttribute(flowFile, Constants.ATTRIBUTE_COALESCE_SINCE, Long.toString(now));
+			keys.computeIfAbsent(key, k -> new ArrayList<>()).add(flowFile);
+		}
+
+		boolean sent = false;
+		for (List<FlowFile> keyFlowFiles : keys.values()) {
+			long oldest = keyFlowFiles.stream()
+					.mapToLong(PutSignalMessage::getCoalesceSince)
+					.min()
+					.orElse(now);
+			if(keyFlowFiles.size() < maxCount && now - oldest < window) {
+				session.transfer(keyFlowFiles);
+				continue;
+			}
+
+			sent = true;
+			List<FlowFile> sources = new ArrayList<>();
+			StringBuilder message = new StringBuilder();
+			for (FlowFile flowFile : keyFlowFiles) {
+				flowFile = session.removeAttribute(flowFile, Constants.ATTRIBUTE_COALESCE_SINCE);
+				String text;
+				try {
+					text = getMessageContent(context, session, flowFile);
+				} catch (IOException e) {
+					logError(e);
+					transferToFailureWithMessage(session, flowFile, e.getMessage(), null);
+					continue;
+				}
+
+				if(deduplicator != null) {
+					String sender = senderPool != null ? String.join(",", senderPool.getAccounts()) : getAccountNumber(context, flowFile);
+					flowFile = deduplicate(session, flowFile, sender, getList(context, flowFile, PROP_RECIPIENTS), getList(context, flowFile, PROP_GROUPS), text, null, claims);
+					if(flowFile == null)
+						continue;
+				}
+
+				if(!sources.isEmpty() && (sources.size() >= maxCount || message.length() + separator.length() + text.length() > maxLength)) {
+					sendDigest(context, session, sources, message.toString(), claims);
+					sources = new ArrayList<>();
+					message.setLength(0);
+				}
+
+				if(!sources.isEmpty())
+					message.append(separator);
+				message.append(text);
+				sources.add(flowFile);
+			}
+			if(!sources.isEmpty())
+				sendDigest(context, session, sources, message.toString(), claims);
+		}
+
+		// Nothing is due yet, wait instead of taking the same flowfiles again
+		if(!sent && !keys.isEmpty())
+			context.yield();
+	}
+
+	/**
+	 * @return when the flowfile was first taken to be coalesced, -1 if not yet
+	 */
+	private static long getCoalesceSince(FlowFile flowFile) {
+		String since = flowFile.getAttribute(Constants.ATTRIBUTE_COALESCE_SINCE);
+		if(since == null)
+			return -1;
+
+		try {
+			return Long.parseLong(since);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void sendDigest(final ProcessContext context, final ProcessSession session, List<FlowFile> sources, String message, List<String> claims) {
+		List<FlowFile> counted = new ArrayList<>(sources.size());
+		for (FlowFile source : sources) {
+			counted.add(session.putAttribute(source, Constants.ATTRIBUTE_COALESCED_COUNT, Integer.toString(sources.size())));
+		}
+
+		FlowFile first = counted.get(0);
+		send(context, session, first, new Digest(message, first, counted.subList(1, counted.size())), claims);
+	}
+
+	/**
+	 * @return the account and recipients (or groups) of the message, null if it can not be coalesced
+	 */
+	private String getCoalesceKey(final ProcessContext context, FlowFile flowFile) {
+		try {
+			if("true".equalsIgnoreCase(context.getProperty(PROP_ATTACHMENT).evaluateAttributeExpressions(flowFile).getValue())
+					|| "true".equalsIgnoreCase(context.getProperty(PROP_MESSAGE_QUOTE).evaluateAttributeExpressions(flowFile).getValue()))
+				return null;
+
+			Optional<List<String>> groups = getList(context, flowFile, PROP_GROUPS);
+			Optional<List<String>> recipients = getList(context, flowFile, PROP_RECIPIENTS);
+			if(groups.isEmpty() && recipients.isEmpty())
+				return null;
+
+			// The account is picked for the whole digest when sending from a pool
+			String account = senderPool != null ? "" : getAccountNumber(context, flowFile);
+			String targets = groups.isPresent() ? "g:" + String.join(",", new TreeSet<>(groups.get())) : String.join(",", new TreeSet<>(recipients.get()));
+			return account + "|" + targets + "|" + context.getProperty(PROP_PRIORITY).evaluateAttributeExpressions(flowFile).getValue();
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private String getMessageContent(final ProcessContext context, final ProcessSession session, FlowFile flowFile) throws IOException {
+		String messageContent = context.getProperty(PROP_MESSAGE_CONTENT).evaluateAttributeExpressions(flowFile).getValue();
+		if(messageContent == null || messageContent.isEmpty())
+			messageContent = loadFlowFileContentAsMessageContent(session, flowFile);
+		return messageContent;
+	}
+
+	private static String unescape(String value) {
+		return value.replace("\\n", "\n").replace("\\t", "\t");
+	}
+
+	/**
+	 * Claims the message of the flowfile, or routes it to duplicate if sent within the deduplication window
+	 * @param sender the account, or the accounts of the sender pool
+	 * @param claims the key of the message is added to, when claimed
+	 * @return the flowfile with the key of its message, null if it was a duplicate
+	 */
+	private FlowFile deduplicate(final ProcessSession session, FlowFile flowFile, String sender, Optional<List<String>> recipients, Optional<List<String>> groups, String message, SignalAttachment attachment, List<String> claims) {
+		String key = SignalDeduplicator.getKey(sender, recipients, groups, message, attachment);
+		flowFile = session.putAttribute(flowFile, Constants.ATTRIBUTE_DEDUPLICATION_KEY, key);
+		if(deduplicator.claim(key)) {
+			claims.add(key);
+			return flowFile;
+		}
+
+		getLogger().info("Message was sent within the deduplication window, routing to duplicate");
+		session.transfer(flowFile, DUPLICATE);
+		return null;
+	}
+
+	/**
+	 * @param digest the message of flowfiles coalesced with this one, null if the flowfile is sent on its own
+	 * @param claims the messages claimed for deduplication and not yet sent, the message is removed once it is handed to the service
+	 */
+	private void send(final ProcessContext context, final ProcessSession session, FlowFile flowFile, Digest digest, List<String> claims) {
+		Optional<List<String>> recipients = Optional.empty();
+		boolean sending = false;
 		try {
 			SignalControllerService signalService = getSignalService(context);
-			String account = getAccountNumber(context, flowFile);
+			SignalPriority priority = SignalPriority.parse(context.getProperty(PROP_PRIORITY).evaluateAttributeExpressions(flowFile).getValue());
 			
-			String messageContent = context.getProperty(PROP_MESSAGE_CONTENT).evaluateAttributeExpressions(flowFile).getValue();
+			String messageContent = digest != null ? digest.message : context.getProperty(PROP_MESSAGE_CONTENT).evaluateAttributeExpressions(flowFile).getValue();
 			
 			String useAttachmentString = context.getProperty(PROP_ATTACHMENT).evaluateAttributeExpressions(flowFile).getValue();
-			boolean useAttachment = "true".equalsIgnoreCase(useAttachmentString);
+			boolean useAttachment = digest == null && "true".equalsIgnoreCase(useAttachmentString);
 			
 			String useQuoteString = context.getProperty(PROP_MESSAGE_QUOTE).evaluateAttributeExpressions(flowFile).getValue();
-			boolean useQuote = "true".equalsIgnoreCase(useQuoteString);
+			boolean useQuote = digest == null && "true".equalsIgnoreCase(useQuoteString);
 			
 			SignalQuote quote = null;
 			
 			getLogger().debug("Using attachments: " + useAttachment);
 			
 			Optional<List<String>> groups = getList(context, flowFile, PROP_GROUPS);
-			Optional<List<String>> recipients = getList(context, flowFile, PROP_RECIPIENTS);
+			recipients = getList(context, flowFile, PROP_RECIPIENTS);
 			
 			if(groups.isEmpty() && recipients.isEmpty())
 				throw new IllegalStateException(Constants.MSG_MISSING_RECIPIENT_AND_GROUP);
-				
+			
 			SignalAttachment attachment = null;
 
 			if(useAttachment) {
@@ -144,16 +749,88 @@ public class PutSignalMessage extends AbstractSignalSenderProcessor {
 				}
 			}
 			
+			SignalSenderPool pool = senderPool;
+			if(digest == null && deduplicator != null) {
+				String sender = pool != null ? String.join(",", pool.getAccounts()) : getAccountNumber(context, flowFile);
+				flowFile = deduplicate(session, flowFile, sender, recipients, groups, messageContent, attachment, claims);
+				if(flowFile == null)
+					return;
+			}
+			
+			String account;
+			if(pool != null) {
+				String recipientKey = groups.isPresent() ? String.join(",", groups.get()) : String.join(",", recipients.get());
+				account = pool.select(recipientKey, signalService::getSendHeadroom);
+				flowFile = session.putAttribute(flowFile, Constants.ATTRIBUTE_SENDING_NUMBER, account);
+			} else {
+				account = getAccountNumber(context, flowFile);
+			}
+			
+			if(groups.isEmpty() && context.getProperty(PROP_CHECK_REGISTRATION).asBoolean()) {
+				List<String> unregistered = getUnregistered(signalService, account, recipients.get());
+				if(!unregistered.isEmpty()) {
+					List<String> registered = new ArrayList<>(recipients.get());
+					registered.removeAll(unregistered);
+					
+					// Only unregistered recipients, nothing to send
+					if(registered.isEmpty()) {
+						flowFile = session.putAttribute(flowFile, Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, String.join(",", unregistered));
+						release(flowFile, digest, claims);
+						transfer(session, flowFile, UNREGISTERED, digest);
+						return;
+					}
+					
+					FlowFile unregisteredFlowFile = session.clone(flowFile);
+					unregisteredFlowFile = session.putAttribute(unregisteredFlowFile, Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, String.join(",", unregistered));
+					transfer(session, unregisteredFlowFile, UNREGISTERED, digest);
+					
+					recipients = Optional.of(registered);
+				}
+			}
+
 			if(useQuote) {
 				quote = createQuote(context, flowFile, messageContent);
 			}
 
+			// A time that has passed is sent now, like no time
+			long sendAt = getSendAt(context, flowFile);
+			boolean sendLater = sendAt > System.currentTimeMillis();
+			if(context.getProperty(PROP_USE_OUTBOX).asBoolean() || sendLater) {
+				if(!signalService.isOutboxEnabled()) {
+					getLogger().error(MSG_OUTBOX_NOT_ENABLED);
+					flowFile = session.putAttribute(flowFile, Constants.ATTRIBUTE_ERROR_TYPE, SignalErrorType.INVALID_REQUEST.name());
+					release(flowFile, digest, claims);
+					transferToFailureWithMessage(session, flowFile, MSG_OUTBOX_NOT_ENABLED, digest);
+					return;
+				}
+
+				SignalOutgoingMessage outgoing = new SignalOutgoingMessage(account, 
+															messageContent, 
+															recipients, 
+															groups, 
+															Optional.ofNullable(quote), 
+															Optional.ofNullable(attachment), 
+															flowFile.getAttributes(),
+															priority);
+				// Kept in the outbox once stored, whatever happens to the session
+				claims.removeAll(getDeduplicationKeys(flowFile, digest));
+				String id = sendLater ? signalService.scheduleMessage(outgoing, sendAt) : signalService.enqueueMessage(outgoing);
+				
+				flowFile = session.putAttribute(flowFile, Constants.ATTRIBUTE_OUTBOX_ID, id);
+				transfer(session, flowFile, SUCCESS, digest);
+				return;
+			}
+
+			// The message may reach the recipients from here on, so it stays claimed unless the send tells otherwise
+			claims.removeAll(getDeduplicationKeys(flowFile, digest));
+			sending = true;
 			JsonElement result = signalService.sendMessage(account, 
 															messageContent, 
 															recipients, 
 															groups, 
 															Optional.ofNullable(quote), 
-															Optional.ofNullable(attachment));
+															Optional.ofNullable(attachment),
+															priority);
 			
 			if(getLogger().isDebugEnabled())
 				getLogger().debug(result.toString());
@@ -167,10 +844,128 @@ public class PutSignalMessage extends AbstractSignalSenderProcessor {
 			}
 			
 			flowFile = session.putAttribute(flowFile, "signal.send.failed", Boolean.toString(Boolean.FALSE));
-			session.transfer(flowFile, SUCCESS);
+			transfer(session, flowFile, SUCCESS, digest);
+		} catch(SignalPartialSendException e) {
+			getLogger().warn(e.getMessage());
+			transferSent(session, flowFile, e.getResult(), digest);
+
+			String failedRecipients = String.join(",", e.getFailedRecipients());
+			flowFile = session.putAllAttributes(flowFile, Map.of(
+					Constants.ATTRIBUTE_ERROR_TYPE, e.getType().name(),
+					Constants.ATTRIBUTE_ERROR_CODE, Long.toString(e.getCode()),
+					Constants.ATTRIBUTE_FAILED_RECIPIENTS, failedRecipients));
+			if(e.getType() == SignalErrorType.UNREGISTERED) {
+				flowFile = session.putAllAttributes(flowFile, Map.of(
+						Constants.ATTRIBUTE_ERROR_MESSAGE, String.valueOf(e.getMessage()),
+						Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, failedRecipients));
+				transfer(session, flowFile, UNREGISTERED, digest);
+				return;
+			}
+
+			if(e.isTransient())
+				flowFile = session.penalize(flowFile);
+			transferToFailureWithMessage(session, flowFile, e.getMessage(), digest);
+		} catch(SignalUnregisteredException e) {
+			getLogger().warn(e.getMessage());
+			// Sent to the registered recipients, only the unregistered are routed to unregistered
+			if(isSentToOthers(e, recipients))
+				transferSent(session, flowFile, e.getResult(), digest);
+			else
+				release(flowFile, digest, claims);
+
+			Map<String, String> attributes = new HashMap<>();
+			attributes.put(Constants.ATTRIBUTE_ERROR_MESSAGE, String.valueOf(e.getMessage()));
+			attributes.put(Constants.ATTRIBUTE_ERROR_TYPE, e.getType().name());
+			attributes.put(Constants.ATTRIBUTE_ERROR_CODE, Long.toString(e.getCode()));
+			attributes.put(Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, String.join(",", e.getFailedRecipients()));
+			transfer(session, session.putAllAttributes(flowFile, attributes), UNREGISTERED, digest);
+		} catch(SignalRpcException e) {
+			getLogger().error(e.getMessage(), e);
+			flowFile = session.putAllAttributes(flowFile, Map.of(
+					Constants.ATTRIBUTE_ERROR_TYPE, e.getType().name(),
+					Constants.ATTRIBUTE_ERROR_CODE, Long.toString(e.getCode())));
+			
+			// Retries in the service are exhausted, hold the flowfile back a while before it is tried again
+			if(e.isTransient())
+				flowFile = session.penalize(flowFile);
+			
+			if(!isMaybeSent(e, recipients))
+				release(flowFile, digest, claims);
+			transferToFailureWithMessage(session, flowFile, e.getMessage(), digest);
 		} catch(Throwable e) {
 			getLogger().error(e.getMessage(), e);
-			transferToFailureWithMessage(session, flowFile, e.getMessage());
+			// Failed before sending, or could not reach the service; other errors may come after the daemon took the message
+			if(!sending || e instanceof ConnectException)
+				release(flowFile, digest, claims);
+			transferToFailureWithMessage(session, flowFile, e.getMessage(), digest);
+		}
+	}
+
+	/**
+	 * Routes a clone of the flowfile to success for the recipients the message was sent to, when it failed for the others
+	 * @param result of the send, with the timestamp of the message
+	 */
+	private void transferSent(ProcessSession session, FlowFile flowFile, JsonElement result, Digest digest) {
+		FlowFile sentFlowFile = session.clone(flowFile);
+		if(result != null && result.isJsonObject() && result.getAsJsonObject().has("timestamp"))
+			sentFlowFile = session.putAttribute(sentFlowFile, Constants.ATTRIBUTE_TIMESTAMP, result.getAsJsonObject().get("timestamp").getAsString());
+		sentFlowFile = session.putAttribute(sentFlowFile, "signal.send.failed", Boolean.toString(Boolean.FALSE));
+		transfer(session, sentFlowFile, SUCCESS, digest);
+	}
+
+	/**
+	 * @return true if the daemon reported the message sent to some recipients, or only some of the recipients as unregistered
+	 */
+	private static boolean isSentToOthers(SignalUnregisteredException e, Optional<List<String>> recipients) {
+		if(e.getResult() != null)
+			return true;
+
+		List<String> failed = e.getFailedRecipients();
+		return !failed.isEmpty() && recipients.isPresent() && !failed.containsAll(recipients.get());
+	}
+
+	/**
+	 * @return time to send the message at in milliseconds since the epoch, 0 to send now
+	 * @throws IllegalArgumentException if the time is neither milliseconds nor an ISO-8601 date and time
+	 */
+	private long getSendAt(final ProcessContext context, FlowFile flowFile) {
+		String value = context.getProperty(PROP_SEND_AT).evaluateAttributeExpressions(flowFile).getValue();
+		if(value == null || value.isBlank())
+			return 0;
+
+		value = value.trim();
+		try {
+			if(value.chars().allMatch(Character::isDigit))
+				return Long.parseLong(value);
+			return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+		} catch (DateTimeParseException | NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid time to send the message at: " + value, e);
+		}
+	}
+
+	/**
+	 * @return true if the daemon may have sent the message to some of the recipients before it failed
+	 */
+	private static boolean isMaybeSent(SignalRpcException e, Optional<List<String>> recipients) {
+		if(e.getType() == SignalErrorType.UNKNOWN)
+			return true;
+
+		List<String> failed = e.getFailedRecipients();
+		return !failed.isEmpty() && recipients.isPresent() && !failed.containsAll(recipients.get());
+	}
+
+	private List<String> getUnregistered(SignalControllerService signalService, String account, List<String> recipients) {
+		try {
+			Map<String, Boolean> status = signalService.getRegistrationStatus(account, recipients);
+			return recipients.stream()
+						.filter(recipient -> Boolean.FALSE.equals(status.get(recipient)))
+						.distinct()
+						.collect(Collectors.toList());
+		} catch (Exception e) {
+			// Let the send decide if the recipients are registered or not
+			if(getLogger().isWarnEnabled())
+				getLogger().warn("Could not check registration status of recipients: " + e.getMessage(), e);
+			return Collections.emptyList();
 		}
 	}
 
@@ -192,7 +987,7 @@ public class PutSignalMessage extends AbstractSignalSenderProcessor {
 		return quote;
 	}
 
-	private void transferToFailureWithMessage(ProcessSession session, FlowFile flowFile, String message) {
+	private void transferToFailureWithMessage(ProcessSession session, FlowFile flowFile, String message, Digest digest) {
 		if(message == null)
 			message = "";
 		
@@ -201,7 +996,76 @@ public class PutSignalMessage extends AbstractSignalSenderProcessor {
 				Constants.ATTRIBUTE_ERROR_MESSAGE_SEND, message
 				);
 		
-		session.transfer(session.putAllAttributes(flowFile, attributes), FAILURE);		
+		transfer(session, session.putAllAttributes(flowFile, attributes), FAILURE, digest);
+	}
+
+	/**
+	 * Routes the flowfile, and the other flowfiles of its digest along with it. They get the attributes
+	 * the send has set, and are cloned when the flowfile is a clone.
+	 */
+	private void transfer(ProcessSession session, FlowFile flowFile, Relationship relationship, Digest digest) {
+		session.transfer(flowFile, relationship);
+		if(digest == null)
+			return;
+
+		Map<String, String> attributes = new HashMap<>();
+		flowFile.getAttributes().forEach((name, value) -> {
+			if(!value.equals(digest.attributes.get(name)) && !CoreAttributes.UUID.key().equals(name))
+				attributes.put(name, value);
+		});
+
+		boolean clone = !flowFile.getAttribute(CoreAttributes.UUID.key()).equals(digest.attributes.get(CoreAttributes.UUID.key()));
+		for (FlowFile other : digest.others) {
+			FlowFile target = session.putAllAttributes(clone ? session.clone(other) : other, attributes);
+			if(flowFile.isPenalized())
+				target = session.penalize(target);
+			session.transfer(target, relationship);
+		}
+	}
+
+	/**
+	 * Forgets the message of the flowfile and of the other flowfiles of its digest, when it was sent to none of
+	 * the recipients, so it may be sent again within the deduplication window
+	 */
+	private void release(FlowFile flowFile, Digest digest, List<String> claims) {
+		SignalDeduplicator dedup = deduplicator;
+		if(dedup == null)
+			return;
+
+		for (String key : getDeduplicationKeys(flowFile, digest)) {
+			claims.remove(key);
+			dedup.release(key);
+		}
+	}
+
+	private static List<String> getDeduplicationKeys(FlowFile flowFile, Digest digest) {
+		List<String> keys = new ArrayList<>();
+		String key = flowFile.getAttribute(Constants.ATTRIBUTE_DEDUPLICATION_KEY);
+		if(key != null)
+			keys.add(key);
+		if(digest != null) {
+			for (FlowFile other : digest.others) {
+				key = other.getAttribute(Constants.ATTRIBUTE_DEDUPLICATION_KEY);
+				if(key != null)
+					keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Message of flowfiles sent as one, by the first of them
+	 */
+	private static final class Digest {
+		private final String message;
+		private final Map<String, String> attributes;
+		private final List<FlowFile> others;
+
+		private Digest(String message, FlowFile first, List<FlowFile> others) {
+			this.message = message;
+			this.attributes = first.getAttributes();
+			this.others = others;
+		}
 	}
 
 	private SignalAttachment loadFlowFileContentAsBase64(ProcessSession session, FlowFile flowFile) throws IOException {
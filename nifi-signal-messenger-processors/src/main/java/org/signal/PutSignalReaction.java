@@ -108,6 +108,9 @@ public class PutSignalReaction extends AbstractSignalSenderProcessor {
 
 	@Override
 	public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+		if(yieldIfConnecting(context))
+			return;
+
 		FlowFile flowFile = session.get();
 		if ( flowFile == null ) {
 			return;
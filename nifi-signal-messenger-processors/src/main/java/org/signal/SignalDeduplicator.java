@@ -0,0 +1,163 @@
+package org.signal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+
+import org.apache.nifi.distributed.cache.client.AtomicCacheEntry;
+import org.apache.nifi.distributed.cache.client.AtomicDistributedMapCacheClient;
+import org.apache.nifi.distributed.cache.client.Deserializer;
+import org.apache.nifi.distributed.cache.client.Serializer;
+import org.apache.nifi.logging.ComponentLog;
+import org.signal.model.SignalAttachment;
+
+/**
+ * Remembers the messages sent within a window, so the same message to the same recipients is not
+ * sent twice when a flowfile is retried or replayed upstream. Messages are known by a hash of the
+ * account, the recipients or groups, the text and the attachment.
+ * <p>
+ * The hashes are kept in memory, the oldest dropped above the max number of entries. With a
+ * distributed map cache the hashes are shared by all nodes of the cluster, the time the message
+ * was sent stored as the value, since the cache does not expire entries by itself. The entry is
+ * only replaced at the revision it was read at, so two nodes can not both claim the same message.
+ */
+final class SignalDeduplicator {
+	private static final Serializer<String> SERIALIZER = (value, output) -> output.write(value.getBytes(StandardCharsets.UTF_8));
+	private static final Deserializer<String> DESERIALIZER = input -> input == null || input.length == 0 ? null : new String(input, StandardCharsets.UTF_8);
+
+	private static final String KEY_PREFIX = "signal.dedup.";
+
+	private final long windowMillis;
+	private final int maxEntries;
+	private final AtomicDistributedMapCacheClient<?> cache;
+	private final ComponentLog log;
+
+	// In the order claimed, so the oldest are first
+	private final LinkedHashMap<String, Long> local = new LinkedHashMap<>();
+
+	/**
+	 * @param cache shared by the nodes of the cluster, null to only deduplicate in memory
+	 */
+	SignalDeduplicator(long windowMillis, int maxEntries, AtomicDistributedMapCacheClient<?> cache, ComponentLog log) {
+		this.windowMillis = windowMillis;
+		this.maxEntries = maxEntries;
+		this.cache = cache;
+		this.log = log;
+	}
+
+	/**
+	 * @param sender the account, or the accounts of the sender pool
+	 * @return the hash of the message, in hex
+	 */
+	static String getKey(String sender, Optional<List<String>> recipients, Optional<List<String>> groups, String message, SignalAttachment attachment) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		update(digest, sender);
+		// The order of the recipients does not make another message
+		update(digest, groups.filter(g -> !g.isEmpty()).map(g -> "g:" + String.join(",", new TreeSet<>(g)))
+				.orElseGet(() -> String.join(",", new TreeSet<>(recipients.orElse(List.of())))));
+		update(digest, message);
+		if(attachment != null) {
+			update(digest, attachment.getMineType());
+			update(digest, attachment.getFilename());
+			update(digest, attachment.getBase64Content());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if(value != null)
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+		// Separates the fields, so moving text from one field to the next gives another hash
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Claims the message for sending
+	 * @return true if the message may be sent, false if it was sent within the window
+	 */
+	boolean claim(String key) {
+		long now = System.currentTimeMillis();
+		if(!claimLocal(key, now))
+			return false;
+
+		if(cache == null)
+			return true;
+
+		try {
+			return claimShared(cache, KEY_PREFIX + key, now);
+		} catch (IOException | RuntimeException e) {
+			// Sending twice is better than not sending
+			if(log.isWarnEnabled())
+				log.warn("Could not check the distributed cache for duplicates, checked in memory only: " + e.getMessage(), e);
+			return true;
+		}
+	}
+
+	/**
+	 * @return false if the message was sent by another node within the window, or claimed by another node at the same time.
+	 * The claim in memory is kept then, so it is known to be sent.
+	 */
+	private <R> boolean claimShared(AtomicDistributedMapCacheClient<R> cache, String key, long now) throws IOException {
+		AtomicCacheEntry<String, String, R> entry = cache.fetch(key, SERIALIZER, DESERIALIZER);
+		if(entry != null && entry.getValue() != null && now - Long.parseLong(entry.getValue()) < windowMillis)
+			return false;
+
+		// Without a revision the entry is only added if there is none
+		R revision = entry == null ? null : entry.getRevision().orElse(null);
+		return cache.replace(new AtomicCacheEntry<>(key, Long.toString(now), revision), SERIALIZER, SERIALIZER);
+	}
+
+	private synchronized boolean claimLocal(String key, long now) {
+		// Drop the expired, the oldest are first
+		Iterator<Long> claimed = local.values().iterator();
+		while(claimed.hasNext()) {
+			if(now - claimed.next() < windowMillis)
+				break;
+			claimed.remove();
+		}
+
+		if(local.containsKey(key))
+			return false;
+
+		local.put(key, now);
+		if(local.size() > maxEntries)
+			local.remove(local.keySet().iterator().next());
+		return true;
+	}
+
+	/**
+	 * Forgets a claimed message that could not be sent, so it may be sent again
+	 */
+	void release(String key) {
+		synchronized (this) {
+			local.remove(key);
+		}
+
+		if(cache == null)
+			return;
+
+		try {
+			cache.remove(KEY_PREFIX + key, SERIALIZER);
+		} catch (IOException | RuntimeException e) {
+			if(log.isWarnEnabled())
+				log.warn("Could not remove the message from the distributed cache, it is not sent again within the window: " + e.getMessage(), e);
+		}
+	}
+
+	synchronized int size() {
+		return local.size();
+	}
+}
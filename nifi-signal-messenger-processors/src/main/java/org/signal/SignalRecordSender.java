@@ -0,0 +1,271 @@
+package org.signal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.signal.model.SignalAttachment;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
+import org.signal.model.SignalQuote;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Sends a message per record, a number of them at a time. The next record is only read when a send
+ * is done, so a large set of records is never all in memory. The results are written in the order of
+ * the records, each record with the timestamp of the sent message or the error it failed with.
+ */
+final class SignalRecordSender {
+	static final String FIELD_ACCOUNT = "account";
+	static final String FIELD_RECIPIENT = "recipient";
+	static final String FIELD_GROUP = "group";
+	static final String FIELD_MESSAGE = "message";
+	static final String FIELD_PRIORITY = "priority";
+	static final String FIELD_QUOTE_TIMESTAMP = "quoteTimestamp";
+	static final String FIELD_QUOTE_AUTHOR = "quoteAuthor";
+	static final String FIELD_QUOTE_MESSAGE = "quoteMessage";
+	static final String FIELD_ATTACHMENT = "attachment";
+	static final String FIELD_ATTACHMENT_MIME_TYPE = "attachmentMimeType";
+	static final String FIELD_ATTACHMENT_FILENAME = "attachmentFilename";
+
+	static final String FIELD_TIMESTAMP = "timestamp";
+	static final String FIELD_ERROR = "error";
+	static final String FIELD_ERROR_TYPE = "errorType";
+	static final String FIELD_FAILED_RECIPIENTS = "failedRecipients";
+
+	interface Sender {
+		JsonElement send(SignalOutgoingMessage message) throws Exception;
+	}
+
+	/**
+	 * Next record, like {@link org.apache.nifi.serialization.RecordReader#nextRecord()}
+	 */
+	interface Records {
+		Record next() throws Exception;
+	}
+
+	/**
+	 * Writes a record, like {@link org.apache.nifi.serialization.RecordSetWriter#write(Record)}
+	 */
+	interface Writer {
+		void write(Record record) throws Exception;
+	}
+
+	/**
+	 * Number of records sent and failed, and the error reading the records if it stopped before the end
+	 */
+	static final class Result {
+		private int sent = 0;
+		private int failed = 0;
+		private Exception error = null;
+
+		int getSent() {
+			return sent;
+		}
+
+		int getFailed() {
+			return failed;
+		}
+
+		Exception getError() {
+			return error;
+		}
+	}
+
+	private final int concurrency;
+
+	/**
+	 * @param concurrency max number of messages sent at a time
+	 */
+	SignalRecordSender(int concurrency) {
+		if(concurrency < 1)
+			throw new IllegalArgumentException("Invalid concurrency " + concurrency);
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * @return the schema with the fields of the result added
+	 */
+	static RecordSchema getResultSchema(RecordSchema schema) {
+		List<RecordField> fields = new ArrayList<>(schema.getFields());
+		addField(fields, schema, FIELD_TIMESTAMP, RecordFieldType.LONG);
+		addField(fields, schema, FIELD_ERROR, RecordFieldType.STRING);
+		addField(fields, schema, FIELD_ERROR_TYPE, RecordFieldType.STRING);
+		addField(fields, schema, FIELD_FAILED_RECIPIENTS, RecordFieldType.STRING);
+		return new SimpleRecordSchema(fields);
+	}
+
+	private static void addField(List<RecordField> fields, RecordSchema schema, String name, RecordFieldType type) {
+		if(schema.getField(name).isEmpty())
+			fields.add(new RecordField(name, type.getDataType(), true));
+	}
+
+	/**
+	 * Reads the message of a record
+	 * @param accounts gives the account to send from, by the recipients or groups, when the record has none
+	 * @param priority of the message, when the record has none
+	 * @throws IllegalArgumentException if the record has no recipient nor group, or an invalid field
+	 */
+	static SignalOutgoingMessage getMessage(Record record, Function<String, String> accounts, SignalPriority priority) {
+		Optional<List<String>> groups = getList(record, FIELD_GROUP);
+		Optional<List<String>> recipients = getList(record, FIELD_RECIPIENT);
+		if(groups.isEmpty() && recipients.isEmpty())
+			throw new IllegalArgumentException(Constants.MSG_MISSING_RECIPIENT_AND_GROUP);
+
+		String message = getString(record, FIELD_MESSAGE);
+
+		SignalAttachment attachment = null;
+		String content = getString(record, FIELD_ATTACHMENT);
+		if(content != null) {
+			String mimeType = getString(record, FIELD_ATTACHMENT_MIME_TYPE);
+			String filename = getString(record, FIELD_ATTACHMENT_FILENAME);
+			if(mimeType == null || filename == null)
+				throw new IllegalArgumentException("Record has an attachment without " + FIELD_ATTACHMENT_MIME_TYPE + " or " + FIELD_ATTACHMENT_FILENAME);
+			attachment = new SignalAttachment(mimeType, filename, content);
+		} else if(message == null) {
+			throw new IllegalArgumentException("Record has neither message nor attachment");
+		}
+
+		SignalQuote quote = null;
+		String quoteTimestamp = getString(record, FIELD_QUOTE_TIMESTAMP);
+		if(quoteTimestamp != null) {
+			String quoteMessage = getString(record, FIELD_QUOTE_MESSAGE);
+			quote = new SignalQuote(Long.decode(quoteTimestamp), getString(record, FIELD_QUOTE_AUTHOR), quoteMessage != null ? quoteMessage : message, null);
+		}
+
+		String account = getString(record, FIELD_ACCOUNT);
+		if(account == null)
+			account = accounts.apply(groups.isPresent() ? String.join(",", groups.get()) : String.join(",", recipients.get()));
+
+		String recordPriority = getString(record, FIELD_PRIORITY);
+		return new SignalOutgoingMessage(account,
+										message,
+										recipients,
+										groups,
+										Optional.ofNullable(quote),
+										Optional.ofNullable(attachment),
+										null,
+										recordPriority != null ? SignalPriority.parse(recordPriority) : priority);
+	}
+
+	private static String getString(Record record, String field) {
+		Object value = record.getValue(field);
+		if(value == null)
+			return null;
+
+		String string = value.toString().trim();
+		return string.isEmpty() ? null : string;
+	}
+
+	/**
+	 * @return the values of an array field, or of a comma separated string
+	 */
+	private static Optional<List<String>> getList(Record record, String field) {
+		Object value = record.getValue(field);
+		if(!(value instanceof Object[] array))
+			return Constants.getCommaSeparatedList(value == null ? null : value.toString());
+
+		List<String> list = Arrays.stream(array)
+				.filter(Objects::nonNull)
+				.map(item -> item.toString().trim())
+				.filter(item -> !item.isEmpty())
+				.collect(Collectors.toList());
+		return list.isEmpty() ? Optional.empty() : Optional.of(list);
+	}
+
+	/**
+	 * Sends the message of each record, written to the sent or failed writer with its result.
+	 * A record that could not be read stops the sending, the sends already started are finished
+	 * and the error is returned in the result.
+	 * @param schema of the written records, from {@link #getResultSchema(RecordSchema)}
+	 * @param messages reads the message of a record, see {@link #getMessage(Record, Function, SignalPriority)}
+	 */
+	Result send(Records records, RecordSchema schema, Function<Record, SignalOutgoingMessage> messages, Sender sender, Writer sent, Writer failed) throws Exception {
+		Result result = new Result();
+		Deque<Send> sends = new ArrayDeque<>(concurrency);
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			try {
+				Record record;
+				while((record = records.next()) != null) {
+					// Waits for the oldest, the results are written in the order of the records
+					if(sends.size() >= concurrency)
+						write(sends.poll(), schema, sent, failed, result);
+
+					Record source = record;
+					sends.add(new Send(source, executor.submit(() -> sender.send(messages.apply(source)))));
+				}
+			} catch (Exception e) {
+				result.error = e;
+			}
+
+			while(!sends.isEmpty()) {
+				write(sends.poll(), schema, sent, failed, result);
+			}
+		}
+		return result;
+	}
+
+	private static final class Send {
+		private final Record record;
+		private final Future<JsonElement> future;
+
+		private Send(Record record, Future<JsonElement> future) {
+			this.record = record;
+			this.future = future;
+		}
+	}
+
+	private static void write(Send send, RecordSchema schema, Writer sent, Writer failed, Result result) throws Exception {
+		Map<String, Object> values = new LinkedHashMap<>(send.record.toMap());
+		try {
+			JsonElement response = send.future.get();
+			values.put(FIELD_TIMESTAMP, getTimestamp(response));
+			sent.write(new MapRecord(schema, values));
+			result.sent++;
+			return;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			values.put(FIELD_ERROR, String.valueOf(cause.getMessage()));
+			if(cause instanceof SignalRpcException rpc) {
+				values.put(FIELD_ERROR_TYPE, rpc.getType().name());
+				if(!rpc.getFailedRecipients().isEmpty())
+					values.put(FIELD_FAILED_RECIPIENTS, String.join(",", rpc.getFailedRecipients()));
+			}
+			// Sent to the other recipients
+			if(cause instanceof SignalPartialSendException partial)
+				values.put(FIELD_TIMESTAMP, getTimestamp(partial.getResult()));
+			else if(cause instanceof SignalUnregisteredException unregistered)
+				values.put(FIELD_TIMESTAMP, getTimestamp(unregistered.getResult()));
+		}
+		failed.write(new MapRecord(schema, values));
+		result.failed++;
+	}
+
+	private static Long getTimestamp(JsonElement response) {
+		if(response == null || !response.isJsonObject())
+			return null;
+
+		JsonObject object = response.getAsJsonObject();
+		return object.has("timestamp") ? object.get("timestamp").getAsLong() : null;
+	}
+}
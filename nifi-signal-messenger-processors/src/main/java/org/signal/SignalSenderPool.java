@@ -0,0 +1,112 @@
+package org.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Accounts to send from, one picked per message. Accounts without send headroom left, as given
+ * by the rate limits of the service, are passed over as long as another account has some.
+ */
+final class SignalSenderPool {
+	static final String POLICY_LEAST_LOADED = "least-loaded";
+	static final String POLICY_ROUND_ROBIN = "round-robin";
+	static final String POLICY_STICKY = "sticky-per-recipient";
+
+	private final List<String> accounts;
+	private final String policy;
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	SignalSenderPool(List<String> accounts, String policy) {
+		if(accounts.isEmpty())
+			throw new IllegalArgumentException("No account in the sender pool");
+		this.accounts = Collections.unmodifiableList(new ArrayList<>(accounts));
+		this.policy = policy;
+	}
+
+	List<String> getAccounts() {
+		return accounts;
+	}
+
+	/**
+	 * @param recipientKey the recipients and groups of the message, used by the sticky policy
+	 * @param headroom send headroom of an account, from 0 to 1
+	 * @return the account to send the message from
+	 */
+	String select(String recipientKey, ToDoubleFunction<String> headroom) {
+		if(accounts.size() == 1)
+			return accounts.get(0);
+
+		switch (policy) {
+		case POLICY_ROUND_ROBIN:
+			return selectRoundRobin(headroom);
+		case POLICY_STICKY:
+			return selectSticky(recipientKey, headroom);
+		default:
+			return selectLeastLoaded(headroom);
+		}
+	}
+
+	private String selectRoundRobin(ToDoubleFunction<String> headroom) {
+		int start = Math.floorMod(next.getAndIncrement(), accounts.size());
+		for (int i = 0; i < accounts.size(); i++) {
+			String account = accounts.get((start + i) % accounts.size());
+			if(headroom.applyAsDouble(account) > 0)
+				return account;
+		}
+		return accounts.get(start);
+	}
+
+	/**
+	 * The account with the most headroom, taking turns among equals so the accounts are spread
+	 * evenly when sends are not rate limited
+	 */
+	private String selectLeastLoaded(ToDoubleFunction<String> headroom) {
+		int start = Math.floorMod(next.getAndIncrement(), accounts.size());
+		String selected = null;
+		double most = -1;
+		for (int i = 0; i < accounts.size(); i++) {
+			String account = accounts.get((start + i) % accounts.size());
+			double left = headroom.applyAsDouble(account);
+			if(left > most) {
+				most = left;
+				selected = account;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Rendezvous hashing, so the same recipients keep getting messages from the same account,
+	 * and only the recipients of an account removed from the pool move to another
+	 */
+	private String selectSticky(String recipientKey, ToDoubleFunction<String> headroom) {
+		String preferred = null;
+		long preferredScore = Long.MIN_VALUE;
+		String available = null;
+		long availableScore = Long.MIN_VALUE;
+
+		for (String account : accounts) {
+			long score = score(recipientKey, account);
+			if(preferred == null || score > preferredScore) {
+				preferred = account;
+				preferredScore = score;
+			}
+			if((available == null || score > availableScore) && headroom.applyAsDouble(account) > 0) {
+				available = account;
+				availableScore = score;
+			}
+		}
+		return available != null ? available : preferred;
+	}
+
+	private static long score(String recipientKey, String account) {
+		long hash = 31L * String.valueOf(recipientKey).hashCode() + account.hashCode();
+		// splitmix64 finalizer, spreads the bits of the two string hashes
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+}
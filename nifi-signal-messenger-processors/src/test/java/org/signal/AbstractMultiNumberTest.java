@@ -32,4 +32,21 @@ public abstract class AbstractMultiNumberTest {
 		runner.setProperty(serviceA, SignalMessengerService.PROP_DAEMON_URL, url);
 	}
 
+	/**
+	 * Enables the service and waits for it to connect, senders yield until then
+	 */
+	protected void enableSignalService(TestRunner runner) {
+		runner.enableControllerService(serviceA);
+
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(serviceA.getState() == SignalServiceState.CONNECTING && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
 }
@@ -0,0 +1,227 @@
+package org.signal;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.nifi.controller.AbstractControllerService;
+import org.signal.model.SignalAttachment;
+import org.signal.model.SignalContact;
+import org.signal.model.SignalData;
+import org.signal.model.SignalGroup;
+import org.signal.model.SignalIdentity;
+import org.signal.model.SignalOutboxResult;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
+import org.signal.model.SignalQuote;
+import org.signal.model.SignalSubscription;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Signal service that keeps the messages instead of sending them, to test the processors without a daemon.
+ * Sends answer with a new timestamp, unless an answer is set.
+ */
+public class MockSignalService extends AbstractControllerService implements SignalControllerService {
+
+	interface Answer {
+		JsonElement send(SignalOutgoingMessage message) throws IOException;
+	}
+
+	private final List<SignalOutgoingMessage> sent = new CopyOnWriteArrayList<>();
+	private final List<SignalOutgoingMessage> queued = new CopyOnWriteArrayList<>();
+	private final List<Long> queuedSendAt = new CopyOnWriteArrayList<>();
+	private final Set<String> unregistered = Collections.synchronizedSet(new HashSet<>());
+	private final AtomicLong timestamps = new AtomicLong(1_700_000_000_000L);
+
+	private volatile Answer answer = message -> timestamp();
+	private volatile boolean outboxEnabled = false;
+
+	public void answer(Answer answer) {
+		this.answer = answer;
+	}
+
+	public void setOutboxEnabled(boolean outboxEnabled) {
+		this.outboxEnabled = outboxEnabled;
+	}
+
+	public void setUnregistered(String... recipients) {
+		unregistered.clear();
+		unregistered.addAll(List.of(recipients));
+	}
+
+	/**
+	 * @return the messages sent, in the order they were sent
+	 */
+	public List<SignalOutgoingMessage> getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return the messages put in the outbox
+	 */
+	public List<SignalOutgoingMessage> getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return the time each message of the outbox is sent at, 0 if right away
+	 */
+	public List<Long> getQueuedSendAt() {
+		return queuedSendAt;
+	}
+
+	/**
+	 * @return a send result with a new timestamp
+	 */
+	public JsonObject timestamp() {
+		JsonObject result = new JsonObject();
+		result.addProperty("timestamp", timestamps.incrementAndGet());
+		return result;
+	}
+
+	@Override
+	public JsonElement sendMessage(String account, String message, Optional<List<String>> recipients, Optional<List<String>> groups,
+			Optional<SignalQuote> quote, Optional<SignalAttachment> attachment) throws IOException {
+		return sendMessage(account, message, recipients, groups, quote, attachment, SignalPriority.NORMAL);
+	}
+
+	@Override
+	public JsonElement sendMessage(String account, String message, Optional<List<String>> recipients, Optional<List<String>> groups,
+			Optional<SignalQuote> quote, Optional<SignalAttachment> attachment, SignalPriority priority) throws IOException {
+		SignalOutgoingMessage outgoing = new SignalOutgoingMessage(account, message, recipients, groups, quote, attachment, null, priority);
+		sent.add(outgoing);
+		return answer.send(outgoing);
+	}
+
+	@Override
+	public JsonElement sendReaction(String account, Optional<List<String>> recipients, Optional<List<String>> group, String author,
+			long timestmap, String emoji, Optional<Boolean> remove) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public JsonElement deleteMessage(String account, Optional<List<String>> recipients, Optional<List<String>> groups, long timestmap) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String enqueueMessage(SignalOutgoingMessage message) {
+		return scheduleMessage(message, 0);
+	}
+
+	@Override
+	public String scheduleMessage(SignalOutgoingMessage message, long sendAtMillis) {
+		if(!outboxEnabled)
+			throw new UnsupportedOperationException("The outbox is not enabled");
+
+		queued.add(message);
+		queuedSendAt.add(sendAtMillis);
+		return "outbox-" + queued.size();
+	}
+
+	@Override
+	public boolean isOutboxEnabled() {
+		return outboxEnabled;
+	}
+
+	@Override
+	public void addOutboxListener(Consumer<SignalOutboxResult> listener) {
+	}
+
+	@Override
+	public void removeOutboxListener(Consumer<SignalOutboxResult> listener) {
+	}
+
+	@Override
+	public void addMessageListener(Consumer<SignalData> messageListener) {
+	}
+
+	@Override
+	public void addMessageListener(Consumer<SignalData> messageListener, SignalSubscription subscription) {
+	}
+
+	@Override
+	public void removeMessageListener(Consumer<SignalData> messageListener) {
+	}
+
+	@Override
+	public Map<String, SignalIdentity> getIdentities(String account) {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Optional<SignalIdentity> getIdentity(String account, String numberOrUuid) {
+		return Optional.empty();
+	}
+
+	@Override
+	public Optional<SignalContact> getContact(String account, String numberOrUuid) {
+		return Optional.empty();
+	}
+
+	@Override
+	public Map<String, SignalGroup> getGroups(String account) {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map<String, Boolean> getRegistrationStatus(String account, Collection<String> recipients) {
+		return recipients.stream().distinct().collect(Collectors.toMap(recipient -> recipient, recipient -> !unregistered.contains(recipient)));
+	}
+
+	@Override
+	public String getSignalVersion() {
+		return "mock";
+	}
+
+	@Override
+	public SignalServiceState getState() {
+		return SignalServiceState.READY;
+	}
+
+	@Override
+	public List<String> getAccounts() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public double getSendHeadroom(String account) {
+		return 1;
+	}
+
+	@Override
+	public Map<String, Number> getMetrics() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public JsonElement sendJsonRpc(String method, JsonObject params) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public JsonElement sendJsonRpc(String method, Map<String, String> params) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public JsonElement sendJsonRpc(String method, Map<String, String> params, String msgId) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public JsonElement sendJsonRpc(String method, JsonObject params, String msgId) {
+		throw new UnsupportedOperationException();
+	}
+}
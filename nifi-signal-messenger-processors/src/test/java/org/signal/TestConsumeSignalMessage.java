@@ -41,7 +41,7 @@ public class TestConsumeSignalMessage extends AbstractMultiNumberTest {
     	
 		runner = TestRunners.newTestRunner(ConsumeSignalMessage.class);
 		setSignaleService(runner);
-		runner.enableControllerService(serviceA);
+		enableSignalService(runner);
         runner.setProperty(ConsumeSignalMessage.PROP_SIGNAL_SERVICE, serviceIdentifierA);
         
         Instant maxWait = Instant.now().plus(5, ChronoUnit.SECONDS);
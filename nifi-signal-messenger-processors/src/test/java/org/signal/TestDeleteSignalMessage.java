@@ -26,7 +26,7 @@ public class TestDeleteSignalMessage extends AbstractMultiNumberTest {
 
         setSignaleService(runner);
         runner.setProperty(AbstractSignalSenderProcessor.PROP_SIGNAL_SERVICE, serviceIdentifierA);
-        runner.enableControllerService(serviceA);
+        enableSignalService(runner);
     }
 
 	@After
@@ -53,7 +53,7 @@ public class TestDeleteSignalMessage extends AbstractMultiNumberTest {
     	TestRunner runnerPut = TestRunners.newTestRunner(PutSignalMessage.class);
         setSignaleService(runnerPut);
         runnerPut.setProperty(AbstractSignalSenderProcessor.PROP_SIGNAL_SERVICE, serviceIdentifierA);
-        runnerPut.enableControllerService(serviceA);
+        enableSignalService(runnerPut);
     	
     	runnerPut.clearTransferState();
     	runnerPut.setProperty(AbstractSignalSenderProcessor.PROP_ACCOUNT, numberA);
@@ -90,7 +90,7 @@ public class TestDeleteSignalMessage extends AbstractMultiNumberTest {
     	TestRunner runnerPut = TestRunners.newTestRunner(PutSignalMessage.class);
     	setSignaleService(runnerPut);
     	runnerPut.setProperty(AbstractSignalSenderProcessor.PROP_SIGNAL_SERVICE, serviceIdentifierA);
-    	runnerPut.enableControllerService(serviceA);
+    	enableSignalService(runnerPut);
 
     	runnerPut.clearTransferState();
     	runnerPut.setProperty(AbstractSignalSenderProcessor.PROP_ACCOUNT, numberA);
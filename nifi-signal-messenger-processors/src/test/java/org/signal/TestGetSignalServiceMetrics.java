@@ -0,0 +1,68 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestGetSignalServiceMetrics extends AbstractMultiNumberTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestGetSignalServiceMetrics.class);
+	
+	private TestRunner runner;
+
+	@Before
+    public void init() throws InitializationException {
+		if(isSettingsEmpty()) {
+			return;
+		}
+		
+        runner = TestRunners.newTestRunner(GetSignalServiceMetrics.class);
+
+        setSignaleService(runner);
+        runner.setProperty(GetSignalServiceMetrics.PROP_SIGNAL_SERVICE, serviceIdentifierA);
+        enableSignalService(runner);
+    }
+
+	@After
+    public void deactivate() throws InitializationException {
+    	if(runner == null)
+    		return;
+    	
+    	if(runner.isControllerServiceEnabled(serviceA)) {
+    		runner.disableControllerService(serviceA);
+    	}
+    }
+
+    @Test
+    public void getCacheMetrics() throws Exception {
+    	if(isSettingsEmpty()) {
+    		IllegalStateException exc = new IllegalStateException("No configuration set, skipping test");
+    		LOGGER.warn(exc.getMessage(), exc);
+			return;
+		}
+    	
+    	// One miss that loads the cache, followed by a hit
+    	serviceA.getGroups(numberA);
+    	serviceA.getGroups(numberA);
+
+    	runner.run();
+
+    	runner.assertAllFlowFilesTransferred(GetSignalServiceMetrics.SUCCESS, 1);
+    	MockFlowFile flowFile = runner.getFlowFilesForRelationship(GetSignalServiceMetrics.SUCCESS).get(0);
+    	flowFile.assertAttributeEquals("mime.type", "application/json");
+    	
+    	Map<String, Number> metrics = serviceA.getMetrics();
+    	assertTrue(metrics.get("cache.groups." + numberA + ".hits").longValue() >= 1);
+    	assertTrue(metrics.get("cache.groups." + numberA + ".loads").longValue() >= 1);
+    	assertTrue(flowFile.getContent().contains("cache.groups." + numberA + ".load.p95.ms"));
+    }
+}
@@ -10,8 +10,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.reporting.InitializationException;
@@ -24,6 +26,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.signal.model.SignalData;
 import org.signal.model.SignalMessage;
+import org.signal.model.SignalOutgoingMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +45,7 @@ public class TestPutSignalMessage extends AbstractMultiNumberTest {
 
         setSignaleService(runner);
         runner.setProperty(AbstractSignalSenderProcessor.PROP_SIGNAL_SERVICE, serviceIdentifierA);
-        runner.enableControllerService(serviceA);
+        enableSignalService(runner);
     }
 
 	@After
@@ -91,6 +94,32 @@ public class TestPutSignalMessage extends AbstractMultiNumberTest {
     	assertEquals(content, result);
     }
 
+    @Test
+    public void putMessageCheckRegistration() throws InterruptedException {
+    	if(isSettingsEmpty()) {
+    		IllegalStateException exc = new IllegalStateException("No configuration set, skipping test");
+    		LOGGER.warn(exc.getMessage(), exc);
+			return;
+		}
+    	
+    	String content = "Testing " + TestPutSignalMessage.class.getSimpleName() + " " + Math.random();
+    	
+    	runner.clearTransferState();
+    	runner.setProperty(AbstractSignalSenderProcessor.PROP_RECIPIENTS, numberB);
+    	runner.setProperty(PutSignalMessage.PROP_MESSAGE_CONTENT, content);
+    	runner.setProperty(PutSignalMessage.PROP_CHECK_REGISTRATION, Boolean.toString(Boolean.TRUE));
+    	runner.setProperty(AbstractSignalSenderProcessor.PROP_ACCOUNT, numberA);
+    	runner.enqueue(new byte[0]);
+    	runner.enqueue(new byte[0]);
+    	runner.run(2);
+
+    	runner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.SUCCESS, 2);
+    	runner.assertTransferCount(PutSignalMessage.UNREGISTERED, 0);
+    	
+    	// The second send should be answered from the registration cache
+    	assertEquals(1L, serviceA.getMetrics().get(SignalMessengerService.METRIC_REGISTRATION_LOOKUPS).longValue());
+    }
+
     @Test
     public void testNoRecipietsNoGroup() throws InterruptedException {
     	if(isSettingsEmpty()) {
@@ -165,7 +194,7 @@ public class TestPutSignalMessage extends AbstractMultiNumberTest {
 
         setSignaleService(runnerConsumer);
         runnerConsumer.setProperty(ConsumeSignalMessage.PROP_SIGNAL_SERVICE, serviceIdentifierA);
-        runnerConsumer.enableControllerService(serviceA);
+        enableSignalService(runnerConsumer);
         assertTrue(runnerConsumer.isControllerServiceEnabled(serviceA));
         
         runnerConsumer.setRunSchedule(1_000);
@@ -238,4 +267,304 @@ public class TestPutSignalMessage extends AbstractMultiNumberTest {
 
 	}
 
+	private static final String MOCK_ACCOUNT = "+46700000001";
+	private static final String MOCK_RECIPIENT = "+46711111111";
+
+	/**
+	 * @return runner of a processor sending with the mock service, from the mock account to the mock recipient
+	 */
+	private static TestRunner newMockRunner(MockSignalService service) throws InitializationException {
+		TestRunner mockRunner = TestRunners.newTestRunner(PutSignalMessage.class);
+		mockRunner.addControllerService("mockservice", service);
+		mockRunner.enableControllerService(service);
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_SIGNAL_SERVICE, "mockservice");
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_ACCOUNT, MOCK_ACCOUNT);
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_RECIPIENTS, MOCK_RECIPIENT);
+		return mockRunner;
+	}
+
+	@Test
+	public void testSendAtInThePastIsSentNow() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_SEND_AT, Long.toString(System.currentTimeMillis() - 60_000));
+		mockRunner.enqueue("Hello");
+		mockRunner.run();
+
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.SUCCESS, 1);
+		assertEquals(1, service.getSent().size());
+		assertTrue(service.getQueued().isEmpty());
+	}
+
+	@Test
+	public void testSendAtWithoutOutboxFails() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_SEND_AT, Long.toString(System.currentTimeMillis() + 60_000));
+		mockRunner.enqueue("Hello");
+		mockRunner.run();
+
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.FAILURE, 1);
+		MockFlowFile flowFile = mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.FAILURE).get(0);
+		flowFile.assertAttributeEquals(Constants.ATTRIBUTE_ERROR_TYPE, SignalErrorType.INVALID_REQUEST.name());
+		assertTrue(flowFile.getAttribute(Constants.ATTRIBUTE_ERROR_MESSAGE).contains("outbox is not enabled"));
+		assertTrue(service.getSent().isEmpty());
+	}
+
+	@Test
+	public void testOutboxSchedulesOnlyFutureSendAt() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.setOutboxEnabled(true);
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_USE_OUTBOX, Boolean.toString(Boolean.TRUE));
+		long later = System.currentTimeMillis() + 60_000;
+		mockRunner.enqueue("Later", Map.of(Constants.ATTRIBUTE_SEND_AT, Long.toString(later)));
+		mockRunner.enqueue("Passed", Map.of(Constants.ATTRIBUTE_SEND_AT, Long.toString(later - 120_000)));
+		mockRunner.run(2);
+
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.SUCCESS, 2);
+		assertEquals(List.of(later, 0L), service.getQueuedSendAt());
+		assertTrue(service.getSent().isEmpty());
+	}
+
+	private static List<String> getMessages(MockSignalService service) {
+		return service.getSent().stream().map(SignalOutgoingMessage::getMessage).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testCoalesceWindowCountsFromFirstTaken() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "300 millis");
+		AtomicLong now = new AtomicLong(1_000_000);
+		((PutSignalMessage) mockRunner.getProcessor()).clock = now::get;
+		mockRunner.enqueue("A");
+		mockRunner.enqueue("B");
+
+		mockRunner.run();
+		assertEquals(2, mockRunner.getQueueSize().getObjectCount());
+		assertTrue(service.getSent().isEmpty());
+
+		// Taken and put back again, which resets the queue date
+		now.addAndGet(150);
+		mockRunner.run();
+		assertTrue(service.getSent().isEmpty());
+
+		now.addAndGet(149);
+		mockRunner.run();
+		assertTrue(service.getSent().isEmpty());
+
+		now.addAndGet(1);
+		mockRunner.run();
+		assertEquals(List.of("A\n\nB"), getMessages(service));
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.SUCCESS, 2);
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.SUCCESS)) {
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_COALESCED_COUNT, "2");
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_TIMESTAMP, "1700000000001");
+			flowFile.assertAttributeNotExists(Constants.ATTRIBUTE_COALESCE_SINCE);
+		}
+	}
+
+	@Test
+	public void testCoalesceMaxCount() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "1 hour");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_MAX_COUNT, "3");
+		mockRunner.enqueue("1");
+		mockRunner.enqueue("2");
+		mockRunner.run();
+		assertTrue(service.getSent().isEmpty());
+
+		mockRunner.enqueue("3");
+		mockRunner.enqueue("4");
+		mockRunner.run();
+		assertEquals(List.of("1\n\n2\n\n3", "4"), getMessages(service));
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.SUCCESS, 4);
+		mockRunner.assertQueueEmpty();
+	}
+
+	@Test
+	public void testCoalesceMaxLengthSplits() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "1 hour");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_MAX_COUNT, "3");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_MAX_LENGTH, "10");
+		mockRunner.enqueue("aaaa");
+		mockRunner.enqueue("bbbb");
+		mockRunner.enqueue("cccc");
+		mockRunner.run();
+
+		assertEquals(List.of("aaaa\n\nbbbb", "cccc"), getMessages(service));
+		List<MockFlowFile> flowFiles = mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.SUCCESS);
+		assertEquals(List.of("2", "2", "1"), flowFiles.stream().map(flowFile -> flowFile.getAttribute(Constants.ATTRIBUTE_COALESCED_COUNT)).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testAttachmentAndQuoteAreNotCoalesced() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "1 hour");
+		mockRunner.setProperty(PutSignalMessage.PROP_ATTACHMENT, "${attach}");
+		mockRunner.setProperty(PutSignalMessage.PROP_MESSAGE_QUOTE, "${quote}");
+		mockRunner.enqueue("Waits");
+		mockRunner.enqueue("Attachment", Map.of("attach", "true", CoreAttributes.MIME_TYPE.key(), "text/plain"));
+		mockRunner.enqueue("Quote", Map.of("quote", "true", Constants.ATTRIBUTE_TIMESTAMP, "1600000000000", Constants.ATTRIBUTE_SENDER_NUMBER, MOCK_RECIPIENT));
+		mockRunner.run();
+
+		assertEquals(2, service.getSent().size());
+		assertTrue(service.getSent().get(0).getAttachment().isPresent());
+		assertEquals(1600000000000L, service.getSent().get(1).getQuote().get().getTimestamp());
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.SUCCESS, 2);
+		assertEquals(1, mockRunner.getQueueSize().getObjectCount());
+	}
+
+	@Test
+	public void testCoalescedFlowFilesFailTogether() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.answer(message -> {
+			throw new SignalRpcException("Failed", SignalErrorType.UNKNOWN, -1);
+		});
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "1 hour");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_MAX_COUNT, "3");
+		mockRunner.enqueue("1");
+		mockRunner.enqueue("2");
+		mockRunner.enqueue("3");
+		mockRunner.run();
+
+		assertEquals(1, service.getSent().size());
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.FAILURE, 3);
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.FAILURE)) {
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_ERROR_TYPE, SignalErrorType.UNKNOWN.name());
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_COALESCED_COUNT, "3");
+		}
+	}
+
+	@Test
+	public void testCoalescedFlowFilesWithUnregisteredRecipient() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.setUnregistered("+46722222222");
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_RECIPIENTS, MOCK_RECIPIENT + ",+46722222222");
+		mockRunner.setProperty(PutSignalMessage.PROP_CHECK_REGISTRATION, Boolean.toString(Boolean.TRUE));
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "1 hour");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_MAX_COUNT, "3");
+		mockRunner.enqueue("1");
+		mockRunner.enqueue("2");
+		mockRunner.enqueue("3");
+		mockRunner.run();
+
+		assertEquals(List.of(MOCK_RECIPIENT), service.getSent().get(0).getRecipients().get());
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.SUCCESS, 3);
+		mockRunner.assertTransferCount(PutSignalMessage.UNREGISTERED, 3);
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(PutSignalMessage.UNREGISTERED)) {
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, "+46722222222");
+		}
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.SUCCESS)) {
+			flowFile.assertAttributeNotExists(Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS);
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_TIMESTAMP, "1700000000001");
+		}
+	}
+
+	@Test
+	public void testCoalescedFlowFilesPartiallySent() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.answer(message -> {
+			throw new SignalPartialSendException("Rate limited", SignalErrorType.RATE_LIMITED, -5, List.of("+46722222222"), service.timestamp(), null);
+		});
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_RECIPIENTS, MOCK_RECIPIENT + ",+46722222222");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_WINDOW, "1 hour");
+		mockRunner.setProperty(PutSignalMessage.PROP_COALESCE_MAX_COUNT, "2");
+		mockRunner.enqueue("1");
+		mockRunner.enqueue("2");
+		mockRunner.run();
+
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.SUCCESS, 2);
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.FAILURE, 2);
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.SUCCESS)) {
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_TIMESTAMP, "1700000000001");
+		}
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.FAILURE)) {
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_FAILED_RECIPIENTS, "+46722222222");
+			assertTrue(flowFile.isPenalized());
+		}
+	}
+
+	@Test
+	public void testDuplicateIsNotSent() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_DEDUPLICATION_WINDOW, "1 hour");
+		mockRunner.enqueue("Hello");
+		mockRunner.enqueue("Hello");
+		mockRunner.run(2);
+
+		assertEquals(1, service.getSent().size());
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.SUCCESS, 1);
+		mockRunner.assertTransferCount(PutSignalMessage.DUPLICATE, 1);
+	}
+
+	@Test
+	public void testPartiallySentIsNotSentAgain() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.answer(message -> {
+			throw new SignalPartialSendException("Rate limited", SignalErrorType.RATE_LIMITED, -5, List.of("+46722222222"), service.timestamp(), null);
+		});
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_RECIPIENTS, MOCK_RECIPIENT + ",+46722222222");
+		mockRunner.setProperty(PutSignalMessage.PROP_DEDUPLICATION_WINDOW, "1 hour");
+		// The second is like the retry of the failed flowfile, which reached the first recipient already
+		mockRunner.enqueue("Hello");
+		mockRunner.enqueue("Hello");
+		mockRunner.run(2);
+
+		assertEquals(1, service.getSent().size());
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.SUCCESS, 1);
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.FAILURE, 1);
+		mockRunner.assertTransferCount(PutSignalMessage.DUPLICATE, 1);
+	}
+
+	@Test
+	public void testNotSentMayBeSentAgain() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.answer(message -> {
+			throw new SignalRpcException("Rate limited", SignalErrorType.RATE_LIMITED, -5);
+		});
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(PutSignalMessage.PROP_DEDUPLICATION_WINDOW, "1 hour");
+		mockRunner.enqueue("Hello");
+		mockRunner.enqueue("Hello");
+		mockRunner.run(2);
+
+		assertEquals(2, service.getSent().size());
+		mockRunner.assertAllFlowFilesTransferred(AbstractSignalSenderProcessor.FAILURE, 2);
+	}
+
+	@Test
+	public void testSentToRegisteredRecipientsIsSuccess() throws InitializationException {
+		MockSignalService service = new MockSignalService();
+		service.answer(message -> {
+			if(message.getRecipients().get().size() > 1)
+				throw new SignalUnregisteredException("Unregistered", -1, List.of("+46722222222"), service.timestamp());
+			throw new SignalUnregisteredException("Unregistered", -1, List.of("+46722222222"));
+		});
+		TestRunner mockRunner = newMockRunner(service);
+		mockRunner.setProperty(AbstractSignalSenderProcessor.PROP_RECIPIENTS, "${recipients}");
+		mockRunner.enqueue("Some", Map.of("recipients", MOCK_RECIPIENT + ",+46722222222"));
+		mockRunner.enqueue("None", Map.of("recipients", "+46722222222"));
+		mockRunner.run(2);
+
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.SUCCESS, 1);
+		mockRunner.assertTransferCount(PutSignalMessage.UNREGISTERED, 2);
+		mockRunner.assertTransferCount(AbstractSignalSenderProcessor.FAILURE, 0);
+		MockFlowFile sent = mockRunner.getFlowFilesForRelationship(AbstractSignalSenderProcessor.SUCCESS).get(0);
+		sent.assertContentEquals("Some");
+		sent.assertAttributeEquals(Constants.ATTRIBUTE_TIMESTAMP, "1700000000001");
+		for (MockFlowFile flowFile : mockRunner.getFlowFilesForRelationship(PutSignalMessage.UNREGISTERED)) {
+			flowFile.assertAttributeEquals(Constants.ATTRIBUTE_UNREGISTERED_RECIPIENTS, "+46722222222");
+		}
+	}
 }
@@ -35,7 +35,7 @@ public class TestPutSignalMessageForGroups extends AbstractMultiNumberTest {
 
         setSignaleService(runner);
         runner.setProperty(AbstractSignalSenderProcessor.PROP_SIGNAL_SERVICE, serviceIdentifierA);
-        runner.enableControllerService(serviceA);
+        enableSignalService(runner);
 	}
 
 	@After
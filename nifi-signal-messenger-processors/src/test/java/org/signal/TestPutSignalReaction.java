@@ -29,7 +29,7 @@ public class TestPutSignalReaction extends AbstractMultiNumberTest {
     	
 		runner = TestRunners.newTestRunner(ConsumeSignalMessage.class);
 		setSignaleService(runner);
-		runner.enableControllerService(serviceA);
+		enableSignalService(runner);
         runner.setProperty(ConsumeSignalMessage.PROP_SIGNAL_SERVICE, serviceIdentifierA);
 
     	testMessage = "Testing consumeMessage " + Double.toString(Math.random());
@@ -79,7 +79,7 @@ public class TestPutSignalReaction extends AbstractMultiNumberTest {
     	
 		TestRunner runnerReaction = TestRunners.newTestRunner(PutSignalReaction.class);
 		setSignaleService(runnerReaction);
-		runnerReaction.enableControllerService(serviceA);
+		enableSignalService(runnerReaction);
 		runnerReaction.setProperty(PutSignalReaction.PROP_SIGNAL_SERVICE, serviceIdentifierA);
     	runnerReaction.setProperty(PutSignalReaction.PROP_ACCOUNT, numberA);
     	runnerReaction.setProperty(PutSignalReaction.PROP_REACTION_EMOJI, "0x1F44D");
@@ -107,7 +107,7 @@ public class TestPutSignalReaction extends AbstractMultiNumberTest {
     	
 		TestRunner runnerReaction = TestRunners.newTestRunner(PutSignalReaction.class);
 		setSignaleService(runnerReaction);
-		runnerReaction.enableControllerService(serviceA);
+		enableSignalService(runnerReaction);
 		runnerReaction.setProperty(PutSignalReaction.PROP_SIGNAL_SERVICE, serviceIdentifierA);
 		runnerReaction.setProperty(PutSignalReaction.PROP_ACCOUNT, flowFile.getAttribute(Constants.ATTRIBUTE_ACCOUNT_NUMBER));
 		runnerReaction.setProperty(PutSignalReaction.PROP_REACTION_EMOJI, "0x1F44D");
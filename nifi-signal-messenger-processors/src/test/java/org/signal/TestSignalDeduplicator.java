@@ -0,0 +1,169 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.distributed.cache.client.AtomicCacheEntry;
+import org.apache.nifi.distributed.cache.client.AtomicDistributedMapCacheClient;
+import org.apache.nifi.distributed.cache.client.Deserializer;
+import org.apache.nifi.distributed.cache.client.Serializer;
+import org.junit.Test;
+import org.signal.model.SignalAttachment;
+
+public class TestSignalDeduplicator {
+
+	private static final String ACCOUNT = "+46700000001";
+	private static final Optional<List<String>> RECIPIENTS = Optional.of(List.of("+46711111111", "+46722222222"));
+
+	/**
+	 * Cache shared by deduplicators, like by the nodes of a cluster. The revision is the number of times the entry was written.
+	 */
+	private static final class MockAtomicCache extends AbstractControllerService implements AtomicDistributedMapCacheClient<Long> {
+		private final Map<String, AtomicCacheEntry<String, byte[], Long>> entries = new ConcurrentHashMap<>();
+
+		private static <T> byte[] serialize(T value, Serializer<T> serializer) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			serializer.serialize(value, out);
+			return out.toByteArray();
+		}
+
+		private static <K> String getKey(K key, Serializer<K> serializer) throws IOException {
+			return new String(serialize(key, serializer), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public <K, V> AtomicCacheEntry<K, V, Long> fetch(K key, Serializer<K> keySerializer, Deserializer<V> valueDeserializer) throws IOException {
+			AtomicCacheEntry<String, byte[], Long> entry = entries.get(getKey(key, keySerializer));
+			return entry == null ? null : new AtomicCacheEntry<>(key, valueDeserializer.deserialize(entry.getValue()), entry.getRevision().get());
+		}
+
+		@Override
+		public synchronized <K, V> boolean replace(AtomicCacheEntry<K, V, Long> entry, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+			String key = getKey(entry.getKey(), keySerializer);
+			AtomicCacheEntry<String, byte[], Long> current = entries.get(key);
+			if(!(current == null ? entry.getRevision().isEmpty() : current.getRevision().equals(entry.getRevision())))
+				return false;
+
+			long revision = current == null ? 0 : current.getRevision().get() + 1;
+			entries.put(key, new AtomicCacheEntry<>(key, serialize(entry.getValue(), valueSerializer), revision));
+			return true;
+		}
+
+		@Override
+		public <K, V> boolean putIfAbsent(K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public <K, V> V getAndPutIfAbsent(K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer, Deserializer<V> valueDeserializer) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public <K> boolean containsKey(K key, Serializer<K> keySerializer) throws IOException {
+			return entries.containsKey(getKey(key, keySerializer));
+		}
+
+		@Override
+		public <K, V> void put(K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public <K, V> V get(K key, Serializer<K> keySerializer, Deserializer<V> valueDeserializer) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public synchronized <K> boolean remove(K key, Serializer<K> serializer) throws IOException {
+			return entries.remove(getKey(key, serializer)) != null;
+		}
+	}
+
+	private static String key(Optional<List<String>> recipients, Optional<List<String>> groups, String message, SignalAttachment attachment) {
+		return SignalDeduplicator.getKey(ACCOUNT, recipients, groups, message, attachment);
+	}
+
+    @Test
+    public void testKey() {
+    	String key = key(RECIPIENTS, Optional.empty(), "Hello", null);
+    	assertEquals(64, key.length());
+    	assertEquals(key, key(Optional.of(List.of("+46722222222", "+46711111111")), Optional.empty(), "Hello", null));
+
+    	assertNotEquals(key, key(RECIPIENTS, Optional.empty(), "Hello!", null));
+    	assertNotEquals(key, SignalDeduplicator.getKey("+46700000002", RECIPIENTS, Optional.empty(), "Hello", null));
+    	assertNotEquals(key, key(Optional.empty(), RECIPIENTS, "Hello", null));
+    	assertNotEquals(key, key(RECIPIENTS, Optional.empty(), "Hello", new SignalAttachment("image/png", "a.png", "AAAA")));
+    	assertNotEquals(key(RECIPIENTS, Optional.empty(), "Hello", new SignalAttachment("image/png", "a.png", "AAAA")),
+    			key(RECIPIENTS, Optional.empty(), "Hello", new SignalAttachment("image/png", "a.png", "AAAB")));
+    }
+
+    @Test
+    public void testDuplicateWithinWindow() throws InterruptedException {
+    	SignalDeduplicator deduplicator = new SignalDeduplicator(200, 100, null, null);
+    	String key = key(RECIPIENTS, Optional.empty(), "Hello", null);
+    	assertTrue(deduplicator.claim(key));
+    	assertFalse(deduplicator.claim(key));
+
+    	// A failed send may be tried again
+    	deduplicator.release(key);
+    	assertTrue(deduplicator.claim(key));
+
+    	Thread.sleep(250);
+    	assertTrue(deduplicator.claim(key));
+    }
+
+    @Test
+    public void testMaxEntries() {
+    	SignalDeduplicator deduplicator = new SignalDeduplicator(60_000, 3, null, null);
+    	for (int i = 0; i < 5; i++) {
+    		assertTrue(deduplicator.claim("message" + i));
+    	}
+    	assertEquals(3, deduplicator.size());
+
+    	// The oldest are forgotten
+    	assertTrue(deduplicator.claim("message0"));
+    	assertFalse(deduplicator.claim("message4"));
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+    	MockAtomicCache cache = new MockAtomicCache();
+    	SignalDeduplicator node1 = new SignalDeduplicator(200, 100, cache, null);
+    	SignalDeduplicator node2 = new SignalDeduplicator(200, 100, cache, null);
+    	String key = key(RECIPIENTS, Optional.empty(), "Hello", null);
+
+    	// Sent by one node, a duplicate on the other
+    	assertTrue(node1.claim(key));
+    	assertFalse(node2.claim(key));
+
+    	// The expired entry is replaced at its revision, by one node only
+    	Thread.sleep(250);
+    	AtomicCacheEntry<String, String, Long> expired = cache.fetch("signal.dedup." + key,
+    			(value, out) -> out.write(value.getBytes(StandardCharsets.UTF_8)), input -> new String(input, StandardCharsets.UTF_8));
+    	assertTrue(node2.claim(key));
+    	assertFalse(cache.replace(new AtomicCacheEntry<>("signal.dedup." + key, Long.toString(System.currentTimeMillis()), expired.getRevision().get()),
+    			(value, out) -> out.write(value.getBytes(StandardCharsets.UTF_8)), (value, out) -> out.write(value.getBytes(StandardCharsets.UTF_8))));
+    	assertFalse(node1.claim(key));
+
+    	// A failed send may be tried again
+    	node2.release(key);
+    	assertFalse(cache.containsKey("signal.dedup." + key, (value, out) -> out.write(value.getBytes(StandardCharsets.UTF_8))));
+    	assertTrue(node2.claim(key));
+    }
+}
@@ -0,0 +1,172 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.junit.Test;
+import org.signal.model.SignalOutgoingMessage;
+import org.signal.model.SignalPriority;
+
+import com.google.gson.JsonObject;
+
+public class TestSignalRecordSender {
+
+	private static final String ACCOUNT = "+46700000001";
+	private static final Function<String, String> ACCOUNTS = recipientKey -> ACCOUNT;
+
+	private static final RecordSchema SCHEMA = new SimpleRecordSchema(List.of(
+			new RecordField(SignalRecordSender.FIELD_RECIPIENT, RecordFieldType.STRING.getDataType()),
+			new RecordField(SignalRecordSender.FIELD_MESSAGE, RecordFieldType.STRING.getDataType())));
+
+	private static Record record(Map<String, Object> values) {
+		return new MapRecord(SCHEMA, values);
+	}
+
+	private static List<Record> records(int count) {
+		return IntStream.range(0, count)
+				.mapToObj(i -> record(Map.of(SignalRecordSender.FIELD_RECIPIENT, "+467111111" + String.format("%02d", i),
+						SignalRecordSender.FIELD_MESSAGE, "Message " + i)))
+				.collect(Collectors.toList());
+	}
+
+	private static JsonObject sent(long timestamp) {
+		JsonObject result = new JsonObject();
+		result.addProperty("timestamp", timestamp);
+		return result;
+	}
+
+    @Test
+    public void testMessageOfRecord() {
+    	SignalOutgoingMessage message = SignalRecordSender.getMessage(record(Map.of(
+    			SignalRecordSender.FIELD_RECIPIENT, new Object[] { "+46711111111", " +46722222222 " },
+    			SignalRecordSender.FIELD_MESSAGE, "Hello",
+    			SignalRecordSender.FIELD_QUOTE_TIMESTAMP, 1_700_000_000_000L,
+    			SignalRecordSender.FIELD_QUOTE_AUTHOR, "+46733333333")), ACCOUNTS, SignalPriority.LOW);
+    	assertEquals(ACCOUNT, message.getAccount());
+    	assertEquals(List.of("+46711111111", "+46722222222"), message.getRecipients().get());
+    	assertTrue(message.getGroups().isEmpty());
+    	assertEquals(1_700_000_000_000L, message.getQuote().get().getTimestamp());
+    	assertEquals(SignalPriority.LOW, message.getPriority());
+
+    	message = SignalRecordSender.getMessage(record(Map.of(
+    			SignalRecordSender.FIELD_GROUP, "Group A,Group B",
+    			SignalRecordSender.FIELD_ACCOUNT, "+46700000002",
+    			SignalRecordSender.FIELD_ATTACHMENT, "AAAA",
+    			SignalRecordSender.FIELD_ATTACHMENT_MIME_TYPE, "image/png",
+    			SignalRecordSender.FIELD_ATTACHMENT_FILENAME, "a.png")), ACCOUNTS, SignalPriority.NORMAL);
+    	assertEquals("+46700000002", message.getAccount());
+    	assertEquals(List.of("Group A", "Group B"), message.getGroups().get());
+    	assertEquals("image/png", message.getAttachment().get().getMineType());
+
+    	assertThrows(IllegalArgumentException.class, () -> SignalRecordSender.getMessage(
+    			record(Map.of(SignalRecordSender.FIELD_MESSAGE, "Hello")), ACCOUNTS, SignalPriority.NORMAL));
+    	assertThrows(IllegalArgumentException.class, () -> SignalRecordSender.getMessage(
+    			record(Map.of(SignalRecordSender.FIELD_RECIPIENT, "+46711111111")), ACCOUNTS, SignalPriority.NORMAL));
+    }
+
+    @Test
+    public void testResultsInOrderWithBoundedConcurrency() throws Exception {
+    	List<Record> source = records(20);
+    	Iterator<Record> records = source.iterator();
+    	AtomicInteger sending = new AtomicInteger();
+    	AtomicInteger maxSending = new AtomicInteger();
+    	List<Record> sent = new ArrayList<>();
+    	List<Record> failed = new ArrayList<>();
+    	RecordSchema schema = SignalRecordSender.getResultSchema(SCHEMA);
+
+    	SignalRecordSender.Result result = new SignalRecordSender(4).send(() -> records.hasNext() ? records.next() : null, schema,
+    			record -> SignalRecordSender.getMessage(record, ACCOUNTS, SignalPriority.NORMAL),
+    			message -> {
+    				maxSending.accumulateAndGet(sending.incrementAndGet(), Math::max);
+    				try {
+    					int i = Integer.parseInt(message.getMessage().substring("Message ".length()));
+    					// Later records are sent faster, the results are still in order
+    					Thread.sleep(20 - i);
+    					if(i % 5 == 0)
+    						throw new SignalRpcException("Rate limited", SignalErrorType.RATE_LIMITED, -5);
+    					return sent(1_700_000_000_000L + i);
+    				} finally {
+    					sending.decrementAndGet();
+    				}
+    			},
+    			sent::add, failed::add);
+
+    	assertEquals(16, result.getSent());
+    	assertEquals(4, result.getFailed());
+    	assertNull(result.getError());
+    	assertTrue(maxSending.get() <= 4, "Sent " + maxSending.get() + " at a time");
+
+    	assertEquals(List.of("Message 0", "Message 5", "Message 10", "Message 15"),
+    			failed.stream().map(record -> record.getValue(SignalRecordSender.FIELD_MESSAGE)).collect(Collectors.toList()));
+    	assertEquals(SignalErrorType.RATE_LIMITED.name(), failed.get(0).getValue(SignalRecordSender.FIELD_ERROR_TYPE));
+    	assertEquals("Rate limited", failed.get(0).getValue(SignalRecordSender.FIELD_ERROR));
+
+    	List<Object> timestamps = sent.stream().map(record -> record.getValue(SignalRecordSender.FIELD_TIMESTAMP)).collect(Collectors.toList());
+    	assertEquals(1_700_000_000_001L, timestamps.get(0));
+    	assertEquals(1_700_000_000_019L, timestamps.get(15));
+    	for (int i = 1; i < timestamps.size(); i++) {
+    		assertTrue((Long) timestamps.get(i - 1) < (Long) timestamps.get(i));
+    	}
+    }
+
+    @Test
+    public void testReadErrorFinishesStartedSends() throws Exception {
+    	Iterator<Record> records = records(3).iterator();
+    	IOException error = new IOException("Malformed record");
+    	List<Record> sent = new ArrayList<>();
+
+    	SignalRecordSender.Result result = new SignalRecordSender(8).send(() -> {
+    				if(!records.hasNext())
+    					throw error;
+    				return records.next();
+    			}, SignalRecordSender.getResultSchema(SCHEMA),
+    			record -> SignalRecordSender.getMessage(record, ACCOUNTS, SignalPriority.NORMAL),
+    			message -> sent(System.currentTimeMillis()),
+    			sent::add, record -> { });
+
+    	assertEquals(3, result.getSent());
+    	assertEquals(3, sent.size());
+    	assertSame(error, result.getError());
+    }
+
+    @Test
+    public void testSentToRegisteredRecipientsHasTimestamp() throws Exception {
+    	Iterator<Record> records = List.of(
+    			record(Map.of(SignalRecordSender.FIELD_RECIPIENT, "+46711111111,+46722222222", SignalRecordSender.FIELD_MESSAGE, "Some")),
+    			record(Map.of(SignalRecordSender.FIELD_RECIPIENT, "+46722222222", SignalRecordSender.FIELD_MESSAGE, "None"))).iterator();
+    	List<Record> failed = new ArrayList<>();
+
+    	SignalRecordSender.Result result = new SignalRecordSender(2).send(() -> records.hasNext() ? records.next() : null, SignalRecordSender.getResultSchema(SCHEMA),
+    			record -> SignalRecordSender.getMessage(record, ACCOUNTS, SignalPriority.NORMAL),
+    			message -> {
+    				throw message.getRecipients().get().size() > 1
+    					? new SignalUnregisteredException("Unregistered", -1, List.of("+46722222222"), sent(1_700_000_000_001L))
+    					: new SignalUnregisteredException("Unregistered", -1, List.of("+46722222222"));
+    			},
+    			record -> { }, failed::add);
+
+    	assertEquals(2, result.getFailed());
+    	assertEquals(SignalErrorType.UNREGISTERED.name(), failed.get(0).getValue(SignalRecordSender.FIELD_ERROR_TYPE));
+    	assertEquals(1_700_000_000_001L, failed.get(0).getValue(SignalRecordSender.FIELD_TIMESTAMP));
+    	assertNull(failed.get(1).getValue(SignalRecordSender.FIELD_TIMESTAMP));
+    }
+}
@@ -0,0 +1,61 @@
+package org.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestSignalSenderPool {
+
+	private static final List<String> ACCOUNTS = List.of("+46700000001", "+46700000002", "+46700000003");
+
+	private static Map<String, Integer> count(SignalSenderPool pool, Map<String, Double> headroom, int messages) {
+		Map<String, Integer> result = new HashMap<>();
+		for (int i = 0; i < messages; i++) {
+			String account = pool.select("+4671111111" + i, a -> headroom.getOrDefault(a, 1d));
+			result.merge(account, 1, Integer::sum);
+		}
+		return result;
+	}
+
+    @Test
+    public void testRoundRobinSkipsAccountsWithoutHeadroom() {
+    	SignalSenderPool pool = new SignalSenderPool(ACCOUNTS, SignalSenderPool.POLICY_ROUND_ROBIN);
+    	assertEquals(Map.of(ACCOUNTS.get(0), 2, ACCOUNTS.get(1), 2, ACCOUNTS.get(2), 2), count(pool, Map.of(), 6));
+
+    	Map<String, Integer> sent = count(pool, Map.of(ACCOUNTS.get(1), 0d), 6);
+    	assertNull(sent.get(ACCOUNTS.get(1)));
+    	assertEquals(6, sent.get(ACCOUNTS.get(0)) + sent.get(ACCOUNTS.get(2)));
+    }
+
+    @Test
+    public void testLeastLoadedPicksMostHeadroom() {
+    	SignalSenderPool pool = new SignalSenderPool(ACCOUNTS, SignalSenderPool.POLICY_LEAST_LOADED);
+    	Map<String, Double> headroom = Map.of(ACCOUNTS.get(0), 0.2, ACCOUNTS.get(1), 0.9, ACCOUNTS.get(2), 0.5);
+    	assertEquals(Map.of(ACCOUNTS.get(1), 5), count(pool, headroom, 5));
+
+    	// Spread evenly without rate limits
+    	assertEquals(Map.of(ACCOUNTS.get(0), 3, ACCOUNTS.get(1), 3, ACCOUNTS.get(2), 3), count(pool, Map.of(), 9));
+    }
+
+    @Test
+    public void testStickyKeepsRecipientsOnAccount() {
+    	SignalSenderPool pool = new SignalSenderPool(ACCOUNTS, SignalSenderPool.POLICY_STICKY);
+    	String account = pool.select("+46711111111", a -> 1);
+    	for (int i = 0; i < 10; i++) {
+    		assertEquals(account, pool.select("+46711111111", a -> 1));
+    	}
+
+    	// Moved while the account is out of headroom
+    	assertNotEquals(account, pool.select("+46711111111", a -> a.equals(account) ? 0 : 1));
+    	assertEquals(account, pool.select("+46711111111", a -> 0));
+
+    	// Recipients are spread over all the accounts
+    	assertEquals(ACCOUNTS.size(), count(pool, Map.of(), 30).size());
+    }
+}